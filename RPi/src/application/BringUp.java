@@ -0,0 +1,184 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import controller.component.HashedTimerWheel;
+
+/**
+ * Runs hardware bring-up as independent tasks, concurrently, each with a timeout, and keeps track of their readiness.
+ * 
+ * Each task gets a future that completes with its result, or with its fallback value if the task failed or timed out ; 
+ * hence a device that hangs delays neither the other tasks nor anything that doesn't depend on it. 
+ * A hung task keeps its (daemon) thread, but its result gets ignored, and closed if it's AutoCloseable
+ * (e.g. a serial transmitter whose port opened after the timeout), since nobody else holds it.
+ * 
+ * @author reynal
+ *
+ */
+public class BringUp {
+
+	private static final Logger LOGGER = Logger.getLogger("confLogger");
+	
+	public enum State {
+		PENDING, 
+		READY, 
+		FAILED, // fallback used
+		TIMED_OUT // fallback used
+	}
+	
+	private final long startNanos = System.nanoTime();
+	private final List<Task<?>> tasks = new ArrayList<Task<?>>(); // guarded by itself
+	private final ExecutorService executor;
+	
+	// -------------- constructors --------------
+
+	public BringUp() {
+		
+		AtomicInteger count = new AtomicInteger();
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "Bring-up " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+	
+	// -------------- public methods --------------
+
+	/**
+	 * Starts the given task right away.
+	 * @param name for logging
+	 * @param timeoutMs the fallback value is used if the task hasn't completed after this delay
+	 * @param fallback the value the returned future completes with if the task fails or times out ; may be null
+	 */
+	public <T> CompletableFuture<T> start(String name, long timeoutMs, Callable<T> task, T fallback) {
+		
+		return start(name, timeoutMs, CompletableFuture.completedFuture(null), v -> task.call(), fallback);
+	}
+
+	/**
+	 * Starts the given task as soon as the given dependency is ready (or has fallen back) ; the timeout starts then.
+	 */
+	public <D, T> CompletableFuture<T> start(String name, long timeoutMs, CompletableFuture<D> dependency, DependentTask<D, T> task, T fallback) {
+		
+		Task<T> t = new Task<T>(name, fallback);
+		synchronized (tasks) {
+			tasks.add(t);
+		}
+		dependency.thenAcceptAsync(d -> {
+			t.startNanos = System.nanoTime();
+			HashedTimerWheel.Timeout timeout = HashedTimerWheel.getDefault().schedule(() -> t.fallBack(State.TIMED_OUT, null), timeoutMs);
+			try {
+				t.complete(task.call(d));
+			} catch (Exception | LinkageError e) { // LinkageError: native libraries missing on a desktop computer
+				t.fallBack(State.FAILED, e);
+			} finally {
+				timeout.cancel();
+			}
+		}, executor);
+		return t.future;
+	}
+	
+	/**
+	 * @return the state of the given task, or null if there's no such task
+	 */
+	public State getState(String name) {
+		
+		synchronized (tasks) {
+			for (Task<?> t : tasks) if (t.name.equals(name)) return t.state;
+		}
+		return null;
+	}
+	
+	/**
+	 * @return true if every task is either ready or has fallen back
+	 */
+	public boolean isDone() {
+		
+		synchronized (tasks) {
+			for (Task<?> t : tasks) if (t.state == State.PENDING) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * @return one line per task, with its state and duration
+	 */
+	public String getSummary() {
+		
+		StringBuilder sb = new StringBuilder("Bring-up:");
+		synchronized (tasks) {
+			for (Task<?> t : tasks) {
+				sb.append("\n\t- ").append(t.name).append(": ").append(t.state);
+				if (t.state != State.PENDING) sb.append(" after ").append((t.endNanos - t.startNanos) / 1000000).append("ms");
+			}
+		}
+		sb.append("\n\ttotal ").append((System.nanoTime() - startNanos) / 1000000).append("ms");
+		return sb.toString();
+	}
+	
+	// -------------- inner classes --------------
+
+	/**
+	 * A bring-up task that needs the result of another one.
+	 */
+	public interface DependentTask<D, T> {
+		
+		T call(D dependency) throws Exception;
+	}
+	
+	/*
+	 * a task and its readiness
+	 */
+	private static class Task<T> {
+		
+		final String name;
+		final T fallback;
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		volatile State state = State.PENDING;
+		volatile long startNanos, endNanos;
+		
+		Task(String name, T fallback) {
+			this.name = name;
+			this.fallback = fallback;
+		}
+		
+		void complete(T result) {
+			
+			synchronized (this) {
+				if (state == State.PENDING) {
+					endNanos = System.nanoTime();
+					state = State.READY;
+					future.complete(result);
+					return;
+				}
+			}
+			// too late:
+			if (result != fallback && result instanceof AutoCloseable) {
+				LOGGER.warning("Closing late result of " + name + ": " + result);
+				try {
+					((AutoCloseable)result).close();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		synchronized void fallBack(State s, Throwable cause) {
+			
+			if (state != State.PENDING) return;
+			endNanos = System.nanoTime();
+			state = s;
+			if (cause instanceof CompletionException) cause = cause.getCause();
+			LOGGER.warning("Bring-up of " + name + (s == State.TIMED_OUT ? " timed out" : " failed: " + cause) + ", falling back to " + fallback);
+			future.complete(fallback);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package application;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.pi4j.io.i2c.I2CBus;
+
+import controller.component.RotaryEncoder;
+import device.I2CBusArbiter;
+import device.IS31FL3731;
+import device.MCP23017;
+import device.MCP23017Group;
+import device.sim.EdgeSequence;
+import device.sim.IS31FL3731Model;
+import device.sim.MCP23017Model;
+import device.sim.SimulatedI2CBus;
+import device.sim.SimulatedInterruptPin;
+import misc.LatencyMonitor;
+import view.component.BarGraph;
+import view.component.LEDRefreshScheduler;
+
+/**
+ * Benchmarks the front panel input and LED paths on a desktop computer, with no Raspberry Pi attached:
+ * a rotary encoder (on a simulated MCP23017 behind a shared INT line) drives a BarGraph (on a simulated IS31FL3731),
+ * both devices sharing a simulated I2C bus that runs in real time at 400kHz.
+ *
+ * The encoder is turned faster and faster ; for each speed, the benchmark reports the number of detents actually detected,
+ * the edges the MCP23017 could not flag because an interrupt was still pending, the LED the IS31FL3731 would display,
+ * and bus usage.
+ *
+ * @author reynal
+ *
+ */
+public class FrontPanelBenchmark {
+
+	private static final long[] EDGE_PERIODS_MICROS = {2000, 1000, 500, 250, 125, 60};
+	private static final int DETENTS = 64;
+
+	public static void main(String[] args) throws Exception {
+
+		// hardware:
+		SimulatedI2CBus bus = new SimulatedI2CBus(I2CBus.BUS_1);
+		bus.setClockHz(400_000);
+		bus.setRealTime(true);
+		MCP23017Model mcpModel = new MCP23017Model(MCP23017.DeviceAddress.ADR_000.getValue());
+		IS31FL3731Model ledModel = new IS31FL3731Model(IS31FL3731.DeviceAddress.AD_GND.getValue());
+		bus.attach(mcpModel);
+		bus.attach(ledModel);
+		SimulatedInterruptPin intLine = new SimulatedInterruptPin("INT");
+		mcpModel.connectIntA(intLine);
+		I2CBusArbiter arbiter = new I2CBusArbiter(bus);
+		I2CBusArbiter.setDefault(arbiter);
+
+		// drivers, controls and views, as on the real front panel:
+		MCP23017Group group = new MCP23017Group();
+		MCP23017 mcp = group.addDevice(MCP23017.DeviceAddress.ADR_000, intLine);
+		RotaryEncoder encoder = new RotaryEncoder("bench", mcp, MCP23017.Pin.P1B, MCP23017.Pin.P2B);
+		IS31FL3731 leds = new IS31FL3731();
+		leds.setDoubleBuffered(true);
+		BarGraph bar = new BarGraph(leds, IS31FL3731.Matrix.B, 0);
+		LEDRefreshScheduler scheduler = new LEDRefreshScheduler(LEDRefreshScheduler.DEFAULT_FRAME_RATE_HZ);
+		scheduler.attach(leds);
+
+		AtomicInteger position = new AtomicInteger();
+		AtomicInteger detected = new AtomicInteger();
+		encoder.addChangeListener(e -> {
+			int p = e.getDirection() == RotaryEncoder.Direction.UP ? position.incrementAndGet() : position.decrementAndGet();
+			detected.incrementAndGet();
+			bar.switchLed(Math.floorMod(p, bar.getLEDCount()));
+		});
+
+		System.out.println("edge period\tdetected\tmissed edges\tLED ok\tbus time\tMCP23017 bus use\tIS31FL3731 bus use\tLED writes");
+		for (long period : EDGE_PERIODS_MICROS) {
+
+			Thread.sleep(100); // let the previous run settle
+			arbiter.drain();
+			bus.resetStatistics();
+			arbiter.resetStatistics();
+			detected.set(0);
+
+			EdgeSequence.quadrature(MCP23017.Pin.P1B, MCP23017.Pin.P2B, DETENTS, period).play(mcpModel);
+
+			Thread.sleep(100); // pending interrupts, then one LED refresh
+			arbiter.drain();
+
+			IS31FL3731.LEDCoordinate expected = new IS31FL3731.LEDCoordinate(0, Math.floorMod(position.get(), bar.getLEDCount()), IS31FL3731.Matrix.B);
+			boolean ledOk = ledModel.getPWM(ledModel.getDisplayedFrame(), expected.getPWMRegisterAdress()) == IS31FL3731.MAX_PWM;
+			long ledWrites = 0;
+			for (int f = 0; f < IS31FL3731.FRAME_COUNT; f++) ledWrites += ledModel.getPageWriteCount(f);
+			System.out.printf("%8dus\t%4d/%d\t%8d\t%s\t%6.1fms\t%12.1f%%\t%16.1f%%\t%8d%n",
+					period, detected.get(), DETENTS, mcpModel.getMissedEdgeCount(), ledOk ? "yes" : "NO",
+					bus.getBusNanos() / 1e6,
+					100 * arbiter.getUtilization(mcpModel.getAddress()), 100 * arbiter.getUtilization(ledModel.getAddress()), ledWrites);
+		}
+
+		System.out.println(arbiter.getStatistics());
+		System.out.println(LatencyMonitor.getDefault().getSummary());
+		scheduler.stop();
+		group.close();
+		I2CBusArbiter.closeDefault();
+	}
+}
@@ -1,7 +1,12 @@
 package application;
 
-import java.awt.HeadlessException;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.logging.Logger;
 
 import javax.sound.midi.InvalidMidiDataException;
@@ -15,16 +20,23 @@ import application.swing.HardwareApp;
 import application.swing.SynthControllerPaneSimulator;
 import application.swing.TabbedTouchScreen;
 import application.swing.TouchScreen;
+import controller.PerformancePad;
 import controller.SynthControllerPane;
 import controller.component.ControlFactory;
+import device.I2CBusArbiter;
 import device.IS31FL3731;
 import device.MCP23017;
+import device.MCP23017Group;
+import misc.LatencyMonitor;
 import model.midi.MidiDumpReceiver;
 import model.midi.MidiInHandler;
+import model.sequencer.StepSequencer;
 import model.serial.AbstractSerialTransmitter;
 import model.serial.DebugTransmitter;
 import model.serial.SpiTransmitter;
 import model.serial.UartTransmitter;
+import view.component.LEDAnimation;
+import view.component.LEDRefreshScheduler;
 import view.component.ViewFactory;
 
 /**
@@ -51,6 +63,12 @@ import view.component.ViewFactory;
  * 
  * - View's (both BarGraph and touchscreenView) listen to change
  * 
+ * In headless mode (e.g. a Raspberry with no screen), only MIDI in, the parameter model, the front pane and the serial transmitter are started: 
+ * Swing classes are only referenced from openSwingUI(), hence never get loaded, and neither does the AWT toolkit.
+ * 
+ * Bring-up runs as concurrent tasks with timeouts (see BringUp): the serial transmitter and MIDI in go live as soon as each is ready,
+ * a device that hangs falls back (e.g. to a DebugTransmitter) without holding back the others, and the UI opens once the platform is known.
+ * 
  * @author reynal
  *
  */
@@ -65,6 +83,15 @@ public class HardwareManager {
 	private static final boolean OPEN_SYNTH_CTRLPANE_SIMULATION = false;
 	private static final boolean OPEN_TABBED_TOUCHSCREEN = true; 
 	private static final boolean OPEN_RPI_TOUCHSCREEN = false;
+	private static final boolean LED_DOUBLE_BUFFERING = true; // tear-free front pane LED updates
+	private static final int LED_REFRESH_RATE_HZ = 60; // front pane LEDs are flushed at this rate whatever the rate of parameter changes
+	private static final boolean SERIAL_ASYNCHRONOUS = true; // LEDs get updated without waiting for the serial write
+	private static final long LATENCY_LOG_PERIOD_MS = 60000; // front pane edge to LED/wire latency summary
+	private static final long PLATFORM_TIMEOUT_MS = 2000; // bring-up timeouts
+	private static final long SERIAL_TIMEOUT_MS = 3000;
+	private static final long MIDI_IN_TIMEOUT_MS = 5000;
+	private static final long FRONT_PANE_TIMEOUT_MS = 3000;
+	private static final MCP23017.DeviceAddress PERFORMANCE_PAD_ADDRESS = MCP23017.DeviceAddress.ADR_002; // key matrix, polled: no INT line
 	
 	enum Platform {
 		RASPBERRYPI, // => SPI, possibly UART, simulator depends on available screen TODO: check screen size
@@ -72,40 +99,82 @@ public class HardwareManager {
 	}
 	
 	private static HardwareManager singleton;
+	private static final CountDownLatch closed = new CountDownLatch(1); // released once the shutdown hook has closed the hardware
 	
-	private boolean isSynthControlPaneHWConnected; // if true, means the expected hardware (HW) devices are visible on the I2C bus => can start HardwareApp
-	private Platform platform;
-	private AbstractSerialTransmitter serialTransmitter;
-	private MidiInHandler midiInHandler;
-	private SynthControllerPane synthControllerPane;
+	private volatile boolean isSynthControlPaneHWConnected; // if true, means the expected hardware (HW) devices are visible on the I2C bus => can start HardwareApp
+	private final boolean headless; // no Swing UI at all
+	private final BringUp bringUp = new BringUp();
+	private volatile AbstractSerialTransmitter serialTransmitter;
+	private final MidiInHandler midiInHandler;
+	private volatile SynthControllerPane synthControllerPane;
+	private volatile MCP23017Group mcpGroup;
+	private volatile PerformancePad performancePad;
+	private final StepSequencer stepSequencer; // edited from the PerformancePad, plays to the serial transmitter
 	
 	/**
-	 * TODO: handle command line options
-	 * @throws UnsupportedBusNumberException I2C related errors
-	 * @throws IOException UART errors and others
-	 * @throws HeadlessException when a screen is needed but not connected
-	 * @throws MidiUnavailableException 
-	 * @throws InvalidMidiDataException 
+	 * Starts bring-up tasks and returns right away.
+	 * @param headless if true, no Swing UI gets created
 	 */
-	private HardwareManager() throws HeadlessException, IOException, UnsupportedBusNumberException, InvalidMidiDataException, MidiUnavailableException {
+	private HardwareManager(boolean headless) {
+		
+		this.headless = headless;
+		if (headless) System.setProperty("java.awt.headless", "true"); // fail fast if anything still tries to use AWT
+		
+		initShutdownHook(); // closes resource before exiting
+		
+		midiInHandler = new MidiInHandler(DEFAULT_MIDI_CHANNEL); // usable as a Receiver right away, device opened below
+		if (DUMP_MIDI) 
+			new MidiDumpReceiver(System.out);
+		stepSequencer = new StepSequencer(null, DEFAULT_MIDI_CHANNEL); // the transmitter comes with attachSerialTransmitter()
 		
-		checkPlatform(); // RPi or desktop ?
+		CompletableFuture<Platform> platformReady = bringUp.start("platform", PLATFORM_TIMEOUT_MS, this::checkPlatform, Platform.DESKTOP); // RPi or desktop ?
 		
-		createSerialTransmitter(); // try SPI or UART
+		CompletableFuture<AbstractSerialTransmitter> serialReady = bringUp.start("serial", SERIAL_TIMEOUT_MS, platformReady, this::createSerialTransmitter, null) // try SPI or UART
+				.thenApply(this::attachSerialTransmitter); // live as soon as it's open
 		
-		createMidiInSystem(); // Midi in handler
+		CompletableFuture<MidiInHandler> midiReady = bringUp.start("MIDI in", MIDI_IN_TIMEOUT_MS, () -> {
+			midiInHandler.open();
+			return midiInHandler;
+		}, midiInHandler);
 		
-		if (CREATE_SYNTH_CTRLPANE) createSynthControllerPane(); // based on MCP23017 and IS31FL3137 led driver
+		CompletableFuture<SynthControllerPane> frontPaneReady = CompletableFuture.completedFuture(null);
+		if (CREATE_SYNTH_CTRLPANE || headless) // based on MCP23017 and IS31FL3137 led driver ; the only UI left in headless mode
+			frontPaneReady = bringUp.start("front pane", FRONT_PANE_TIMEOUT_MS, platformReady, p -> createFrontPaneHardware(), null)
+					.thenApply(this::attachFrontPaneHardware); // a late front pane gets closed by BringUp and never attached
 		
 		// debug createTouchScreen();
 		
-		initShutdownHook(); // closes resource before exiting
-
+		if (!headless) 
+			platformReady.thenCombine(frontPaneReady, (platform, pane) -> platform).thenAccept(this::openSwingUI);
+		
+		CompletableFuture.allOf(serialReady, midiReady, frontPaneReady).thenRun(() -> {
+			LOGGER.info(bringUp.getSummary());
+			logFootprint();
+		});
+	}
+	
+	/*
+	 * Opens the simulator or touchscreen UI depending on the platform, on the EDT.
+	 * This is the only place where HardwareManager refers to Swing classes.
+	 */
+	private void openSwingUI(Platform platform) {
+		
+		javax.swing.SwingUtilities.invokeLater(() -> {
+			try {
+				openSwingUIOnEDT(platform);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		});
+	}
+	
+	private void openSwingUIOnEDT(Platform platform) throws IOException, InvalidMidiDataException, MidiUnavailableException {
+		
 		switch (platform) {
 		
 		// simulator
 		case DESKTOP:
-			if (OPEN_SYNTH_CTRLPANE_SIMULATION) new SynthControllerPaneSimulator(synthControllerPane); // open front pane simulator
+			if (OPEN_SYNTH_CTRLPANE_SIMULATION && synthControllerPane != null) new SynthControllerPaneSimulator(synthControllerPane); // open front pane simulator
 			if (OPEN_TABBED_TOUCHSCREEN) new TabbedTouchScreen(midiInHandler).openJFrame();
 			if (OPEN_RPI_TOUCHSCREEN) new TouchScreen().openJFrame();
 			break;
@@ -127,15 +196,22 @@ public class HardwareManager {
 	}
 	
 	/**
-	 * Start the hardware.
-	 * @throws MidiUnavailableException 
-	 * @throws InvalidMidiDataException 
+	 * Start the hardware, in headless mode if the java.awt.headless system property is set.
 	 */
 	public static void start() {
 		
+		start(Boolean.getBoolean("java.awt.headless"));
+	}
+	
+	/**
+	 * Start the hardware.
+	 * @param headless if true, only MIDI in, the parameter model, the front pane and the serial transmitter are started, without any Swing UI.
+	 */
+	public static void start(boolean headless) {
+		
 		if (singleton == null) // prevents more than one instanciation
 			try {
-				singleton = new HardwareManager();
+				singleton = new HardwareManager(headless);
 			} catch (Exception e) {
 				e.printStackTrace();
 				System.exit(1);
@@ -143,6 +219,15 @@ public class HardwareManager {
 		
 	}
 	
+	/**
+	 * Blocks the calling thread until the hardware has been closed by the shutdown hook.
+	 * Bring-up tasks and devices run on daemon threads, hence this is what keeps a headless JVM alive.
+	 */
+	public static void awaitShutdown() throws InterruptedException {
+		
+		closed.await();
+	}
+	
 	/**
 	 * @return the default HardwareManager ; TODO allow multiple hardware implementations with the same software.
 	 */
@@ -156,9 +241,9 @@ public class HardwareManager {
 	/*
 	 * 
 	 */
-	private void checkPlatform() {
+	private Platform checkPlatform() {
 		
-		platform = Platform.RASPBERRYPI;
+		Platform platform = Platform.RASPBERRYPI;
 		
 		// hack to know if we're running on a RPi or a desktop computer: if not on RPi, following P4J code should trigger an exception
 		// of type FileNotFoundException (coz it looks for /proc/cpuinfo, which does not exist on OS X or Windows)
@@ -171,17 +256,16 @@ public class HardwareManager {
 			LOGGER.info(e.toString() + " => probably not running on a RPi, assuming Platform.DESKTOP");
 			platform = Platform.DESKTOP;
 		}
-		
+		return platform;
 		
 	}
 	
 	/*
-	 * Init a serial transmitter based on hardware guess, then makes it a listener to 
-	 * module parameter changes.
+	 * Init a serial transmitter based on hardware guess.
 	 */
-	private void createSerialTransmitter() {
+	private AbstractSerialTransmitter createSerialTransmitter(Platform platform) {
 		
-		serialTransmitter = null;
+		AbstractSerialTransmitter serialTransmitter = null;
 
 		try {
 			if (platform == Platform.RASPBERRYPI)
@@ -193,60 +277,117 @@ public class HardwareManager {
 			e.printStackTrace();
 			serialTransmitter = new DebugTransmitter();
 		}
-
-		ModuleFactory.getDefault().attachSerialTransmitter(serialTransmitter);
-
+		return serialTransmitter;
 	}
 	
 	/*
-	 * Initializes the Midi IN system so that incoming MIDI message (e.g. from a MIDI keyboard)
-	 * are forwarded to the current serialTransmitter (e.g. UART on a Mac/PC or SPI on a Raspberry)
+	 * Makes the given serial transmitter (or a DebugTransmitter if null, e.g. after a timeout) a listener to module parameter changes,
+	 * and the target of incoming MIDI messages (e.g. from a MIDI keyboard).
 	 */
-	private void createMidiInSystem() {
-		
-		try {
-			midiInHandler = new MidiInHandler(serialTransmitter, DEFAULT_MIDI_CHANNEL);
-		} 
-		catch (MidiUnavailableException e) {
-				e.printStackTrace();
-		}
-		
-		if (DUMP_MIDI) 
-			new MidiDumpReceiver(System.out);
-		
+	private AbstractSerialTransmitter attachSerialTransmitter(AbstractSerialTransmitter t) {
 		
+		if (t == null) t = new DebugTransmitter();
+		t.setAsynchronous(SERIAL_ASYNCHRONOUS);
+		ModuleFactory.getDefault().attachSerialTransmitter(t);
+		midiInHandler.setSerialTransmitter(t);
+		stepSequencer.setTransmitter(t);
+		serialTransmitter = t;
+		return t;
 	}
 	
 	/*
 	 * Try to create a SynthControllerPane if a front pane hardware (MCP23017 etc) is connected. 
 	 * Otherwise creates a graphic simulator.
+	 * Runs as a bring-up task, hence publishes nothing: see attachFrontPaneHardware().
 	 */
-	private void createSynthControllerPane() {
+	private FrontPaneHardware createFrontPaneHardware() {
 
+		FrontPaneHardware hw = new FrontPaneHardware();
 		MCP23017 mcpDevice1=null;
 		MCP23017 mcpDevice2=null;
-		IS31FL3731 is31Device=null;
-		
-		isSynthControlPaneHWConnected = true;
 		
 		// let's try to create hardware instances:
 		try {
-			mcpDevice1 = new MCP23017(); // TODO : I2C adress must not be the same for both devices!
-			// mcpDevice2 = new MCP23017(); // TODO PENDING
-			is31Device = new IS31FL3731();
+			// both devices share the same INT line (open-drain outputs), hence they must have different I2C addresses:
+			hw.mcpGroup = new MCP23017Group();
+			mcpDevice1 = hw.mcpGroup.addDevice(MCP23017.DeviceAddress.ADR_000, MCP23017.DEFAULT_INT_PIN); // columns 0-1
+			mcpDevice2 = hw.mcpGroup.addDevice(MCP23017.DeviceAddress.ADR_001, MCP23017.DEFAULT_INT_PIN); // columns 2-3
+			hw.is31Device = new IS31FL3731();
+			if (LED_DOUBLE_BUFFERING) hw.is31Device.setDoubleBuffered(true);
+			hw.connected = true;
 		} catch (IOException | UnsupportedBusNumberException | UnsatisfiedLinkError e) {
 			//e.printStackTrace();
-			isSynthControlPaneHWConnected = false;
 			LOGGER.warning("Frontpane hardware probably not connected!");
 		}
 		
+		if (hw.connected) {
+			try {
+				hw.performancePad = new PerformancePad(hw.mcpGroup.addDevice(PERFORMANCE_PAD_ADDRESS, (com.pi4j.io.gpio.Pin)null)); // starts scanning
+			} catch (IOException | UnsupportedBusNumberException e) {
+				LOGGER.warning("PerformancePad not connected: " + e);
+			}
+		}
+		
 		ControlFactory controlFactoryLeft = new ControlFactory(mcpDevice1); // one factory for each MCP device
 		ControlFactory controlFactoryRight = new ControlFactory(mcpDevice2);
-		ViewFactory viewFactory = new ViewFactory(is31Device);
-		synthControllerPane = new SynthControllerPane(controlFactoryLeft, controlFactoryRight, viewFactory);
+		hw.viewFactory = new ViewFactory(hw.connected ? hw.is31Device : null);
+		if (hw.connected) hw.viewFactory.setRefreshScheduler(LEDRefreshScheduler.getDefault()); // BarGraph sweeps
+		hw.pane = new SynthControllerPane(controlFactoryLeft, controlFactoryRight, hw.viewFactory);
+		return hw;
+	}
+	
+	/*
+	 * Publishes a front pane that came up in time, and starts refreshing its LEDs.
+	 * @return the SynthControllerPane, or null if the bring-up failed or timed out
+	 */
+	private SynthControllerPane attachFrontPaneHardware(FrontPaneHardware hw) {
+		
+		if (hw == null) return null;
+		mcpGroup = hw.mcpGroup;
+		performancePad = hw.performancePad;
+		synthControllerPane = hw.pane;
+		isSynthControlPaneHWConnected = hw.connected;
+		
+		if (performancePad != null) { // no transport control yet: the sequencer runs as soon as pads can edit it, empty patterns being silent
+			performancePad.addStepSequencer(stepSequencer);
+			stepSequencer.start();
+		}
+		
+		if (hw.connected) {
+			LEDRefreshScheduler.getDefault().setFrameRate(LED_REFRESH_RATE_HZ);
+			LEDRefreshScheduler.getDefault().attach(hw.is31Device);
+			LatencyMonitor.getDefault().startLogging(LATENCY_LOG_PERIOD_MS);
+		}
+		if (hw.viewFactory.getAnimator() != null) {
+			try {
+				hw.viewFactory.getAnimator().play(LEDAnimation.bootSplash()); // played by the device itself
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return synthControllerPane;
 	}
 			
 
+	/*
+	 * Logs cold start time and memory footprint, so that both modes can be compared.
+	 */
+	private void logFootprint() {
+		
+		Runtime rt = Runtime.getRuntime();
+		long heapUsed = (rt.totalMemory() - rt.freeMemory()) >> 20;
+		String rss = "n/a"; // resident set size, Linux only
+		Path status = Paths.get("/proc/self/status");
+		try {
+			if (Files.isReadable(status)) 
+				for (String line : Files.readAllLines(status)) 
+					if (line.startsWith("VmRSS:")) rss = line.substring(6).trim();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		LOGGER.info((headless ? "Headless" : "UI") + " mode started in " + ManagementFactory.getRuntimeMXBean().getUptime() + "ms, heap used=" + heapUsed + "MB, RSS=" + rss);
+	}
+
 	/*
 	 * 
 	 */
@@ -257,6 +398,7 @@ public class HardwareManager {
 					public void run() {
 						LOGGER.info("Shutdown Hook is running !");
 						closeHardware();
+						closed.countDown();
 					}
 				}
 		);
@@ -267,7 +409,53 @@ public class HardwareManager {
 	 */
 	private void closeHardware() {
 		
-		if (serialTransmitter != null) serialTransmitter.close();
-		if (midiInHandler != null) midiInHandler.close();
+		stepSequencer.stop(); // sends note offs while the transmitter is still open
+		if (serialTransmitter != null) {
+			serialTransmitter.setAsynchronous(false); // sends pending messages
+			serialTransmitter.close();
+		}
+		midiInHandler.close();
+		LEDRefreshScheduler.getDefault().stop();
+		LatencyMonitor.getDefault().stopLogging();
+		if (performancePad != null) performancePad.close();
+		if (mcpGroup != null) {
+			try {
+				mcpGroup.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		try {
+			I2CBusArbiter.closeDefault();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	// -------------- inner classes --------------
+	
+	/*
+	 * What the front pane bring-up task creates ; closed by BringUp if it comes too late.
+	 */
+	private static class FrontPaneHardware implements AutoCloseable {
+		
+		boolean connected; // the expected devices answered on the I2C bus
+		MCP23017Group mcpGroup;
+		IS31FL3731 is31Device;
+		PerformancePad performancePad; // null if the pad doesn't answer
+		ViewFactory viewFactory;
+		SynthControllerPane pane;
+		
+		@Override
+		public void close() throws IOException {
+			
+			if (performancePad != null) performancePad.close(); // stops the scanner thread before its device gets closed
+			if (mcpGroup != null) mcpGroup.close(); // stops listening to the pane's controls ; the LED driver was never attached to the refresh scheduler
+		}
+		
+		@Override
+		public String toString() {
+			return "front pane" + (connected ? "" : " (not connected)");
+		}
 	}
 }
@@ -15,6 +15,10 @@ import java.util.logging.Logger;
  * - simulator: the whole hardware interface (push buttons, LEDs, etc) is simulated on a computer through a UI graphic interface based on Swing
  * - hardware (on a Raspberry Pi) : the graphic UI interface is limited to the embedded touchscreen ; the hardware must be connected to a Raspberry.
  * 
+ * Command line options:
+ * --headless : no graphic UI at all, AWT/Swing don't even get loaded (MIDI in, front pane and serial transmitter only) ; 
+ *              also selected by -Djava.awt.headless=true
+ * 
  * @author reynal
  *
  */
@@ -35,7 +39,11 @@ public class Main {
 
 	public static void main(String[] args) throws Exception  {
 
-		HardwareManager.start();
+		boolean headless = Boolean.getBoolean("java.awt.headless");
+		for (String arg : args) 
+			if (arg.equals("--headless")) headless = true;
+		HardwareManager.start(headless);
+		HardwareManager.awaitShutdown(); // bring-up and devices run on daemon threads: wait until killed, or until the UI calls System.exit()
 	}
 	
 	private static void testLogger() throws SecurityException, FileNotFoundException, IOException {
@@ -76,7 +76,7 @@ public class ModuleFactory {
 	
 	private static ModuleFactory modules =  null;
 	
-	public static ModuleFactory getDefault() {
+	public static synchronized ModuleFactory getDefault() { // first called from any of the bring-up tasks or the EDT
 		// lazily creates factory:
 		if (modules == null)
 			modules = new ModuleFactory();
@@ -275,4 +275,4 @@ public class ModuleFactory {
 		LOGGER.info("midiCCToModuleParameter initialized");
 	}
 			
-}
+}
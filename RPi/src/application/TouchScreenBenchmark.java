@@ -0,0 +1,126 @@
+package application;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+import application.swing.TouchScreenCompositor;
+import view.touchscreen.DefaultView;
+import view.touchscreen.EncodersView;
+import view.touchscreen.TouchScreenView;
+import view.touchscreen.TouchScreenViewFactory;
+
+/**
+ * Benchmarks the TouchScreenView implementations with no display attached (run with -Djava.awt.headless=true):
+ * each view is fully rendered through a TouchScreenCompositor into an offscreen image at the touchscreen resolution, 
+ * once per frame, i.e. the cost of a repaint whenever the view asks for one.
+ * 
+ * For each view, the benchmark reports frame time percentiles and the number of bytes allocated per frame 
+ * (the latter only on JVMs that support thread allocation counters).
+ * 
+ * Module views don't display their parameters yet, hence don't ask for repaints when these change: there's no 
+ * parameter-driven repaint to measure. A view that starts displaying a parameter should be benchmarked by changing 
+ * that parameter and rendering only the regions it asks for.
+ * 
+ * EnvAmp, EnvTime, FilterVal and FilterXY don't implement TouchScreenView yet and are thus not benchmarked.
+ * 
+ * @author reynal
+ *
+ */
+public class TouchScreenBenchmark {
+
+	private static final int WIDTH = 800, HEIGHT = 480; // RPi 7" touchscreen resolution
+	private static final int WARMUP_FRAMES = 200;
+	private static final int FRAMES = 1000;
+	private static final int[] PERCENTILES = {50, 90, 99};
+	
+	/*
+	 * a view to render, along with its name
+	 */
+	private static class Case {
+		
+		final String name;
+		final TouchScreenView view;
+		
+		Case(String name, TouchScreenView view) {
+			this.name = name;
+			this.view = view;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		
+		ModuleFactory modules = ModuleFactory.getDefault();
+		TouchScreenViewFactory views = new TouchScreenViewFactory(modules);
+		List<Case> cases = new ArrayList<Case>();
+		cases.add(new Case("DefaultView", new DefaultView()));
+		cases.add(new Case("EncodersView", new EncodersView()));
+		cases.add(new Case("Vco3340View", views.getVco3340View()));
+		cases.add(new Case("Vco13700View", views.getVco13700View()));
+		cases.add(new Case("VcfView", views.getVcfView()));
+		cases.add(new Case("VcaView", views.getVcaView()));
+		cases.add(new Case("LatencyView", views.getLatencyView()));
+		
+		System.out.printf("%d full frames at %dx%d%n", FRAMES, WIDTH, HEIGHT);
+		System.out.println("view\t\tp50\tp90\tp99\tmax\tbytes/frame");
+		for (Case c : cases) SwingUtilities.invokeAndWait(() -> run(c)); // views expect to be rendered on the EDT
+		System.exit(0); // AWT threads
+	}
+	
+	/*
+	 * renders the given case and prints a line of results
+	 */
+	private static void run(Case c) {
+		
+		JPanel host = new JPanel();
+		host.setSize(WIDTH, HEIGHT);
+		TouchScreenCompositor compositor = new TouchScreenCompositor(host, 20);
+		compositor.setView(c.view);
+		BufferedImage screen = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		
+		long[] frameNanos = new long[FRAMES];
+		long allocatedBytes = 0;
+		for (int i = -WARMUP_FRAMES; i < FRAMES; i++) {
+			
+			long bytes = getAllocatedBytes();
+			long t = System.nanoTime();
+			Graphics2D g2 = screen.createGraphics();
+			g2.setColor(Color.black); // same as TouchScreen.paintComponent()
+			g2.fillRect(0, 0, WIDTH, HEIGHT);
+			compositor.paint(g2);
+			g2.dispose();
+			t = System.nanoTime() - t;
+			bytes = getAllocatedBytes() - bytes;
+			
+			if (i < 0) continue; // warming up
+			frameNanos[i] = t;
+			allocatedBytes += bytes;
+		}
+		
+		Arrays.sort(frameNanos);
+		StringBuilder sb = new StringBuilder(c.name.length() < 8 ? c.name + "\t" : c.name);
+		for (int pc : PERCENTILES) sb.append(String.format("\t%.2fms", frameNanos[(FRAMES - 1) * pc / 100] / 1e6));
+		sb.append(String.format("\t%.2fms", frameNanos[FRAMES - 1] / 1e6));
+		sb.append("\t").append(getAllocatedBytes() < 0 ? "n/a" : Long.toString(allocatedBytes / FRAMES));
+		System.out.println(sb);
+		c.view.setRepaintListener(null);
+	}
+	
+	/*
+	 * @return the number of bytes allocated so far by the current thread, or -1 if this isn't supported by the JVM
+	 */
+	private static long getAllocatedBytes() {
+		
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) 
+			return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+}
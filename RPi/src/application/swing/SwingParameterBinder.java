@@ -0,0 +1,192 @@
+package application.swing;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.JLabel;
+import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+
+import controller.component.HashedTimerWheel;
+import model.ModuleParameter;
+import model.event.ModuleParameterChangeEvent;
+import model.event.ModuleParameterChangeListener;
+
+/**
+ * Binds JSlider's to ModuleParameter's in both directions, without flooding either side:
+ * 
+ * - slider drags are throttled to a control rate: the first change goes through right away, then the parameter gets
+ *   the latest slider value at most once per control period (so a drag costs a few dozen parameter changes, not hundreds) ;
+ * 
+ * - parameter changes coming from any thread (MIDI in, encoders, firmware reports...) only mark the binding dirty ;
+ *   a single invokeLater per frame then updates every dirty slider on the EDT in one batch. 
+ *   A slider that the user is dragging is left alone.
+ * 
+ * @author reynal
+ *
+ */
+public class SwingParameterBinder implements ModuleParameterChangeListener {
+
+	public static final int DEFAULT_CONTROL_RATE_HZ = 50;
+	public static final int DEFAULT_FRAME_RATE_HZ = 30;
+
+	private final long controlPeriodNanos, framePeriodNanos;
+	private final Map<ModuleParameter<?>, Binding> bindings = new HashMap<ModuleParameter<?>, Binding>(); // EDT only
+	private final Set<ModuleParameter<?>> dirtyParameters = new LinkedHashSet<ModuleParameter<?>>(); // guarded by itself
+	private final AtomicBoolean framePending = new AtomicBoolean();
+	private volatile long lastFrameNanos;
+	private final Timer controlTimer; // pushes pending slider values, runs only while some are pending
+
+	// statistics:
+	private volatile long sliderEventCount, parameterUpdateCount, frameCount; // written on the EDT only
+	private final AtomicLong modelEventCount = new AtomicLong(); // parameters may change from any thread
+
+	// -------------- constructors --------------
+
+	/**
+	 * @param controlRateHz max number of parameter changes per second and per slider while dragging
+	 * @param frameRateHz max number of slider refreshes per second, for changes coming from the model
+	 */
+	public SwingParameterBinder(int controlRateHz, int frameRateHz) {
+
+		controlPeriodNanos = TimeUnit.SECONDS.toNanos(1) / controlRateHz;
+		framePeriodNanos = TimeUnit.SECONDS.toNanos(1) / frameRateHz;
+		controlTimer = new Timer((int)TimeUnit.NANOSECONDS.toMillis(controlPeriodNanos), e -> pushPendingSliderValues());
+	}
+
+	public SwingParameterBinder() {
+		this(DEFAULT_CONTROL_RATE_HZ, DEFAULT_FRAME_RATE_HZ);
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * Binds the given slider, whose range should be 0 to parameter.getValuesCount()-1, to the given parameter. Must be called on the EDT.
+	 * @param valueLabel displays the parameter value ; may be null
+	 */
+	public void bind(ModuleParameter<?> parameter, JSlider slider, JLabel valueLabel) {
+
+		Binding b = new Binding(parameter, slider, valueLabel);
+		bindings.put(parameter, b);
+		b.refresh();
+		slider.addChangeListener(b::sliderChanged);
+		parameter.addChangeListener(this);
+	}
+
+	/**
+	 * @return a one-line summary of the traffic in both directions
+	 */
+	public String getStatistics() {
+		return "slider events=" + sliderEventCount + " parameter updates=" + parameterUpdateCount + " model events=" + modelEventCount + " EDT frames=" + frameCount;
+	}
+
+	/**
+	 * Any thread: marks the parameter dirty and makes sure a frame is coming.
+	 */
+	@Override
+	public void valueChanged(ModuleParameterChangeEvent e) {
+
+		modelEventCount.incrementAndGet();
+		synchronized (dirtyParameters) {
+			dirtyParameters.add((ModuleParameter<?>)e.getSource());
+		}
+		if (!framePending.compareAndSet(false, true)) return; // the coming frame will take care of it
+		long delayNanos = lastFrameNanos + framePeriodNanos - System.nanoTime();
+		if (delayNanos <= 0) SwingUtilities.invokeLater(this::applyFrame);
+		else HashedTimerWheel.getDefault().schedule(() -> SwingUtilities.invokeLater(this::applyFrame), TimeUnit.NANOSECONDS.toMillis(delayNanos) + 1);
+	}
+
+	// -------------- private methods --------------
+
+	/*
+	 * EDT: updates every dirty slider in one go
+	 */
+	private void applyFrame() {
+
+		List<ModuleParameter<?>> batch;
+		synchronized (dirtyParameters) {
+			batch = new ArrayList<ModuleParameter<?>>(dirtyParameters);
+			dirtyParameters.clear();
+			framePending.set(false); // changes from now on need another frame
+		}
+		lastFrameNanos = System.nanoTime();
+		frameCount++;
+		for (ModuleParameter<?> p : batch) {
+			Binding b = bindings.get(p);
+			if (b != null) b.refresh();
+		}
+	}
+
+	/*
+	 * EDT, control timer
+	 */
+	private void pushPendingSliderValues() {
+
+		boolean pending = false;
+		for (Binding b : bindings.values()) {
+			if (b.pendingSliderValue < 0) continue;
+			if (System.nanoTime() - b.lastPushNanos >= controlPeriodNanos) b.push();
+			else pending = true;
+		}
+		if (!pending) controlTimer.stop();
+	}
+
+	// -------------- inner classes --------------
+
+	/*
+	 * a slider bound to a parameter ; EDT only
+	 */
+	private class Binding {
+
+		final ModuleParameter<?> parameter;
+		final JSlider slider;
+		final JLabel valueLabel;
+		boolean refreshing; // true while the slider gets updated from the model
+		int pendingSliderValue = -1; // slider value not yet pushed to the parameter, -1 if none
+		long lastPushNanos;
+
+		Binding(ModuleParameter<?> parameter, JSlider slider, JLabel valueLabel) {
+			this.parameter = parameter;
+			this.slider = slider;
+			this.valueLabel = valueLabel;
+		}
+
+		void sliderChanged(ChangeEvent e) {
+
+			if (refreshing) return; // not the user
+			sliderEventCount++;
+			if (slider.getValue() == parameter.getValueAsMIDICode()) {
+				pendingSliderValue = -1;
+				return;
+			}
+			pendingSliderValue = slider.getValue();
+			if (System.nanoTime() - lastPushNanos >= controlPeriodNanos) push(); // leading edge
+			else if (!controlTimer.isRunning()) controlTimer.start(); // trailing edge
+		}
+
+		void push() {
+
+			int v = pendingSliderValue;
+			pendingSliderValue = -1;
+			lastPushNanos = System.nanoTime();
+			parameterUpdateCount++;
+			parameter.setValueFromMIDICode(v);
+		}
+
+		void refresh() {
+
+			if (valueLabel != null) valueLabel.setText(parameter.getValue().toString());
+			if (slider.getValueIsAdjusting() || pendingSliderValue >= 0) return; // user is dragging, the model follows the slider
+			refreshing = true;
+			try {
+				slider.setValue(parameter.getValueAsMIDICode());
+			} finally {
+				refreshing = false;
+			}
+		}
+	}
+}
@@ -49,7 +49,7 @@ public class SynthControllerPaneSimulator extends JFrame {
 			panel.setLayout(new GridLayout(2 * synthControllerPane.getRowCount(), 1, 10, 10));
 			for (int row = 0; row < synthControllerPane.getRowCount(); row++) {
 				View v = synthControllerPane.getView(col,row);
-				panel.add(v != null ? v.getUIForSimulator() : new JLabel("???"));
+				panel.add(v != null ? new ViewLabel(v) : new JLabel("???"));
 				panel.add(UIUtilities.createUIForControl(synthControllerPane.getControl(col,row)));
 			}
 			mainPanel.add(panel);
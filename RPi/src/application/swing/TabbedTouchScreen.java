@@ -23,7 +23,8 @@ import model.serial.DebugTransmitter;
 
 /**
  * Another implementation of the TouchScreen interface based on a JTabbedPane
- * mostly for debugging purpose. Note that JSlider's here don't respond to ModuleParameter changes... 
+ * mostly for debugging purpose. JSlider's are bound to ModuleParameter's in both directions through a SwingParameterBinder,
+ * hence they follow changes coming from MIDI or encoders.
  * 
  * @author reynal
  *
@@ -32,6 +33,7 @@ import model.serial.DebugTransmitter;
 public class TabbedTouchScreen extends JTabbedPane {
 	
 	private TouchScreen ts;
+	private final SwingParameterBinder binder = new SwingParameterBinder();
 
 	public TabbedTouchScreen(MidiInHandler midiInHandler) throws IOException, InvalidMidiDataException, MidiUnavailableException {
 		super();
@@ -56,7 +58,7 @@ public class TabbedTouchScreen extends JTabbedPane {
 	}
 	
 	/*
-	 *  Utility that creates a slider that can control the given parameter. 
+	 *  Utility that creates a slider bound to the given parameter. 
 	 */
 	private JPanel createMidiCCSlider(ModuleParameter<?> parameter) {
 		
@@ -66,19 +68,13 @@ public class TabbedTouchScreen extends JTabbedPane {
 		JLabel title = new JLabel(parameter.getLabel(), SwingConstants.CENTER);
 		p.add(title, BorderLayout.NORTH);
 
-		JSlider js = new JSlider(JSlider.VERTICAL, 0, parameter.getValuesCount()-1, 0);
+		JSlider js = new JSlider(JSlider.VERTICAL, 0, parameter.getValuesCount()-1, parameter.getValueAsMIDICode());
 		p.add(js, BorderLayout.CENTER);
 		
 		JLabel lbl = new JLabel(parameter.getValue().toString(), SwingConstants.CENTER);
 		p.add(lbl, BorderLayout.SOUTH);
 		
-		js.addChangeListener(e -> {
-			//System.out.println(e);
-			int midiValue = ((JSlider)e.getSource()).getValue();			
-			parameter.setValueFromMIDICode(midiValue);
-			//lbl.setText(Integer.toString(midiValue));
-			lbl.setText(parameter.getValue().toString());
-			});
+		binder.bind(parameter, js, lbl);
 		return p;
 	}
 	
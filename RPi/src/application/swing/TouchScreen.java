@@ -1,20 +1,15 @@
 package application.swing;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.util.logging.Logger;
 
 import javax.swing.JFrame;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
-import javax.swing.Timer;
 
 import application.ModuleFactory;
 import model.event.ModuleParameterChangeEvent;
@@ -26,11 +21,10 @@ import view.touchscreen.TouchScreenViewFactory;
 /**
  * The Raspberry Pi touchscreen
  */
-public class TouchScreen extends JPanel implements ActionListener, ModuleParameterChangeListener {
+public class TouchScreen extends JPanel implements ModuleParameterChangeListener {
 
 	private static final long serialVersionUID = 1L;
-	private TouchScreenView view;
-	private Timer animationTimer;
+	private final TouchScreenCompositor compositor; // renders the current view, only when needed
 	private static final int ANIMATION_TIMER = 20; // ms (a tester sur RPi, attention � ne pas consommer trop de
 													// ressources)
 
@@ -44,10 +38,9 @@ public class TouchScreen extends JPanel implements ActionListener, ModuleParamet
 		super();
 		// setPreferredSize(new Dimension(500,500));
 		setBackground(Color.black);
-		animationTimer = new Timer(ANIMATION_TIMER, this);
+		compositor = new TouchScreenCompositor(this, ANIMATION_TIMER);
 		// view = new FilterVal();
-		view = new DefaultView();
-		setView(view);
+		setView(new DefaultView());
 
 	}
 
@@ -57,12 +50,7 @@ public class TouchScreen extends JPanel implements ActionListener, ModuleParamet
 	 */
 	public void setView(TouchScreenView view) {
 
-		this.view = view;
-		if (view.isAnimated())
-			animationTimer.start();
-		else
-			animationTimer.stop();
-		repaint();
+		compositor.setView(view);
 
 	}
 
@@ -70,35 +58,15 @@ public class TouchScreen extends JPanel implements ActionListener, ModuleParamet
 	protected void paintComponent(Graphics g) {
 
 		super.paintComponent(g);
-		Graphics2D g2 = (Graphics2D) g;
-		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-		g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON); // lissage
-																											// rendu
-																											// texte
-		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR); // lissage
-																											// de rendu
-																											// d'image
-																											// VALUE_INTERPOLATION_BICUBIC
-																											// better
-																											// but
-																											// slower
-		// scale so that a 1x1 square now covers the whole hosting JPanel:
-		double sx = getWidth();
-		double sy = -getHeight();
-		g2.scale(sx, sy);
-		// translate so that the (0,0) point is at the center of the hosting JPanel:
-		g2.translate(0.5, -0.5);
-		// shrinks stroke down to make up for the previous scaling:
-		g2.setStroke(new BasicStroke((float) (1.0 / Math.max(sx, sy))));
-		view.render(g2, sx, sy, this);
+		compositor.paint((Graphics2D) g);
 
 	}
 
-	@Override
-	public void actionPerformed(ActionEvent e) {
-
-		repaint();
-
+	/**
+	 * @return the object that renders the current view
+	 */
+	public TouchScreenCompositor getCompositor() {
+		return compositor;
 	}
 
 	@Override
@@ -144,6 +112,7 @@ public class TouchScreen extends JPanel implements ActionListener, ModuleParamet
 		addMenuItem(touchScreenMenuBar, "VCO 3340", touchScreenViewFactory.getVco3340View());
 		addMenuItem(touchScreenMenuBar, "VCF", touchScreenViewFactory.getVcfView());
 		addMenuItem(touchScreenMenuBar, "VCA", touchScreenViewFactory.getVcaView());
+		addMenuItem(touchScreenMenuBar, "Latency", touchScreenViewFactory.getLatencyView());
 		return touchScreenMenuBar;
 	}
 
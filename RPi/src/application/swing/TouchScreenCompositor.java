@@ -0,0 +1,163 @@
+package application.swing;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import view.touchscreen.TouchScreenView;
+
+/**
+ * Renders a TouchScreenView into a hosting JComponent so that an idle screen costs (almost) nothing:
+ * 
+ * - the view background image gets scaled once to the component size into a compatible image, which is then merely copied ; 
+ * 
+ * - repaint requests coming from the view are converted to pixel regions, so that Swing only repaints and clips to what's dirty ;
+ * 
+ * - the animation timer only runs while the view reports it's animated. 
+ * 
+ * @author reynal
+ *
+ */
+public class TouchScreenCompositor {
+
+	private static final int DIRTY_MARGIN = 2; // pixels added around dirty regions to cope with antialiasing and stroke width
+	
+	private final JComponent host;
+	private final Timer animationTimer;
+	private TouchScreenView view;
+	private BufferedImage backgroundCache; // view background scaled to the host size, null if none
+	private Image cachedBackground; // the image backgroundCache has been built from
+	
+	// statistics:
+	private volatile long renderCount, backgroundScaleCount;
+
+	/**
+	 * @param host the component this compositor paints into, whose paintComponent() should call paint()
+	 * @param animationPeriodMs period of the animation timer
+	 */
+	public TouchScreenCompositor(JComponent host, int animationPeriodMs) {
+		
+		this.host = host;
+		animationTimer = new Timer(animationPeriodMs, e -> animate());
+	}
+	
+	// -------------- public methods --------------
+
+	/**
+	 * Displays the given view. EDT only.
+	 */
+	public void setView(TouchScreenView view) {
+
+		if (this.view != null) this.view.setRepaintListener(null);
+		this.view = view;
+		backgroundCache = null;
+		cachedBackground = null;
+		view.setRepaintListener(this::repaintRequested);
+		host.repaint();
+		updateAnimationTimer();
+	}
+	
+	public TouchScreenView getView() {
+		return view;
+	}
+
+	/**
+	 * Renders the current view, drawing the cached background first. EDT only.
+	 * @param g2 a graphic context in the host pixel coordinate system, possibly clipped to a dirty region
+	 */
+	public void paint(Graphics2D g2) {
+		
+		if (view == null) return;
+		int width = host.getWidth(), height = host.getHeight();
+		if (width <= 0 || height <= 0) return;
+		
+		BufferedImage bg = getBackground(width, height);
+		if (bg != null) g2.drawImage(bg, 0, 0, null);
+		
+		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		// scale so that a 1x1 square now covers the whole hosting component:
+		double sx = width;
+		double sy = -height;
+		g2.scale(sx, sy);
+		// translate so that the (0,0) point is at the center of the hosting component:
+		g2.translate(0.5, -0.5);
+		// shrinks stroke down to make up for the previous scaling:
+		g2.setStroke(new BasicStroke((float) (1.0 / Math.max(sx, sy))));
+		view.render(g2, sx, sy, host);
+		renderCount++;
+	}
+	
+	/**
+	 * @return the number of times the view has been rendered, and the number of times its background has been scaled
+	 */
+	public String getStatistics() {
+		return "renders=" + renderCount + " background scalings=" + backgroundScaleCount + " timer running=" + animationTimer.isRunning();
+	}
+
+	// -------------- private methods --------------
+	
+	/*
+	 * @return the view background scaled to the given size, from the cache if possible
+	 */
+	private BufferedImage getBackground(int width, int height) {
+		
+		Image img = view.getBackgroundImage();
+		if (img == null) return null;
+		if (img == cachedBackground && backgroundCache != null && backgroundCache.getWidth() == width && backgroundCache.getHeight() == height) 
+			return backgroundCache;
+		
+		GraphicsConfiguration gc = host.getGraphicsConfiguration();
+		backgroundCache = (gc != null ? gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT) : new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
+		Graphics2D g = backgroundCache.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC); // done once, we can afford the best quality
+		g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g.drawImage(img, 0, 0, width, height, null);
+		g.dispose();
+		cachedBackground = img;
+		backgroundScaleCount++;
+		return backgroundCache;
+	}
+	
+	/*
+	 * Called by the view, from any thread. 
+	 */
+	private void repaintRequested(Rectangle2D region) {
+		
+		if (region == null) host.repaint();
+		else {
+			int width = host.getWidth(), height = host.getHeight();
+			int x = (int)Math.floor((region.getMinX() + 0.5) * width) - DIRTY_MARGIN;
+			int y = (int)Math.floor((0.5 - region.getMaxY()) * height) - DIRTY_MARGIN; // y axis points up in the view
+			int w = (int)Math.ceil(region.getWidth() * width) + 2 * DIRTY_MARGIN + 1;
+			int h = (int)Math.ceil(region.getHeight() * height) + 2 * DIRTY_MARGIN + 1;
+			host.repaint(x, y, w, h);
+		}
+		if (!animationTimer.isRunning()) SwingUtilities.invokeLater(this::updateAnimationTimer);
+	}
+	
+	/*
+	 * Animation timer tick (EDT)
+	 */
+	private void animate() {
+		
+		host.repaint();
+		updateAnimationTimer();
+	}
+	
+	/*
+	 * Starts or stops the animation timer depending on the current view. EDT only.
+	 */
+	private void updateAnimationTimer() {
+		
+		if (view != null && view.isAnimated()) {
+			if (!animationTimer.isRunning()) animationTimer.start();
+		}
+		else animationTimer.stop();
+	}
+}
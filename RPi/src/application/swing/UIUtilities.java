@@ -19,8 +19,11 @@ public class UIUtilities {
 		if (c instanceof PushButton) {
 			
 			JButton b = new JButton(c.getLabel());
-			// simply transmits events from JButton to PushButton:
-			b.addActionListener(e -> ((PushButton)c).fireActionEvent(((JButton)e.getSource()).isSelected() ? PushButtonState.PRESSED : PushButtonState.RELEASED ));
+			// simply transmits events from JButton to PushButton (a click is a press immediately followed by a release):
+			b.addActionListener(e -> {
+				((PushButton)c).fireActionEvent(PushButtonState.PRESSED);
+				((PushButton)c).fireActionEvent(PushButtonState.RELEASED);
+			});
 			return b;
 
 		}
@@ -0,0 +1,172 @@
+package application.swing;
+
+import java.awt.Color;
+import java.awt.FlowLayout;
+import java.awt.GridLayout;
+import java.io.IOException;
+
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JSlider;
+import javax.swing.JToggleButton;
+import javax.swing.SwingUtilities;
+
+import com.pi4j.io.i2c.I2CFactory.UnsupportedBusNumberException;
+
+import device.IS31FL3731;
+import model.Octave;
+import model.Vco3340AModule;
+import view.component.BarGraph;
+import view.component.LED;
+import view.component.View;
+
+/**
+ * A label that displays the state of a front pane View in the simulator UI, and follows its changes.
+ * 
+ * @author reynal
+ *
+ */
+@SuppressWarnings("serial")
+public class ViewLabel extends JLabel implements View.DisplayListener {
+
+	private final View view;
+	
+	public ViewLabel(View view) {
+		
+		super(view.getDisplayString());
+		this.view = view;
+		setForeground(Color.red);
+		view.setDisplayListener(this);
+	}
+
+	@Override
+	public void displayChanged(View source) {
+		
+		SwingUtilities.invokeLater(() -> setText(view.getDisplayString()));
+	}
+
+	// -------- test --------
+
+	public static void main(String[] args) throws Exception {
+
+		//testLED();
+		//testLEDWithModel();
+		//testBarGraph();
+		testBarGraphWithModel();
+	}
+
+	// basic test for UI simulator
+	private static void testLED() throws IOException {
+
+		LED led = new LED(null, new IS31FL3731.LEDCoordinate(0, 0, IS31FL3731.Matrix.A));
+		JFrame f = new JFrame("LED test");
+		f.setSize(600,200);
+		f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		f.setLayout(new FlowLayout());
+		f.add(new ViewLabel(led));
+		JToggleButton b;
+		JSlider s;
+		f.add(b=new JToggleButton("ON/OFF"));
+		f.add(s=new JSlider(0, 127));
+		b.addActionListener(e -> led.setValue(b.isSelected()));
+		s.addChangeListener(e -> led.setValue(s.getValue()));
+		f.setVisible(true);
+
+	}
+
+	// test with Vco3340 model
+	private static void testLEDWithModel() throws IOException {
+
+		Vco3340AModule vco3340 = new Vco3340AModule();		
+		LED led1 = new LED(null, new IS31FL3731.LEDCoordinate(0, 0, IS31FL3731.Matrix.A));
+		LED led2 = new LED(null, new IS31FL3731.LEDCoordinate(0, 0, IS31FL3731.Matrix.A));
+		vco3340.getDetuneParameter().addChangeListener(led1);
+		vco3340.getSyncFrom13700Parameter().addChangeListener(led2);
+		JFrame f = new JFrame("LED test");
+		f.setSize(600,400);
+		f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		f.setLayout(new GridLayout(2,3));
+		
+		f.add(new JLabel("Duty cycle:"));
+		JSlider s;
+		f.add(s=new JSlider(-64, 63));
+		f.add(new ViewLabel(led1));
+		s.addChangeListener(e -> vco3340.setDetune(s.getValue()));
+		
+		JToggleButton b;
+		f.add(new JLabel("Sync:"));
+		f.add(b=new JToggleButton("ON/OFF"));
+		f.add(new ViewLabel(led2));
+		b.addActionListener(e -> vco3340.setSyncFrom13700(b.isSelected()));
+
+		
+		
+		
+		f.pack();
+		f.setVisible(true);
+
+	}
+
+	// basic test with no hardware
+	private static void testBarGraph() throws IOException {
+
+		BarGraph group = new BarGraph(null, IS31FL3731.Matrix.A, 0, 0, 4);
+		//BarGraph group = new BarGraph(null, IS31FL3731.Matrix.A, 0);
+		JFrame f = new JFrame("BarGraph test");
+		f.setSize(600,400);
+		f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		f.setLayout(new FlowLayout());
+		f.add(new ViewLabel(group));
+		JSlider s;
+		
+		//f.add(s=new JSlider(0, group.getLEDCount()-1));
+		//s.addChangeListener(e -> group.switchLed(s.getValue()));
+		
+		f.add(s=new JSlider(0, 127));
+		s.addChangeListener(e -> {
+			try {
+				group.setValue(s.getValue());
+			} catch (IOException e1) {
+				e1.printStackTrace();
+			}
+		});
+		//f.pack();
+		f.setVisible(true);
+
+	}	
+
+	// real hardware test with Vco3340 model
+	private static void testBarGraphWithModel() throws IOException, UnsupportedBusNumberException {
+		
+		IS31FL3731 is31fl3731 = new IS31FL3731(); // if hardware connected
+		//IS31FL3731 is31fl3731 = null; // if no hardware
+
+		Vco3340AModule vco3340 = new Vco3340AModule();		
+		
+		BarGraph bar1 = new BarGraph(is31fl3731, IS31FL3731.Matrix.A, 0); // row=0
+		vco3340.getDutyParameter().addChangeListener(bar1);
+		
+		BarGraph bar2 = new BarGraph(is31fl3731, IS31FL3731.Matrix.B, 6, 0, 4); // row=6 lower
+		vco3340.getOctaveParameter().addChangeListener(bar2);
+
+		JFrame f = new JFrame("BarGraph test");
+		f.setSize(1000,400);
+		f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		f.setLayout(new GridLayout(2,3));
+		
+		f.add(new JLabel("Duty cycle:"));
+		JSlider s;
+		f.add(s=new JSlider(0, 127));
+		f.add(new ViewLabel(bar1));
+		s.addChangeListener(e -> vco3340.getDutyParameter().setValueFromMIDICode(((JSlider)e.getSource()).getValue()));
+		
+		f.add(new JLabel("Octave:"));
+		f.add(s=new JSlider(0, 3));
+		f.add(new ViewLabel(bar2));
+		s.addChangeListener(e -> vco3340.setOctave(Octave.values()[((JSlider)e.getSource()).getValue()]));
+
+		//f.pack();
+		f.setVisible(true);
+
+	}
+}
@@ -3,17 +3,15 @@ package application.swing;
 import java.awt.BorderLayout;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Logger;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiEvent;
 import javax.sound.midi.MidiMessage;
-import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
-import javax.sound.midi.Sequence;
-import javax.sound.midi.Sequencer;
 import javax.sound.midi.ShortMessage;
-import javax.sound.midi.Transmitter;
 import javax.swing.ButtonGroup;
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
@@ -23,10 +21,13 @@ import javax.swing.JPanel;
 import javax.swing.JSlider;
 import javax.swing.JToggleButton;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 
 import application.Preferences;
 import misc.MusicNote;
 import model.midi.MidiInHandler;
+import model.sequencer.MappedMidiFile;
+import model.sequencer.PlaybackEngine;
 import model.serial.DebugTransmitter;
 
 /**
@@ -183,46 +184,54 @@ public class VirtualPiano extends JPanel {
 	}
 
 	/*
-	 * sequencer and MIDI song start/stop panel for demo purpose
+	 * sequencer and MIDI song start/stop panel for demo purpose ; 
+	 * the demo file gets parsed and compiled in the background, buttons are enabled once it's ready.
+	 * Songs are played by a PlaybackEngine straight to the serial transmitter of the MidiInHandler.
 	 */
 	private class DemoPanel extends JPanel {
 		
 		JToggleButton tb;
 		JButton loadFileBut;
 		//Track track;
-		Sequencer seq;
+		PlaybackEngine engine;
 		
-		DemoPanel() throws InvalidMidiDataException, MidiUnavailableException{
+		DemoPanel() {
 			add(loadFileBut = new JButton("Load MIDI file"));
 			loadFileBut.addActionListener(e -> loadMidiFile());
 			add(tb=new JToggleButton("Play demo"));
 			tb.addActionListener(e -> playDemo());
+			loadFileBut.setEnabled(false);
+			tb.setEnabled(false);
 			
 			//Sequence sequence = new Sequence(Sequence.PPQ, 200);
 			//track = sequence.createTrack();
 			
-
-			seq = MidiSystem.getSequencer();
-			seq.open();
-			loadDefaultMidiFile();
-			seq.setLoopCount(Sequencer.LOOP_CONTINUOUSLY);
-
-			Transmitter	seqTransmitter = seq.getTransmitter(); 
-			seqTransmitter.setReceiver(midiInHandler); 
+			engine = new PlaybackEngine(null, midiInHandler == null ? midiChannel : midiInHandler.getMidiChannel());
+			engine.setLooping(true);
+			CompletableFuture.runAsync(this::loadDefaultMidiFile).whenComplete((v, ex) -> SwingUtilities.invokeLater(() -> {
+				if (ex != null) {
+					LOGGER.warning("Demo file unavailable: " + ex.getCause());
+					return;
+				}
+				loadFileBut.setEnabled(true);
+				tb.setEnabled(true);
+			}));
 		}
 		
-		void loadDefaultMidiFile() throws InvalidMidiDataException {
+		/*
+		 * background thread
+		 */
+		void loadDefaultMidiFile() {
 			
 			try {
 				String n = Preferences.getPreferences().getStringProperty(Preferences.Key.MIDI_DEMO_FILE);
 				File f = new File(n);
 				LOGGER.info("Loading MIDI file="+f);
-				Sequence s = MidiSystem.getSequence(f);
-				//System.out.println("Seq="+s);
-				seq.setSequence(s);
+				engine.setTimeline(MappedMidiFile.open(f));
+			}
+			catch (InvalidMidiDataException | IOException e) {
+				throw new CompletionException(e);
 			}
-			catch (Exception e) { e.printStackTrace(); }
-			
 		}
 		
 		void loadMidiFile() {
@@ -230,10 +239,12 @@ public class VirtualPiano extends JPanel {
 			if (jfc.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
 				File midiFile = jfc.getSelectedFile();
 				System.out.println(midiFile.getAbsolutePath());
-				try {
-					seq.setSequence(MidiSystem.getSequence(midiFile));
-				}
-				catch (Exception e) { e.printStackTrace(); }
+				CompletableFuture.runAsync(() -> {
+					try {
+						engine.setTimeline(MappedMidiFile.open(midiFile));
+					}
+					catch (Exception e) { e.printStackTrace(); }
+				});
 			}
 		}
 		
@@ -250,9 +261,12 @@ public class VirtualPiano extends JPanel {
 		}
 		
 		void playDemo() {
-			if (tb.isSelected()) seq.start();
-			else seq.stop();
-			System.out.println("sequenceur running " + seq.isRunning());	
+			if (tb.isSelected()) {
+				if (midiInHandler != null) engine.setTransmitter(midiInHandler.getSerialTransmitter());
+				engine.start();
+			}
+			else engine.stop();
+			System.out.println("sequenceur running " + engine.isRunning());	
 		}
 	}	
 	// ------------------------------------------------------------------------------------
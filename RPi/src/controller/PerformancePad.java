@@ -1,26 +1,67 @@
 package controller;
 
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import controller.component.KeypadMatrixScanner;
 import controller.component.PushButton;
+import controller.component.PushButtonState;
+import controller.event.PadEvent;
+import controller.event.PadEventListener;
+import device.MCP23017;
+import model.sequencer.StepPattern;
+import model.sequencer.StepSequencer;
 //import javafx.scene.Node;
 
 /**
+ * A 16x4 pad of push buttons. 
+ * 
+ * On the hardware, the 64 buttons are wired as a key matrix to a single MCP23017 device and scanned by 
+ * a KeypadMatrixScanner ; debounced pad events are then forwarded to the corresponding PushButton, 
+ * which recognizes long and double presses. Pad events (including velocity) can also be listened to directly.
  * 
  * @author Bastien Fratta
  *
  */
 public class PerformancePad {
 	
+	private static final Logger LOGGER = Logger.getLogger("confLogger");
+	
+	public static final int COLUMNS = KeypadMatrixScanner.COLUMNS;
+	public static final int ROWS = KeypadMatrixScanner.ROWS;
 	
-	private PushButton[][] pushButtons;
-	private int length;
+	private PushButton[][] pushButtons; // [column][row]
+	private KeypadMatrixScanner scanner;
 	
 	/**
-	 * 
+	 * Creates a pad with no hardware attached (simulator mode)
 	 */
 	public PerformancePad(){
 		
-		pushButtons = new PushButton[16][4];
+		pushButtons = new PushButton[COLUMNS][ROWS];
+		for (int col = 0; col < COLUMNS; col++) {
+			for (int row = 0; row < ROWS; row++) {
+				pushButtons[col][row] = new PushButton("Pad " + col + "." + row);
+			}
+		}
+	}
+	
+	/**
+	 * Creates a pad whose key matrix is wired to the given MCP23017 device, and starts scanning it.
+	 * @param device an MCP23017 device dedicated to the pad ; if null, simulator mode only
+	 * @throws IOException if the device cannot be configured
+	 */
+	public PerformancePad(MCP23017 device) throws IOException {
 		
+		this();
+		if (device == null) return;
+		for (PushButton[] column : pushButtons) {
+			for (PushButton pb : column) pb.setDebounceDelay(0); // already debounced by the scanner
+		}
+		scanner = new KeypadMatrixScanner(device);
+		scanner.addPadEventListener(new PadToPushButtonForwarder());
+		scanner.start();
+		LOGGER.info("PerformancePad scanner started on MCP23017 at " + device.getDeviceAddress());
 	}
 	
 	/**
@@ -33,9 +74,7 @@ public class PerformancePad {
 	}*/
 	
 	/**
-	 * 
-	 * @param pad
-	 * @return
+	 * @return the number of columns of this pad
 	 */
 	public int getSize() {
 		
@@ -48,8 +87,63 @@ public class PerformancePad {
 	  */
 	 public PushButton getPerformancePadPushButton(int row, int col){
 		 
-		 return null; // TODO
+		 return pushButtons[col][row];
+		 
+	 }
+	 
+	 /**
+	  * Adds a listener that receives packed pad events (see PadEvent), including velocity.
+	  * Does nothing in simulator mode.
+	  */
+	 public void addPadEventListener(PadEventListener l) {
+		 
+		 if (scanner != null) scanner.addPadEventListener(l);
+	 }
+	 
+	 /**
+	  * Lets pads edit the given step sequencer, one column per step: a press switches a step on or off,
+	  * with the pad velocity on the hardware, and a long press changes its gate length (see StepSequencer.cycleGate()).
+	  */
+	 public void addStepSequencer(StepSequencer sequencer) {
+		 
+		 if (scanner != null) scanner.addPadEventListener(sequencer); // presses come with their velocity
+		 for (int col = 0; col < COLUMNS; col++) {
+			 for (int row = 0; row < ROWS; row++) {
+				 int step = col, r = row;
+				 pushButtons[col][row].addActionListener(e -> {
+					 if (e.getState() == PushButtonState.LONG_PRESS) sequencer.cycleGate(step, r);
+					 else if (e.getState() == PushButtonState.PRESSED && scanner == null) sequencer.toggle(step, r, StepPattern.DEFAULT_VELOCITY);
+				 });
+			 }
+		 }
+	 }
+	 
+	 /**
+	  * @return the scanner (e.g. for monitoring purpose), or null in simulator mode
+	  */
+	 public KeypadMatrixScanner getScanner() {
 		 
+		 return scanner;
+	 }
+	 
+	 /**
+	  * Stops scanning the hardware
+	  */
+	 public void close() {
+		 
+		 if (scanner != null) scanner.stop();
+	 }
+	 
+	 /*
+	  * Feeds push buttons with debounced pad events
+	  */
+	 private class PadToPushButtonForwarder implements PadEventListener {
+
+		@Override
+		public void padEventOccured(int e) {
+			
+			pushButtons[PadEvent.getColumn(e)][PadEvent.getRow(e)].updatePhysicalState(PadEvent.isPress(e));
+		}
 	 }
 	 
 }
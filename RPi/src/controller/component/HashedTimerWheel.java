@@ -0,0 +1,279 @@
+package controller.component;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * A hashed timer wheel (see Varghese and Lauck, "Hashed and Hierarchical Timing Wheels") that can
+ * host a large number of short-lived timeouts with a single thread.
+ *
+ * Timeouts are hashed into one of "ticksPerWheel" buckets according to their deadline, so that scheduling
+ * and cancelling are O(1), and expiring costs one bucket visit per tick whatever the number of pending timeouts.
+ * This makes it possible to debounce 64 push buttons (or more) without creating one scheduled task per button.
+ *
+ * Timeouts are expired on the wheel thread, with a precision of one tick. Task should thus return quickly.
+ *
+ * @author reynal
+ *
+ */
+public class HashedTimerWheel {
+
+	private static final Logger LOGGER = Logger.getLogger("confLogger");
+
+	/** default tick duration, good enough for debouncing and gesture recognition */
+	public static final long DEFAULT_TICK_MS = 5;
+	public static final int DEFAULT_TICKS_PER_WHEEL = 128; // must be a power of two
+
+	private static HashedTimerWheel defaultWheel;
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+
+	// timeouts scheduled from foreign threads wait here until the wheel thread hashes them into a bucket:
+	private final ConcurrentLinkedQueue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+	private Thread workerThread;
+	private volatile boolean running;
+	private long startTime; // wheel thread only
+	private long tick; // wheel thread only
+
+	// -------------- constructors --------------
+
+	/**
+	 * @param tickMs duration of one tick, i.e. timer precision
+	 * @param ticksPerWheel number of buckets, rounded up to the next power of two
+	 */
+	public HashedTimerWheel(long tickMs, int ticksPerWheel) {
+
+		if (tickMs <= 0) throw new IllegalArgumentException("tickMs must be positive: " + tickMs);
+		int n = 1;
+		while (n < ticksPerWheel) n <<= 1;
+		this.wheel = new Bucket[n];
+		for (int i=0; i<n; i++) wheel[i] = new Bucket();
+		this.mask = n - 1;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+	}
+
+	/**
+	 * Creates a wheel with a 5ms tick and 128 buckets.
+	 */
+	public HashedTimerWheel() {
+		this(DEFAULT_TICK_MS, DEFAULT_TICKS_PER_WHEEL);
+	}
+
+	/**
+	 * @return a wheel shared by every front pane component ; lazily created
+	 */
+	public static synchronized HashedTimerWheel getDefault() {
+		if (defaultWheel == null) defaultWheel = new HashedTimerWheel();
+		return defaultWheel;
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * Schedules the given task for one-shot execution after the given delay. The wheel thread gets started if necessary.
+	 * This method is thread-safe.
+	 * @param task a short task executed on the wheel thread
+	 * @param delayMs delay in milliseconds
+	 * @return a handle that can be used to cancel the task
+	 */
+	public Timeout schedule(Runnable task, long delayMs) {
+
+		start();
+		Timeout t = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs));
+		pendingTimeouts.add(t);
+		return t;
+	}
+
+	/**
+	 * Stops the wheel thread ; pending timeouts are discarded.
+	 */
+	public synchronized void stop() {
+
+		running = false;
+		if (workerThread != null) {
+			workerThread.interrupt();
+			workerThread = null;
+		}
+	}
+
+	// -------------- private methods --------------
+
+	private synchronized void start() {
+
+		if (running) return;
+		running = true;
+		startTime = System.nanoTime();
+		tick = 0;
+		workerThread = new Thread(this::run, "HashedTimerWheel");
+		workerThread.setDaemon(true);
+		workerThread.start();
+		LOGGER.info("Starting timer wheel: " + wheel.length + " buckets of " + tickNanos/1000 + "us");
+	}
+
+	/* wheel thread loop */
+	private void run() {
+
+		while (running) {
+
+			// wait for the end of the current tick (deadlines are computed from startTime, so that there's no drift):
+			long deadline = startTime + (tick + 1) * tickNanos;
+			long now;
+			while ((now = System.nanoTime()) < deadline) {
+				LockSupport.parkNanos(this, deadline - now);
+				if (!running) return;
+			}
+
+			processCancelledTimeouts();
+			transferPendingTimeouts();
+			wheel[(int)(tick & mask)].expireTimeouts(now);
+			tick++;
+		}
+	}
+
+	private void transferPendingTimeouts() {
+
+		Timeout t;
+		while ((t = pendingTimeouts.poll()) != null) {
+			if (t.state != Timeout.ST_INIT) continue; // cancelled before being hashed
+			long ticks = (t.deadline - startTime + tickNanos - 1) / tickNanos; // rounded up so that we never fire early
+			if (ticks < tick) ticks = tick; // already late: expire on current tick
+			t.remainingRounds = (ticks - tick) / wheel.length;
+			wheel[(int)(ticks & mask)].add(t);
+		}
+	}
+
+	private void processCancelledTimeouts() {
+
+		Timeout t;
+		while ((t = cancelledTimeouts.poll()) != null) {
+			if (t.bucket != null) t.bucket.remove(t);
+		}
+	}
+
+	// -------------- inner classes --------------
+
+	/**
+	 * A handle to a task scheduled on this wheel.
+	 */
+	public final class Timeout {
+
+		private static final int ST_INIT = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+
+		private final Runnable task;
+		private final long deadline;
+		private volatile int state = ST_INIT;
+
+		// wheel thread only:
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout next, prev;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancel this timeout if it hasn't expired yet.
+		 * @return true if the task will not be executed
+		 */
+		public boolean cancel() {
+
+			synchronized (this) {
+				if (state != ST_INIT) return state == ST_CANCELLED;
+				state = ST_CANCELLED;
+			}
+			cancelledTimeouts.add(this);
+			return true;
+		}
+
+		public boolean isExpired() {
+			return state == ST_EXPIRED;
+		}
+
+		public boolean isCancelled() {
+			return state == ST_CANCELLED;
+		}
+
+		/* wheel thread only */
+		private void expire() {
+
+			synchronized (this) {
+				if (state != ST_INIT) return;
+				state = ST_EXPIRED;
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/*
+	 * A doubly linked list of timeouts ; only accessed from the wheel thread.
+	 */
+	private static final class Bucket {
+
+		private Timeout head, tail;
+
+		void add(Timeout t) {
+			t.bucket = this;
+			if (head == null) head = tail = t;
+			else {
+				tail.next = t;
+				t.prev = tail;
+				tail = t;
+			}
+		}
+
+		Timeout remove(Timeout t) {
+			Timeout next = t.next;
+			if (t.prev != null) t.prev.next = next;
+			if (next != null) next.prev = t.prev;
+			if (t == head) head = next;
+			if (t == tail) tail = t.prev;
+			t.prev = t.next = null;
+			t.bucket = null;
+			return next;
+		}
+
+		void expireTimeouts(long now) {
+
+			Timeout t = head;
+			while (t != null) {
+				if (t.remainingRounds <= 0) {
+					Timeout next = remove(t);
+					t.expire();
+					t = next;
+				}
+				else {
+					t.remainingRounds--;
+					t = t.next;
+				}
+			}
+		}
+	}
+
+	// ---------------------- test methods --------------------------
+
+	public static void main(String[] args) throws Exception {
+
+		HashedTimerWheel w = new HashedTimerWheel();
+		long t0 = System.nanoTime();
+		for (int delay : new int[] {10, 50, 100, 1000, 800})
+			w.schedule(() -> System.out.printf("scheduled after %d ms, expired after %.1f ms\n", delay, (System.nanoTime()-t0)/1e6), delay);
+		Timeout t = w.schedule(() -> System.out.println("should not be displayed"), 500);
+		t.cancel();
+		Thread.sleep(1500);
+		w.stop();
+	}
+}
@@ -0,0 +1,374 @@
+package controller.component;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import javax.swing.event.EventListenerList;
+
+import controller.event.PadEvent;
+import controller.event.PadEventListener;
+import device.MCP23017;
+import device.MCP23017.Port;
+
+/**
+ * Scans a 8x8 key matrix wired to a single MCP23017 device: port A drives the 8 lines, port B senses the 8 columns with 
+ * pull-ups enabled, so that a closed key reads LOW.
+ * The output latch of port A is kept at 0 and lines are driven through the direction register: the selected line is
+ * an output, hence LOW, while the others are inputs pulled up. Port A being push-pull, driving idle lines HIGH would
+ * short two outputs as soon as two keys of the same column get pressed.
+ * The 64 physical keys are mapped onto a 16x4 logical pad, see getColumn() and getRow().
+ *
+ * One drive step costs two I2C transactions (write IODIRA, then read GPIOB), and all lines get released at the end
+ * of the scan, hence a full scan is 17 transactions.
+ * Scans occur at a fixed rate on a dedicated thread, with absolute deadlines so that the rate doesn't drift.
+ * The duration of each full scan is measured and compared to the I2C budget (a fraction of the scan period).
+ *
+ * Each key has an integrator-based debouncer: its counter gets incremented when the key reads closed and decremented
+ * otherwise ; a PRESS is reported when the counter reaches the threshold, a RELEASE when it gets back to 0.
+ * Velocity is estimated from the time elapsed between the first contact and the debounced PRESS: a firm hit settles in
+ * the minimum time, while a soft one bounces for longer.
+ *
+ * Without diodes, three keys pressed at three corners of a rectangle make the fourth corner look pressed (ghosting).
+ * Whenever two drive lines share two or more closed columns, new presses on these keys are held back until the
+ * ambiguity disappears.
+ *
+ * All per-key state lives in primitive arrays, and events are packed into ints (see PadEvent), so that
+ * the scan loop does not allocate.
+ *
+ * @author reynal
+ *
+ */
+public class KeypadMatrixScanner {
+
+	private static final Logger LOGGER = Logger.getLogger("confLogger");
+
+	public static final int DRIVE_LINES = 8;
+	public static final int SENSE_LINES = 8;
+	public static final int KEY_COUNT = DRIVE_LINES * SENSE_LINES;
+	public static final int COLUMNS = 16; // logical layout
+	public static final int ROWS = 4;
+
+	public static final int DEFAULT_SCAN_RATE_HZ = 250; // 4ms period ; a full scan takes about 1.5ms with a 400kHz I2C clock
+	public static final double DEFAULT_I2C_BUDGET_RATIO = 0.5; // fraction of the scan period the I2C bus may be busy with scanning
+	private static final int DEBOUNCE_THRESHOLD = 3; // in scans
+	private static final long SLOWEST_PRESS_NS = TimeUnit.MILLISECONDS.toNanos(40); // maps to velocity 1
+	private static final long STATS_LOG_PERIOD_NS = TimeUnit.SECONDS.toNanos(10);
+	private static final byte ALL_LINES_RELEASED = (byte)0xFF; // IODIRA: every drive line is an input
+
+	private final MCP23017 device;
+	private final long periodNanos;
+	private final long budgetNanos;
+	private final EventListenerList listenerList = new EventListenerList();
+
+	// scan state (scanner thread only):
+	private final int[] rawColumns = new int[DRIVE_LINES]; // closed sense lines for each drive line, bit set = key closed
+	private final int[] ghostMasks = new int[DRIVE_LINES]; // keys whose state is ambiguous
+	private final byte[] integrators = new byte[KEY_COUNT];
+	private final long[] firstContactNanos = new long[KEY_COUNT];
+	private long stableKeys; // bit k set = key k is pressed
+
+	// statistics:
+	private volatile long scanCount;
+	private volatile long totalScanNanos;
+	private volatile long maxScanNanos;
+	private volatile long budgetOverruns; // scans that exceeded the I2C budget
+	private volatile long missedDeadlines; // scans that started more than one period late
+
+	private Thread scanThread;
+	private volatile boolean running;
+
+	// -------------- constructors --------------
+
+	/**
+	 * @param device the MCP23017 device the matrix is wired to
+	 * @param scanRateHz number of full scans per second
+	 * @param budgetRatio the fraction of the scan period a full scan may take on the I2C bus
+	 * @throws IOException if the device cannot be configured
+	 */
+	public KeypadMatrixScanner(MCP23017 device, int scanRateHz, double budgetRatio) throws IOException {
+
+		this.device = device;
+		this.periodNanos = TimeUnit.SECONDS.toNanos(1) / scanRateHz;
+		this.budgetNanos = (long)(periodNanos * budgetRatio);
+
+		device.setInput(Port.A); // all drive lines released
+		device.setPullupResistors(Port.A, true);
+		device.write(Port.A, (byte)0x00); // OLATA: whichever line becomes an output is driven LOW
+		device.setInput(Port.B);
+		device.setPullupResistors(Port.B, true);
+		device.setInterruptOnChange(Port.B, false); // polled
+	}
+
+	/**
+	 * Scanner with default scan rate and I2C budget
+	 */
+	public KeypadMatrixScanner(MCP23017 device) throws IOException {
+		this(device, DEFAULT_SCAN_RATE_HZ, DEFAULT_I2C_BUDGET_RATIO);
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * Starts the scan thread.
+	 */
+	public synchronized void start() {
+
+		if (running) return;
+		running = true;
+		scanThread = new Thread(this::scanLoop, "KeypadMatrixScanner");
+		scanThread.setDaemon(true);
+		scanThread.setPriority(Thread.MAX_PRIORITY);
+		scanThread.start();
+		LOGGER.info("Starting keypad matrix scan at " + TimeUnit.SECONDS.toNanos(1)/periodNanos + "Hz, I2C budget " + budgetNanos/1000 + "us per scan");
+	}
+
+	/**
+	 * Stops the scan thread and releases the drive lines.
+	 */
+	public synchronized void stop() {
+
+		running = false;
+		if (scanThread != null) {
+			LockSupport.unpark(scanThread);
+			try {
+				scanThread.join(100);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			scanThread = null;
+		}
+		try {
+			device.setDirection(Port.A, ALL_LINES_RELEASED);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return the logical column (0-15) of the given physical key
+	 */
+	public static int getColumn(int key) {
+		int drive = key / SENSE_LINES, sense = key % SENSE_LINES;
+		return drive * 2 + (sense >> 2);
+	}
+
+	/**
+	 * @return the logical row (0-3) of the given physical key
+	 */
+	public static int getRow(int key) {
+		return (key % SENSE_LINES) & 0x3;
+	}
+
+	/**
+	 * @return true if the pad at the given logical position is currently pressed (debounced)
+	 */
+	public boolean isPressed(int column, int row) {
+		int key = (column >> 1) * SENSE_LINES + ((column & 1) << 2) + row;
+		return (stableKeys & (1L << key)) != 0;
+	}
+
+	/**
+	 * @return the mean duration of a full scan in microseconds
+	 */
+	public double getAverageScanTimeMicros() {
+		long n = scanCount;
+		return n == 0 ? 0 : totalScanNanos / 1000.0 / n;
+	}
+
+	/**
+	 * @return the longest full scan in microseconds
+	 */
+	public double getMaxScanTimeMicros() {
+		return maxScanNanos / 1000.0;
+	}
+
+	/**
+	 * @return the number of scans that exceeded the I2C budget
+	 */
+	public long getBudgetOverrunCount() {
+		return budgetOverruns;
+	}
+
+	/**
+	 * @return the number of scans that started more than one period late
+	 */
+	public long getMissedDeadlineCount() {
+		return missedDeadlines;
+	}
+
+	public long getScanCount() {
+		return scanCount;
+	}
+
+	/**
+	 * Adds the specified listener to receive pad events from this scanner.
+	 * Listeners are called from the scanner thread and should return quickly.
+	 */
+	public void addPadEventListener(PadEventListener l) {
+		listenerList.add(PadEventListener.class, l);
+	}
+
+	/**
+	 * Removes the specified listener so that it no longer receives pad events.
+	 */
+	public void removePadEventListener(PadEventListener l) {
+		listenerList.remove(PadEventListener.class, l);
+	}
+
+	// -------------- private methods --------------
+
+	/*
+	 * scanner thread
+	 */
+	private void scanLoop() {
+
+		long deadline = System.nanoTime();
+		long lastStatsLog = deadline;
+
+		while (running) {
+
+			long start = System.nanoTime();
+			try {
+				scan();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			long end = System.nanoTime();
+			updateStatistics(end - start);
+			processScan(end);
+
+			if (end - lastStatsLog > STATS_LOG_PERIOD_NS) {
+				lastStatsLog = end;
+				LOGGER.fine(String.format("Keypad scan: avg=%.0fus max=%.0fus budget=%dus overruns=%d missed=%d",
+						getAverageScanTimeMicros(), getMaxScanTimeMicros(), budgetNanos/1000, budgetOverruns, missedDeadlines));
+			}
+
+			deadline += periodNanos;
+			long now = System.nanoTime();
+			if (now - deadline > periodNanos) { // too late: resync rather than scanning in a burst
+				missedDeadlines++;
+				deadline = now;
+			}
+			while ((now = System.nanoTime()) < deadline && running)
+				LockSupport.parkNanos(this, deadline - now);
+		}
+	}
+
+	/*
+	 * one full scan: 2 I2C transactions per drive line, plus the final release
+	 */
+	private void scan() throws IOException {
+
+		for (int drive = 0; drive < DRIVE_LINES; drive++) {
+			device.setDirection(Port.A, (byte)~(1 << drive)); // only this line is an output
+			rawColumns[drive] = ~device.read(Port.B) & 0xFF; // closed keys read LOW
+		}
+		device.setDirection(Port.A, ALL_LINES_RELEASED);
+	}
+
+	private void updateStatistics(long scanNanos) {
+
+		scanCount++;
+		totalScanNanos += scanNanos;
+		if (scanNanos > maxScanNanos) maxScanNanos = scanNanos;
+		if (scanNanos > budgetNanos) {
+			if (budgetOverruns++ == 0) LOGGER.warning("Keypad scan took " + scanNanos/1000 + "us, I2C budget is " + budgetNanos/1000 + "us");
+		}
+	}
+
+	/*
+	 * ghost detection, debouncing and event generation
+	 */
+	private void processScan(long now) {
+
+		// ghost detection: two drive lines sharing at least two closed sense lines form a rectangle
+		for (int i = 0; i < DRIVE_LINES; i++) ghostMasks[i] = 0;
+		for (int i = 0; i < DRIVE_LINES; i++) {
+			if (Integer.bitCount(rawColumns[i]) < 2) continue;
+			for (int j = i + 1; j < DRIVE_LINES; j++) {
+				int shared = rawColumns[i] & rawColumns[j];
+				if (Integer.bitCount(shared) >= 2) {
+					ghostMasks[i] |= shared;
+					ghostMasks[j] |= shared;
+				}
+			}
+		}
+
+		for (int drive = 0; drive < DRIVE_LINES; drive++) {
+			int closed = rawColumns[drive];
+			for (int sense = 0; sense < SENSE_LINES; sense++) {
+
+				int key = drive * SENSE_LINES + sense;
+				long keyBit = 1L << key;
+				boolean pressed = (stableKeys & keyBit) != 0;
+				boolean isClosed = (closed & (1 << sense)) != 0;
+
+				if (isClosed && !pressed && (ghostMasks[drive] & (1 << sense)) != 0) continue; // ambiguous: hold back new presses
+
+				int count = integrators[key];
+				if (isClosed) {
+					if (count == 0) firstContactNanos[key] = now;
+					if (count < DEBOUNCE_THRESHOLD) count++;
+					if (count == DEBOUNCE_THRESHOLD && !pressed) {
+						stableKeys |= keyBit;
+						firePadEvent(PadEvent.pack(PadEvent.PRESS, getColumn(key), getRow(key), computeVelocity(now - firstContactNanos[key])));
+					}
+				}
+				else if (count > 0) {
+					count--;
+					if (count == 0 && pressed) {
+						stableKeys &= ~keyBit;
+						firePadEvent(PadEvent.pack(PadEvent.RELEASE, getColumn(key), getRow(key), 0));
+					}
+				}
+				integrators[key] = (byte)count;
+			}
+		}
+	}
+
+	/*
+	 * maps the settling time of a key to a MIDI velocity: the fastest possible settling time (i.e. debouncing time) gives 127
+	 */
+	private int computeVelocity(long settlingNanos) {
+
+		long fastest = (DEBOUNCE_THRESHOLD - 1) * periodNanos;
+		if (settlingNanos <= fastest) return 127;
+		if (settlingNanos >= SLOWEST_PRESS_NS) return 1;
+		return 127 - (int)(126 * (settlingNanos - fastest) / (SLOWEST_PRESS_NS - fastest));
+	}
+
+	/*
+	 * Notify all listeners that have registered interest for notification on this event type.
+	 */
+	private void firePadEvent(int packedEvent) {
+
+		// Guaranteed to return a non-null array
+		Object[] listeners = listenerList.getListenerList();
+
+		// Process the listeners last to first, notifying
+		// those that are interested in this event
+		for (int i = listeners.length - 2; i >= 0; i -= 2) {
+			if (listeners[i] == PadEventListener.class) {
+				((PadEventListener) listeners[i + 1]).padEventOccured(packedEvent);
+			}
+		}
+	}
+
+	// ---------------- test --------------
+
+	public static void main(String[] args) throws Exception  {
+
+		MCP23017 device = new MCP23017(MCP23017.DeviceAddress.ADR_002);
+		KeypadMatrixScanner scanner = new KeypadMatrixScanner(device);
+		scanner.addPadEventListener(e -> System.out.println(PadEvent.toString(e)));
+		scanner.start();
+		for (int i=0; i<30; i++) {
+			Thread.sleep(1000);
+			System.out.printf("scans=%d avg=%.0fus max=%.0fus overruns=%d\n", scanner.getScanCount(), scanner.getAverageScanTimeMicros(), scanner.getMaxScanTimeMicros(), scanner.getBudgetOverrunCount());
+		}
+		scanner.stop();
+		device.close();
+	}
+}
@@ -1,6 +1,8 @@
 package controller.component;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 import com.pi4j.io.gpio.*;
@@ -9,9 +11,17 @@ import controller.event.*;
 import device.MCP23017;
 import device.MCP23017.InterruptEvent;
 import device.MCP23017.InterruptListener;
+import misc.LatencyMonitor;
+import misc.LatencyProbe;
 
 /**
- * a class that represents a push button on the front pane
+ * a class that represents a push button on the front pane.
+ * 
+ * Raw level changes coming from the hardware are debounced and turned into gestures by a small state machine
+ * driven by the shared HashedTimerWheel, so that a large number of buttons (e.g. the 64 pads of the PerformancePad)
+ * cost no more than a few short-lived timeouts. Emitted states are PRESSED, RELEASED, LONG_PRESS (button held down
+ * for longer than the long-press delay) and DOUBLE_PRESS (a second press following a short release). 
+ * Events are fired from the timer wheel thread.
  * 
  * @author SR
  *
@@ -22,6 +32,29 @@ public class PushButton extends Control {
 	
 	private MCP23017.Pin buttonPin; 
 	
+	public static final long DEFAULT_DEBOUNCE_MS = 20; // level must be stable for that long before being taken into account
+	public static final long DEFAULT_LONG_PRESS_MS = 600;
+	public static final long DEFAULT_DOUBLE_PRESS_MS = 300; // max delay between a release and the next press
+
+	private long debounceNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DEBOUNCE_MS);
+	private long longPressMs = DEFAULT_LONG_PRESS_MS;
+	private long doublePressNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DOUBLE_PRESS_MS);
+	
+	private final HashedTimerWheel timerWheel = HashedTimerWheel.getDefault();
+	
+	// written by the hardware thread:
+	private volatile boolean rawPressed; 
+	private volatile long rawChangeTime;
+	private volatile long gestureEdgeTime; // edge that started the pending debounce, for latency measurements
+	private final AtomicBoolean debouncePending = new AtomicBoolean(); // at most one debounce timeout per button
+	
+	// timer wheel thread only:
+	private boolean stablePressed; 
+	private long lastReleaseTime; // 0 if last press cannot be the first half of a double press
+	private boolean longPressFired;
+	private HashedTimerWheel.Timeout longPressTimeout;
+	private final LatencyProbe latencyProbe = LatencyMonitor.getDefault().getProbe(getLabel()); // includes the debounce delay
+	
 	/**
 	 * construct a pushbutton with a UI label that is connected to the given pin of the given MCP23017 device and port
 	 * @param label the UI label of the button ; may be used for a UI simulator
@@ -70,6 +103,105 @@ public class PushButton extends Control {
 		listenerList.remove(PushButtonActionListener.class, l);
 	}
 
+	/**
+	 * @param ms the delay during which a raw level must remain stable before being taken into account
+	 */
+	public void setDebounceDelay(long ms) {
+		this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(ms);
+	}
+
+	/**
+	 * @param ms the delay after which a button held down fires a LONG_PRESS
+	 */
+	public void setLongPressDelay(long ms) {
+		this.longPressMs = ms;
+	}
+
+	/**
+	 * @param ms the maximum delay between a release and the next press for these to make a DOUBLE_PRESS
+	 */
+	public void setDoublePressDelay(long ms) {
+		this.doublePressNanos = TimeUnit.MILLISECONDS.toNanos(ms);
+	}
+	
+	/**
+	 * Feeds the gesture recognizer with a raw (i.e. possibly bouncing) level read from the hardware.
+	 * This method returns immediately and may be called from any thread, e.g. an interrupt handler or a matrix scanner. 
+	 * @param pressed true if the button contact is currently closed
+	 */
+	public void updatePhysicalState(boolean pressed) {
+		updatePhysicalState(pressed, System.nanoTime());
+	}
+	
+	/**
+	 * Same as above, for a level change detected at the given time
+	 * @param edgeNanos System.nanoTime() when the edge was detected, e.g. InterruptEvent.getTimestamp()
+	 */
+	public void updatePhysicalState(boolean pressed, long edgeNanos) {
+		
+		rawPressed = pressed;
+		rawChangeTime = System.nanoTime();
+		if (debouncePending.compareAndSet(false, true)) {
+			gestureEdgeTime = edgeNanos;
+			timerWheel.schedule(this::debounceExpired, TimeUnit.NANOSECONDS.toMillis(debounceNanos));
+		}
+	}
+	
+	/*
+	 * timer wheel thread: check that the raw level has been stable long enough, otherwise wait for the remaining time 
+	 */
+	private void debounceExpired() {
+		
+		long now = System.nanoTime();
+		long changeTime = rawChangeTime;
+		long remaining = changeTime + debounceNanos - now;
+		if (remaining > 0) { // level changed in the meantime (bounce)
+			timerWheel.schedule(this::debounceExpired, TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+			return;
+		}
+		debouncePending.set(false);
+		
+		boolean pressed = rawPressed;
+		if (rawChangeTime != changeTime) { // changed before the flag got cleared, hence nobody scheduled a timeout for it
+			if (debouncePending.compareAndSet(false, true)) timerWheel.schedule(this::debounceExpired, TimeUnit.NANOSECONDS.toMillis(debounceNanos));
+			return;
+		}
+		if (pressed == stablePressed) return; // bounce back to previous state
+		stablePressed = pressed;
+		
+		long edge = gestureEdgeTime;
+		latencyProbe.begin(edge); // views and serial transmitter record when the gesture reaches them
+		try {
+			if (pressed) {
+				fireActionEvent(PushButtonState.PRESSED, edge);
+				if (lastReleaseTime != 0 && now - lastReleaseTime < doublePressNanos) {
+					lastReleaseTime = 0; // a third press makes no triple press
+					fireActionEvent(PushButtonState.DOUBLE_PRESS, edge);
+				}
+				longPressFired = false;
+				longPressTimeout = timerWheel.schedule(this::longPressExpired, longPressMs);
+			}
+			else {
+				if (longPressTimeout != null) longPressTimeout.cancel();
+				longPressTimeout = null;
+				fireActionEvent(PushButtonState.RELEASED, edge);
+				lastReleaseTime = longPressFired ? 0 : now; // a long press cannot start a double press
+			}
+		} finally {
+			LatencyProbe.end();
+		}
+	}
+	
+	/*
+	 * timer wheel thread
+	 */
+	private void longPressExpired() {
+
+		if (!stablePressed) return;
+		longPressFired = true;
+		fireActionEvent(PushButtonState.LONG_PRESS);
+	}
+
 	/**
 	 * Notify all listeners that have registered interest for notification on this
 	 * event type. The event instance is lazily created using the parameters passed
@@ -77,6 +209,13 @@ public class PushButton extends Control {
 	 *
 	 */
 	public void fireActionEvent(PushButtonState state) { // note SR : should be protected, but we have to make it public cause SwingMain uses it in simulator mode
+		fireActionEvent(state, System.nanoTime());
+	}
+	
+	/*
+	 * same as above, for a gesture that started with an edge detected at the given time
+	 */
+	private void fireActionEvent(PushButtonState state, long edgeNanos) {
 
 		// Guaranteed to return a non-null array
 		Object[] listeners = listenerList.getListenerList();
@@ -88,7 +227,7 @@ public class PushButton extends Control {
 			if (listeners[i] == PushButtonActionListener.class) {
 				// Lazily create the event:
 				if (e == null)
-					e = new PushButtonActionEvent(this, state);
+					e = new PushButtonActionEvent(this, state, edgeNanos);
 				((PushButtonActionListener) listeners[i + 1]).actionPerformed(e); 
 			}
 		}
@@ -105,7 +244,7 @@ public class PushButton extends Control {
 
 			if (event.getPin() == buttonPin) {
 				//System.out.println(event);
-				fireActionEvent(event.getLevel() == PinState.HIGH ? PushButtonState.RELEASED : PushButtonState.PRESSED);
+				updatePhysicalState(event.getLevel() == PinState.LOW, event.getTimestamp()); // pull-up enabled, hence button shorts pin to ground
 			}
 			
 		}	 
@@ -1,9 +1,14 @@
 package controller.component;
 
+/**
+ * States (or rather gestures) reported by a PushButton.
+ */
 public enum PushButtonState {
 	
 	PRESSED,
-	RELEASED;
+	RELEASED,
+	LONG_PRESS, // fired while the button is still held down, before RELEASED
+	DOUBLE_PRESS; // fired right after the PRESSED event of the second press
 
 }
 
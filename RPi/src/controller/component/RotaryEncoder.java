@@ -13,6 +13,8 @@ import device.MCP23017.DeviceAddress;
 import device.MCP23017.InterruptEvent;
 import device.MCP23017.InterruptListener;
 import device.MCP23017.Port;
+import misc.LatencyMonitor;
+import misc.LatencyProbe;
 
 /**
  * A hardware quadratic encoder that can fire UP or DOWN change events upon rotation.
@@ -31,6 +33,7 @@ public class RotaryEncoder extends Control  {
 	private PinState levelB; // dernier niveau logique enregistré sur entree B
 	private Channel previousTriggeringChannel; // dernier port ayant changé d'état (soit gpioA soit gpioB ; pour le debounce)
 	public static enum Channel {A,B};
+	private LatencyProbe latencyProbe; // edge to LED/wire latency of physical detents
 	
 	public static enum Direction {
 
@@ -63,6 +66,7 @@ public class RotaryEncoder extends Control  {
 			mcpDevice.enablePullupResistor(gpioB); 
 			mcpDevice.enableInterruptOnChange(gpioA); // enables GPIO input pin for interrupt-on-change
 			mcpDevice.enableInterruptOnChange(gpioB); 
+			latencyProbe = LatencyMonitor.getDefault().getProbe(getLabel());
 			mcpDevice.addInterruptListener(new PhysicalEncoderChangeListener());
 		}
 		//else LOGGER.warning("No MCP23017 registered for " + toString()+" -> simulator mode only");
@@ -101,6 +105,14 @@ public class RotaryEncoder extends Control  {
 	 * the fire method.
 	 */
 	 public void fireChangeEvent(Direction dir) { // TODO note SR : should be protected, but we have to make it public cause SwingMain uses it in simulator mode
+		 fireChangeEvent(dir, System.nanoTime());
+	 }
+	 
+	 /**
+	  * Same as above, for a physical edge detected at the given time
+	  * @param edgeNanos System.nanoTime() when the edge was detected
+	  */
+	 protected void fireChangeEvent(Direction dir, long edgeNanos) {
 		 
 	     // Guaranteed to return a non-null array
 	     Object[] listeners = listenerList.getListenerList();
@@ -111,7 +123,7 @@ public class RotaryEncoder extends Control  {
 	     for (int i = listeners.length-2; i>=0; i-=2) {
 	         if (listeners[i]==RotaryEncoderChangeListener.class) {
 	             // Lazily create the event:
-	             if (e == null) e = new RotaryEncoderEvent(this, dir);
+	             if (e == null) e = new RotaryEncoderEvent(this, dir, edgeNanos);
 	             ((RotaryEncoderChangeListener)listeners[i+1]).encoderRotated(e); // TODO (reynal) fire changes on EDT!
 	         }
 	     }
@@ -154,13 +166,22 @@ public class RotaryEncoder extends Control  {
 
 			if (triggeringChannel != previousTriggeringChannel){ // c'est pas un rebond !
 				previousTriggeringChannel = triggeringChannel;
+				Direction dir = null;
 				if ((triggeringChannel == Channel.A) && (levelA == PinState.LOW) && (levelB==PinState.LOW)){ 
 					//++position; // transition 10 -> 00
-					fireChangeEvent(Direction.UP);
+					dir = Direction.UP;
 				}
 				else if ((triggeringChannel == Channel.B) && (levelB == PinState.HIGH) && (levelA==PinState.HIGH)){ 
 					//--position; // transition 10 -> 11
-					fireChangeEvent(Direction.DOWN);
+					dir = Direction.DOWN;
+				}
+				if (dir != null) {
+					latencyProbe.begin(event.getTimestamp()); // views and serial transmitter record when the detent reaches them
+					try {
+						fireChangeEvent(dir, event.getTimestamp());
+					} finally {
+						LatencyProbe.end();
+					}
 				}
 				//System.out.println("pos="+position);
 			}
@@ -0,0 +1,53 @@
+package controller.event;
+
+/**
+ * Pad events produced by a keypad matrix scanner are packed into a single int, so that a full scan
+ * doesn't allocate anything on the scanner thread. This class provides static methods to pack and unpack them:
+ * 
+ * bit 31-16: unused
+ * bit 15-14: type (PRESS, RELEASE)
+ * bit 13-10: column (0-15)
+ * bit  9- 7: row (0-7)
+ * bit  6- 0: velocity (1-127 for a PRESS, 0 for a RELEASE)
+ * 
+ * @author reynal
+ *
+ */
+public final class PadEvent {
+
+	public static final int RELEASE = 0;
+	public static final int PRESS = 1;
+	
+	private PadEvent() {} // static methods only
+	
+	/**
+	 * @return the given pad event packed in an int
+	 */
+	public static int pack(int type, int column, int row, int velocity) {
+		return ((type & 0x3) << 14) | ((column & 0xF) << 10) | ((row & 0x7) << 7) | (velocity & 0x7F);
+	}
+	
+	public static int getType(int packedEvent) {
+		return (packedEvent >> 14) & 0x3;
+	}
+
+	public static boolean isPress(int packedEvent) {
+		return getType(packedEvent) == PRESS;
+	}
+	
+	public static int getColumn(int packedEvent) {
+		return (packedEvent >> 10) & 0xF;
+	}
+	
+	public static int getRow(int packedEvent) {
+		return (packedEvent >> 7) & 0x7;
+	}
+	
+	public static int getVelocity(int packedEvent) {
+		return packedEvent & 0x7F;
+	}
+	
+	public static String toString(int packedEvent) {
+		return (isPress(packedEvent) ? "PRESS" : "RELEASE") + " pad[" + getColumn(packedEvent) + "," + getRow(packedEvent) + "] velocity=" + getVelocity(packedEvent);
+	}
+}
@@ -0,0 +1,12 @@
+package controller.event;
+
+import java.util.EventListener;
+
+/**
+ * A listener for pad events packed into an int (see PadEvent)
+ */
+public interface PadEventListener extends EventListener {
+
+	void padEventOccured(int packedEvent);
+	
+}
@@ -14,16 +14,32 @@ public class PushButtonActionEvent extends EventObject {
 	private static final long serialVersionUID = 1L;
 	
 	PushButtonState state;
+	long timestamp;
 	
 	public PushButtonActionEvent(Object source, PushButtonState state) {
+		this(source, state, System.nanoTime());
+	}
+	
+	/**
+	 * @param timestamp System.nanoTime() when the physical edge that started this gesture was detected
+	 */
+	public PushButtonActionEvent(Object source, PushButtonState state, long timestamp) {
 		super(source);
 		this.state = state;
+		this.timestamp = timestamp;
 	}
 	
 	public PushButtonState getState() {
 		return state;
 	}
 	
+	/**
+	 * @return System.nanoTime() when the physical edge that started this gesture was detected
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
 	@Override
 	public String toString() {
 		
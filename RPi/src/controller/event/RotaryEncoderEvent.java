@@ -14,15 +14,31 @@ public class RotaryEncoderEvent extends EventObject {
 	private static final long serialVersionUID = 1L;
 	
 	RotaryEncoder.Direction direction;
+	long timestamp;
 
 	public RotaryEncoderEvent(Object source, RotaryEncoder.Direction direction) {
+		this(source, direction, System.nanoTime());
+	}
+
+	/**
+	 * @param timestamp System.nanoTime() when the physical edge was detected
+	 */
+	public RotaryEncoderEvent(Object source, RotaryEncoder.Direction direction, long timestamp) {
 		super(source);
 		this.direction = direction;
+		this.timestamp = timestamp;
 	}
 	
 	public RotaryEncoder.Direction getDirection() {
 		return direction;
 	}
+	
+	/**
+	 * @return System.nanoTime() when the physical edge that led to this event was detected
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
 
 	@Override
 	public String toString() {
@@ -0,0 +1,58 @@
+package device;
+
+import com.pi4j.io.gpio.*;
+import com.pi4j.io.gpio.event.*;
+
+/**
+ * An InterruptPin backed by a RPi gpio provisioned through pi4j as an input with its internal pull-up enabled
+ * (as needed by open-drain interrupt outputs).
+ *
+ * @author reynal
+ *
+ */
+public class GpioInterruptPin implements InterruptPin {
+
+	private final com.pi4j.io.gpio.Pin pin;
+	private final GpioPinDigitalInput gpio;
+
+	/**
+	 * Provisions the given RPi pin ; make sure it wasn't previously provisioned.
+	 */
+	public GpioInterruptPin(com.pi4j.io.gpio.Pin pin) {
+
+		this.pin = pin;
+		this.gpio = GpioFactory.getInstance().provisionDigitalInputPin(pin, PinPullResistance.PULL_UP);
+	}
+
+	/**
+	 * @return the RPi pin this line is connected to
+	 */
+	public com.pi4j.io.gpio.Pin getPin() {
+		return pin;
+	}
+
+	@Override
+	public boolean isLow() {
+		return gpio.isLow();
+	}
+
+	@Override
+	public void addFallingEdgeListener(Runnable l) {
+
+		gpio.addListener((GpioPinListenerDigital)event -> {
+			if (event.getEdge() == PinEdge.FALLING) l.run();
+		});
+	}
+
+	@Override
+	public void close() {
+
+		gpio.removeAllListeners();
+		GpioFactory.getInstance().unprovisionPin(gpio);
+	}
+
+	@Override
+	public String toString() {
+		return pin.toString();
+	}
+}
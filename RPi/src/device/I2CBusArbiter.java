@@ -0,0 +1,472 @@
+package device;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.pi4j.io.i2c.*;
+import com.pi4j.io.i2c.I2CFactory.UnsupportedBusNumberException;
+
+/**
+ * Owns an I2C bus (bus 1 by default) and serializes every transaction onto a single I/O thread, so that transactions
+ * issued from different threads (interrupt callbacks, LED refresh thread, EDT...) never interleave on the bus.
+ *
+ * Devices get an I2CDevice proxy from getDevice() along with a priority: pending transactions are served by order of priority
+ * first, then by order of submission, so that e.g. encoder interrupt reads (HIGH) preempt queued LED flushes (LOW).
+ * Transactions of a given device are always executed in order, as long as the device always uses the same priority.
+ *
+ * Writes of LOW priority devices are posted, i.e. the caller doesn't wait for them to complete (errors get logged) ; in addition,
+ * a posted write that extends the previous pending write of the same device to the next contiguous registers
+ * is merged into it, which saves a transaction on auto-increment devices. Reads and every other transaction are synchronous.
+ *
+ * Bus time and bytes transferred are recorded for each device, see getUtilization().
+ *
+ * @author reynal
+ *
+ */
+public class I2CBusArbiter {
+
+	private static final Logger LOGGER = Logger.getLogger("confLogger");
+
+	/**
+	 * Transaction priorities ; HIGH transactions are served first.
+	 */
+	public static enum Priority {
+		HIGH, // e.g. input reads
+		NORMAL,
+		LOW; // e.g. LED refresh, posted writes
+	}
+
+	private static I2CBusArbiter defaultArbiter;
+
+	private final I2CBus bus;
+	private final PriorityBlockingQueue<Transaction> queue = new PriorityBlockingQueue<Transaction>();
+	private final AtomicLong sequenceCounter = new AtomicLong();
+	private final List<ArbitratedDevice> devices = new ArrayList<ArbitratedDevice>();
+	private final Thread ioThread;
+	private volatile boolean running = true;
+	private volatile long statisticsStartNanos = System.nanoTime();
+
+	// -------------- constructors --------------
+
+	/**
+	 * Creates an arbiter for the given bus and starts its I/O thread.
+	 */
+	public I2CBusArbiter(I2CBus bus) {
+
+		this.bus = bus;
+		ioThread = new Thread(this::ioLoop, "I2CBusArbiter-" + bus.getBusNumber());
+		ioThread.setDaemon(true);
+		ioThread.setPriority(Thread.MAX_PRIORITY);
+		ioThread.start();
+	}
+
+	/**
+	 * @return the arbiter for I2C bus 1 ; created on first call
+	 */
+	public static synchronized I2CBusArbiter getDefault() throws IOException, UnsupportedBusNumberException {
+
+		if (defaultArbiter == null) {
+			defaultArbiter = new I2CBusArbiter(I2CFactory.getInstance(I2CBus.BUS_1));
+			LOGGER.info("I2C bus 1 now owned by arbiter");
+		}
+		return defaultArbiter;
+	}
+
+	/**
+	 * Replaces the default arbiter, e.g. with one running on a device.sim.SimulatedI2CBus so that devices can be
+	 * exercised without a Raspberry Pi. Must be called before any device gets created.
+	 */
+	public static synchronized void setDefault(I2CBusArbiter arbiter) {
+		defaultArbiter = arbiter;
+	}
+
+	/**
+	 * Logs bus usage statistics and closes the default arbiter, if it was ever created.
+	 */
+	public static synchronized void closeDefault() throws IOException {
+
+		if (defaultArbiter == null) return;
+		LOGGER.info(defaultArbiter.getStatistics());
+		defaultArbiter.close();
+		defaultArbiter = null;
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * Creates a proxy to the device at the given address, whose transactions get executed by the I/O thread.
+	 * @param address I2C address
+	 * @param priority priority of every transaction issued through this proxy
+	 * @param mergeableRegisterCount posted writes that fall entirely below this register address may be merged (auto-increment devices only) ; 0 disables merging
+	 */
+	public synchronized I2CDevice getDevice(int address, Priority priority, int mergeableRegisterCount) throws IOException {
+
+		ArbitratedDevice d = new ArbitratedDevice(bus.getDevice(address), priority, mergeableRegisterCount);
+		devices.add(d);
+		return d;
+	}
+
+	/**
+	 * Proxy with no write merging
+	 */
+	public I2CDevice getDevice(int address, Priority priority) throws IOException {
+		return getDevice(address, priority, 0);
+	}
+
+	/**
+	 * Waits until every transaction submitted so far, including posted writes, has been executed.
+	 */
+	public void drain() throws IOException {
+
+		if (!running) return;
+		Transaction barrier = new Transaction(null, Priority.LOW, sequenceCounter.getAndIncrement(), raw -> 0, 0, false);
+		queue.add(barrier);
+		barrier.await();
+	}
+
+	/**
+	 * Runs the given callback on the I/O thread once every transaction submitted so far, including posted writes, has been executed ;
+	 * unlike drain(), returns right away. Right away too if the arbiter is closed.
+	 */
+	public void whenDrained(Runnable callback) {
+
+		if (!running) {
+			callback.run();
+			return;
+		}
+		queue.add(new Transaction(null, Priority.LOW, sequenceCounter.getAndIncrement(), raw -> {
+			callback.run();
+			return 0;
+		}, 0, false));
+	}
+
+	/**
+	 * @return the fraction of bus time used by the device at the given address since statistics were last reset
+	 */
+	public synchronized double getUtilization(int address) {
+
+		long busy = 0;
+		for (ArbitratedDevice d : devices) {
+			if (d.getAddress() == address) busy += d.busyNanos;
+		}
+		return busy / (double)(System.nanoTime() - statisticsStartNanos);
+	}
+
+	/**
+	 * @return the fraction of bus time used by every device since statistics were last reset
+	 */
+	public synchronized double getUtilization() {
+
+		long busy = 0;
+		for (ArbitratedDevice d : devices) busy += d.busyNanos;
+		return busy / (double)(System.nanoTime() - statisticsStartNanos);
+	}
+
+	/**
+	 * @return a one-line-per-device summary of bus usage, e.g. for logging
+	 */
+	public synchronized String getStatistics() {
+
+		double elapsed = System.nanoTime() - statisticsStartNanos;
+		StringBuilder sb = new StringBuilder("I2C bus " + bus.getBusNumber() + " usage over " + (long)(elapsed/1e6) + "ms:");
+		for (ArbitratedDevice d : devices) {
+			sb.append(String.format("\n\t0x%02X (%s)\t%5.1f%%\t%d transactions\t%d bytes\t%d merged writes", d.getAddress(), d.priority,
+					100.0 * d.busyNanos / elapsed, d.transactionCount, d.byteCount, d.mergedWriteCount));
+		}
+		sb.append("\n\tqueue length: " + queue.size());
+		return sb.toString();
+	}
+
+	/**
+	 * Resets bus usage statistics
+	 */
+	public synchronized void resetStatistics() {
+
+		for (ArbitratedDevice d : devices) {
+			d.busyNanos = d.transactionCount = d.byteCount = d.mergedWriteCount = 0;
+		}
+		statisticsStartNanos = System.nanoTime();
+	}
+
+	/**
+	 * Stops the I/O thread once pending transactions have been executed, then closes the bus.
+	 */
+	public void close() throws IOException {
+
+		if (!running) return;
+		running = false;
+		queue.add(new Transaction(null, Priority.LOW, Long.MAX_VALUE, null, 0, false)); // poison pill, served last
+		try {
+			ioThread.join(1000);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		bus.close();
+	}
+
+	// -------------- private methods --------------
+
+	/*
+	 * I/O thread
+	 */
+	private void ioLoop() {
+
+		while (true) {
+			Transaction t;
+			try {
+				t = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (t.device != null) t.device.execute(t);
+			else if (t.operation != null) { // drain() or whenDrained() barrier
+				try {
+					t.operation.execute(null);
+				} catch (IOException | RuntimeException e) {
+					e.printStackTrace();
+				}
+				t.complete(0, null);
+			}
+			else return; // poison pill
+		}
+	}
+
+	private Transaction submit(ArbitratedDevice device, Operation op, int byteCount, boolean posted) throws IOException {
+
+		if (!running) throw new IOException("I2C bus arbiter closed");
+		Transaction t = new Transaction(device, device.priority, sequenceCounter.getAndIncrement(), op, byteCount, posted);
+		queue.add(t);
+		return t;
+	}
+
+	// -------------- inner classes --------------
+
+	/*
+	 * one bus operation on the raw device, executed on the I/O thread
+	 */
+	@FunctionalInterface
+	private static interface Operation {
+		int execute(I2CDevice rawDevice) throws IOException;
+	}
+
+	/*
+	 * a queued transaction
+	 */
+	private static class Transaction implements Comparable<Transaction> {
+
+		final ArbitratedDevice device;
+		final Priority priority;
+		final long sequence;
+		final boolean posted;
+		Operation operation;
+		int byteCount;
+		// posted mergeable writes only:
+		int register = -1;
+		byte[] data;
+		int length;
+		// guarded by device lock:
+		boolean started;
+		// result:
+		private boolean done;
+		private int result;
+		private IOException error;
+
+		Transaction(ArbitratedDevice device, Priority priority, long sequence, Operation operation, int byteCount, boolean posted) {
+			this.device = device;
+			this.priority = priority;
+			this.sequence = sequence;
+			this.operation = operation;
+			this.byteCount = byteCount;
+			this.posted = posted;
+		}
+
+		@Override
+		public int compareTo(Transaction o) {
+			int c = priority.compareTo(o.priority);
+			if (c != 0) return c;
+			return Long.compare(sequence, o.sequence);
+		}
+
+		synchronized void complete(int result, IOException error) {
+			this.result = result;
+			this.error = error;
+			this.done = true;
+			notifyAll();
+		}
+
+		synchronized int await() throws IOException {
+			boolean interrupted = false;
+			while (!done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+			if (error != null) throw new IOException(error.getMessage(), error);
+			return result;
+		}
+	}
+
+	/*
+	 * An I2CDevice proxy whose operations are executed by the I/O thread.
+	 */
+	private class ArbitratedDevice implements I2CDevice {
+
+		final I2CDevice rawDevice;
+		final Priority priority;
+		final int mergeableRegisterCount;
+		private Transaction lastPostedWrite; // guarded by this
+
+		// statistics, written by the I/O thread only:
+		volatile long busyNanos, transactionCount, byteCount, mergedWriteCount;
+
+		ArbitratedDevice(I2CDevice rawDevice, Priority priority, int mergeableRegisterCount) {
+			this.rawDevice = rawDevice;
+			this.priority = priority;
+			this.mergeableRegisterCount = mergeableRegisterCount;
+		}
+
+		/* I/O thread */
+		void execute(Transaction t) {
+
+			synchronized (this) {
+				t.started = true; // no more merging into it
+				if (lastPostedWrite == t) lastPostedWrite = null;
+			}
+			long start = System.nanoTime();
+			int result = 0;
+			IOException error = null;
+			try {
+				result = t.operation.execute(rawDevice);
+			} catch (IOException e) {
+				error = e;
+			}
+			busyNanos += System.nanoTime() - start;
+			transactionCount++;
+			byteCount += t.byteCount;
+			if (t.posted) {
+				if (error != null) {
+					LOGGER.warning(String.format("Posted write to I2C device 0x%02X failed: %s", getAddress(), error));
+					error.printStackTrace();
+				}
+			}
+			else t.complete(result, error);
+		}
+
+		private int sync(Operation op, int byteCount) throws IOException {
+			synchronized (this) {
+				lastPostedWrite = null; // later writes must not be merged ahead of this transaction
+			}
+			return submit(this, op, byteCount, false).await();
+		}
+
+		/*
+		 * posted write to a register, possibly merged into the previous pending one
+		 */
+		private void postRegisterWrite(int register, byte[] buffer, int offset, int size) throws IOException {
+
+			byte[] copy = Arrays.copyOfRange(buffer, offset, offset + size); // caller may reuse its buffer right away
+			synchronized (this) {
+				Transaction last = lastPostedWrite;
+				if (last != null && !last.started && register + size <= mergeableRegisterCount && last.register + last.length == register) {
+					if (last.data.length < last.length + size) last.data = Arrays.copyOf(last.data, Math.max(2 * last.data.length, last.length + size));
+					System.arraycopy(copy, 0, last.data, last.length, size);
+					last.length += size;
+					last.byteCount += size;
+					mergedWriteCount++;
+					return;
+				}
+				Transaction t = new Transaction(this, priority, sequenceCounter.getAndIncrement(), null, size + 2, true);
+				t.register = register;
+				t.data = copy;
+				t.length = size;
+				t.operation = raw -> {
+					if (t.length == 1) raw.write(t.register, t.data[0]);
+					else raw.write(t.register, t.data, 0, t.length);
+					return 0;
+				};
+				if (register + size <= mergeableRegisterCount) lastPostedWrite = t;
+				else lastPostedWrite = null;
+				if (!running) throw new IOException("I2C bus arbiter closed");
+				queue.add(t);
+			}
+		}
+
+		private boolean isPosted() {
+			return priority == Priority.LOW;
+		}
+
+		// ---- I2CDevice ----
+
+		@Override
+		public int getAddress() {
+			return rawDevice.getAddress();
+		}
+
+		@Override
+		public void write(byte b) throws IOException {
+			sync(raw -> { raw.write(b); return 0; }, 2);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int size) throws IOException {
+			byte[] copy = Arrays.copyOfRange(buffer, offset, offset + size);
+			sync(raw -> { raw.write(copy, 0, size); return 0; }, size + 1);
+		}
+
+		@Override
+		public void write(byte[] buffer) throws IOException {
+			write(buffer, 0, buffer.length);
+		}
+
+		@Override
+		public void write(int address, byte b) throws IOException {
+			if (isPosted()) postRegisterWrite(address, new byte[] {b}, 0, 1);
+			else sync(raw -> { raw.write(address, b); return 0; }, 3);
+		}
+
+		@Override
+		public void write(int address, byte[] buffer, int offset, int size) throws IOException {
+			if (isPosted()) postRegisterWrite(address, buffer, offset, size);
+			else {
+				byte[] copy = Arrays.copyOfRange(buffer, offset, offset + size);
+				sync(raw -> { raw.write(address, copy, 0, size); return 0; }, size + 2);
+			}
+		}
+
+		@Override
+		public void write(int address, byte[] buffer) throws IOException {
+			write(address, buffer, 0, buffer.length);
+		}
+
+		@Override
+		public int read() throws IOException {
+			return sync(raw -> raw.read(), 2);
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int size) throws IOException {
+			return sync(raw -> raw.read(buffer, offset, size), size + 1);
+		}
+
+		@Override
+		public int read(int address) throws IOException {
+			return sync(raw -> raw.read(address), 4);
+		}
+
+		@Override
+		public int read(int address, byte[] buffer, int offset, int size) throws IOException {
+			return sync(raw -> raw.read(address, buffer, offset, size), size + 3);
+		}
+
+		@Override
+		public int read(byte[] writeBuffer, int writeOffset, int writeSize, byte[] readBuffer, int readOffset, int readSize) throws IOException {
+			return sync(raw -> raw.read(writeBuffer, writeOffset, writeSize, readBuffer, readOffset, readSize), writeSize + readSize + 2);
+		}
+	}
+}
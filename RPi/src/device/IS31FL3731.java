@@ -11,6 +11,8 @@ import com.pi4j.io.i2c.I2CFactory.UnsupportedBusNumberException;
 import java.util.Scanner;
 import java.util.logging.*;
 
+import misc.LatencyProbe;
+
 /**
  * The IS31FL3731 is a device (also available as an Adafruit module, see https://www.adafruit.com/product/2946) 
  * that can drive up to 144 leds in PWM mode using a dedicated 9-line matrix multiplexing. 
@@ -36,6 +38,21 @@ import java.util.logging.*;
  * 3) i2cWrite (BLINK_REG_BASE_ADDR + 5, 0xFF) same for blinking
  * 4) i2cWrite (PWM_REG_BASE_ADDR + 21, 0x80) set the PWM ratio of LED number "21" to 50% (=5th led of 2nd row)
  * 
+ * Register shadowing:
+ * 
+ * LED setters (switchLED, setLEDpwm, etc) do not access the bus: they update an in-memory copy of the frame registers
+ * and extend the dirty range of the edited frame. flush() then compares the shadow with what the device is known to hold,
+ * and sends only the bytes that changed, coalescing neighbouring changes into auto-increment block writes
+ * (one transaction per run instead of one per LED). Since the currently selected page is tracked as well, 
+ * the Command Register never needs to be read back.
+ * 
+ * Double buffering:
+ * 
+ * In double-buffered mode (see setDoubleBuffered()), LED setters draw into a hidden "back" frame while the "front" frame 
+ * is being displayed ; flush() writes the back frame, then flips it to visible with a single write to the Picture Display 
+ * register, so that multi-LED updates never show half-applied. The new back frame then gets a copy of the
+ * new front frame in the shadow, hence only the registers modified by the last update need to be written into it next time.
+ * 
  * @author S. Reynal July 2018
  * @author Lucien Manza Nov 2018
  * 
@@ -48,6 +65,30 @@ public class IS31FL3731 {
 	private static final int COMMAND_REGISTER = 0xFD; 
 	private static final int FUNCTION_REGISTER = 0x0B;
 	protected I2CDevice i2cDevice;
+	
+	/* frame register layout: 18 on/off registers, 18 blink registers, then 144 PWM registers */
+	public static final int FRAME_COUNT = 8;
+	private static final int FRAME_REGISTER_COUNT = 0xB4; 
+	/* two runs of changed bytes separated by at most this many unchanged bytes get written in one block (re-sending a few bytes is cheaper than a new transaction) */
+	private static final int MERGE_GAP = 2; 
+	private static final int UNKNOWN_PAGE = -1;
+
+	private final byte[][] shadowRegisters = new byte[FRAME_COUNT][FRAME_REGISTER_COUNT]; // what we want the device to display
+	private final byte[][] deviceRegisters = new byte[FRAME_COUNT][FRAME_REGISTER_COUNT]; // what the device actually holds
+	private final int[] dirtyLow = new int[FRAME_COUNT]; // dirty range in each frame, empty if dirtyLow > dirtyHigh
+	private final int[] dirtyHigh = new int[FRAME_COUNT];
+	private int editedFrame = 0; // frame affected by LED setters
+	private boolean doubleBuffered;
+	private int frontFrame = 0; // frame currently displayed
+	private int backFrame = 1; // hidden frame being drawn into, double-buffered mode only
+	private boolean backFrameModified; // true if LED setters were called since last flip, double-buffered mode only
+	private volatile boolean deferredFlush; // if true, flush() is called by a refresh thread rather than by views
+	private int currentPage = UNKNOWN_PAGE; // last value written to COMMAND_REGISTER
+	private ArrayList<LatencyProbe.Stimulus> pendingStimuli = new ArrayList<LatencyProbe.Stimulus>(); // reach the LEDs once the next flush is on the bus
+	private final I2CBusArbiter arbiter;
+	
+	// bus statistics:
+	private long writeTransactionCount, bytesWrittenCount;
 	private static final Logger LOGGER = Logger.getLogger("confLogger");
 	public static final int MIN_PWM = 0;
 	public static final int MAX_PWM = 255;
@@ -76,10 +117,14 @@ public class IS31FL3731 {
 		
 		
 		// - init I2C bus, create device using given address
-		i2cDevice = I2CFactory.getInstance(I2CBus.BUS_1).getDevice(DeviceAddress.AD_GND.getValue());
+		// posted writes, merged when contiguous within a frame page:
+		arbiter = I2CBusArbiter.getDefault();
+		i2cDevice = arbiter.getDevice(DeviceAddress.AD_GND.getValue(), I2CBusArbiter.Priority.LOW, FRAME_REGISTER_COUNT);
 		LOGGER.info("I2C Bus ok");
 		
 		// - select function register
+		Arrays.fill(dirtyLow, FRAME_REGISTER_COUNT);
+		Arrays.fill(dirtyHigh, -1);
 		selectFunctionRegister();
 		
 		// - write appropriate parameter values to function register
@@ -94,16 +139,12 @@ public class IS31FL3731 {
 		// default setAutoGainControl(false, false, 0);
 		// default setAudioSampleRate(14);
 		
-		// - then selects default frame 1
-		
-		selectFrameRegister(0);
-		
-		// switch all LEDs off and set all pwm to 0
+		// switch all LEDs off, no blink, and set all pwm to 0 in every frame, so that the device content matches the (zero'd) shadow registers
 		LOGGER.info("Init LED state...");
-		int addr = FrameRegister.ONOFF_REG_BASE_ADDR.getAddress();
-		for (int i=0; i<18; i++)  i2cDevice.write(addr+i, (byte)0); // OxOO to Ox11 = 18 registers (turn all LEDs off)
-		addr = FrameRegister.PWM_REG_BASE_ADDR.getAddress();
-		for (int i=0; i<144; i++) i2cDevice.write(addr+i, (byte)0); // 0x24 to 0xB3 = 144 registers (set all PWM duty cycle data to 0)
+		for (int frame = FRAME_COUNT-1; frame >= 0; frame--) { // counts down so that frame 0, the default displayed frame, ends up selected
+			selectFrameRegister(frame);
+			writeBlock(0, deviceRegisters[frame], 0, FRAME_REGISTER_COUNT); // 0x00 to 0xB3 in a single auto-increment write
+		}
 		LOGGER.info("LED state init'd");
 	}
 	
@@ -126,10 +167,67 @@ public class IS31FL3731 {
 	 * sets the currently displayed frame when in Picture Mode (01h)
 	 * @author SR
 	 */
-	public void setDisplayedFrame(int frame) throws IOException {
+	public synchronized void setDisplayedFrame(int frame) throws IOException {
 		
 		configure(FunctionRegister.PICTURE_DISPLAY, frame % 8);
+		frontFrame = frame % 8;
+		if (!doubleBuffered) editedFrame = frontFrame;
+		
+	}
+	
+	/**
+	 * @return the frame currently displayed when in Picture Mode
+	 */
+	public synchronized int getDisplayedFrame() {
+		return frontFrame;
+	}
+	
+	/**
+	 * Enables or disables double-buffered mode, using the given two frames as front and back buffers (Picture Mode only). 
+	 * When enabled, LED setters draw into the hidden frame and flush() flips it to visible once written. 
+	 * The content of the currently displayed frame is carried over, so that enabling or disabling this mode doesn't 
+	 * change what is displayed.
+	 * @param enable true to enable double buffering 
+	 * @param frame1 the frame that is displayed first
+	 * @param frame2 the other frame
+	 */
+	public synchronized void setDoubleBuffered(boolean enable, int frame1, int frame2) throws IOException {
+		
+		if (frame1 == frame2) throw new IllegalArgumentException("Front and back frames must differ: " + frame1);
+		
+		int displayed = frontFrame;
+		if (enable) {
+			frontFrame = frame1 % FRAME_COUNT;
+			backFrame = frame2 % FRAME_COUNT;
+			carryForward(displayed, frontFrame, 0, FRAME_REGISTER_COUNT - 1);
+			carryForward(displayed, backFrame, 0, FRAME_REGISTER_COUNT - 1);
+			editedFrame = frontFrame; // first flush writes what is currently displayed into frame1 ...
+			doubleBuffered = false;
+			flush();
+			setDisplayedFrame(frontFrame); // ... then shows it
+			editedFrame = backFrame;
+			doubleBuffered = true;
+		}
+		else if (doubleBuffered) {
+			flush(); // pending changes get displayed
+			doubleBuffered = false;
+			editedFrame = frontFrame;
+		}
+	}
+	
+	/**
+	 * Enables or disables double-buffered mode using frames 0 and 1, leaving frames 2 to 7 for other purposes (e.g. animations) 
+	 */
+	public void setDoubleBuffered(boolean enable) throws IOException {
 		
+		setDoubleBuffered(enable, 0, 1);
+	}
+	
+	/**
+	 * @return true if LED updates are drawn into a hidden frame before being displayed
+	 */
+	public synchronized boolean isDoubleBuffered() {
+		return doubleBuffered;
 	}
 	
 	/**
@@ -142,8 +240,7 @@ public class IS31FL3731 {
 		
 		loopCount %= 8;
 		frameCount %= 8;
-		configure(FunctionRegister.AUTOPLAY1, frameCount % 8);
-		
+		configure(FunctionRegister.AUTOPLAY1, (loopCount << 4) | frameCount); // CNS is D6:D4, FNS is D2:D0
 		
 	}
 	
@@ -193,45 +290,38 @@ public class IS31FL3731 {
 	
 	
 	/**
-	 * Set breathing parameters (registers 08h and 09h)
+	 * Set breathing parameters (registers 08h and 09h). Each time picks the closest permitted value, 
+	 * i.e. 2^n x 26ms for fade times and 2^n x 3.5ms for the extinguish time, with n from 0 to 7 (see datasheet page 14).
 	 * @param enableBreathing
-	 * @param fadeOutTimeMs
-	 * @param fadeIntTimeMs
-	 * @param extinguishTimeMs
+	 * @param fadeOutTimeMs from 26ms to 3.3s
+	 * @param fadeIntTimeMs from 26ms to 3.3s
+	 * @param extinguishTimeMs from 3.5ms to 448ms
 	 */
 	public void setBreathControl(boolean enableBreathing, int fadeOutTimeMs, int fadeInTimeMs, int extinguishTimeMs) throws IOException {
 		
-		byte val1 = 0;
-		byte val2 = 0;
-		
 		if (enableBreathing == false){
 			
-			val2 |= (byte) (1 << 4);
-			configure(FunctionRegister.BREATH_CTRL2, val2);			
+			configure(FunctionRegister.BREATH_CTRL2, 0x00); // B_EN (D4) cleared			
 		}
 		
 		else {
 			
-			if (fadeOutTimeMs <8 && fadeInTimeMs <8) {
-			
-				val1 |= (byte) fadeInTimeMs;
-				val1 |= (byte) (fadeOutTimeMs << 4);
-			}
-			
-			if (extinguishTimeMs <8) {
-			
-				val2 |= (byte) extinguishTimeMs;
-				val2 |= (byte) (1 << 4);
-			
-			}
-		
+			int val1 = (getBreathTimeCode(fadeOutTimeMs, 26.0) << 4) | getBreathTimeCode(fadeInTimeMs, 26.0); // FOT is D6:D4, FIT is D2:D0 
+			int val2 = (1 << 4) | getBreathTimeCode(extinguishTimeMs, 3.5); // B_EN is D4, ET is D2:D0
 			configure(FunctionRegister.BREATH_CTRL1, val1);
 			configure(FunctionRegister.BREATH_CTRL2, val2);
 			
 		}
+	}
+	
+	/*
+	 * @return n from 0 to 7 such that 2^n x unitMs is the closest to timeMs
+	 */
+	private static int getBreathTimeCode(int timeMs, double unitMs) {
 		
-		
-		
+		if (timeMs <= unitMs) return 0;
+		int n = (int)Math.round(Math.log(timeMs / unitMs) / Math.log(2));
+		return Math.min(n, 7);
 	}
 	
 	/**
@@ -299,7 +389,7 @@ public class IS31FL3731 {
 	 * Read the value of the FrameState register, i.e., the index of the currently active frame.
 	 * @throws IOException
 	 */
-	public int readFrameStateRegister () throws IOException {
+	public synchronized int readFrameStateRegister () throws IOException {
 		
 		selectFunctionRegister();
 		int address = FunctionRegister.FRAME_STATE.getAddress(); 
@@ -309,22 +399,31 @@ public class IS31FL3731 {
 	}
 	
 	/**
-	 * Switch the given LED on or off
+	 * Switch the given LED on or off. Takes effect on the next call to flush().
 	 * @param row
 	 * @param col 0 <= col <= 7 : matrix A ; 8 <= col <= 15 : matrix B
 	 * @param state true for the "on" state, false otherwise
 	 * @throws IOException in case byte cannot be written to the i2c device or i2c bus
 	 */
-	public void switchLED(LEDCoordinate ledCoordinate, boolean state) throws IOException{
+	public synchronized void switchLED(LEDCoordinate ledCoordinate, boolean state) throws IOException{
+		
+		  switchLED(editedFrame, ledCoordinate, state);
+	}
+	
+	/**
+	 * Switch the given LED on or off in the given frame, whatever the frame currently edited. Takes effect on the next call to flush().
+	 * @param frame 0 to 7
+	 */
+	public synchronized void switchLED(int frame, LEDCoordinate ledCoordinate, boolean state) throws IOException{
 		
 		  int reg = getLEDRowRegisterAdress(ledCoordinate.getRow(), ledCoordinate.AorB); 
 		  int bit  = 1 << (ledCoordinate.getColumn() & 7) ;
-		  int old = i2cDevice.read(reg);
+		  int old = shadowRegisters[frame][reg] & 0xFF; // no need to read the device back
 		  if (state == false)
 		    old &= (~bit) ;
 		  else
 		    old |=   bit ;
-		  i2cDevice.write(reg, (byte)old);		
+		  setRegister(frame, reg, old);
 	}
 	
 	/**
@@ -334,24 +433,44 @@ public class IS31FL3731 {
 	 * @param m either A or B (see device datasheet)
 	 * @throws IOException in case byte cannot be written to the i2c device or i2c bus
 	 */
-	public void switchLEDRow(int row, Matrix m, int onLeds) throws IOException{
+	public synchronized void switchLEDRow(int row, Matrix m, int onLeds) throws IOException{
 		
 		  int reg = getLEDRowRegisterAdress(row, m);
-		  i2cDevice.write(reg, (byte)(onLeds & 0xFF));
+		  setRegister(editedFrame, reg, onLeds);
 	}
 	
 	/**
-	 * Sets the intensity of the given LED.
+	 * Sets the intensity of the given LED. Takes effect on the next call to flush().
 	 * @param row
 	 * @param col 0 <= col <= 7
 	 * @param m A or B
 	 * @param pwm 0-255
 	 * @throws IOException in case byte cannot be written to the i2c device or i2c bus
 	 */
-	public void setLEDpwm(LEDCoordinate ledCoordinate, int pwm) throws IOException {
+	public synchronized void setLEDpwm(LEDCoordinate ledCoordinate, int pwm) throws IOException {
 		
 		int reg = ledCoordinate.getPWMRegisterAdress();
-		i2cDevice.write(reg, (byte)(pwm & 0xFF));
+		setRegister(editedFrame, reg, pwm);
+	}
+	
+	/**
+	 * Sets the intensity of the given LED in the given frame, whatever the frame currently edited. Takes effect on the next call to flush().
+	 * @param frame 0 to 7
+	 */
+	public synchronized void setLEDpwm(int frame, LEDCoordinate ledCoordinate, int pwm) throws IOException {
+		
+		int reg = ledCoordinate.getPWMRegisterAdress();
+		setRegister(frame, reg, pwm);
+	}
+	
+	/**
+	 * Copies the LED registers of the given source frame into the given target frame (shadow only, 
+	 * takes effect on the next call to flush(), where only registers that differ get written).
+	 * Frames are numbered from 0 to 7.
+	 */
+	public synchronized void copyFrame(int sourceFrame, int targetFrame) {
+		
+		carryForward(sourceFrame, targetFrame, 0, FRAME_REGISTER_COUNT - 1);
 	}
 	
 	/**
@@ -381,9 +500,154 @@ public class IS31FL3731 {
 		
 		setLEDpwm(ledCoordinate, GAMMA_CORRECTION_16[pwmGammaCorrected16]);
 	}
+	
+	/**
+	 * Sends every LED register that changed since the last flush to the device. 
+	 * Runs of changed registers (possibly separated by a couple of unchanged ones) are sent as auto-increment block writes,
+	 * and registers that were set back to the value the device already holds are not sent at all.
+	 * @return the number of bytes written to the device (register address bytes included)
+	 * @throws IOException in case bytes cannot be written to the i2c device or i2c bus
+	 */
+	public synchronized int flush() throws IOException {
+		
+		long before = bytesWrittenCount;
+		for (int frame = 0; frame < FRAME_COUNT; frame++) {
+			if (doubleBuffered && frame == backFrame) continue; // see below
+			if (dirtyLow[frame] > dirtyHigh[frame]) continue; // clean frame
+			flushFrame(frame, dirtyLow[frame], dirtyHigh[frame]);
+			dirtyLow[frame] = FRAME_REGISTER_COUNT;
+			dirtyHigh[frame] = -1;
+		}
+		
+		if (doubleBuffered && backFrameModified) {
+			int frame = backFrame, low = dirtyLow[frame], high = dirtyHigh[frame];
+			flushFrame(frame, low, high);
+			dirtyLow[frame] = FRAME_REGISTER_COUNT;
+			dirtyHigh[frame] = -1;
+			backFrameModified = false;
+			// flip, then the former front frame becomes the back frame, and lags behind by exactly the range we've just written:
+			configure(FunctionRegister.PICTURE_DISPLAY, frame);
+			backFrame = frontFrame;
+			frontFrame = frame;
+			editedFrame = backFrame;
+			carryForward(frontFrame, backFrame, low, high);
+		}
+		if (!pendingStimuli.isEmpty()) { // writes are posted: the LEDs only change once the arbiter has executed them (frame flip included)
+			ArrayList<LatencyProbe.Stimulus> stimuli = pendingStimuli;
+			pendingStimuli = new ArrayList<LatencyProbe.Stimulus>();
+			arbiter.whenDrained(() -> {
+				for (LatencyProbe.Stimulus s : stimuli) s.reached(LatencyProbe.Stage.LED);
+			});
+		}
+		return (int)(bytesWrittenCount - before);
+	}
+	
+	/**
+	 * Records the given stimulus (e.g. an encoder detent) as having reached the LEDs once the writes of the next flush have been executed
+	 * by the bus arbiter ; if no LED register is pending, once those already posted have.
+	 */
+	public synchronized void addPendingStimulus(LatencyProbe.Stimulus stimulus) {
+		
+		if (!isDirty()) arbiter.whenDrained(() -> stimulus.reached(LatencyProbe.Stage.LED)); // nothing new to flush, previous writes may still be queued
+		else pendingStimuli.add(stimulus);
+	}
+	
+	/**
+	 * @param deferred if true, views should leave flushing to a refresh thread (see view.component.LEDRefreshScheduler) 
+	 */
+	public void setDeferredFlush(boolean deferred) {
+		this.deferredFlush = deferred;
+	}
+	
+	/**
+	 * @return true if flushing is left to a refresh thread
+	 */
+	public boolean isDeferredFlush() {
+		return deferredFlush;
+	}
+	
+	/**
+	 * @return true if some LED registers have been modified since the last flush
+	 */
+	public synchronized boolean isDirty() {
+		
+		for (int frame = 0; frame < FRAME_COUNT; frame++) {
+			if (doubleBuffered && frame == backFrame) continue; // back frame lagging behind doesn't make it dirty
+			if (dirtyLow[frame] <= dirtyHigh[frame]) return true;
+		}
+		return backFrameModified;
+	}
+	
+	/**
+	 * @return the number of I2C write transactions since this device was created (for monitoring purpose)
+	 */
+	public synchronized long getWriteTransactionCount() {
+		return writeTransactionCount;
+	}
+	
+	/**
+	 * @return the number of bytes written to the device since it was created, register address bytes included
+	 */
+	public synchronized long getBytesWrittenCount() {
+		return bytesWrittenCount;
+	}
 
 
 	// -------------- private or package methods --------------
+	
+	/*
+	 * updates the shadow register of the edited frame and extends its dirty range (caller must hold the lock)
+	 */
+	private void setRegister(int frame, int reg, int value) {
+		
+		shadowRegisters[frame][reg] = (byte)value;
+		if (doubleBuffered && frame == backFrame) backFrameModified = true;
+		if (reg < dirtyLow[frame]) dirtyLow[frame] = reg;
+		if (reg > dirtyHigh[frame]) dirtyHigh[frame] = reg;
+	}
+	
+	/*
+	 * copies the given range of the source frame shadow into the target frame shadow, and marks this range dirty in the target frame
+	 */
+	private void carryForward(int sourceFrame, int targetFrame, int low, int high) {
+		
+		if (sourceFrame == targetFrame) return;
+		System.arraycopy(shadowRegisters[sourceFrame], low, shadowRegisters[targetFrame], low, high - low + 1);
+		if (low < dirtyLow[targetFrame]) dirtyLow[targetFrame] = low;
+		if (high > dirtyHigh[targetFrame]) dirtyHigh[targetFrame] = high;
+	}
+	
+	/*
+	 * writes the registers of the given range that differ from the device copy, coalescing close runs
+	 */
+	private void flushFrame(int frame, int low, int high) throws IOException {
+		
+		byte[] shadow = shadowRegisters[frame];
+		byte[] device = deviceRegisters[frame];
+		int reg = low;
+		while (reg <= high) {
+			if (shadow[reg] == device[reg]) { reg++; continue; }
+			int start = reg, end = reg;
+			for (int next = reg + 1; next <= high && next - end <= MERGE_GAP + 1; next++) {
+				if (shadow[next] != device[next]) end = next;
+			}
+			if (currentPage != frame) selectFrameRegister(frame);
+			writeBlock(start, shadow, start, end - start + 1);
+			System.arraycopy(shadow, start, device, start, end - start + 1);
+			reg = end + 1;
+		}
+	}
+	
+	/*
+	 * one auto-increment write transaction starting at the given register of the current page
+	 */
+	private void writeBlock(int reg, byte[] data, int offset, int length) throws IOException {
+		
+		if (length == 1) i2cDevice.write(reg, data[offset]);
+		else i2cDevice.write(reg, data, offset, length);
+		writeTransactionCount++;
+		bytesWrittenCount += length + 1;
+	}
 
 	/**
 	 * Selects one of 8 possible frames (aka pages) for further configuration. 
@@ -398,6 +662,9 @@ public class IS31FL3731 {
 		if (frame < 0 || frame > 8) throw new IllegalArgumentException("Valid page number ranges from 0 to 7 : " + frame);
 		
 		i2cDevice.write(COMMAND_REGISTER, (byte)frame);
+		currentPage = frame;
+		writeTransactionCount++;
+		bytesWrittenCount += 2;
 		
 	}
 	
@@ -411,6 +678,9 @@ public class IS31FL3731 {
 	private void selectFunctionRegister() throws IOException  {
 	
 		i2cDevice.write(COMMAND_REGISTER, (byte)FUNCTION_REGISTER);
+		currentPage = FUNCTION_REGISTER;
+		writeTransactionCount++;
+		bytesWrittenCount += 2;
 	}
 	
 	/**
@@ -419,16 +689,15 @@ public class IS31FL3731 {
 	 * @param value may be the result of FunctionRegisterMask or'ed together
 	 * @throws IOException 
 	 */
-	private void configure(FunctionRegister register, int value) throws IOException  {
+	private synchronized void configure(FunctionRegister register, int value) throws IOException  {
 		
-		// read Command Register to keep track of the currently active page so that we can go back to it later
-		int current = i2cDevice.read(COMMAND_REGISTER);
-		if (current != FUNCTION_REGISTER) selectFunctionRegister();
+		// the currently active page is tracked, hence there's no need to read the Command Register back ; 
+		// flush() will select the appropriate frame page again when needed
+		if (currentPage != FUNCTION_REGISTER) selectFunctionRegister();
 
 		i2cDevice.write(register.getAddress(),(byte)value);
-		
-		// make previously active PAGE active again if this wasn't the FUNCTION REGISTER page		
-		if (current != FUNCTION_REGISTER) i2cDevice.write(COMMAND_REGISTER, (byte)current);
+		writeTransactionCount++;
+		bytesWrittenCount += 2;
 	}
 	
 	
@@ -478,9 +747,9 @@ public class IS31FL3731 {
 			// for matrix A, LED were soldered the opposite way (with A and K reversed)... and we need to switch another LED to obtain the desired result
 			if (APPLY_BUG_FIX && AorB == Matrix.A) { // comment out if hardware is fine!
 				//System.out.print("Applying bug fix for " + this);
-				Point trueLED = bugFixMap[row][col];
-				this.row = trueLED.x; 
-				this.col = trueLED.y;
+				RowColumn trueLED = bugFixMap[row][col];
+				this.row = trueLED.row; 
+				this.col = trueLED.col;
 				//System.out.println(" -> " + this);
 			}
 			
@@ -509,94 +778,100 @@ public class IS31FL3731 {
 			return AorB + "(" + row + "," + col + ")";
 		}
 		
-		private static Point[][] bugFixMap;
+		private static RowColumn[][] bugFixMap;
+		
+		// (row, col) pair for the bug fix map ; not a java.awt.Point so that the front pane doesn't need AWT
+		private static class RowColumn {
+			final int row, col;
+			RowColumn(int row, int col) { this.row = row; this.col = col; }
+		}
 		
 		// bug fix for the A matrix (with green LEDs), where LED were soldered in the wrong direction...
 		// the following HashMap maps the LED we want to switch to the LED we should actually switch physically
 		// for example switching C1-1 (row=0, col=0) actually switches C2-1 (row=1, col=0)
 		static {
-			bugFixMap = new Point[9][8]; //Point(row, col)
+			bugFixMap = new RowColumn[9][8];
 			
-			bugFixMap[0][0]=new Point(1,0); // C1-1 -> C2-1
-			bugFixMap[0][1]=new Point(2,0); // C1-2 -> C3-1
-			bugFixMap[0][2]=new Point(3,0);
-			bugFixMap[0][3]=new Point(4,0);
-			bugFixMap[0][4]=new Point(5,0);
-			bugFixMap[0][5]=new Point(6,0);
-			bugFixMap[0][6]=new Point(7,0);
-			bugFixMap[0][7]=new Point(8,0);
-
-			bugFixMap[1][0]=new Point(0,0);
-			bugFixMap[1][1]=new Point(2,1);
-			bugFixMap[1][2]=new Point(3,1);
-			bugFixMap[1][3]=new Point(4,1);
-			bugFixMap[1][4]=new Point(5,1);
-			bugFixMap[1][5]=new Point(6,1);
-			bugFixMap[1][6]=new Point(7,1);
-			bugFixMap[1][7]=new Point(8,1);
-
-			bugFixMap[2][0]=new Point(0,1);
-			bugFixMap[2][1]=new Point(1,1);
-			bugFixMap[2][2]=new Point(3,2);
-			bugFixMap[2][3]=new Point(4,2);
-			bugFixMap[2][4]=new Point(5,2);
-			bugFixMap[2][5]=new Point(6,2);
-			bugFixMap[2][6]=new Point(7,2);
-			bugFixMap[2][7]=new Point(8,2);
-
-			bugFixMap[3][0]=new Point(0,2);
-			bugFixMap[3][1]=new Point(1,2);
-			bugFixMap[3][2]=new Point(2,2);
-			bugFixMap[3][3]=new Point(4,3);
-			bugFixMap[3][4]=new Point(5,3);
-			bugFixMap[3][5]=new Point(6,3);
-			bugFixMap[3][6]=new Point(7,3);
-			bugFixMap[3][7]=new Point(8,3);
-
-			bugFixMap[4][0]=new Point(0,3);
-			bugFixMap[4][1]=new Point(1,3);
-			bugFixMap[4][2]=new Point(2,3);
-			bugFixMap[4][3]=new Point(3,3);
-			bugFixMap[4][4]=new Point(5,4);
-			bugFixMap[4][5]=new Point(6,4);
-			bugFixMap[4][6]=new Point(7,4);
-			bugFixMap[4][7]=new Point(8,4);
-
-			bugFixMap[5][0]=new Point(0,4);
-			bugFixMap[5][1]=new Point(1,4);
-			bugFixMap[5][2]=new Point(2,4);
-			bugFixMap[5][3]=new Point(3,4);
-			bugFixMap[5][4]=new Point(4,4);
-			bugFixMap[5][5]=new Point(6,5);
-			bugFixMap[5][6]=new Point(7,5);
-			bugFixMap[5][7]=new Point(8,5);
-
-			bugFixMap[6][0]=new Point(0,5);
-			bugFixMap[6][1]=new Point(1,5);
-			bugFixMap[6][2]=new Point(2,5);
-			bugFixMap[6][3]=new Point(3,5);
-			bugFixMap[6][4]=new Point(4,5);
-			bugFixMap[6][5]=new Point(5,5);
-			bugFixMap[6][6]=new Point(7,6);
-			bugFixMap[6][7]=new Point(8,6);
-
-			bugFixMap[7][0]=new Point(0,6);
-			bugFixMap[7][1]=new Point(1,6);
-			bugFixMap[7][2]=new Point(2,6);
-			bugFixMap[7][3]=new Point(3,6);
-			bugFixMap[7][4]=new Point(4,6);
-			bugFixMap[7][5]=new Point(5,6);
-			bugFixMap[7][6]=new Point(6,6);
-			bugFixMap[7][7]=new Point(8,7);
-
-			bugFixMap[8][0]=new Point(0,7);
-			bugFixMap[8][1]=new Point(1,7);
-			bugFixMap[8][2]=new Point(2,7);
-			bugFixMap[8][3]=new Point(3,7);
-			bugFixMap[8][4]=new Point(4,7);
-			bugFixMap[8][5]=new Point(5,7);
-			bugFixMap[8][6]=new Point(6,7);
-			bugFixMap[8][7]=new Point(7,7);
+			bugFixMap[0][0]=new RowColumn(1,0); // C1-1 -> C2-1
+			bugFixMap[0][1]=new RowColumn(2,0); // C1-2 -> C3-1
+			bugFixMap[0][2]=new RowColumn(3,0);
+			bugFixMap[0][3]=new RowColumn(4,0);
+			bugFixMap[0][4]=new RowColumn(5,0);
+			bugFixMap[0][5]=new RowColumn(6,0);
+			bugFixMap[0][6]=new RowColumn(7,0);
+			bugFixMap[0][7]=new RowColumn(8,0);
+
+			bugFixMap[1][0]=new RowColumn(0,0);
+			bugFixMap[1][1]=new RowColumn(2,1);
+			bugFixMap[1][2]=new RowColumn(3,1);
+			bugFixMap[1][3]=new RowColumn(4,1);
+			bugFixMap[1][4]=new RowColumn(5,1);
+			bugFixMap[1][5]=new RowColumn(6,1);
+			bugFixMap[1][6]=new RowColumn(7,1);
+			bugFixMap[1][7]=new RowColumn(8,1);
+
+			bugFixMap[2][0]=new RowColumn(0,1);
+			bugFixMap[2][1]=new RowColumn(1,1);
+			bugFixMap[2][2]=new RowColumn(3,2);
+			bugFixMap[2][3]=new RowColumn(4,2);
+			bugFixMap[2][4]=new RowColumn(5,2);
+			bugFixMap[2][5]=new RowColumn(6,2);
+			bugFixMap[2][6]=new RowColumn(7,2);
+			bugFixMap[2][7]=new RowColumn(8,2);
+
+			bugFixMap[3][0]=new RowColumn(0,2);
+			bugFixMap[3][1]=new RowColumn(1,2);
+			bugFixMap[3][2]=new RowColumn(2,2);
+			bugFixMap[3][3]=new RowColumn(4,3);
+			bugFixMap[3][4]=new RowColumn(5,3);
+			bugFixMap[3][5]=new RowColumn(6,3);
+			bugFixMap[3][6]=new RowColumn(7,3);
+			bugFixMap[3][7]=new RowColumn(8,3);
+
+			bugFixMap[4][0]=new RowColumn(0,3);
+			bugFixMap[4][1]=new RowColumn(1,3);
+			bugFixMap[4][2]=new RowColumn(2,3);
+			bugFixMap[4][3]=new RowColumn(3,3);
+			bugFixMap[4][4]=new RowColumn(5,4);
+			bugFixMap[4][5]=new RowColumn(6,4);
+			bugFixMap[4][6]=new RowColumn(7,4);
+			bugFixMap[4][7]=new RowColumn(8,4);
+
+			bugFixMap[5][0]=new RowColumn(0,4);
+			bugFixMap[5][1]=new RowColumn(1,4);
+			bugFixMap[5][2]=new RowColumn(2,4);
+			bugFixMap[5][3]=new RowColumn(3,4);
+			bugFixMap[5][4]=new RowColumn(4,4);
+			bugFixMap[5][5]=new RowColumn(6,5);
+			bugFixMap[5][6]=new RowColumn(7,5);
+			bugFixMap[5][7]=new RowColumn(8,5);
+
+			bugFixMap[6][0]=new RowColumn(0,5);
+			bugFixMap[6][1]=new RowColumn(1,5);
+			bugFixMap[6][2]=new RowColumn(2,5);
+			bugFixMap[6][3]=new RowColumn(3,5);
+			bugFixMap[6][4]=new RowColumn(4,5);
+			bugFixMap[6][5]=new RowColumn(5,5);
+			bugFixMap[6][6]=new RowColumn(7,6);
+			bugFixMap[6][7]=new RowColumn(8,6);
+
+			bugFixMap[7][0]=new RowColumn(0,6);
+			bugFixMap[7][1]=new RowColumn(1,6);
+			bugFixMap[7][2]=new RowColumn(2,6);
+			bugFixMap[7][3]=new RowColumn(3,6);
+			bugFixMap[7][4]=new RowColumn(4,6);
+			bugFixMap[7][5]=new RowColumn(5,6);
+			bugFixMap[7][6]=new RowColumn(6,6);
+			bugFixMap[7][7]=new RowColumn(8,7);
+
+			bugFixMap[8][0]=new RowColumn(0,7);
+			bugFixMap[8][1]=new RowColumn(1,7);
+			bugFixMap[8][2]=new RowColumn(2,7);
+			bugFixMap[8][3]=new RowColumn(3,7);
+			bugFixMap[8][4]=new RowColumn(4,7);
+			bugFixMap[8][5]=new RowColumn(5,7);
+			bugFixMap[8][6]=new RowColumn(6,7);
+			bugFixMap[8][7]=new RowColumn(7,7);
 
 
 		}
@@ -778,6 +1053,7 @@ public class IS31FL3731 {
 		//testFunctionRegister();
 		//new TestDevice();
 		testBasicHeadless();
+		//testDoubleBuffering();
 		//testBugFix();
 		//testCalib();
 	}
@@ -792,6 +1068,7 @@ public class IS31FL3731 {
 		device.switchLED(ledCoord, true);
 		device.switchLED(ledCoord2, true);
 		device.setLEDpwm(ledCoord, 200);
+		device.flush();
 
 		/*
 		 * while (true) { int pwm = in.nextInt(); device.setLEDpwm(ledCoord, pwm); }
@@ -802,6 +1079,7 @@ public class IS31FL3731 {
 				in.nextLine();
 				device.setLEDpwmGammaCorrected16(ledCoord, i);
 				device.setLEDpwm(ledCoord2, pwm);
+				device.flush();
 				pwm = 255 - pwm;
 				System.out.println(i);
 				// Thread.sleep(400);
@@ -824,6 +1102,7 @@ public class IS31FL3731 {
 		device.switchLED(ledB, true);
 		device.setLEDpwm(ledA, 250);
 		device.setLEDpwm(ledB, 250);
+		device.flush();
 	}
 	
 	
@@ -842,12 +1121,14 @@ public class IS31FL3731 {
 					for (int pwm = 0; pwm < 16; pwm++) {
 						device.setLEDpwmGammaCorrected16(ledA, pwm);
 						device.setLEDpwmGammaCorrected16(ledB, pwm);
+						device.flush();
 						// System.out.print(".");
 						Thread.sleep(20);
 					}
 					for (int pwm = 15; pwm >= 0; pwm--) {
 						device.setLEDpwmGammaCorrected16(ledA, pwm);
 						device.setLEDpwmGammaCorrected16(ledB, pwm);
+						device.flush();
 						// System.out.print(".");
 						Thread.sleep(20);
 					}
@@ -856,6 +1137,26 @@ public class IS31FL3731 {
 		}
 	}
 
+	// a full row of LEDs gets moved at once, with no intermediate state visible ; prints bytes written per frame 
+	private static void testDoubleBuffering() throws IOException, UnsupportedBusNumberException, InterruptedException {
+		
+		IS31FL3731 device = new IS31FL3731();
+		device.setDoubleBuffered(true);
+		for (int row = 0; row < 8; row++) device.switchLEDRow(row, Matrix.B, 0xFF);
+		device.flush();
+
+		while (true) {
+			for (int row = 0; row < 8; row++) {
+				for (int col = 0; col < 8; col++) {
+					device.setLEDpwm(new LEDCoordinate((row+7)%8, col, Matrix.B), MIN_PWM);
+					device.setLEDpwm(new LEDCoordinate(row, col, Matrix.B), MAX_PWM);
+				}
+				System.out.println("frame " + device.getDisplayedFrame() + " : " + device.flush() + " bytes");
+				Thread.sleep(200);
+			}
+		}
+	}
+
 	// testing function register
 	private static class TestDevice extends JFrame {
 		
@@ -921,11 +1222,13 @@ public class IS31FL3731 {
 				for (int col=0; col<8; col++) {
 					for (int pwm=0; pwm < 256; pwm+=16) {
 						device.setLEDpwm(new LEDCoordinate(row, col, currentMatrix), pwm);
+						device.flush();
 						System.out.print(".");
 						Thread.sleep(1);
 					}
 					for (int pwm=240; pwm >= 0; pwm-=16) {
 						device.setLEDpwm(new LEDCoordinate(row, col, currentMatrix), pwm);
+						device.flush();
 						System.out.print(".");
 						Thread.sleep(1);
 					}
@@ -938,6 +1241,7 @@ public class IS31FL3731 {
 			System.out.println("Sending data to device : row=" + currentRow + ", col=" + currentCol + ", matrix="+currentMatrix + ", pwm=" + currentPwm);
 			try {
 				device.setLEDpwm(new LEDCoordinate(currentRow, currentCol, currentMatrix), currentPwm);
+				device.flush();
 			} catch (IOException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
@@ -984,6 +1288,7 @@ public class IS31FL3731 {
 					device.switchLEDRow(row, currentMatrix, 0xFF);
 				for (int col=0; col<8; col++) {
 					device.setLEDpwm(new LEDCoordinate(row, col, currentMatrix), 255);
+					device.flush();
 					Thread.sleep(20);
 				}
 			}			
@@ -995,4 +1300,4 @@ public class IS31FL3731 {
 	}
 	
 
-}
+}
@@ -0,0 +1,28 @@
+package device;
+
+/**
+ * An active-low interrupt input of the Raspberry Pi, e.g. the INT line shared by a group of MCP23017 devices.
+ *
+ * This decouples MCP23017Group from pi4j's GpioFactory, so that a simulated line (see device.sim.SimulatedInterruptPin)
+ * can be used on a desktop computer.
+ *
+ * @author reynal
+ *
+ */
+public interface InterruptPin {
+
+	/**
+	 * @return true if the line is currently asserted, i.e., at least one device pulls it low
+	 */
+	boolean isLow();
+
+	/**
+	 * Registers a callback to be invoked (from an event thread, not from the thread that caused the edge) on every falling edge.
+	 */
+	void addFallingEdgeListener(Runnable l);
+
+	/**
+	 * Releases the underlying resource and removes every listener.
+	 */
+	void close();
+}
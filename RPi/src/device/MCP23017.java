@@ -46,9 +46,10 @@ public class MCP23017  {
 	// -------------- fields --------------
 	
 	private I2CDevice i2cDevice; 
-	private I2CBus i2cBus;
 	private GpioPinDigitalOutput mcp23017RstPin;
 	private GpioPinDigitalInput mcp23017IntPin; 
+	private final DeviceAddress address;
+	private final byte[] interruptBuffer = new byte[4]; // INTFA, INTFB, INTCAPA, INTCAPB
 	
 	/** a list of event listeners for this device */
 	protected EventListenerList listenerList;
@@ -70,8 +71,9 @@ public class MCP23017  {
 	 */
 	public MCP23017(DeviceAddress address, com.pi4j.io.gpio.Pin intPin) throws UnsupportedBusNumberException, IOException {
 		
-		i2cBus = I2CFactory.getInstance(I2CBus.BUS_1); 				
-		i2cDevice = i2cBus.getDevice(address.getValue()); 
+		// input reads must not wait behind LED refreshes:
+		i2cDevice = I2CBusArbiter.getDefault().getDevice(address.getValue(), I2CBusArbiter.Priority.HIGH); 
+		this.address = address;
 		listenerList = new EventListenerList();
 		if (intPin != null) registerRpiPinForInterrupt(intPin);
 		
@@ -93,15 +95,14 @@ public class MCP23017  {
 	}
 
 	/**
-	 * close the I2C bus to which this device is connected and unprovision RST and INT RPi pins.
+	 * unprovision RST and INT RPi pins ; the I2C bus is owned by the I2CBusArbiter.
 	 * @throws IOException
 	 */
 	public void close() throws IOException {
 		
-		GpioFactory.getInstance().unprovisionPin(mcp23017RstPin);
-		GpioFactory.getInstance().unprovisionPin(mcp23017IntPin);
+		if (mcp23017RstPin != null) GpioFactory.getInstance().unprovisionPin(mcp23017RstPin);
+		if (mcp23017IntPin != null) GpioFactory.getInstance().unprovisionPin(mcp23017IntPin);
 		mcp23017IntPin = null;
-		i2cBus.close();
 		
 	}
 	
@@ -352,11 +353,20 @@ public class MCP23017  {
 	 * TODO : add some timeout feature
 	 */
 	public void clearInterrupts(Port port) throws IOException {
+		if (mcp23017IntPin == null) { // INT line is managed elsewhere (e.g. by an MCP23017Group)
+			readInterruptCapturedRegister(port);
+			return;
+		}
 		while(this.mcp23017IntPin.isLow()) readInterruptCapturedRegister(port);
 	}
 	
 	public void clearInterrupts() throws IOException {
 		
+		if (mcp23017IntPin == null) {
+			readInterruptCapturedRegister(Port.A);
+			readInterruptCapturedRegister(Port.B);
+			return;
+		}
 		while(this.mcp23017IntPin.isLow()) {
 			readInterruptCapturedRegister(Port.A);
 			readInterruptCapturedRegister(Port.B);
@@ -376,6 +386,55 @@ public class MCP23017  {
 		i2cDevice.write(IOCON.getAddress(), (byte)iocon);
 	}
 
+	/** 
+	 * Configures the INT pins as open-drain outputs, so that the INT pins of several devices can be 
+	 * wired together on the same (pulled-up) RPi input pin, see MCP23017Group. 
+	 * */
+	public void enableIntPinsOpenDrain() throws IOException {
+		
+		int iocon = i2cDevice.read(IOCON.getAddress());
+		iocon |= IOCONFields.ODR.getMask(); 
+		iocon &= 0xFF;
+		i2cDevice.write(IOCON.getAddress(), (byte)iocon);
+	}
+	
+	/**
+	 * Reads INTFA, INTFB, INTCAPA and INTCAPB in a single sequential I2C transaction (this relies on IOCON.SEQOP=0 and IOCON.BANK=0,
+	 * which is the power-on default), which clears pending interrupts, then fires an InterruptEvent for every pin that
+	 * triggered an interrupt. 
+	 * This is what gets done when the INT line goes low, whether this line is dedicated to this device or shared.
+	 * @return true if at least one pin of this device had triggered an interrupt
+	 */
+	public boolean serviceInterrupts() throws IOException {
+		return serviceInterrupts(System.nanoTime());
+	}
+	
+	/**
+	 * Same as above, with events stamped with the given time
+	 * @param edgeNanos System.nanoTime() when the INT edge was detected, carried by events for latency measurements
+	 */
+	public boolean serviceInterrupts(long edgeNanos) throws IOException {
+		
+		int intfA, intfB, intcapA, intcapB;
+		synchronized (interruptBuffer) {
+			i2cDevice.read(INTFA.getAddress(), interruptBuffer, 0, interruptBuffer.length);
+			intfA = interruptBuffer[0] & 0xFF;
+			intfB = interruptBuffer[1] & 0xFF;
+			intcapA = interruptBuffer[2] & 0xFF;
+			intcapB = interruptBuffer[3] & 0xFF;
+		}
+		if (intfA != 0) dispatchInterrupts(Port.A, intfA, intcapA, edgeNanos);
+		if (intfB != 0) dispatchInterrupts(Port.B, intfB, intcapB, edgeNanos);
+		return (intfA | intfB) != 0;
+	}
+	
+	/**
+	 * @return the I2C address of this device
+	 */
+	public DeviceAddress getDeviceAddress() {
+		return address;
+	}
+
 	/**
 	 * returns the register (GPIO) that reflects the value on the port.
 	 * Reading from this register reads the port.
@@ -554,6 +613,16 @@ public class MCP23017  {
 	
 	// -------------- private or package methods --------------
 
+	/*
+	 * fires an event for each pin flagged in the given INTF register value
+	 */
+	private void dispatchInterrupts(Port port, int intFlagsRegister, int captureRegister, long edgeNanos) {
+		
+		for (Pin pin : Pin.getPinListFromMask((byte)intFlagsRegister, port)) {
+			PinState lvl =  (captureRegister & pin.getMask()) != 0 ? PinState.HIGH : PinState.LOW;
+			fireInterruptEvent(pin, lvl, edgeNanos);
+		}
+	}
 
 	
 	// -------------- enums and inner classes --------------
@@ -781,11 +850,17 @@ public class MCP23017  {
 		private static final long serialVersionUID = 1L;
 		private Pin pin;
 		private PinState level;
+		private long timestamp;
 		
 		public InterruptEvent(Pin pin, PinState level) {
+			this(pin, level, System.nanoTime());
+		}
+		
+		public InterruptEvent(Pin pin, PinState level, long timestamp) {
 			super(MCP23017.this);
 			this.pin = pin;
 			this.level = level;
+			this.timestamp = timestamp;
 		}
 		
 		/** @return the port on which the change that triggered the interrupt occured */
@@ -801,6 +876,11 @@ public class MCP23017  {
 		public PinState getLevel() {
 			return level;
 		}
+		
+		/** @return System.nanoTime() when the INT edge that led to this event was detected */
+		public long getTimestamp() {
+			return timestamp;
+		}
 
 		@Override
 		public String toString() {
@@ -840,18 +920,7 @@ public class MCP23017  {
 			//printRegistersBriefB();
 			
 			try {
-				for (Port port: Port.values()) {
-					int intFlagsRegister = readInterruptFlagRegister(port);
-					if (intFlagsRegister == 0) continue; // next port
-					int captureRegister = readInterruptCapturedRegister(port); // this will clear interrupts and re-trigger a call to this listener
-					//clearInterrupts(port); // SR : i don't think this is really useful
-					//System.out.printf("\n------------------------- Port %s -------------------------\n FLAGS: %8s \t CAPTURE: %8s\n", port.toString(), Integer.toBinaryString(intfRegister), Integer.toBinaryString(captureRegister));
-					for (Pin pin : Pin.getPinListFromMask((byte)intFlagsRegister, port)) {
-						PinState lvl =  (captureRegister & pin.getMask()) != 0 ? PinState.HIGH : PinState.LOW;
-						fireInterruptEvent(pin, lvl);
-					}
-					
-				}
+				serviceInterrupts(); // reading INTCAP will clear interrupts and re-trigger a call to this listener
 			} catch (IOException e) { e.printStackTrace(); } 		
 		}		
 		
@@ -880,6 +949,10 @@ public class MCP23017  {
 	 * the fire method.
 	 */
 	 protected void fireInterruptEvent(Pin pin, com.pi4j.io.gpio.PinState level) {
+		 fireInterruptEvent(pin, level, System.nanoTime());
+	 }
+	 
+	 protected void fireInterruptEvent(Pin pin, com.pi4j.io.gpio.PinState level, long edgeNanos) {
 		 
 		 //System.out.println("[fire...event#"+interruptCounter+"]");
 	     // Guaranteed to return a non-null array
@@ -891,7 +964,7 @@ public class MCP23017  {
 	     for (int i = listeners.length-2; i>=0; i-=2) {
 	         if (listeners[i]==InterruptListener.class) {
 	             // Lazily create the event:
-	             if (e == null) e = new InterruptEvent(pin, level);
+	             if (e == null) e = new InterruptEvent(pin, level, edgeNanos);
 	             ((InterruptListener)listeners[i+1]).interruptOccured(e); 
 	         }
 	     }
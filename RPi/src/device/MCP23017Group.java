@@ -0,0 +1,226 @@
+package device;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Logger;
+
+import com.pi4j.io.i2c.I2CFactory.UnsupportedBusNumberException;
+
+import device.MCP23017.DeviceAddress;
+
+/**
+ * A group of MCP23017 devices (up to 8, i.e. addresses ADR_000 to ADR_007 depending on the A2.A1.A0 pins) whose INT pins
+ * are wired together onto one or more RPi input pins.
+ *
+ * Each device gets its INTA/INTB pins mirrored and configured as open-drain outputs, so that a shared INT line
+ * is low as long as at least one device on that line has a pending interrupt. When a line goes low, every device
+ * attached to it is serviced in a single pass, i.e., one sequential 4-byte read (INTFA, INTFB, INTCAPA, INTCAPB) per device,
+ * and events are fired by the device that triggered them, so that controls built by a ControlFactory
+ * around a given device get notified as before.
+ *
+ * A single watchdog thread services lines stuck low (e.g. an edge missed while a previous interrupt was being serviced),
+ * whatever the number of devices.
+ *
+ * Lines are either RPi pins (provisioned through pi4j) or any other InterruptPin, e.g. a simulated one.
+ *
+ * Example:
+ * <pre>
+ * MCP23017Group group = new MCP23017Group();
+ * MCP23017 left = group.addDevice(DeviceAddress.ADR_000, RaspiPin.GPIO_04);
+ * MCP23017 right = group.addDevice(DeviceAddress.ADR_001, RaspiPin.GPIO_04); // same INT line
+ * </pre>
+ *
+ * @author reynal
+ *
+ */
+public class MCP23017Group {
+
+	private static final Logger LOGGER = Logger.getLogger("confLogger");
+
+	private static final long WATCHDOG_PERIOD_MS = 100;
+	private static final int MAX_SERVICE_PASSES = 8; // upper bound on the number of passes while a line stays low
+
+	private final Map<DeviceAddress, MCP23017> devices = new EnumMap<DeviceAddress, MCP23017>(DeviceAddress.class);
+	private final List<InterruptLine> lines = new ArrayList<InterruptLine>();
+	private final Map<com.pi4j.io.gpio.Pin, InterruptPin> gpioPins = new HashMap<com.pi4j.io.gpio.Pin, InterruptPin>();
+	private Thread watchdogThread;
+	private volatile boolean running;
+
+	// -------------- constructors --------------
+
+	/**
+	 * Creates an empty group ; use addDevice() to populate it.
+	 */
+	public MCP23017Group() {
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * Creates an MCP23017 device at the given address, and attaches it to the given RPi interrupt line.
+	 * The INT pins of the device are configured as mirrored, open-drain outputs.
+	 * @param address the I2C address of the device
+	 * @param intPin the RPi pin to which the INTA pin of the device is connected ; can be shared with other devices of this group ; if null, the device gets no interrupt support
+	 * @return the newly created device
+	 * @throws IOException if the device doesn't answer
+	 */
+	public synchronized MCP23017 addDevice(DeviceAddress address, com.pi4j.io.gpio.Pin intPin) throws IOException, UnsupportedBusNumberException {
+
+		InterruptPin line = null;
+		if (intPin != null) {
+			line = gpioPins.get(intPin);
+			if (line == null) gpioPins.put(intPin, line = new GpioInterruptPin(intPin));
+		}
+		return addDevice(address, line);
+	}
+
+	/**
+	 * Same as above, with the INT pins of the device connected to the given line.
+	 * @param intPin the line to which the INTA pin of the device is connected ; can be shared with other devices of this group ; if null, the device gets no interrupt support
+	 */
+	public synchronized MCP23017 addDevice(DeviceAddress address, InterruptPin intPin) throws IOException, UnsupportedBusNumberException {
+
+		if (devices.containsKey(address)) throw new IOException("An MCP23017 is already registered at address " + address);
+
+		MCP23017 device = new MCP23017(address);
+		device.enableIntPinsMirror();
+		device.enableIntPinsOpenDrain(); // allows several devices to share a line
+		device.clearInterrupts(); // make sure the INT line gets released
+		devices.put(address, device);
+
+		if (intPin != null) {
+			getOrCreateLine(intPin).devices.add(device);
+			startWatchdog();
+		}
+		LOGGER.info("MCP23017 at " + address + " added to group" + (intPin == null ? "" : ", INT line on " + intPin));
+		return device;
+	}
+
+	/**
+	 * @return the device at the given address, or null if no device was added at this address
+	 */
+	public synchronized MCP23017 getDevice(DeviceAddress address) {
+		return devices.get(address);
+	}
+
+	/**
+	 * @return the devices of this group
+	 */
+	public synchronized Collection<MCP23017> getDevices() {
+		return new ArrayList<MCP23017>(devices.values());
+	}
+
+	/**
+	 * Stops the watchdog, unprovisions INT lines and closes every device.
+	 */
+	public synchronized void close() throws IOException {
+
+		running = false;
+		if (watchdogThread != null) watchdogThread.interrupt();
+		watchdogThread = null;
+		for (InterruptLine line : lines) line.pin.close();
+		lines.clear();
+		gpioPins.clear();
+		for (MCP23017 device : devices.values()) device.close();
+		devices.clear();
+	}
+
+	// -------------- private methods --------------
+
+	private InterruptLine getOrCreateLine(InterruptPin intPin) {
+
+		for (InterruptLine line : lines) {
+			if (line.pin == intPin) return line;
+		}
+		InterruptLine line = new InterruptLine(intPin);
+		lines.add(line);
+		return line;
+	}
+
+	private void startWatchdog() {
+
+		if (running) return;
+		running = true;
+		watchdogThread = new Thread(() -> {
+			try {
+				while(running) {
+					InterruptLine[] snapshot;
+					synchronized (MCP23017Group.this) {
+						snapshot = lines.toArray(new InterruptLine[lines.size()]);
+					}
+					for (InterruptLine line : snapshot) {
+						if (line.pin.isLow()) line.service();
+					}
+					Thread.sleep(WATCHDOG_PERIOD_MS);
+				}
+			}
+			catch (InterruptedException e) {} // close() was called
+		}, "MCP23017Group watchdog");
+		watchdogThread.setDaemon(true);
+		watchdogThread.start();
+	}
+
+	// -------------- inner classes --------------
+
+	/*
+	 * An interrupt input shared by several MCP23017 devices.
+	 */
+	private static class InterruptLine {
+
+		final InterruptPin pin;
+		// copy-on-write since it's iterated from the pi4j event thread and the watchdog thread:
+		final List<MCP23017> devices = new java.util.concurrent.CopyOnWriteArrayList<MCP23017>();
+		final java.util.concurrent.atomic.AtomicLong pendingEdgeNanos = new java.util.concurrent.atomic.AtomicLong(); // earliest edge not serviced yet, 0 if none
+
+		InterruptLine(InterruptPin pin) {
+			this.pin = pin;
+			pin.addFallingEdgeListener(this::edge); // rising edges mean every device released the line
+		}
+
+		/*
+		 * pi4j event thread: stamps the edge before service() possibly waits for the watchdog to be done with the line
+		 */
+		void edge() {
+
+			pendingEdgeNanos.compareAndSet(0, System.nanoTime());
+			service();
+		}
+
+		/*
+		 * services every device on this line until the line is released ; synchronized since the watchdog may call it concurrently
+		 */
+		synchronized void service() {
+
+			long edgeNanos = pendingEdgeNanos.getAndSet(0);
+			if (edgeNanos == 0) edgeNanos = System.nanoTime(); // line found stuck low by the watchdog, the edge went unnoticed
+			int pass = 0;
+			do {
+				for (MCP23017 device : devices) {
+					try {
+						device.serviceInterrupts(edgeNanos);
+					} catch (IOException e) { e.printStackTrace(); }
+				}
+			} while (pin.isLow() && ++pass < MAX_SERVICE_PASSES);
+		}
+	}
+
+	// -------------- test methods --------------
+
+	public static void main(String[] args) throws Exception  {
+
+		MCP23017Group group = new MCP23017Group();
+		for (DeviceAddress adr : new DeviceAddress[] {DeviceAddress.ADR_000, DeviceAddress.ADR_001}) {
+			MCP23017 device = group.addDevice(adr, MCP23017.DEFAULT_INT_PIN);
+			device.setInput(MCP23017.Port.A);
+			device.setInput(MCP23017.Port.B);
+			device.setPullupResistors(MCP23017.Port.A, true);
+			device.setPullupResistors(MCP23017.Port.B, true);
+			device.setInterruptOnChange(MCP23017.Port.A, true);
+			device.setInterruptOnChange(MCP23017.Port.B, true);
+			device.addInterruptListener(e -> System.out.println(adr + " : " + e));
+		}
+		Thread.sleep(60000);
+		System.out.println("closing group");
+		group.close();
+	}
+}
@@ -0,0 +1,131 @@
+package device.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import device.MCP23017;
+
+/**
+ * A timed sequence of level changes on the input pins of an MCP23017Model, e.g. the quadrature signal of a rotary encoder
+ * being turned, or a bouncing push button.
+ *
+ * Steps are played on the calling thread against absolute deadlines, so that timing errors don't accumulate.
+ *
+ * @author reynal
+ *
+ */
+public class EdgeSequence {
+
+	private final List<Step> steps = new ArrayList<Step>();
+	private long durationNanos;
+
+	// -------------- constructors --------------
+
+	/**
+	 * Creates an empty sequence
+	 */
+	public EdgeSequence() {
+	}
+
+	// -------------- factories --------------
+
+	/**
+	 * The signal of a rotary encoder (channels pulled up, shorted to ground by the encoder) turned by the given number of detents:
+	 * CW is 11 -> 10 -> 00 -> 01 -> 11 and CCW is 11 -> 01 -> 00 -> 10 -> 11, writing (A,B).
+	 * @param steps number of detents, positive for clockwise (RotaryEncoder.Direction.UP)
+	 * @param edgePeriodMicros time between two consecutive edges
+	 */
+	public static EdgeSequence quadrature(MCP23017.Pin channelA, MCP23017.Pin channelB, int steps, long edgePeriodMicros) {
+
+		EdgeSequence seq = new EdgeSequence();
+		MCP23017.Pin first = steps > 0 ? channelB : channelA;
+		MCP23017.Pin second = steps > 0 ? channelA : channelB;
+		for (int i = 0; i < Math.abs(steps); i++) {
+			seq.add(edgePeriodMicros, first, false);
+			seq.add(edgePeriodMicros, second, false);
+			seq.add(edgePeriodMicros, first, true);
+			seq.add(edgePeriodMicros, second, true);
+		}
+		return seq;
+	}
+
+	/**
+	 * A push button pressed (pulled to ground) then released, with the given number of bounces on each transition.
+	 * @param bounceMicros time between two bounces
+	 * @param holdMicros time the button is held down
+	 */
+	public static EdgeSequence bouncingPress(MCP23017.Pin pin, int bounces, long bounceMicros, long holdMicros) {
+
+		EdgeSequence seq = new EdgeSequence();
+		for (int i = 0; i < bounces; i++) {
+			seq.add(bounceMicros, pin, false);
+			seq.add(bounceMicros, pin, true);
+		}
+		seq.add(bounceMicros, pin, false);
+		for (int i = 0; i < bounces; i++) {
+			seq.add(i == 0 ? holdMicros : bounceMicros, pin, true);
+			seq.add(bounceMicros, pin, false);
+		}
+		seq.add(bounces == 0 ? holdMicros : bounceMicros, pin, true);
+		return seq;
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * Appends a level change
+	 * @param delayMicros delay since the previous step
+	 * @return this sequence, for chaining
+	 */
+	public EdgeSequence add(long delayMicros, MCP23017.Pin pin, boolean high) {
+
+		steps.add(new Step(TimeUnit.MICROSECONDS.toNanos(delayMicros), pin, high));
+		durationNanos += TimeUnit.MICROSECONDS.toNanos(delayMicros);
+		return this;
+	}
+
+	/**
+	 * @return the number of level changes in this sequence
+	 */
+	public int getEdgeCount() {
+		return steps.size();
+	}
+
+	/**
+	 * @return the time it takes to play this sequence
+	 */
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * Plays this sequence on the given device, blocking until the last step was played.
+	 */
+	public void play(MCP23017Model device) {
+
+		long deadline = System.nanoTime();
+		for (Step s : steps) {
+			deadline += s.delayNanos;
+			long now;
+			while ((now = System.nanoTime()) < deadline) LockSupport.parkNanos(deadline - now);
+			device.setInput(s.pin, s.high);
+		}
+	}
+
+	// -------------- inner classes --------------
+
+	private static class Step {
+
+		final long delayNanos;
+		final MCP23017.Pin pin;
+		final boolean high;
+
+		Step(long delayNanos, MCP23017.Pin pin, boolean high) {
+			this.delayNanos = delayNanos;
+			this.pin = pin;
+			this.high = high;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package device.sim;
+
+import device.IS31FL3731;
+
+/**
+ * A register-level model of an IS31FL3731 LED driver: eight frame pages of 0xB4 registers (LED on/off, blink, PWM),
+ * the function register page, and the command register (0xFD) that selects the page subsequent accesses go to.
+ * The register pointer auto-increments within the selected page.
+ *
+ * Writes are counted per page, so that the LED traffic of a view can be measured, and what the device would display
+ * can be checked with isLEDOn() / getPWM() on getDisplayedFrame().
+ *
+ * @author reynal
+ *
+ */
+public class IS31FL3731Model extends SimulatedI2CDevice {
+
+	public static final int COMMAND_REGISTER = 0xFD;
+	public static final int FUNCTION_PAGE = 0x0B;
+	private static final int FRAME_REGISTER_COUNT = 0xB4;
+	private static final int FUNCTION_REGISTER_COUNT = 0x0D;
+	private static final int CONFIG_REGISTER = 0x00, PICTURE_DISPLAY_REGISTER = 0x01, SHUTDOWN_REGISTER = 0x0A;
+	private static final int ONOFF_BASE = 0x00, PWM_BASE = 0x24;
+	private static final int MODE_MASK = 0b00011000;
+
+	private final int[][] frames = new int[IS31FL3731.FRAME_COUNT][FRAME_REGISTER_COUNT];
+	private final int[] functionRegisters = new int[FUNCTION_REGISTER_COUNT];
+	private int page; // last value written to the command register
+
+	// statistics, guarded by this:
+	private final long[] pageWriteCounts = new long[FUNCTION_PAGE + 1]; // frames 0-7, then function page
+	private long pageSelectCount;
+
+	// -------------- constructors --------------
+
+	/**
+	 * Creates a device in its power-on state (shutdown, every register cleared)
+	 * @param address e.g. IS31FL3731.DeviceAddress.AD_GND.getValue()
+	 */
+	public IS31FL3731Model(int address) {
+		super(address);
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * @return the frame currently shown, i.e. the Picture Display register in Picture Mode, or the frame being played otherwise
+	 */
+	public synchronized int getDisplayedFrame() {
+
+		if ((functionRegisters[CONFIG_REGISTER] & MODE_MASK) == 0) return functionRegisters[PICTURE_DISPLAY_REGISTER] & 0x07;
+		return functionRegisters[CONFIG_REGISTER] & 0x07; // start frame of the animation
+	}
+
+	/**
+	 * @return true if the device is in software shutdown mode (its power-on state)
+	 */
+	public synchronized boolean isShutdown() {
+		return (functionRegisters[SHUTDOWN_REGISTER] & 0x01) == 0;
+	}
+
+	/**
+	 * @param frame from 0 to 7
+	 * @param pwmRegisterAddress as returned by LEDCoordinate.getPWMRegisterAdress()
+	 * @return true if the LED is switched on in the given frame
+	 */
+	public synchronized boolean isLEDOn(int frame, int pwmRegisterAddress) {
+
+		int led = pwmRegisterAddress - PWM_BASE;
+		return (frames[frame][ONOFF_BASE + led / 8] & (1 << (led % 8))) != 0;
+	}
+
+	/**
+	 * @return the PWM value of the given LED in the given frame
+	 */
+	public synchronized int getPWM(int frame, int pwmRegisterAddress) {
+		return frames[frame][pwmRegisterAddress];
+	}
+
+	/**
+	 * @return the value of the given register of the given frame, with no side effect
+	 */
+	public synchronized int getFrameRegister(int frame, int register) {
+		return frames[frame][register];
+	}
+
+	/**
+	 * @return the value of the given function register, with no side effect
+	 */
+	public synchronized int getFunctionRegister(int register) {
+		return functionRegisters[register];
+	}
+
+	/**
+	 * @param page a frame from 0 to 7, or FUNCTION_PAGE
+	 * @return number of registers written in the given page since the last reset
+	 */
+	public synchronized long getPageWriteCount(int page) {
+		return pageWriteCounts[page];
+	}
+
+	/**
+	 * @return number of writes to the command register since the last reset
+	 */
+	public synchronized long getPageSelectCount() {
+		return pageSelectCount;
+	}
+
+	@Override
+	public synchronized void resetStatistics() {
+
+		super.resetStatistics();
+		java.util.Arrays.fill(pageWriteCounts, 0);
+		pageSelectCount = 0;
+	}
+
+	// -------------- SimulatedI2CDevice --------------
+
+	@Override
+	protected int readRegister(int register) {
+
+		if (register == COMMAND_REGISTER) return page;
+		if (page < IS31FL3731.FRAME_COUNT && register < FRAME_REGISTER_COUNT) return frames[page][register];
+		if (page == FUNCTION_PAGE && register < FUNCTION_REGISTER_COUNT) return functionRegisters[register];
+		return 0;
+	}
+
+	@Override
+	protected void writeRegister(int register, int value) {
+
+		if (register == COMMAND_REGISTER) {
+			page = value;
+			pageSelectCount++;
+		}
+		else if (page < IS31FL3731.FRAME_COUNT && register < FRAME_REGISTER_COUNT) {
+			frames[page][register] = value;
+			pageWriteCounts[page]++;
+		}
+		else if (page == FUNCTION_PAGE && register < FUNCTION_REGISTER_COUNT) {
+			functionRegisters[register] = value;
+			pageWriteCounts[FUNCTION_PAGE]++;
+		}
+	}
+}
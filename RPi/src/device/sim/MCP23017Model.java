@@ -0,0 +1,236 @@
+package device.sim;
+
+import static device.MCP23017.Register.*;
+
+import device.MCP23017;
+import device.MCP23017.IOCONFields;
+import device.MCP23017.Port;
+import device.MCP23017.Register;
+
+/**
+ * A register-level model of an MCP23017 GPIO expander, in IOCON.BANK=0 mode (the only one the driver uses).
+ *
+ * Modelled features:
+ * - IODIR, IPOL, GPPU (stored only), GPIO/OLAT: reading GPIO returns input levels (inverted by IPOL) for input pins, OLAT for output pins
+ * - interrupt-on-change (GPINTEN) against the previous pin value or DEFVAL (INTCON): the first interrupt condition sets INTF and captures
+ *   GPIO into INTCAP ; further conditions are ignored until INTF gets cleared by reading INTCAP or GPIO (as stated in the datasheet)
+ * - IOCON.MIRROR (INTA and INTB OR'd), IOCON.SEQOP (address pointer auto-increment, or toggling between A/B pairs)
+ * - INTA output, connected to a SimulatedInterruptPin ; modelled as active-low, i.e., ODR=1 or INTPOL=0.
+ *
+ * External pin levels default to high (pull-ups, nothing pressed) and are driven with setInput() or an EdgeSequence.
+ *
+ * @author reynal
+ *
+ */
+public class MCP23017Model extends SimulatedI2CDevice {
+
+	private static final int REGISTER_COUNT = 0x16;
+
+	private final int[] registers = new int[REGISTER_COUNT];
+	private final int[] inputLevels = {0xFF, 0xFF}; // external levels, A then B
+	private final int[] previousLevels = {0xFF, 0xFF}; // for interrupt-on-change against previous value
+	private SimulatedInterruptPin intA; // null if not connected
+
+	// statistics, guarded by this:
+	private long interruptCount, missedEdgeCount;
+
+	// -------------- constructors --------------
+
+	/**
+	 * Creates a device in its power-on reset state
+	 * @param address I2C address, e.g. MCP23017.DeviceAddress.ADR_000.getValue()
+	 */
+	public MCP23017Model(int address) {
+
+		super(address);
+		registers[IODIRA.getAddress()] = 0xFF;
+		registers[IODIRB.getAddress()] = 0xFF;
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * Wires the INTA output of this device to the given line (wired-OR with other sources of the line)
+	 */
+	public void connectIntA(SimulatedInterruptPin line) {
+
+		synchronized (this) {
+			intA = line;
+		}
+		line.addSource(this::isIntAAsserted);
+	}
+
+	/**
+	 * @return true if the INTA output is currently asserted
+	 */
+	public synchronized boolean isIntAAsserted() {
+
+		boolean mirror = (registers[IOCON.getAddress()] & IOCONFields.MIRROR.getMask()) != 0;
+		return registers[INTFA.getAddress()] != 0 || (mirror && registers[INTFB.getAddress()] != 0);
+	}
+
+	/**
+	 * Drives the given input pin from the outside, e.g. an encoder channel or a push button.
+	 * @param high level of the pin
+	 */
+	public void setInput(MCP23017.Pin pin, boolean high) {
+
+		synchronized (this) {
+			int i = pin.getPort().ordinal();
+			int mask = pin.getMask() & 0xFF;
+			inputLevels[i] = high ? inputLevels[i] | mask : inputLevels[i] & ~mask;
+			checkInterrupt(pin.getPort());
+		}
+		updateIntLine();
+	}
+
+	/**
+	 * Drives every pin of the given port at once
+	 * @param levels one bit per pin, 1 for high
+	 */
+	public void setInputs(Port port, int levels) {
+
+		synchronized (this) {
+			inputLevels[port.ordinal()] = levels & 0xFF;
+			checkInterrupt(port);
+		}
+		updateIntLine();
+	}
+
+	/**
+	 * @return the levels driven by output pins of the given port (bits of input pins are 0)
+	 */
+	public synchronized int getOutputs(Port port) {
+		return registers[reg(OLATA, port)] & ~registers[reg(IODIRA, port)] & 0xFF;
+	}
+
+	/**
+	 * @return the value of the given register, with no side effect (as opposed to an I2C read)
+	 */
+	public synchronized int getRegister(Register register) {
+		return registers[register.getAddress()];
+	}
+
+	/**
+	 * @return the number of interrupts captured since the last reset
+	 */
+	public synchronized long getInterruptCount() {
+		return interruptCount;
+	}
+
+	/**
+	 * @return the number of input changes on interrupt-enabled pins that occurred while a previous interrupt
+	 * was still pending, i.e., edges the host could only see through the current GPIO value
+	 */
+	public synchronized long getMissedEdgeCount() {
+		return missedEdgeCount;
+	}
+
+	@Override
+	public synchronized void resetStatistics() {
+
+		super.resetStatistics();
+		interruptCount = missedEdgeCount = 0;
+	}
+
+	// -------------- SimulatedI2CDevice --------------
+
+	@Override
+	protected int readRegister(int register) {
+
+		if (register >= REGISTER_COUNT) return 0;
+		Port port = (register & 1) == 0 ? Port.A : Port.B;
+		if (register == reg(GPIOA, port)) {
+			int value = readGPIO(port);
+			clearInterrupt(port);
+			return value;
+		}
+		if (register == reg(INTCAPA, port)) {
+			int value = registers[register];
+			clearInterrupt(port);
+			return value;
+		}
+		return registers[register];
+	}
+
+	@Override
+	protected void writeRegister(int register, int value) {
+
+		if (register >= REGISTER_COUNT) return;
+		Port port = (register & 1) == 0 ? Port.A : Port.B;
+		if (register == reg(INTFA, port) || register == reg(INTCAPA, port)) return; // read-only
+		if (register == reg(GPIOA, port)) register = reg(OLATA, port); // writing GPIO writes the output latch
+		if ((register & ~1) == IOCON.getAddress()) { // IOCON is shared by both ports
+			registers[IOCON.getAddress()] = registers[IOCON.getAddress() + 1] = value & ~IOCONFields.BANK.getMask(); // BANK=1 not modelled
+			return;
+		}
+		registers[register] = value;
+		if (register == reg(IODIRA, port) || register == reg(INTENA, port) || register == reg(INTCONA, port) || register == reg(DEFVALA, port)) checkInterrupt(port);
+	}
+
+	@Override
+	protected int nextRegister(int register) {
+
+		if ((registers[IOCON.getAddress()] & IOCONFields.SEQOP.getMask()) != 0) return register ^ 1; // toggles between A/B pairs
+		return (register + 1) % REGISTER_COUNT;
+	}
+
+	@Override
+	protected void transactionCompleted() {
+		updateIntLine(); // reading INTCAP or GPIO may have released the line
+	}
+
+	// -------------- private methods --------------
+
+	/*
+	 * address of the register of the given port, given its port A counterpart
+	 */
+	private static int reg(Register portARegister, Port port) {
+		return portARegister.getAddress() + port.ordinal();
+	}
+
+	private int readGPIO(Port port) {
+
+		int iodir = registers[reg(IODIRA, port)];
+		int in = (inputLevels[port.ordinal()] ^ registers[reg(IPOLA, port)]) & iodir;
+		int out = registers[reg(OLATA, port)] & ~iodir;
+		return (in | out) & 0xFF;
+	}
+
+	private void clearInterrupt(Port port) {
+
+		registers[reg(INTFA, port)] = 0;
+		checkInterrupt(port); // compare-to-DEFVAL conditions that still hold trigger again
+	}
+
+	/*
+	 * raises an interrupt if an enabled input meets its interrupt condition and no interrupt is pending on this port
+	 */
+	private void checkInterrupt(Port port) {
+
+		int i = port.ordinal();
+		int enabled = registers[reg(INTENA, port)] & registers[reg(IODIRA, port)];
+		int intcon = registers[reg(INTCONA, port)];
+		int changed = (inputLevels[i] ^ previousLevels[i]) & ~intcon;
+		int differsFromDefault = (inputLevels[i] ^ registers[reg(DEFVALA, port)]) & intcon;
+		int flags = (changed | differsFromDefault) & enabled;
+		previousLevels[i] = inputLevels[i];
+		if (flags == 0) return;
+		if (registers[reg(INTFA, port)] != 0) {
+			if ((changed & enabled) != 0) missedEdgeCount++;
+			return;
+		}
+		registers[reg(INTFA, port)] = flags;
+		registers[reg(INTCAPA, port)] = readGPIO(port);
+		interruptCount++;
+	}
+
+	private void updateIntLine() {
+
+		SimulatedInterruptPin line;
+		synchronized (this) {
+			line = intA;
+		}
+		if (line != null) line.update();
+	}
+}
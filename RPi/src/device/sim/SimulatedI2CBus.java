@@ -0,0 +1,148 @@
+package device.sim;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+import com.pi4j.io.i2c.I2CBus;
+import com.pi4j.io.i2c.I2CDevice;
+
+/**
+ * An in-memory I2C bus populated with register-level device models, so that device drivers, controls and views
+ * can be exercised (and benchmarked) on a desktop computer, e.g.:
+ * <pre>
+ * SimulatedI2CBus bus = new SimulatedI2CBus(I2CBus.BUS_1);
+ * bus.attach(new MCP23017Model(MCP23017.DeviceAddress.ADR_000.getValue()));
+ * I2CBusArbiter.setDefault(new I2CBusArbiter(bus));
+ * MCP23017 device = new MCP23017(MCP23017.DeviceAddress.ADR_000); // now talks to the model
+ * </pre>
+ *
+ * The time each transaction would take on a real bus is computed from the bus clock (9 clock cycles per byte, plus the
+ * address byte and start/stop conditions) ; in real-time mode, transactions also take that long to complete.
+ *
+ * @author reynal
+ *
+ */
+public class SimulatedI2CBus implements I2CBus {
+
+	public static final int DEFAULT_CLOCK_HZ = 100_000; // RPi default
+
+	private final int busNumber;
+	private final Map<Integer, SimulatedI2CDevice> devices = new HashMap<Integer, SimulatedI2CDevice>();
+	private volatile int clockHz = DEFAULT_CLOCK_HZ;
+	private volatile boolean realTime;
+
+	// statistics:
+	private long transactionCount, byteCount, busNanos;
+
+	// -------------- constructors --------------
+
+	/**
+	 * Creates an empty bus with the default clock, not in real-time mode.
+	 */
+	public SimulatedI2CBus(int busNumber) {
+		this.busNumber = busNumber;
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * Connects the given model to this bus, at the model's address.
+	 */
+	public synchronized void attach(SimulatedI2CDevice device) {
+
+		if (devices.containsKey(device.getAddress())) throw new IllegalArgumentException(String.format("Address 0x%02X already in use", device.getAddress()));
+		devices.put(device.getAddress(), device);
+		device.setBus(this);
+	}
+
+	/**
+	 * @param clockHz SCL frequency, e.g. 100kHz or 400kHz
+	 */
+	public void setClockHz(int clockHz) {
+		this.clockHz = clockHz;
+	}
+
+	public int getClockHz() {
+		return clockHz;
+	}
+
+	/**
+	 * @param realTime if true, each transaction blocks the calling thread for the time it would take on a real bus
+	 */
+	public void setRealTime(boolean realTime) {
+		this.realTime = realTime;
+	}
+
+	/**
+	 * @return the number of transactions since the last reset
+	 */
+	public synchronized long getTransactionCount() {
+		return transactionCount;
+	}
+
+	/**
+	 * @return the number of bytes (including address bytes) since the last reset
+	 */
+	public synchronized long getByteCount() {
+		return byteCount;
+	}
+
+	/**
+	 * @return the time transactions since the last reset would have taken on a real bus
+	 */
+	public synchronized long getBusNanos() {
+		return busNanos;
+	}
+
+	/**
+	 * Resets the statistics of this bus and of every attached model.
+	 */
+	public synchronized void resetStatistics() {
+
+		transactionCount = byteCount = busNanos = 0;
+		for (SimulatedI2CDevice d : devices.values()) d.resetStatistics();
+	}
+
+	// ---- I2CBus ----
+
+	@Override
+	public synchronized I2CDevice getDevice(int address) throws IOException {
+
+		SimulatedI2CDevice d = devices.get(address);
+		if (d == null) throw new IOException(String.format("No device at address 0x%02X on simulated bus %d", address, busNumber));
+		return d;
+	}
+
+	@Override
+	public int getBusNumber() {
+		return busNumber;
+	}
+
+	@Override
+	public void close() throws IOException {
+	}
+
+	// -------------- package methods --------------
+
+	/*
+	 * called by models at the end of each transaction
+	 * @param byteCount data bytes, including register pointer, excluding address bytes
+	 * @param addressByteCount 1, or 2 for a combined write/read transaction (repeated start)
+	 */
+	void transfer(int byteCount, int addressByteCount) {
+
+		int bytes = byteCount + addressByteCount;
+		long nanos = (9L * bytes + 2 * addressByteCount) * 1_000_000_000L / clockHz; // 9 clocks per byte, ~2 per start/stop
+		synchronized (this) {
+			transactionCount++;
+			this.byteCount += bytes;
+			busNanos += nanos;
+		}
+		if (realTime) {
+			long deadline = System.nanoTime() + nanos;
+			long now;
+			while ((now = System.nanoTime()) < deadline) LockSupport.parkNanos(deadline - now);
+		}
+	}
+}
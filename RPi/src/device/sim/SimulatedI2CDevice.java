@@ -0,0 +1,242 @@
+package device.sim;
+
+import java.io.IOException;
+
+import com.pi4j.io.i2c.I2CDevice;
+
+/**
+ * Base class for register-level models of I2C devices attached to a SimulatedI2CBus.
+ *
+ * Like most I2C register devices, a model has an internal register pointer: the first byte of a write transaction sets
+ * the pointer, subsequent bytes get written to consecutive registers, and read transactions start at the current pointer.
+ * Subclasses decide what "consecutive" means (see nextRegister()) and what reading or writing a register does.
+ *
+ * Register accesses are serialized on the model ; transactionCompleted() is invoked after the model lock was released,
+ * so that subclasses can notify the outside world (e.g. interrupt lines) without risking a deadlock.
+ *
+ * @author reynal
+ *
+ */
+public abstract class SimulatedI2CDevice implements I2CDevice {
+
+	private final int address;
+	private SimulatedI2CBus bus; // null until attached
+	protected int pointer; // register pointer
+
+	// statistics, guarded by this:
+	private long transactionCount, bytesWritten, bytesRead;
+
+	// -------------- constructors --------------
+
+	/**
+	 * @param address 7 bit I2C address
+	 */
+	protected SimulatedI2CDevice(int address) {
+		this.address = address;
+	}
+
+	// -------------- abstract methods --------------
+
+	/**
+	 * @return the value of the given register, from 0 to 255 ; may have side effects (e.g. clearing interrupt flags)
+	 */
+	protected abstract int readRegister(int register);
+
+	/**
+	 * Writes the given value (from 0 to 255) to the given register
+	 */
+	protected abstract void writeRegister(int register, int value);
+
+	/**
+	 * @return the register pointer after an access to the given register ; default is plain auto-increment
+	 */
+	protected int nextRegister(int register) {
+		return (register + 1) & 0xFF;
+	}
+
+	/**
+	 * Called after each transaction, without holding the model lock ; does nothing by default.
+	 */
+	protected void transactionCompleted() {
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * @return the number of transactions addressed to this device since the last reset
+	 */
+	public synchronized long getTransactionCount() {
+		return transactionCount;
+	}
+
+	/**
+	 * @return the number of bytes written to this device since the last reset, including register pointers
+	 */
+	public synchronized long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * @return the number of bytes read from this device since the last reset
+	 */
+	public synchronized long getBytesRead() {
+		return bytesRead;
+	}
+
+	public synchronized void resetStatistics() {
+		transactionCount = bytesWritten = bytesRead = 0;
+	}
+
+	// ---- I2CDevice ----
+
+	@Override
+	public int getAddress() {
+		return address;
+	}
+
+	@Override
+	public void write(byte b) throws IOException {
+
+		synchronized (this) {
+			pointer = b & 0xFF;
+		}
+		complete(1, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int size) throws IOException {
+
+		if (size == 0) return;
+		synchronized (this) {
+			pointer = buffer[offset] & 0xFF;
+			writeSequential(buffer, offset + 1, size - 1);
+		}
+		complete(size, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] buffer) throws IOException {
+		write(buffer, 0, buffer.length);
+	}
+
+	@Override
+	public void write(int address, byte b) throws IOException {
+
+		synchronized (this) {
+			pointer = address & 0xFF;
+			writeSequential(new byte[] {b}, 0, 1);
+		}
+		complete(2, 0, 1);
+	}
+
+	@Override
+	public void write(int address, byte[] buffer, int offset, int size) throws IOException {
+
+		synchronized (this) {
+			pointer = address & 0xFF;
+			writeSequential(buffer, offset, size);
+		}
+		complete(size + 1, 0, 1);
+	}
+
+	@Override
+	public void write(int address, byte[] buffer) throws IOException {
+		write(address, buffer, 0, buffer.length);
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		int value;
+		synchronized (this) {
+			value = readRegister(pointer);
+			pointer = nextRegister(pointer);
+		}
+		complete(0, 1, 1);
+		return value;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int size) throws IOException {
+
+		synchronized (this) {
+			readSequential(buffer, offset, size);
+		}
+		complete(0, size, 1);
+		return size;
+	}
+
+	@Override
+	public int read(int address) throws IOException {
+
+		int value;
+		synchronized (this) {
+			pointer = address & 0xFF;
+			value = readRegister(pointer);
+			pointer = nextRegister(pointer);
+		}
+		complete(1, 1, 2);
+		return value;
+	}
+
+	@Override
+	public int read(int address, byte[] buffer, int offset, int size) throws IOException {
+
+		synchronized (this) {
+			pointer = address & 0xFF;
+			readSequential(buffer, offset, size);
+		}
+		complete(1, size, 2);
+		return size;
+	}
+
+	@Override
+	public int read(byte[] writeBuffer, int writeOffset, int writeSize, byte[] readBuffer, int readOffset, int readSize) throws IOException {
+
+		synchronized (this) {
+			if (writeSize > 0) {
+				pointer = writeBuffer[writeOffset] & 0xFF;
+				writeSequential(writeBuffer, writeOffset + 1, writeSize - 1);
+			}
+			readSequential(readBuffer, readOffset, readSize);
+		}
+		complete(writeSize, readSize, 2);
+		return readSize;
+	}
+
+	// -------------- package and private methods --------------
+
+	void setBus(SimulatedI2CBus bus) {
+		this.bus = bus;
+	}
+
+	private void writeSequential(byte[] buffer, int offset, int size) {
+
+		for (int i = 0; i < size; i++) {
+			writeRegister(pointer, buffer[offset + i] & 0xFF);
+			pointer = nextRegister(pointer);
+		}
+	}
+
+	private void readSequential(byte[] buffer, int offset, int size) {
+
+		for (int i = 0; i < size; i++) {
+			buffer[offset + i] = (byte)readRegister(pointer);
+			pointer = nextRegister(pointer);
+		}
+	}
+
+	/*
+	 * updates statistics, lets the bus account for the transaction time, then notifies subclasses
+	 */
+	private void complete(int written, int read, int addressBytes) {
+
+		synchronized (this) {
+			transactionCount++;
+			bytesWritten += written;
+			bytesRead += read;
+		}
+		if (bus != null) bus.transfer(written + read, addressBytes);
+		transactionCompleted();
+	}
+}
@@ -0,0 +1,106 @@
+package device.sim;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+
+import device.InterruptPin;
+
+/**
+ * A simulated active-low interrupt line, wired-OR'd between any number of sources (e.g. the open-drain INTA outputs
+ * of several MCP23017Model's): the line is low as long as at least one source is asserted.
+ *
+ * Sources call update() whenever their output may have changed. As with pi4j, falling edges are delivered to listeners
+ * from a dedicated event thread, never from the thread that caused the edge (which may well be the I2C bus thread).
+ *
+ * @author reynal
+ *
+ */
+public class SimulatedInterruptPin implements InterruptPin {
+
+	private final String name;
+	private final List<BooleanSupplier> sources = new CopyOnWriteArrayList<BooleanSupplier>();
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<Runnable>();
+	private final ExecutorService eventThread;
+	private boolean low; // guarded by this
+	private long fallingEdgeCount; // guarded by this
+
+	// -------------- constructors --------------
+
+	/**
+	 * @param name a name for debugging purpose
+	 */
+	public SimulatedInterruptPin(String name) {
+
+		this.name = name;
+		eventThread = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "SimulatedInterruptPin " + name);
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * Connects a source to this line
+	 * @param asserted returns true when the source pulls the line low
+	 */
+	public void addSource(BooleanSupplier asserted) {
+
+		sources.add(asserted);
+		update();
+	}
+
+	/**
+	 * Recomputes the line level from its sources, and notifies listeners on a falling edge.
+	 */
+	public void update() {
+
+		synchronized (this) { // sources must not call update() while holding their own lock
+			boolean newLow = false;
+			for (BooleanSupplier s : sources) {
+				if (s.getAsBoolean()) {
+					newLow = true;
+					break;
+				}
+			}
+			boolean falling = newLow && !low;
+			low = newLow;
+			if (!falling) return;
+			fallingEdgeCount++;
+		}
+		for (Runnable l : listeners) eventThread.execute(l);
+	}
+
+	/**
+	 * @return the number of falling edges since this line was created
+	 */
+	public synchronized long getFallingEdgeCount() {
+		return fallingEdgeCount;
+	}
+
+	// ---- InterruptPin ----
+
+	@Override
+	public synchronized boolean isLow() {
+		return low;
+	}
+
+	@Override
+	public void addFallingEdgeListener(Runnable l) {
+		listeners.add(l);
+	}
+
+	@Override
+	public void close() {
+
+		listeners.clear();
+		eventThread.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,95 @@
+package misc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the LatencyProbe's of every front panel control, that can log a summary on a regular basis.
+ *
+ * @author reynal
+ *
+ */
+public class LatencyMonitor {
+
+	private static final Logger LOGGER = Logger.getLogger("confLogger");
+
+	private static LatencyMonitor defaultMonitor;
+
+	private final Map<String, LatencyProbe> probes = new ConcurrentSkipListMap<String, LatencyProbe>(); // sorted by name
+	private Thread loggingThread;
+
+	// -------------- constructors --------------
+
+	public LatencyMonitor() {
+	}
+
+	/**
+	 * @return the monitor shared by every control
+	 */
+	public static synchronized LatencyMonitor getDefault() {
+		if (defaultMonitor == null) defaultMonitor = new LatencyMonitor();
+		return defaultMonitor;
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * @return the probe with the given name, created on first call
+	 */
+	public LatencyProbe getProbe(String name) {
+		return probes.computeIfAbsent(name, LatencyProbe::new);
+	}
+
+	/**
+	 * @return every probe, sorted by name
+	 */
+	public List<LatencyProbe> getProbes() {
+		return new ArrayList<LatencyProbe>(probes.values());
+	}
+
+	/**
+	 * @return one line per probe that has recorded at least one sample
+	 */
+	public String getSummary() {
+
+		StringBuilder sb = new StringBuilder("Front panel latency:");
+		for (LatencyProbe p : probes.values()) {
+			boolean empty = true;
+			for (LatencyProbe.Stage stage : LatencyProbe.Stage.values()) if (p.getCount(stage) > 0) empty = false;
+			if (!empty) sb.append("\n\t").append(p);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Logs a summary every given period, from a daemon thread.
+	 */
+	public synchronized void startLogging(long periodMs) {
+
+		if (loggingThread != null) return;
+		loggingThread = new Thread(() -> {
+			try {
+				while (true) {
+					Thread.sleep(periodMs);
+					LOGGER.info(getSummary());
+				}
+			} catch (InterruptedException e) {} // stopLogging() was called
+		}, "LatencyMonitor");
+		loggingThread.setDaemon(true);
+		loggingThread.start();
+	}
+
+	/**
+	 * Stops periodic logging and logs a last summary
+	 */
+	public synchronized void stopLogging() {
+
+		if (loggingThread == null) return;
+		loggingThread.interrupt();
+		loggingThread = null;
+		LOGGER.info(getSummary());
+	}
+}
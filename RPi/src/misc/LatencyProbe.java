@@ -0,0 +1,186 @@
+package misc;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the latency between a physical stimulus on a front panel control (e.g. the MCP23017 INT edge caused by an
+ * encoder detent) and the moment its consequences reach the LEDs (IS31FL3731 flush) or the wire (serial write to the STM32).
+ *
+ * A control stamps the edge with System.nanoTime() and calls begin() before notifying its listeners ; since ModuleParameter
+ * listeners (views, serial transmitter) are notified synchronously on the same thread, they can look the stimulus up with
+ * current() and hand it over to whoever completes the path, which then calls Stimulus.reached().
+ * Stages reached asynchronously (e.g. the LED refresh thread) only need to keep a reference to the Stimulus.
+ *
+ * Each probe keeps a rolling window of the last samples of each stage, from which percentiles are computed on demand.
+ *
+ * @author reynal
+ *
+ */
+public class LatencyProbe {
+
+	/**
+	 * Where a stimulus ends up
+	 */
+	public static enum Stage {
+		/** front panel LEDs flushed */
+		LED,
+		/** message written to the serial link */
+		WIRE;
+	}
+
+	public static final int WINDOW_SIZE = 256;
+
+	private static final ThreadLocal<Stimulus> currentStimulus = new ThreadLocal<Stimulus>();
+
+	private final String name;
+	private final long[][] samples = new long[Stage.values().length][WINDOW_SIZE]; // rolling windows, nanoseconds
+	private final long[] counts = new long[Stage.values().length];
+
+	// -------------- constructors --------------
+
+	/**
+	 * @param name usually the label of the control
+	 */
+	public LatencyProbe(String name) {
+		this.name = name;
+	}
+
+	// -------------- static methods --------------
+
+	/**
+	 * @return the stimulus being processed by the calling thread, or null if none
+	 */
+	public static Stimulus current() {
+		return currentStimulus.get();
+	}
+
+	/**
+	 * Ends the stimulus being processed by the calling thread
+	 */
+	public static void end() {
+		currentStimulus.remove();
+	}
+
+	// -------------- public methods --------------
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Makes a new stimulus of this probe the current one for the calling thread, until end() is called.
+	 * @param edgeNanos System.nanoTime() at the time the physical edge was detected
+	 * @return the stimulus
+	 */
+	public Stimulus begin(long edgeNanos) {
+
+		Stimulus s = new Stimulus(this, edgeNanos);
+		currentStimulus.set(s);
+		return s;
+	}
+
+	/**
+	 * Adds a sample
+	 */
+	public synchronized void record(Stage stage, long latencyNanos) {
+
+		int s = stage.ordinal();
+		samples[s][(int)(counts[s] % WINDOW_SIZE)] = latencyNanos;
+		counts[s]++;
+	}
+
+	/**
+	 * @return the total number of samples recorded for the given stage
+	 */
+	public synchronized long getCount(Stage stage) {
+		return counts[stage.ordinal()];
+	}
+
+	/**
+	 * @param percentile from 0 to 100
+	 * @return the given percentile of the latency over the rolling window, in nanoseconds, or -1 if there's no sample yet
+	 */
+	public long getPercentile(Stage stage, double percentile) {
+
+		long[] window = getWindow(stage);
+		if (window.length == 0) return -1;
+		Arrays.sort(window);
+		return pick(window, percentile);
+	}
+
+	/**
+	 * @return e.g. "LED p50=1.2ms p90=3.4ms p99=8.0ms max=9.1ms (n=1234)" for the given stage
+	 */
+	public String getSummary(Stage stage) {
+
+		long[] window = getWindow(stage);
+		if (window.length == 0) return stage + " -";
+		Arrays.sort(window);
+		return String.format("%s p50=%s p90=%s p99=%s max=%s (n=%d)", stage,
+				toMs(pick(window, 50)), toMs(pick(window, 90)), toMs(pick(window, 99)), toMs(window[window.length - 1]), getCount(stage));
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuilder sb = new StringBuilder(name);
+		for (Stage stage : Stage.values()) sb.append("\t").append(getSummary(stage));
+		return sb.toString();
+	}
+
+	// -------------- private methods --------------
+
+	private synchronized long[] getWindow(Stage stage) {
+
+		int s = stage.ordinal();
+		return Arrays.copyOf(samples[s], (int)Math.min(counts[s], WINDOW_SIZE));
+	}
+
+	private static long pick(long[] sortedWindow, double percentile) {
+
+		int i = (int)Math.ceil(percentile / 100.0 * sortedWindow.length) - 1;
+		return sortedWindow[Math.max(0, Math.min(sortedWindow.length - 1, i))];
+	}
+
+	private static String toMs(long nanos) {
+		return String.format("%.1fms", nanos / (double)TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+	// -------------- inner classes --------------
+
+	/**
+	 * A single stimulus on its way to the LEDs and the wire ; each stage gets recorded once, the first time it is reached.
+	 */
+	public static class Stimulus {
+
+		private final LatencyProbe probe;
+		private final long edgeNanos;
+		private final boolean[] reached = new boolean[Stage.values().length]; // guarded by this
+
+		Stimulus(LatencyProbe probe, long edgeNanos) {
+			this.probe = probe;
+			this.edgeNanos = edgeNanos;
+		}
+
+		/**
+		 * @return System.nanoTime() at the time the physical edge was detected
+		 */
+		public long getEdgeNanos() {
+			return edgeNanos;
+		}
+
+		/**
+		 * Records the latency of the given stage, unless it was already reached
+		 */
+		public void reached(Stage stage) {
+
+			long latency = System.nanoTime() - edgeNanos;
+			synchronized (this) {
+				if (reached[stage.ordinal()]) return;
+				reached[stage.ordinal()] = true;
+			}
+			probe.record(stage, latency);
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package model;
 
+import controller.component.PushButtonState;
 import controller.event.*;
 
 /**
@@ -28,6 +29,8 @@ public class BooleanParameter extends ModuleParameter<Boolean> {
 	
 	@Override
 	public void actionPerformed(PushButtonActionEvent e) {
+
+		if (e.getState() != PushButtonState.PRESSED) return; // one step per press
 		
 		value = !value;
 		fireChangeEvent();
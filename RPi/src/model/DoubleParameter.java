@@ -1,5 +1,6 @@
 package model;
 
+import controller.component.PushButtonState;
 import controller.event.*;
 
 /**
@@ -89,6 +90,8 @@ public class DoubleParameter extends ModuleParameter<Double> {
 	@Override
 	public void actionPerformed(PushButtonActionEvent e) {
 
+		if (e.getState() != PushButtonState.PRESSED) return; // one step per press
+
 		this.value+=step;
 		if (this.value > max) this.value=min;
 		fireChangeEvent();
@@ -1,5 +1,6 @@
 package model;
 
+import controller.component.PushButtonState;
 import controller.event.PushButtonActionEvent;
 import controller.event.RotaryEncoderChangeListener;
 import controller.event.RotaryEncoderEvent;
@@ -72,6 +73,8 @@ public class EnumParameter<T extends Enum<T>> extends ModuleParameter<T> impleme
 
 	@Override
 	public void actionPerformed(PushButtonActionEvent e) {
+
+		if (e.getState() != PushButtonState.PRESSED) return; // one step per press
 		if (value.ordinal() < getValuesCount()-1) 
 			value = clazz.getEnumConstants()[value.ordinal()+1];
 		else
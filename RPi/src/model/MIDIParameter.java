@@ -1,5 +1,6 @@
 package model;
 
+import controller.component.PushButtonState;
 import controller.event.*;
 
 /**
@@ -55,6 +56,8 @@ public class MIDIParameter extends ModuleParameter<Integer> {
 	@Override
 	public void actionPerformed(PushButtonActionEvent e) {
 
+		if (e.getState() != PushButtonState.PRESSED) return; // one step per press
+
 		this.value++;
 		if (this.value > 127) this.value=0;
 		fireChangeEvent();
@@ -8,6 +8,7 @@ import javax.sound.midi.*;
 import application.ModuleFactory;
 import application.Preferences;
 import model.ModuleParameter;
+import model.sequencer.OverdubRecorder;
 import model.serial.*;
 
 
@@ -21,7 +22,8 @@ public class MidiInHandler implements Receiver {
 	
 	private MidiDevice device;
 	private int midiChannel;
-	private AbstractSerialTransmitter serialTransmitter;
+	private volatile AbstractSerialTransmitter serialTransmitter;
+	private volatile OverdubRecorder recorder;
 
 	/**
 	 * Creates a Midi IN handler that listens to incoming MIDI events on the given midiChannel.
@@ -33,13 +35,62 @@ public class MidiInHandler implements Receiver {
 	 */
 	public MidiInHandler(AbstractSerialTransmitter spiTransmitter, int midiChannel) throws MidiUnavailableException {
 
-		this.midiChannel = midiChannel;
+		this(midiChannel);
 		this.serialTransmitter = spiTransmitter;
+		open();
+	}
+	
+	/**
+	 * Creates a Midi IN handler that doesn't listen to any MIDI device yet (see open()), and has no serial transmitter yet.
+	 * It can nonetheless be used right away as a Receiver, e.g., for a Sequencer or a virtual keyboard.
+	 */
+	public MidiInHandler(int midiChannel) {
 		
-		listMidiTransmitters();
-
-		MidiDevice.Info[] infos = MidiSystem.getMidiDeviceInfo();
+		this.midiChannel = midiChannel;
+	}
+	
+	/**
+	 * Sets the transmitter Note ON/OFF messages get forwarded to ; may be called at any time, e.g., once the serial port is open.
+	 */
+	public void setSerialTransmitter(AbstractSerialTransmitter serialTransmitter) {
+		
+		this.serialTransmitter = serialTransmitter;
+	}
+	
+	/**
+	 * @return the transmitter Note ON/OFF messages get forwarded to, or null if none yet
+	 */
+	public AbstractSerialTransmitter getSerialTransmitter() {
+		
+		return serialTransmitter;
+	}
+	
+	/**
+	 * Sets the recorder incoming messages get passed to, once forwarded ; null for none.
+	 */
+	public void setRecorder(OverdubRecorder recorder) {
+		
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * @return the MIDI channel this handler listens to, from 0 to 15
+	 */
+	public int getMidiChannel() {
 		
+		return midiChannel;
+	}
+	
+	/**
+	 * Looks for the MIDI IN device set in the Preferences and starts listening to it. 
+	 * This may take a while since it enumerates MIDI devices.
+	 */
+	public void open() throws MidiUnavailableException {
+		
+		MidiDevice.Info[] infos = MidiSystem.getMidiDeviceInfo(); // enumerated once, this is slow on some platforms
+		
+		listMidiTransmitters(infos);
+
 		String expectedMidiDevice = Preferences.getPreferences().getStringProperty(Preferences.Key.MIDI_IN);
 		
 		for (MidiDevice.Info info : infos) {
@@ -62,7 +113,10 @@ public class MidiInHandler implements Receiver {
 	
 	public static void listMidiTransmitters() {
 		
-		MidiDevice.Info[] infos = MidiSystem.getMidiDeviceInfo();
+		listMidiTransmitters(MidiSystem.getMidiDeviceInfo());
+	}
+	
+	private static void listMidiTransmitters(MidiDevice.Info[] infos) {
 		
 		String str = "Listing Midi Devices with transmitters: (out of " + infos.length + " MIDI devices found)\n";
 
@@ -95,6 +149,7 @@ public class MidiInHandler implements Receiver {
 			}
 			// from now on, this message is for us
 			// forward Note ON and OFF to Serial Transmitter, and CC directly to module parameters !
+			AbstractSerialTransmitter serialTransmitter = this.serialTransmitter;
 			if (serialTransmitter != null) {
 				try {
 					if (sm.getCommand() == ShortMessage.NOTE_ON) { 
@@ -126,6 +181,8 @@ public class MidiInHandler implements Receiver {
 			}
 			else LOGGER.warning("No SERIAL transmitter plugged into MidiInHandler");
 			
+			OverdubRecorder recorder = this.recorder;
+			if (recorder != null) recorder.record(message, timeStamp); // after the live path, which it doesn't delay
 		}
 
 	}
@@ -0,0 +1,86 @@
+package model.sequencer;
+
+/**
+ * The set of sounding notes, as a 128-bit bitmap per MIDI channel, so that a playback engine knows
+ * which note offs to send when it loops, seeks or stops, without scanning events and without allocating.
+ *
+ * Notes are indexed as channel * 128 + key, see next(). This class is not thread-safe.
+ *
+ * @author reynal
+ *
+ */
+public final class ActiveNotes {
+
+	private final long[] bits = new long[16 * 2]; // two 64-bit words per channel
+
+	// -------------- public methods --------------
+
+	public void noteOn(int channel, int key) {
+		bits[word(channel, key)] |= 1L << (key & 63);
+	}
+
+	/**
+	 * @return true if the note was sounding
+	 */
+	public boolean noteOff(int channel, int key) {
+
+		int w = word(channel, key);
+		long mask = 1L << (key & 63);
+		boolean wasOn = (bits[w] & mask) != 0;
+		bits[w] &= ~mask;
+		return wasOn;
+	}
+
+	public boolean isActive(int channel, int key) {
+		return (bits[word(channel, key)] & (1L << (key & 63))) != 0;
+	}
+
+	public boolean isEmpty() {
+
+		for (long w : bits) if (w != 0) return false;
+		return true;
+	}
+
+	/**
+	 * @return the number of sounding notes
+	 */
+	public int count() {
+
+		int n = 0;
+		for (long w : bits) n += Long.bitCount(w);
+		return n;
+	}
+
+	/**
+	 * Iterates over sounding notes, e.g.: for (int n = notes.next(0); n >= 0; n = notes.next(n + 1)) ...
+	 * @return the first sounding note at or after the given index (channel * 128 + key), or -1 if none
+	 */
+	public int next(int from) {
+
+		if (from < 0) from = 0;
+		for (int w = from >> 6; w < bits.length; w++) {
+			long word = bits[w];
+			if (w == from >> 6) word &= -1L << (from & 63);
+			if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+		}
+		return -1;
+	}
+
+	public void clear() {
+		for (int w = 0; w < bits.length; w++) bits[w] = 0;
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuilder sb = new StringBuilder("ActiveNotes[");
+		for (int n = next(0); n >= 0; n = next(n + 1)) sb.append(" ").append(n >> 7).append(":").append(n & 127);
+		return sb.append(" ]").toString();
+	}
+
+	// -------------- private methods --------------
+
+	private static int word(int channel, int key) {
+		return (channel & 0x0F) << 1 | (key & 0x7F) >> 6;
+	}
+}
@@ -0,0 +1,176 @@
+package model.sequencer;
+
+import java.util.Arrays;
+
+import model.ModuleParameter;
+
+/**
+ * The automation of a ModuleParameter over a sequence, as a breakpoint envelope: values are linearly interpolated
+ * between breakpoints, and held before the first one and after the last one.
+ *
+ * Values are MIDI codes of the parameter (see ModuleParameter.getValueAsMIDICode()), from 0 to getValuesCount() - 1,
+ * as real numbers so that slow ramps stay smooth.
+ *
+ * Breakpoints live in an immutable envelope that every edit replaces, hence an AutomationPlayer reads lanes
+ * without locking while they're being edited.
+ *
+ * @author reynal
+ *
+ */
+public class AutomationLane {
+
+	private final ModuleParameter<?> parameter;
+	private volatile Envelope envelope = new Envelope(new long[0], new double[0]);
+
+	// -------------- constructors --------------
+
+	public AutomationLane(ModuleParameter<?> parameter) {
+		this.parameter = parameter;
+	}
+
+	// -------------- public methods --------------
+
+	public ModuleParameter<?> getParameter() {
+		return parameter;
+	}
+
+	/**
+	 * Adds a breakpoint, or moves the one at the same tick.
+	 * @param value a MIDI code of the parameter, clamped to its range
+	 */
+	public synchronized void setBreakpoint(long tick, double value) {
+
+		if (tick < 0) throw new IllegalArgumentException("Negative tick: " + tick);
+		value = Math.max(0, Math.min(parameter.getValuesCount() - 1, value));
+		Envelope e = envelope;
+		int i = Arrays.binarySearch(e.ticks, tick);
+		if (i >= 0) {
+			double[] values = e.values.clone();
+			values[i] = value;
+			envelope = new Envelope(e.ticks, values);
+			return;
+		}
+		i = -i - 1;
+		long[] ticks = new long[e.ticks.length + 1];
+		double[] values = new double[ticks.length];
+		System.arraycopy(e.ticks, 0, ticks, 0, i);
+		System.arraycopy(e.values, 0, values, 0, i);
+		ticks[i] = tick;
+		values[i] = value;
+		System.arraycopy(e.ticks, i, ticks, i + 1, e.ticks.length - i);
+		System.arraycopy(e.values, i, values, i + 1, e.values.length - i);
+		envelope = new Envelope(ticks, values);
+	}
+
+	/**
+	 * Adds a ramp from one value to another, e.g. a filter sweep, replacing breakpoints in between.
+	 */
+	public synchronized void setRamp(long fromTick, double fromValue, long toTick, double toValue) {
+
+		if (toTick <= fromTick) throw new IllegalArgumentException("Empty ramp [" + fromTick + "," + toTick + "]");
+		removeBreakpoints(fromTick, toTick + 1);
+		setBreakpoint(fromTick, fromValue);
+		setBreakpoint(toTick, toValue);
+	}
+
+	/**
+	 * Removes breakpoints from fromTick included to toTick excluded.
+	 * @return the number of removed breakpoints
+	 */
+	public synchronized int removeBreakpoints(long fromTick, long toTick) {
+
+		Envelope e = envelope;
+		int lo = lowerBound(e.ticks, fromTick), hi = lowerBound(e.ticks, toTick);
+		if (hi <= lo) return 0;
+		long[] ticks = new long[e.ticks.length - (hi - lo)];
+		double[] values = new double[ticks.length];
+		System.arraycopy(e.ticks, 0, ticks, 0, lo);
+		System.arraycopy(e.values, 0, values, 0, lo);
+		System.arraycopy(e.ticks, hi, ticks, lo, e.ticks.length - hi);
+		System.arraycopy(e.values, hi, values, lo, e.values.length - hi);
+		envelope = new Envelope(ticks, values);
+		return hi - lo;
+	}
+
+	public synchronized void clear() {
+		envelope = new Envelope(new long[0], new double[0]);
+	}
+
+	/**
+	 * @return the number of breakpoints
+	 */
+	public int size() {
+		return envelope.ticks.length;
+	}
+
+	public long getTick(int index) {
+		return envelope.ticks[index];
+	}
+
+	public double getValue(int index) {
+		return envelope.values[index];
+	}
+
+	/**
+	 * @return the interpolated value at the given tick, or NaN if there's no breakpoint
+	 */
+	public double getValueAt(long tick) {
+		return envelope.valueAt(tick);
+	}
+
+	/**
+	 * @return the current breakpoints, which won't change, for a reader that evaluates many ticks
+	 */
+	public Envelope getEnvelope() {
+		return envelope;
+	}
+
+	@Override
+	public String toString() {
+		return "AutomationLane[" + parameter.getLabel() + ", " + size() + " breakpoints]";
+	}
+
+	// -------------- private methods --------------
+
+	private static int lowerBound(long[] ticks, long tick) {
+
+		int lo = 0, hi = ticks.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (ticks[mid] < tick) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	// -------------- inner classes --------------
+
+	/**
+	 * An immutable set of breakpoints.
+	 */
+	public static final class Envelope {
+
+		private final long[] ticks;
+		private final double[] values;
+
+		private Envelope(long[] ticks, double[] values) {
+			this.ticks = ticks;
+			this.values = values;
+		}
+
+		/**
+		 * @return the interpolated value at the given tick, or NaN if there's no breakpoint ; costs a binary search
+		 */
+		public double valueAt(long tick) {
+
+			int n = ticks.length;
+			if (n == 0) return Double.NaN;
+			int i = lowerBound(ticks, tick); // first breakpoint at or after tick
+			if (i == n) return values[n - 1];
+			if (ticks[i] == tick || i == 0) return values[i];
+			long t0 = ticks[i - 1], t1 = ticks[i];
+			double v0 = values[i - 1], v1 = values[i];
+			return v0 + (v1 - v0) * (tick - t0) / (t1 - t0);
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package model.sequencer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import javax.sound.midi.ShortMessage;
+
+import model.MIDIParameter;
+import model.ModuleParameter;
+import model.serial.AbstractSerialTransmitter;
+
+/**
+ * Plays the AutomationLane's of a sequence along with the PlaybackEngine playing it.
+ *
+ * A dedicated thread samples the engine position at a fixed control rate, with absolute deadlines so that the rate doesn't drift,
+ * and interpolates every lane there. A value only gets emitted once it has moved by at least one MIDI step since the last one,
+ * hence a slow filter sweep costs a few messages, whatever the control rate or the tick resolution.
+ *
+ * Values for the same parameter (i.e. the same CC) within a control period are merged, the last lane wins ; they're then set
+ * with ModuleParameter.setValueFromMIDICode(), so that views follow and the serial transmitter gets them as CC's through its usual path
+ * (in asynchronous mode, the transmitter further merges values for a CC still waiting to be written).
+ *
+ * @author reynal
+ *
+ */
+public class AutomationPlayer {
+
+	private static final Logger LOGGER = Logger.getLogger("confLogger");
+
+	public static final int DEFAULT_CONTROL_RATE_HZ = 200;
+
+	private final SequenceThemis sequence;
+	private final PlaybackEngine engine;
+	private final long periodNanos;
+	private volatile boolean running;
+	private Thread thread;
+
+	// control thread only:
+	private AutomationLane[] lanes; // the lanes lastCodes refer to
+	private int[] lastCodes; // last emitted value of each lane
+	private ModuleParameter<?>[] changedParameters = new ModuleParameter<?>[0];
+	private int[] changedCodes = new int[0];
+	private int changedCount;
+
+	// statistics:
+	private volatile long periodCount; // control periods while the engine was playing
+	private volatile long emittedCount;
+	private volatile long missedDeadlines;
+
+	// -------------- constructors --------------
+
+	public AutomationPlayer(SequenceThemis sequence, PlaybackEngine engine) {
+		this(sequence, engine, DEFAULT_CONTROL_RATE_HZ);
+	}
+
+	/**
+	 * @param controlRateHz how many times per second lanes get evaluated
+	 */
+	public AutomationPlayer(SequenceThemis sequence, PlaybackEngine engine, int controlRateHz) {
+
+		if (controlRateHz <= 0) throw new IllegalArgumentException("Invalid control rate: " + controlRateHz);
+		this.sequence = sequence;
+		this.engine = engine;
+		this.periodNanos = TimeUnit.SECONDS.toNanos(1) / controlRateHz;
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * Starts following the engine on a dedicated thread ; lanes only get played while the engine is running.
+	 */
+	public synchronized void start() {
+
+		if (running) return;
+		running = true;
+		thread = new Thread(this::controlLoop, "Automation player");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+
+		if (!running) return;
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		thread = null;
+		LOGGER.info(getStatistics());
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return the number of values emitted so far
+	 */
+	public long getEmittedCount() {
+		return emittedCount;
+	}
+
+	/**
+	 * @return a one-line summary of what was evaluated and emitted
+	 */
+	public String getStatistics() {
+		return String.format("Automation: %d values emitted over %d control periods (%d deadlines missed)", emittedCount, periodCount, missedDeadlines);
+	}
+
+	// -------------- private methods --------------
+
+	/*
+	 * control thread
+	 */
+	private void controlLoop() {
+
+		long deadline = System.nanoTime();
+		while (running) {
+			deadline += periodNanos;
+			long now = System.nanoTime();
+			if (now - deadline > periodNanos) { // too late, skip periods rather than catch up
+				missedDeadlines++;
+				deadline = now;
+			}
+			while (running && (now = System.nanoTime()) < deadline) LockSupport.parkNanos(deadline - now);
+			if (!running || !engine.isRunning()) continue;
+			try {
+				update(engine.getCurrentTick());
+			}
+			catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/*
+	 * control thread: evaluates every lane at the given tick, then sets values that moved by a MIDI step
+	 */
+	private void update(long tick) {
+
+		AutomationLane[] l = sequence.automationLanes();
+		if (l != lanes) { // lanes added or deleted: start over from the current parameter values
+			lanes = l;
+			lastCodes = new int[l.length];
+			for (int i = 0; i < l.length; i++) lastCodes[i] = l[i].getParameter().getValueAsMIDICode();
+			changedParameters = new ModuleParameter<?>[l.length];
+			changedCodes = new int[l.length];
+		}
+		periodCount++;
+
+		changedCount = 0;
+		for (int i = 0; i < l.length; i++) {
+			double v = l[i].getEnvelope().valueAt(tick);
+			if (Double.isNaN(v)) continue;
+			int code = (int)Math.round(v);
+			if (code == lastCodes[i]) continue;
+			lastCodes[i] = code;
+			queue(l[i].getParameter(), code);
+		}
+
+		for (int j = 0; j < changedCount; j++) {
+			changedParameters[j].setValueFromMIDICode(changedCodes[j]);
+			changedParameters[j] = null;
+		}
+		emittedCount += changedCount;
+	}
+
+	/*
+	 * control thread: a later value for the same parameter replaces the queued one
+	 */
+	private void queue(ModuleParameter<?> parameter, int code) {
+
+		for (int j = 0; j < changedCount; j++) {
+			if (changedParameters[j] == parameter) {
+				changedCodes[j] = code;
+				return;
+			}
+		}
+		changedParameters[changedCount] = parameter;
+		changedCodes[changedCount++] = code;
+	}
+
+	// -------------- test --------------
+
+	/**
+	 * Sweeps a parameter from 0 to 127 over a bar then holds it for another bar, at 240 BPM, and compares
+	 * the number of emitted values with the number of control periods.
+	 */
+	public static void main(String[] args) throws Exception {
+
+		SequenceThemis seq = new SequenceThemis(javax.sound.midi.Sequence.PPQ, EventDuration.TICKS_PER_QUARTER, 1);
+		long bar = 4 * EventDuration.TICKS_PER_QUARTER;
+		seq.getTracksThemis()[0].overdub(new long[] {2 * bar - 1}, new int[] {CompiledTimeline.pack(ShortMessage.NOTE_ON, 60, 1)}, new int[] {1}, 1); // two bars long
+
+		MIDIParameter cutoff = new MIDIParameter("Cutoff");
+		int[] changes = new int[1];
+		cutoff.addChangeListener(e -> changes[0]++);
+		AutomationLane lane = seq.createAutomationLane(cutoff);
+		lane.setRamp(0, 0, bar, 127);
+
+		AbstractSerialTransmitter nullTransmitter = new AbstractSerialTransmitter() {
+			public void transmitMidiMessage(ShortMessage sm) {}
+			public void close() {}
+		};
+		PlaybackEngine engine = new PlaybackEngine(nullTransmitter, 0);
+		engine.setTempo(250000); // 240 BPM, one bar per second
+		engine.setTimeline(seq.compile());
+		AutomationPlayer player = new AutomationPlayer(seq, engine);
+		player.start();
+		engine.start();
+		while (engine.isRunning()) Thread.sleep(10);
+		player.stop();
+
+		System.out.println(player.getStatistics() + ", " + changes[0] + " parameter changes, final value " + cutoff.getValue());
+		System.out.println(changes[0] <= 127 && cutoff.getValue() == 127 && player.periodCount > 2 * changes[0] ? "OK" : "FAILED");
+	}
+}
@@ -0,0 +1,234 @@
+package model.sequencer;
+
+import java.util.Arrays;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * A Sequence flattened into tick-sorted primitive arrays, ready for playback by a PlaybackEngine:
+ * no MidiEvent or MidiMessage objects are left, each event is a tick and a packed short message (status | data1 << 8 | data2 << 16).
+ *
+ * Only short messages (notes, CC, program change, pitch bend...) are kept, tempo meta events end up in a TempoMap. At equal ticks, note offs come first, so that
+ * a note that ends where the same note starts again gets re-triggered instead of cut.
+ *
+ * Instances are immutable, hence can be swapped under a playing engine.
+ *
+ * @author reynal
+ *
+ */
+public final class CompiledTimeline implements Timeline {
+
+	private final long[] ticks;
+	private final int[] messages;
+	private final TempoMap tempoMap;
+	private final long lengthTicks;
+
+	// -------------- constructors --------------
+
+	private CompiledTimeline(long[] ticks, int[] messages, TempoMap tempoMap, long lengthTicks) {
+
+		this.ticks = ticks;
+		this.messages = messages;
+		this.tempoMap = tempoMap;
+		this.lengthTicks = lengthTicks;
+	}
+
+	/**
+	 * Compiles every track of the given sequence into a single timeline.
+	 */
+	public static CompiledTimeline compile(Sequence sequence) {
+
+		int count = 0;
+		for (Track t : sequence.getTracks()) count += t.size();
+
+		long[] keys = new long[count];
+		int[] packed = new int[count];
+		int n = 0;
+		for (Track t : sequence.getTracks()) {
+			for (int i = 0; i < t.size(); i++) {
+				MidiEvent e = t.get(i);
+				MidiMessage m = e.getMessage();
+				if (!(m instanceof ShortMessage)) continue; // meta and sysex events
+				ShortMessage sm = (ShortMessage)m;
+				n = addKey(keys, packed, n, e.getTick(), pack(sm.getStatus(), sm.getData1(), sm.getData2()));
+			}
+		}
+		return build(keys, packed, n, TempoMap.fromSequence(sequence), sequence.getTickLength());
+	}
+
+	/**
+	 * Compiles the given event stores into a single timeline, notes being expanded to a note on and a note off.
+	 * @param tempoMap tick to time conversion, e.g. TempoMap.constant(Sequence.PPQ, EventDuration.TICKS_PER_QUARTER, TempoMap.DEFAULT_MICROS_PER_QUARTER)
+	 * @param lengthTicks length of the timeline, or -1 to end it with its last event
+	 */
+	public static CompiledTimeline compile(TempoMap tempoMap, long lengthTicks, EventStore... stores) {
+
+		int count = 0;
+		for (EventStore s : stores) count += 2 * s.size();
+
+		long[] keys = new long[count];
+		int[] packed = new int[count];
+		int n = 0;
+		long end = 0;
+		for (EventStore s : stores) {
+			for (int i = 0; i < s.size(); i++) {
+				long tick = s.getTick(i);
+				int p = s.getMessage(i), length = s.getLength(i);
+				n = addKey(keys, packed, n, tick, p);
+				if (length > 0) n = addKey(keys, packed, n, tick + length, pack(ShortMessage.NOTE_OFF | getChannel(p), getData1(p), 0));
+				end = Math.max(end, tick + length);
+			}
+		}
+		return build(keys, packed, n, tempoMap, lengthTicks < 0 ? end : lengthTicks);
+	}
+
+	// -------------- private methods --------------
+
+	/*
+	 * sort keys: tick, then note offs first, then original order (tracks are already sorted, this keeps the sort stable)
+	 */
+	private static int addKey(long[] keys, int[] packed, int n, long tick, int p) {
+
+		if (tick >= (1L << (63 - 25))) throw new IllegalArgumentException("Tick out of range: " + tick);
+		if (n >= (1 << 24)) throw new IllegalArgumentException("Too many events");
+		keys[n] = (tick << 25) | ((isNoteOff(p) ? 0L : 1L) << 24) | n;
+		packed[n] = p;
+		return n + 1;
+	}
+
+	private static CompiledTimeline build(long[] keys, int[] packed, int n, TempoMap tempoMap, long lengthTicks) {
+
+		keys = Arrays.copyOf(keys, n);
+		Arrays.sort(keys);
+
+		long[] ticks = new long[n];
+		int[] messages = new int[n];
+		for (int i = 0; i < n; i++) {
+			ticks[i] = keys[i] >>> 25;
+			messages[i] = packed[(int)(keys[i] & 0xFFFFFF)];
+		}
+		return new CompiledTimeline(ticks, messages, tempoMap, lengthTicks);
+	}
+
+	// -------------- public methods --------------
+
+	public int size() {
+		return ticks.length;
+	}
+
+	public long getTick(int index) {
+		return ticks[index];
+	}
+
+	/**
+	 * @return the packed message at the given index, see pack()
+	 */
+	public int getMessage(int index) {
+		return messages[index];
+	}
+
+	/**
+	 * @return the length of the original sequence, which may extend past the last event
+	 */
+	@Override
+	public long getLengthTicks() {
+		return lengthTicks;
+	}
+
+	/**
+	 * @return the index of the first event at or after the given tick, or size() if none
+	 */
+	public int indexOf(long tick) {
+
+		int lo = 0, hi = ticks.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (ticks[mid] < tick) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	@Override
+	public TempoMap getTempoMap() {
+		return tempoMap;
+	}
+
+	@Override
+	public Timeline.Cursor openCursor() {
+
+		return new Cursor();
+	}
+
+
+	@Override
+	public String toString() {
+		return "CompiledTimeline[" + size() + " events, " + lengthTicks + " ticks]";
+	}
+
+	// -------------- inner classes --------------
+
+	private class Cursor implements Timeline.Cursor {
+
+		private int index;
+
+		@Override
+		public void seek(long tick) {
+			index = indexOf(tick);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return index < ticks.length;
+		}
+
+		@Override
+		public long getTick() {
+			return ticks[index];
+		}
+
+		@Override
+		public int next() {
+			return messages[index++];
+		}
+	}
+
+	// -------------- packed messages --------------
+
+	public static int pack(int status, int data1, int data2) {
+		return (status & 0xFF) | (data1 & 0x7F) << 8 | (data2 & 0x7F) << 16;
+	}
+
+	public static int getStatus(int packedMessage) {
+		return packedMessage & 0xFF;
+	}
+
+	public static int getCommand(int packedMessage) {
+		return packedMessage & 0xF0;
+	}
+
+	public static int getChannel(int packedMessage) {
+		return packedMessage & 0x0F;
+	}
+
+	public static int getData1(int packedMessage) {
+		return (packedMessage >> 8) & 0x7F;
+	}
+
+	public static int getData2(int packedMessage) {
+		return (packedMessage >> 16) & 0x7F;
+	}
+
+	/**
+	 * @return true for note offs, and note ons with a zero velocity
+	 */
+	public static boolean isNoteOff(int packedMessage) {
+
+		int cmd = getCommand(packedMessage);
+		return cmd == ShortMessage.NOTE_OFF || (cmd == ShortMessage.NOTE_ON && getData2(packedMessage) == 0);
+	}
+}
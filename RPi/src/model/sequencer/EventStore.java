@@ -0,0 +1,553 @@
+package model.sequencer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * A column-oriented, tick-sorted store of MIDI short messages: parallel tick, packed message (see CompiledTimeline.pack())
+ * and note length arrays, instead of a list of MidiEvent objects on the heap.
+ *
+ * A note is a single event (its note on) with a length in ticks, its note off is implicit ; a zero length means
+ * a raw message with no implicit note off (CC's, unpaired note on/off...).
+ * Events at equal ticks are kept in insertion order.
+ *
+ * Range selection is a binary search, hence range edits cost O(log n + k) plus one array copy of the tail.
+ * For undo, changes made between beginEdit() and endEdit() are recorded as the removed events and the indexes of
+ * the inserted ones, so that recording an edit costs O(k) rather than a copy of the whole store (see snapshot()).
+ *
+ * This class is not thread-safe ; compile a CompiledTimeline to hand events over to a PlaybackEngine.
+ *
+ * @author reynal
+ *
+ */
+public class EventStore {
+
+	public static final long MAX_TICK = (1L << 38) - 1; // leaves room for sort keys, see sortBlock()
+	private static final int INITIAL_CAPACITY = 64;
+
+	private long[] ticks;
+	private int[] messages;
+	private int[] lengths;
+	private int size;
+	private long version; // identifies the current content, see undo()
+	private long nextVersion = 1;
+	private Edit recording; // non-null between beginEdit() and endEdit()
+
+	// -------------- constructors --------------
+
+	public EventStore() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public EventStore(int capacity) {
+
+		capacity = Math.max(capacity, 1);
+		ticks = new long[capacity];
+		messages = new int[capacity];
+		lengths = new int[capacity];
+	}
+
+	// -------------- public methods --------------
+
+	public int size() {
+		return size;
+	}
+
+	public long getTick(int index) {
+		checkIndex(index);
+		return ticks[index];
+	}
+
+	/**
+	 * @return the packed message at the given index, see CompiledTimeline.pack()
+	 */
+	public int getMessage(int index) {
+		checkIndex(index);
+		return messages[index];
+	}
+
+	/**
+	 * @return the length in ticks of the note at the given index, or 0 if it has no implicit note off
+	 */
+	public int getLength(int index) {
+		checkIndex(index);
+		return lengths[index];
+	}
+
+	/**
+	 * @return the tick of the last event or note off, 0 if empty
+	 */
+	public long getEndTick() {
+
+		long end = 0;
+		for (int i = 0; i < size; i++) end = Math.max(end, ticks[i] + lengths[i]);
+		return end;
+	}
+
+	/**
+	 * @return the index of the first event at or after the given tick, or size() if none
+	 */
+	public int lowerBound(long tick) {
+
+		int lo = 0, hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (ticks[mid] < tick) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the index of the first event strictly after the given tick, or size() if none
+	 */
+	public int upperBound(long tick) {
+
+		int lo = 0, hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (ticks[mid] <= tick) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Inserts several events at once, in any order, each one after the events already at the same tick ;
+	 * this costs a sort of the given events plus a single merge, instead of one array copy per event.
+	 * @param lengths length in ticks of each note, see add()
+	 */
+	public void addAll(long[] ticks, int[] packedMessages, int[] lengths, int count) {
+
+		if (count <= 0) return;
+		long[] bt = Arrays.copyOf(ticks, count);
+		int[] bm = Arrays.copyOf(packedMessages, count);
+		int[] bl = Arrays.copyOf(lengths, count);
+		for (int i = 0; i < count; i++) {
+			if (bt[i] < 0 || bt[i] > MAX_TICK) throw new IllegalArgumentException("Tick out of range: " + bt[i]);
+			if (bl[i] < 0) throw new IllegalArgumentException("Negative length: " + bl[i]);
+		}
+		sortBlock(bt, bm, bl);
+		merge(bt, bm, bl);
+	}
+
+	/**
+	 * Inserts an event after every event at the same tick ; appending in tick order costs O(1).
+	 * @param length length in ticks for a note on, 0 otherwise
+	 * @return the index of the new event
+	 */
+	public int add(long tick, int packedMessage, int length) {
+
+		if (tick < 0 || tick > MAX_TICK) throw new IllegalArgumentException("Tick out of range: " + tick);
+		if (length < 0) throw new IllegalArgumentException("Negative length: " + length);
+		ensureCapacity(size + 1);
+		int i = (size == 0 || ticks[size - 1] <= tick) ? size : upperBound(tick);
+		System.arraycopy(ticks, i, ticks, i + 1, size - i);
+		System.arraycopy(messages, i, messages, i + 1, size - i);
+		System.arraycopy(lengths, i, lengths, i + 1, size - i);
+		ticks[i] = tick;
+		messages[i] = packedMessage;
+		lengths[i] = length;
+		size++;
+		if (recording != null) recording.inserted(new int[] {i});
+		changed();
+		return i;
+	}
+
+	/**
+	 * Changes the length of the note at the given index (this doesn't change the order of events).
+	 */
+	public void setLength(int index, int length) {
+
+		checkIndex(index);
+		if (length < 0) throw new IllegalArgumentException("Negative length: " + length);
+		if (recording != null) { // recorded as a replacement
+			recording.removed(index, index + 1);
+			recording.inserted(new int[] {index});
+		}
+		lengths[index] = length;
+		changed();
+	}
+
+	/**
+	 * Removes events from index "from" included to index "to" excluded.
+	 */
+	public void remove(int from, int to) {
+
+		if (from < 0 || to > size || from > to) throw new IndexOutOfBoundsException("[" + from + "," + to + ") out of [0," + size + ")");
+		if (from == to) return;
+		if (recording != null) recording.removed(from, to);
+		System.arraycopy(ticks, to, ticks, from, size - to);
+		System.arraycopy(messages, to, messages, from, size - to);
+		System.arraycopy(lengths, to, lengths, from, size - to);
+		size -= to - from;
+		changed();
+	}
+
+	/**
+	 * Removes every event from fromTick included to toTick excluded.
+	 * @return the number of removed events
+	 */
+	public int removeTicks(long fromTick, long toTick) {
+
+		int lo = lowerBound(fromTick), hi = lowerBound(toTick);
+		if (hi <= lo) return 0;
+		remove(lo, hi);
+		return hi - lo;
+	}
+
+	/**
+	 * Moves every event from fromTick included to toTick excluded by the given number of ticks ;
+	 * events that would land before tick 0 land on tick 0.
+	 * @return the number of moved events
+	 */
+	public int move(long fromTick, long toTick, long deltaTicks) {
+
+		return transform(fromTick, toTick, t -> t + deltaTicks);
+	}
+
+	/**
+	 * Moves every event from fromTick included to toTick excluded to the nearest multiple of step.
+	 * @return the number of selected events
+	 */
+	public int quantize(long fromTick, long toTick, long step) {
+
+		if (step <= 0) throw new IllegalArgumentException("Step must be positive: " + step);
+		return transform(fromTick, toTick, t -> (t + step / 2) / step * step);
+	}
+
+	/**
+	 * Moves every event from fromTick included to toTick excluded by a random offset from -range/2 to +range/2.
+	 * @return the number of selected events
+	 */
+	public int randomize(long fromTick, long toTick, long range, Random random) {
+
+		if (range <= 0) return 0;
+		return transform(fromTick, toTick, t -> t + (long)(random.nextDouble() * (range + 1)) - range / 2);
+	}
+
+	/**
+	 * Applies the given operation to every event from fromTick included to toTick excluded, then puts these events back in order ;
+	 * resulting ticks are clamped to [0, MAX_TICK].
+	 * @return the number of selected events
+	 */
+	public int transform(long fromTick, long toTick, BlockOperation op) {
+
+		int lo = lowerBound(fromTick), hi = lowerBound(toTick);
+		int k = hi - lo;
+		if (k <= 0) return 0;
+
+		long[] bt = Arrays.copyOfRange(ticks, lo, hi);
+		int[] bm = Arrays.copyOfRange(messages, lo, hi);
+		int[] bl = Arrays.copyOfRange(lengths, lo, hi);
+		op.apply(bt, bm, bl);
+		for (int i = 0; i < k; i++) {
+			bt[i] = Math.min(MAX_TICK, Math.max(0, bt[i]));
+			if (bl[i] < 0) bl[i] = 0;
+		}
+		sortBlock(bt, bm, bl);
+
+		remove(lo, hi);
+		merge(bt, bm, bl);
+		return k;
+	}
+
+	/**
+	 * Starts recording changes, until endEdit() ; an edit that was begun but not ended gets discarded by the next beginEdit() or undo().
+	 */
+	public void beginEdit() {
+
+		recording = new Edit(version);
+	}
+
+	/**
+	 * @return the changes made since beginEdit(), to be given to undo()
+	 */
+	public Edit endEdit() {
+
+		if (recording == null) throw new IllegalStateException("No edit in progress");
+		Edit e = recording;
+		recording = null;
+		e.versionAfter = version;
+		return e;
+	}
+
+	/**
+	 * Reverts the given edit ; edits must be undone in the reverse order they were made, and the store must not have been
+	 * changed otherwise in the meantime. This costs O(k) plus one array copy of the tail per recorded change.
+	 * @throws IllegalStateException if the store changed since the end of the edit
+	 */
+	public void undo(Edit edit) {
+
+		recording = null; // e.g. an editing operation that threw before endEdit()
+		if (edit.versionAfter != version) throw new IllegalStateException("Store changed since the edit");
+		for (int s = edit.changes.size() - 1; s >= 0; s--) {
+			Change c = edit.changes.get(s);
+			if (c.inserted != null) removeIndexes(c.inserted);
+			else insertBlock(c.from, c.ticks, c.messages, c.lengths);
+		}
+		version = edit.versionBefore;
+	}
+
+	/**
+	 * @return a copy of this store
+	 */
+	public EventStore copy() {
+
+		EventStore s = new EventStore(size);
+		s.restore(snapshot());
+		return s;
+	}
+
+	/**
+	 * @return a copy of the current content, for undo
+	 */
+	public Snapshot snapshot() {
+
+		return new Snapshot(Arrays.copyOf(ticks, size), Arrays.copyOf(messages, size), Arrays.copyOf(lengths, size));
+	}
+
+	/**
+	 * Restores the content of the given snapshot, which is left untouched and can be restored again.
+	 */
+	public void restore(Snapshot snapshot) {
+
+		if (recording != null) throw new IllegalStateException("Edit in progress");
+		int n = snapshot.ticks.length;
+		ensureCapacity(n);
+		System.arraycopy(snapshot.ticks, 0, ticks, 0, n);
+		System.arraycopy(snapshot.messages, 0, messages, 0, n);
+		System.arraycopy(snapshot.lengths, 0, lengths, 0, n);
+		size = n;
+		changed(); // not recorded
+	}
+
+	public void clear() {
+		remove(0, size);
+	}
+
+	@Override
+	public String toString() {
+		return "EventStore[" + size + " events]";
+	}
+
+	// -------------- private methods --------------
+
+	/*
+	 * applies the given operation to the tick of every event in [fromTick, toTick), then puts these events back in order
+	 */
+	private int transform(long fromTick, long toTick, LongUnaryOperator op) {
+
+		return transform(fromTick, toTick, (bt, bm, bl) -> {
+			for (int i = 0; i < bt.length; i++) bt[i] = op.applyAsLong(bt[i]);
+		});
+	}
+
+	/*
+	 * sorts a block by tick, keeping the original order at equal ticks ; most operations are monotonic, hence leave it sorted
+	 */
+	private static void sortBlock(long[] bt, int[] bm, int[] bl) {
+
+		int k = bt.length;
+		boolean sorted = true;
+		for (int i = 1; i < k && sorted; i++) sorted = bt[i - 1] <= bt[i];
+		if (sorted) return;
+		if (k >= (1 << 25)) throw new IllegalArgumentException("Too many events");
+
+		long[] keys = new long[k];
+		for (int i = 0; i < k; i++) keys[i] = (bt[i] << 25) | i;
+		Arrays.sort(keys);
+		int[] m = bm.clone(), l = bl.clone();
+		for (int i = 0; i < k; i++) {
+			int j = (int)(keys[i] & 0x1FFFFFF);
+			bt[i] = keys[i] >>> 25;
+			bm[i] = m[j];
+			bl[i] = l[j];
+		}
+	}
+
+	/*
+	 * merges a sorted block, placing each event after events at the same tick ;
+	 * events past the block are moved in one array copy, only the overlapping range gets merged one by one
+	 */
+	private void merge(long[] bt, int[] bm, int[] bl) {
+
+		int k = bt.length;
+		ensureCapacity(size + k);
+		int a = upperBound(bt[0]); // events before a stay in place
+		int b = upperBound(bt[k - 1]); // events from b on move by k
+		System.arraycopy(ticks, b, ticks, b + k, size - b);
+		System.arraycopy(messages, b, messages, b + k, size - b);
+		System.arraycopy(lengths, b, lengths, b + k, size - b);
+
+		int[] inserted = recording != null ? new int[k] : null; // where block events land, in increasing order
+		int i = b - 1, j = k - 1, w = b + k - 1;
+		while (j >= 0) {
+			if (i >= a && ticks[i] > bt[j]) {
+				ticks[w] = ticks[i];
+				messages[w] = messages[i];
+				lengths[w] = lengths[i];
+				i--;
+			}
+			else {
+				ticks[w] = bt[j];
+				messages[w] = bm[j];
+				lengths[w] = bl[j];
+				if (inserted != null) inserted[j] = w;
+				j--;
+			}
+			w--;
+		}
+		size += k;
+		if (inserted != null) recording.inserted(inserted);
+		changed();
+	}
+
+	/*
+	 * removes the events at the given indexes, in increasing order, by moving the runs between them down in one pass
+	 */
+	private void removeIndexes(int[] indexes) {
+
+		int w = indexes[0];
+		for (int p = 0; p < indexes.length; p++) {
+			int r = indexes[p] + 1, end = p + 1 < indexes.length ? indexes[p + 1] : size;
+			System.arraycopy(ticks, r, ticks, w, end - r);
+			System.arraycopy(messages, r, messages, w, end - r);
+			System.arraycopy(lengths, r, lengths, w, end - r);
+			w += end - r;
+		}
+		size = w;
+	}
+
+	/*
+	 * inserts a block at the given index, with no check of the tick order
+	 */
+	private void insertBlock(int index, long[] bt, int[] bm, int[] bl) {
+
+		int k = bt.length;
+		ensureCapacity(size + k);
+		System.arraycopy(ticks, index, ticks, index + k, size - index);
+		System.arraycopy(messages, index, messages, index + k, size - index);
+		System.arraycopy(lengths, index, lengths, index + k, size - index);
+		System.arraycopy(bt, 0, ticks, index, k);
+		System.arraycopy(bm, 0, messages, index, k);
+		System.arraycopy(bl, 0, lengths, index, k);
+		size += k;
+	}
+
+	private void changed() {
+		version = nextVersion++;
+	}
+
+	private void ensureCapacity(int capacity) {
+
+		if (capacity <= ticks.length) return;
+		int c = Math.max(capacity, ticks.length + (ticks.length >> 1));
+		ticks = Arrays.copyOf(ticks, c);
+		messages = Arrays.copyOf(messages, c);
+		lengths = Arrays.copyOf(lengths, c);
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+	}
+
+	// -------------- inner classes --------------
+
+	/**
+	 * An in-place edit of a block of events, see transform().
+	 */
+	public interface BlockOperation {
+
+		/**
+		 * @param ticks ticks of the selected events, in order ; they may be left out of order
+		 * @param messages packed messages, see CompiledTimeline.pack()
+		 * @param lengths note lengths, see add()
+		 */
+		void apply(long[] ticks, int[] messages, int[] lengths);
+	}
+
+	/**
+	 * The changes made to an EventStore between beginEdit() and endEdit(), see undo().
+	 */
+	public final class Edit {
+
+		private final long versionBefore;
+		private long versionAfter;
+		private final List<Change> changes = new ArrayList<Change>();
+
+		private Edit(long versionBefore) {
+			this.versionBefore = versionBefore;
+		}
+
+		private void removed(int from, int to) {
+			changes.add(new Change(from, Arrays.copyOfRange(ticks, from, to), Arrays.copyOfRange(messages, from, to), Arrays.copyOfRange(lengths, from, to)));
+		}
+
+		private void inserted(int[] indexes) {
+			changes.add(new Change(indexes));
+		}
+
+		/**
+		 * @return the number of events this edit holds a copy of
+		 */
+		public int size() {
+
+			int n = 0;
+			for (Change c : changes) n += c.ticks != null ? c.ticks.length : 0;
+			return n;
+		}
+	}
+
+	/*
+	 * either removed events with their former index, or the indexes of inserted events
+	 */
+	private static final class Change {
+
+		final int from;
+		final long[] ticks;
+		final int[] messages;
+		final int[] lengths;
+		final int[] inserted;
+
+		Change(int from, long[] ticks, int[] messages, int[] lengths) {
+			this.from = from;
+			this.ticks = ticks;
+			this.messages = messages;
+			this.lengths = lengths;
+			this.inserted = null;
+		}
+
+		Change(int[] inserted) {
+			this.from = -1;
+			this.ticks = null;
+			this.messages = null;
+			this.lengths = null;
+			this.inserted = inserted;
+		}
+	}
+
+	/**
+	 * An immutable copy of an EventStore content.
+	 */
+	public static final class Snapshot {
+
+		private final long[] ticks;
+		private final int[] messages;
+		private final int[] lengths;
+
+		private Snapshot(long[] ticks, int[] messages, int[] lengths) {
+
+			this.ticks = ticks;
+			this.messages = messages;
+			this.lengths = lengths;
+		}
+
+		public int size() {
+			return ticks.length;
+		}
+	}
+}
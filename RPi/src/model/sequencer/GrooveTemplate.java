@@ -0,0 +1,142 @@
+package model.sequencer;
+
+import java.util.Arrays;
+
+import javax.sound.midi.ShortMessage;
+
+import static model.sequencer.CompiledTimeline.*;
+
+/**
+ * The timing and accents of a groove over a cycle of grid slots (e.g. the sixteenths of a bar): for each slot, how far
+ * from the straight grid notes land, and with which velocity. See GrooveQuantizer.
+ *
+ * Templates are immutable ; they are extracted from a reference performance (see fromEventStore())
+ * or built from a swing percentage (see swing()).
+ *
+ * @author reynal
+ *
+ */
+public final class GrooveTemplate {
+
+	public static final int NO_VELOCITY = -1;
+
+	private final long step;
+	private final int[] offsets; // ticks from the straight grid, per slot
+	private final int[] velocities; // per slot, NO_VELOCITY to leave velocities untouched
+
+	// -------------- constructors --------------
+
+	/**
+	 * @param step the grid in ticks
+	 * @param offsets for each slot of the cycle, the offset from the straight grid in ticks
+	 * @param velocities for each slot of the cycle, a velocity or NO_VELOCITY ; null for none
+	 */
+	public GrooveTemplate(long step, int[] offsets, int[] velocities) {
+
+		if (step <= 0) throw new IllegalArgumentException("Step must be positive: " + step);
+		if (offsets.length == 0) throw new IllegalArgumentException("Empty template");
+		if (velocities != null && velocities.length != offsets.length) throw new IllegalArgumentException("Offsets and velocities differ in length");
+		this.step = step;
+		this.offsets = offsets.clone();
+		if (velocities == null) {
+			this.velocities = new int[offsets.length];
+			Arrays.fill(this.velocities, NO_VELOCITY);
+		}
+		else this.velocities = velocities.clone();
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * @param step the grid in ticks, e.g. a sixteenth
+	 * @param percent 50 for straight, 66.7 for a triplet feel, up to 75 ; the share of a pair of steps taken by its first one
+	 * @return a two-slot template delaying every other step
+	 */
+	public static GrooveTemplate swing(long step, double percent) {
+
+		if (percent < 50 || percent > 75) throw new IllegalArgumentException("Swing out of [50,75]: " + percent);
+		return new GrooveTemplate(step, new int[] {0, (int)Math.round((percent - 50) / 50.0 * step)}, null);
+	}
+
+	/**
+	 * Extracts a template from a reference performance: every note on gets assigned to its nearest grid slot,
+	 * then offsets and velocities are averaged per slot ; slots with no note keep the straight grid and their velocities.
+	 * @param step the grid in ticks, e.g. a sixteenth
+	 * @param cycleTicks the length of the groove, e.g. a bar ; a multiple of step
+	 */
+	public static GrooveTemplate fromEventStore(EventStore reference, long step, long cycleTicks) {
+
+		if (step <= 0 || cycleTicks < step || cycleTicks % step != 0) throw new IllegalArgumentException("Cycle " + cycleTicks + " is not a multiple of step " + step);
+		int slots = (int)(cycleTicks / step);
+		long[] offsetSums = new long[slots];
+		long[] velocitySums = new long[slots];
+		int[] counts = new int[slots];
+		for (int i = 0; i < reference.size(); i++) {
+			int m = reference.getMessage(i);
+			if (getCommand(m) != ShortMessage.NOTE_ON || isNoteOff(m)) continue;
+			long t = reference.getTick(i);
+			long k = (t + step / 2) / step;
+			int slot = (int)(k % slots);
+			offsetSums[slot] += t - k * step;
+			velocitySums[slot] += getData2(m);
+			counts[slot]++;
+		}
+		int[] offsets = new int[slots];
+		int[] velocities = new int[slots];
+		for (int s = 0; s < slots; s++) {
+			offsets[s] = counts[s] == 0 ? 0 : (int)Math.round(offsetSums[s] / (double)counts[s]);
+			velocities[s] = counts[s] == 0 ? NO_VELOCITY : (int)Math.round(velocitySums[s] / (double)counts[s]);
+		}
+		return new GrooveTemplate(step, offsets, velocities);
+	}
+
+	/**
+	 * Same as above, for a reference track.
+	 */
+	public static GrooveTemplate fromTrack(TrackThemis reference, long step, long cycleTicks) {
+		return fromEventStore(reference.getEventStore(), step, cycleTicks);
+	}
+
+	/**
+	 * @return the grid in ticks
+	 */
+	public long getStep() {
+		return step;
+	}
+
+	/**
+	 * @return the number of grid slots in a cycle
+	 */
+	public int getSlotCount() {
+		return offsets.length;
+	}
+
+	/**
+	 * @return the offset from the straight grid of the given slot, in ticks
+	 */
+	public int getOffset(int slot) {
+		return offsets[slot];
+	}
+
+	/**
+	 * @return the velocity of the given slot, or NO_VELOCITY
+	 */
+	public int getVelocity(int slot) {
+		return velocities[slot];
+	}
+
+	@Override
+	public String toString() {
+		return "GrooveTemplate[step=" + step + ", offsets=" + Arrays.toString(offsets) + ", velocities=" + Arrays.toString(velocities) + "]";
+	}
+
+	// -------------- package methods --------------
+
+	int[] offsets() {
+		return offsets;
+	}
+
+	int[] velocities() {
+		return velocities;
+	}
+}
@@ -0,0 +1,545 @@
+package model.sequencer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+
+import static model.sequencer.CompiledTimeline.*;
+
+/**
+ * A Standard MIDI File played straight from a memory mapped buffer: events are decoded lazily by cursors as playback advances,
+ * instead of being parsed into MidiEvent objects up front as MidiSystem.getSequence() does, hence heap usage doesn't depend on the file size.
+ *
+ * Opening a file scans it once to build a sparse index, i.e., the byte offset, tick and running status of every CHECKPOINT_INTERVAL'th event
+ * of each track, so that cursors can seek in O(log n). This index is cached next to the file (see INDEX_SUFFIX), hence the next open()
+ * only has to map the file.
+ *
+ * Only short messages are played ; tempo meta events make the TempoMap, other meta and sysex events are skipped. At equal ticks, events come in track order, then in file order.
+ *
+ * @author reynal
+ *
+ */
+public final class MappedMidiFile implements Timeline {
+
+	private static final Logger LOGGER = Logger.getLogger("confLogger");
+
+	public static final String INDEX_SUFFIX = ".idx";
+	private static final int CHECKPOINT_INTERVAL = 256; // events between two index entries
+	private static final int INDEX_MAGIC = 0x54484958; // "THIX"
+	private static final int INDEX_VERSION = 2;
+
+	private final File file;
+	private final ByteBuffer buffer; // read-only, absolute gets only, hence shared by cursors
+	private final TempoMap tempoMap;
+	private final long lengthTicks;
+	private final TrackIndex[] tracks;
+
+	// -------------- constructors --------------
+
+	private MappedMidiFile(File file, ByteBuffer buffer, TempoMap tempoMap, long lengthTicks, TrackIndex[] tracks) {
+
+		this.file = file;
+		this.buffer = buffer;
+		this.tempoMap = tempoMap;
+		this.lengthTicks = lengthTicks;
+		this.tracks = tracks;
+	}
+
+	/**
+	 * Maps the given file, then reads its cached index, or builds and caches it if there's none or if the file changed since.
+	 */
+	public static MappedMidiFile open(File file) throws IOException, InvalidMidiDataException {
+
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException("File too large: " + file);
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		MappedMidiFile m = readIndex(file, buffer);
+		if (m == null) {
+			m = scan(file, buffer);
+			m.writeIndex();
+		}
+		return m;
+	}
+
+	// -------------- public methods --------------
+
+	@Override
+	public long getLengthTicks() {
+		return lengthTicks;
+	}
+
+	@Override
+	public TempoMap getTempoMap() {
+		return tempoMap;
+	}
+
+	@Override
+	public Timeline.Cursor openCursor() {
+		return new Cursor();
+	}
+
+	public float getDivisionType() {
+		return tempoMap.getDivisionType();
+	}
+
+	public int getResolution() {
+		return tempoMap.getResolution();
+	}
+
+	/**
+	 * @return the file where the index of this file is cached
+	 */
+	public File getIndexFile() {
+		return new File(file.getPath() + INDEX_SUFFIX);
+	}
+
+	@Override
+	public String toString() {
+
+		int checkpoints = 0;
+		for (TrackIndex t : tracks) checkpoints += t.ticks.length;
+		return "MappedMidiFile[" + file.getName() + ", " + buffer.capacity() + " bytes, " + tracks.length + " tracks, " + lengthTicks + " ticks, " + checkpoints + " index entries]";
+	}
+
+	// -------------- index --------------
+
+	/*
+	 * parses the header, then every event of every track once
+	 */
+	private static MappedMidiFile scan(File file, ByteBuffer buffer) throws InvalidMidiDataException {
+
+		try {
+			if (buffer.getInt(0) != 0x4D546864) throw new InvalidMidiDataException("Not a MIDI file: " + file); // "MThd"
+			int headerLength = buffer.getInt(4);
+			int trackCount = buffer.getShort(10) & 0xFFFF;
+			int division = buffer.getShort(12) & 0xFFFF;
+			float divisionType;
+			int resolution;
+			if ((division & 0x8000) == 0) {
+				divisionType = Sequence.PPQ;
+				resolution = division;
+			}
+			else {
+				switch (-(byte)(division >> 8)) {
+				case 24: divisionType = Sequence.SMPTE_24; break;
+				case 25: divisionType = Sequence.SMPTE_25; break;
+				case 29: divisionType = Sequence.SMPTE_30DROP; break;
+				case 30: divisionType = Sequence.SMPTE_30; break;
+				default: throw new InvalidMidiDataException("Unknown SMPTE format: " + (division >> 8));
+				}
+				resolution = division & 0xFF;
+			}
+
+			TrackIndex[] tracks = new TrackIndex[trackCount];
+			EventReader reader = new EventReader(buffer);
+			long lengthTicks = 0;
+			long[] tempoTicks = new long[8], tempos = new long[8];
+			int tempoCount = 0;
+			int pos = 8 + headerLength, n = 0;
+			while (n < trackCount && pos + 8 <= buffer.capacity()) {
+				int type = buffer.getInt(pos), length = buffer.getInt(pos + 4);
+				int start = pos + 8, end = start + length;
+				if (length < 0 || end > buffer.capacity()) throw new InvalidMidiDataException("Truncated chunk at offset " + pos);
+				pos = end;
+				if (type != 0x4D54726B) continue; // not "MTrk", unknown chunks must be ignored
+
+				TrackIndex t = new TrackIndex(start, end);
+				reader.reset(start, end, 0, 0);
+				for (int count = 0; ; count++) {
+					if (count % CHECKPOINT_INTERVAL == 0) t.addCheckpoint(reader.tick, reader.pos, reader.status);
+					if (!reader.read()) break;
+					if (reader.metaType == TempoMap.META_TEMPO && reader.metaLength >= 3) {
+						if (tempoCount == tempoTicks.length) {
+							tempoTicks = Arrays.copyOf(tempoTicks, 2 * tempoCount);
+							tempos = Arrays.copyOf(tempos, 2 * tempoCount);
+						}
+						tempoTicks[tempoCount] = reader.tick;
+						tempos[tempoCount++] = (buffer.get(reader.metaOffset) & 0xFF) << 16 | (buffer.get(reader.metaOffset + 1) & 0xFF) << 8 | (buffer.get(reader.metaOffset + 2) & 0xFF);
+					}
+				}
+				t.trim();
+				tracks[n++] = t;
+				lengthTicks = Math.max(lengthTicks, reader.tick);
+			}
+			if (n < trackCount) throw new InvalidMidiDataException("Expected " + trackCount + " tracks, found " + n);
+			TempoMap tempoMap = TempoMap.fromChanges(divisionType, resolution, tempoTicks, tempos, tempoCount);
+			return new MappedMidiFile(file, buffer, tempoMap, lengthTicks, tracks);
+		}
+		catch (IndexOutOfBoundsException | IllegalStateException e) {
+			InvalidMidiDataException ex = new InvalidMidiDataException("Corrupted MIDI file: " + file);
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+	/*
+	 * returns null if there's no valid index for this version of the file, e.g. a truncated or corrupt one,
+	 * so that the caller falls back to scan()
+	 */
+	private static MappedMidiFile readIndex(File file, ByteBuffer buffer) {
+
+		File indexFile = new File(file.getPath() + INDEX_SUFFIX);
+		if (!indexFile.isFile()) return null;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) return null;
+			if (in.readLong() != file.length() || in.readLong() != file.lastModified()) return null;
+			float divisionType = in.readFloat();
+			int resolution = in.readInt();
+			long lengthTicks = in.readLong();
+			int tempoCount = in.readInt();
+			if (tempoCount < 0 || tempoCount > indexFile.length() / 16) return null;
+			long[] tempoTicks = new long[tempoCount], tempos = new long[tempoCount];
+			for (int i = 0; i < tempoCount; i++) {
+				tempoTicks[i] = in.readLong();
+				tempos[i] = in.readLong();
+			}
+			int trackCount = in.readInt();
+			if (trackCount < 0 || trackCount > indexFile.length() / 12) return null;
+			TrackIndex[] tracks = new TrackIndex[trackCount];
+			for (int i = 0; i < tracks.length; i++) {
+				TrackIndex t = new TrackIndex(in.readInt(), in.readInt());
+				if (t.start < 0 || t.end < t.start || t.end > buffer.capacity()) return null;
+				int count = in.readInt();
+				if (count < 0 || count > indexFile.length() / 13) return null;
+				t.ticks = new long[count];
+				t.offsets = new int[count];
+				t.status = new byte[count];
+				for (int j = 0; j < count; j++) {
+					t.ticks[j] = in.readLong();
+					t.offsets[j] = in.readInt();
+					t.status[j] = in.readByte();
+					if (t.offsets[j] < t.start || t.offsets[j] > t.end || (j > 0 && t.ticks[j] < t.ticks[j-1])) return null; // readers would decode outside the chunk
+				}
+				t.count = count;
+				tracks[i] = t;
+			}
+			return new MappedMidiFile(file, buffer, TempoMap.fromChanges(divisionType, resolution, tempoTicks, tempos, tempoCount), lengthTicks, tracks);
+		} catch (IOException e) {
+			LOGGER.warning("Ignoring unreadable index " + indexFile + ": " + e);
+			return null;
+		}
+	}
+
+	private void writeIndex() {
+
+		File indexFile = getIndexFile();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+			out.writeInt(INDEX_MAGIC);
+			out.writeInt(INDEX_VERSION);
+			out.writeLong(file.length());
+			out.writeLong(file.lastModified());
+			out.writeFloat(tempoMap.getDivisionType());
+			out.writeInt(tempoMap.getResolution());
+			out.writeLong(lengthTicks);
+			out.writeInt(tempoMap.getSegmentCount());
+			for (int i = 0; i < tempoMap.getSegmentCount(); i++) {
+				out.writeLong(tempoMap.getSegmentTick(i));
+				out.writeLong(tempoMap.getSegmentMicrosPerQuarter(i));
+			}
+			out.writeInt(tracks.length);
+			for (TrackIndex t : tracks) {
+				out.writeInt(t.start);
+				out.writeInt(t.end);
+				out.writeInt(t.count);
+				for (int j = 0; j < t.count; j++) {
+					out.writeLong(t.ticks[j]);
+					out.writeInt(t.offsets[j]);
+					out.writeByte(t.status[j]);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.warning("Cannot cache MIDI file index to " + indexFile + ": " + e);
+		}
+	}
+
+	// -------------- inner classes --------------
+
+	/*
+	 * sparse index of a track chunk
+	 */
+	private static final class TrackIndex {
+
+		final int start, end; // offsets of the first event and of the chunk end
+		long[] ticks = new long[16]; // tick of the event preceding each checkpoint
+		int[] offsets = new int[16]; // offset of the event following each checkpoint
+		byte[] status = new byte[16]; // running status at each checkpoint
+		int count;
+
+		TrackIndex(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		void addCheckpoint(long tick, int offset, int runningStatus) {
+
+			if (count == ticks.length) {
+				ticks = Arrays.copyOf(ticks, 2 * count);
+				offsets = Arrays.copyOf(offsets, 2 * count);
+				status = Arrays.copyOf(status, 2 * count);
+			}
+			ticks[count] = tick;
+			offsets[count] = offset;
+			status[count] = (byte)runningStatus;
+			count++;
+		}
+
+		void trim() {
+
+			ticks = Arrays.copyOf(ticks, count);
+			offsets = Arrays.copyOf(offsets, count);
+			status = Arrays.copyOf(status, count);
+		}
+
+		/*
+		 * the last checkpoint that precedes every event at or after the given tick
+		 */
+		int checkpointBefore(long tick) {
+
+			int lo = 0, hi = count; // first checkpoint with ticks >= tick
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (ticks[mid] < tick) lo = mid + 1;
+				else hi = mid;
+			}
+			return Math.max(0, lo - 1);
+		}
+	}
+
+	/*
+	 * decodes the events of a track chunk one at a time, without allocating
+	 */
+	private static final class EventReader {
+
+		private final ByteBuffer buffer;
+		int pos, end;
+		long tick; // tick of the last decoded event
+		int status; // running status, 0 if none yet
+		int message; // last decoded short message (packed), -1 for meta and sysex events
+		int metaType = -1; // type of the last decoded meta event, -1 if it's not one
+		int metaOffset, metaLength; // data of the last decoded meta event
+
+		EventReader(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		void reset(int pos, int end, long tick, int status) {
+
+			this.pos = pos;
+			this.end = end;
+			this.tick = tick;
+			this.status = status;
+		}
+
+		/*
+		 * returns false at the end of the track
+		 */
+		boolean read() {
+
+			if (pos >= end) return false;
+			tick += readVarLen();
+			metaType = -1;
+			int b = buffer.get(pos) & 0xFF;
+			if (b >= 0x80) {
+				pos++;
+				if (b == 0xFF) { // meta event
+					metaType = buffer.get(pos++) & 0xFF;
+					metaLength = readVarLen();
+					metaOffset = pos;
+					pos += metaLength;
+					message = -1;
+					if (metaType == 0x2F) pos = end; // end of track
+					return true;
+				}
+				if (b == 0xF0 || b == 0xF7) { // sysex
+					int length = readVarLen();
+					pos += length;
+					message = -1;
+					return true;
+				}
+				status = b;
+			}
+			else if (status == 0) throw new IllegalStateException("Data byte without running status at offset " + pos);
+
+			int cmd = status & 0xF0;
+			int data1 = buffer.get(pos++);
+			int data2 = (cmd == 0xC0 || cmd == 0xD0) ? 0 : buffer.get(pos++);
+			message = pack(status, data1, data2);
+			return true;
+		}
+
+		private int readVarLen() {
+
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				int b = buffer.get(pos++);
+				value = (value << 7) | (b & 0x7F);
+				if (b >= 0) return value;
+			}
+			throw new IllegalStateException("Variable length quantity too long at offset " + pos);
+		}
+	}
+
+	/*
+	 * merges tracks on the fly, looking one short message ahead in each of them
+	 */
+	private final class Cursor implements Timeline.Cursor {
+
+		private final EventReader[] readers = new EventReader[tracks.length];
+		private final long[] nextTicks = new long[tracks.length]; // Long.MAX_VALUE past the end of a track
+		private final int[] nextMessages = new int[tracks.length];
+		private int current = -1; // track holding the next event, -1 past the end
+
+		Cursor() {
+
+			for (int i = 0; i < readers.length; i++) readers[i] = new EventReader(buffer);
+			seek(0);
+		}
+
+		@Override
+		public void seek(long tick) {
+
+			for (int i = 0; i < readers.length; i++) {
+				TrackIndex t = tracks[i];
+				int c = t.checkpointBefore(tick);
+				if (t.count == 0) readers[i].reset(t.start, t.end, 0, 0);
+				else readers[i].reset(t.offsets[c], t.end, t.ticks[c], t.status[c] & 0xFF);
+				do advance(i); while (nextTicks[i] < tick);
+			}
+			selectCurrent();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return current >= 0;
+		}
+
+		@Override
+		public long getTick() {
+			return nextTicks[current];
+		}
+
+		@Override
+		public int next() {
+
+			int m = nextMessages[current];
+			advance(current);
+			selectCurrent();
+			return m;
+		}
+
+		private void advance(int track) {
+
+			EventReader r = readers[track];
+			while (r.read()) {
+				if (r.message >= 0) {
+					nextTicks[track] = r.tick;
+					nextMessages[track] = r.message;
+					return;
+				}
+			}
+			nextTicks[track] = Long.MAX_VALUE;
+		}
+
+		private void selectCurrent() {
+
+			current = -1;
+			long min = Long.MAX_VALUE;
+			for (int i = 0; i < nextTicks.length; i++) {
+				if (nextTicks[i] < min) {
+					min = nextTicks[i];
+					current = i;
+				}
+			}
+		}
+	}
+
+	// -------------- test --------------
+
+	/*
+	 * checks events against MidiSystem.getSequence() on the given file (default ableton1.mid), then compares heap usage on a generated multi-megabyte file
+	 */
+	public static void main(String[] args) throws Exception {
+
+		File f = new File(args.length > 0 ? args[0] : "ableton1.mid");
+		new File(f.getPath() + INDEX_SUFFIX).delete();
+		long t0 = System.nanoTime();
+		MappedMidiFile m = open(f);
+		long t1 = System.nanoTime();
+		m = open(f);
+		long t2 = System.nanoTime();
+		CompiledTimeline c = CompiledTimeline.compile(javax.sound.midi.MidiSystem.getSequence(f));
+		long t3 = System.nanoTime();
+		System.out.println(m + ": scan=" + (t1 - t0) / 1000 + "us cached=" + (t2 - t1) / 1000 + "us MidiSystem.getSequence=" + (t3 - t2) / 1000 + "us");
+
+		// same events at the same ticks (order at equal ticks may differ):
+		long[] expected = new long[c.size()];
+		for (int i = 0; i < c.size(); i++) expected[i] = c.getTick(i) << 24 | c.getMessage(i);
+		long[] actual = new long[c.size()];
+		Timeline.Cursor cursor = m.openCursor();
+		int n = 0;
+		for (; cursor.hasNext() && n < actual.length; n++) actual[n] = cursor.getTick() << 24 | cursor.next();
+		Arrays.sort(expected);
+		Arrays.sort(actual);
+		if (cursor.hasNext() || n != expected.length || !Arrays.equals(expected, actual)) throw new AssertionError("Events differ from MidiSystem's");
+		cursor.seek(c.getLengthTicks() / 2);
+		if (cursor.hasNext() && cursor.getTick() != c.getTick(c.indexOf(c.getLengthTicks() / 2))) throw new AssertionError("Seek failed");
+		System.out.println(n + " events match, length " + m.getLengthTicks() + " vs " + c.getLengthTicks() + " ticks");
+
+		// a corrupt checkpoint offset in the cached index gets the file scanned again:
+		try (RandomAccessFile index = new RandomAccessFile(m.getIndexFile(), "rw")) {
+			index.seek(index.length() - 5); // offset of the last checkpoint
+			index.writeInt(Integer.MAX_VALUE);
+		}
+		if (readIndex(f, m.buffer) != null) throw new AssertionError("Corrupt index accepted");
+		if (!open(f).toString().equals(m.toString()) || readIndex(f, m.buffer) == null) throw new AssertionError("Index not rebuilt");
+		System.out.println("Corrupt index rejected and rebuilt");
+
+		// heap usage on a large file:
+		File big = File.createTempFile("themis", ".mid");
+		big.deleteOnExit();
+		new File(big.getPath() + INDEX_SUFFIX).deleteOnExit();
+		Sequence seq = new Sequence(Sequence.PPQ, EventDuration.TICKS_PER_QUARTER);
+		for (int k = 0; k < 4; k++) {
+			javax.sound.midi.Track t = seq.createTrack();
+			for (int i = 0; i < 150000; i++) {
+				t.add(new javax.sound.midi.MidiEvent(new javax.sound.midi.ShortMessage(javax.sound.midi.ShortMessage.NOTE_ON, k, 40 + i % 24, 100), i * 50));
+				t.add(new javax.sound.midi.MidiEvent(new javax.sound.midi.ShortMessage(javax.sound.midi.ShortMessage.NOTE_OFF, k, 40 + i % 24, 0), i * 50 + 25));
+			}
+		}
+		javax.sound.midi.MidiSystem.write(seq, 1, big);
+		seq = null;
+
+		long base = usedHeap();
+		m = open(big);
+		long mapped = usedHeap() - base;
+		long events = 0;
+		for (cursor = m.openCursor(); cursor.hasNext(); cursor.next()) events++;
+		base = usedHeap();
+		Sequence s = javax.sound.midi.MidiSystem.getSequence(big);
+		long parsed = usedHeap() - base;
+		System.out.println(m + ": " + events + " events, retained heap " + mapped / 1024 + "KB mapped vs " + parsed / 1024 + "KB for MidiSystem.getSequence (" + s.getTracks().length + " tracks)");
+	}
+
+	private static long usedHeap() {
+
+		for (int i = 0; i < 3; i++) System.gc();
+		return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+	}
+}
@@ -23,4 +23,11 @@ public enum NoteDuration {
 	public long getTicks() {
 		return (long)(duration * TICKS_PER_QUARTER);
 	}
+	
+	/**
+	 * @param resolution ticks per quarter of the sequence, see Sequence.getResolution()
+	 */
+	public long getTicks(int resolution) {
+		return (long)(duration * resolution);
+	}
 }
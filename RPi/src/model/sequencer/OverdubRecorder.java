@@ -0,0 +1,423 @@
+package model.sequencer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+
+import model.serial.AbstractSerialTransmitter;
+
+/**
+ * Records live MIDI input into a TrackThemis while a PlaybackEngine loops over its sequence, adding to what's already there.
+ *
+ * The receive thread (see MidiInHandler.send()) only timestamps each message and appends it to a chunked buffer,
+ * without locking nor allocating (chunks are allocated ahead by the merge thread), after the message has been sent to the synth ;
+ * hence recording adds no latency to the live note path.
+ *
+ * A background thread drains the buffer every time the engine jumps back to the loop start, converts timestamps to ticks
+ * inside the loop, pairs note on/off into notes, then adds them to the track as one undoable operation and hands the
+ * recompiled sequence over to the engine. Notes still held at a loop boundary get merged at a later one, once released.
+ *
+ * The sequence gets edited on the merge thread while synchronized on it ; other editors should synchronize on it as well.
+ *
+ * @author reynal
+ *
+ */
+public class OverdubRecorder implements PlaybackEngine.LoopListener {
+
+	private static final Logger LOGGER = Logger.getLogger("confLogger");
+
+	private static final int CHUNK_SIZE = 256; // events per chunk
+	private static final long IDLE_NANOS = 100000000; // merge thread wake up period when no loop boundary comes
+	private static final long MAX_DEVICE_LAG_NANOS = 20000000; // past this, device timestamps are considered out of sync
+	private static final long NONE = Long.MIN_VALUE;
+
+	private final SequenceThemis sequence;
+	private final TrackThemis track;
+	private final PlaybackEngine engine;
+
+	// lock-free buffer, see append() and drain():
+	private final AtomicReference<Chunk> tail; // receive threads
+	private Chunk head; // merge thread
+	private int headIndex; // merge thread
+
+	private long deviceOffsetNanos = NONE; // nanoTime minus device timestamp, device thread only
+
+	// last loop boundary, written by the playback thread, wrapNanos last:
+	private volatile long wrapStartTick, wrapEndTick;
+	private volatile long wrapNanos = NONE;
+
+	// merge thread only:
+	private final long[] pendingNanos = new long[16 * 128]; // time of each held note, NONE if not held
+	private final int[] pendingMessages = new int[16 * 128];
+	private long[] batchTicks = new long[CHUNK_SIZE];
+	private int[] batchMessages = new int[CHUNK_SIZE];
+	private int[] batchLengths = new int[CHUNK_SIZE];
+	private int batchSize;
+	private int mergedCount;
+
+	private volatile boolean recording;
+	private Thread thread;
+
+	// -------------- constructors --------------
+
+	/**
+	 * @param sequence the sequence played by the given engine
+	 * @param track the track of this sequence that gets recorded into
+	 */
+	public OverdubRecorder(SequenceThemis sequence, TrackThemis track, PlaybackEngine engine) {
+
+		this.sequence = sequence;
+		this.track = track;
+		this.engine = engine;
+		head = new Chunk();
+		tail = new AtomicReference<Chunk>(head);
+		Arrays.fill(pendingNanos, NONE);
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * Starts recording ; messages passed to record() from now on get merged at loop boundaries.
+	 */
+	public synchronized void start() {
+
+		if (recording) return;
+		drain(); // forgets what came before
+		Arrays.fill(pendingNanos, NONE);
+		batchSize = 0;
+		recording = true;
+		engine.setLoopListener(this);
+		thread = new Thread(this::mergeLoop, "Overdub merger");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops recording, merges what's left (notes still held end now) and waits for the merge thread to exit.
+	 */
+	public synchronized void stop() {
+
+		if (!recording) return;
+		recording = false;
+		engine.setLoopListener(null);
+		LockSupport.unpark(thread);
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		thread = null;
+		LOGGER.info("Overdub: " + mergedCount + " events recorded into " + track);
+	}
+
+	public boolean isRecording() {
+		return recording;
+	}
+
+	/**
+	 * @return the number of events merged into the track since this recorder was created
+	 */
+	public int getMergedCount() {
+		return mergedCount;
+	}
+
+	/**
+	 * Records a message, if recording ; called by the receive thread once the message has been handled.
+	 * Only note on/off and CC's get recorded. Lock-free, and doesn't allocate.
+	 * @param timeStamp the device timestamp in microseconds, or -1 to use the time of this call
+	 */
+	public void record(MidiMessage message, long timeStamp) {
+
+		if (!recording || !(message instanceof ShortMessage)) return;
+		long now = System.nanoTime();
+		ShortMessage sm = (ShortMessage)message;
+		int cmd = sm.getCommand();
+		if (cmd != ShortMessage.NOTE_ON && cmd != ShortMessage.NOTE_OFF && cmd != ShortMessage.CONTROL_CHANGE) return;
+		append(timeStamp < 0 ? now : deviceTime(timeStamp, now), CompiledTimeline.pack(sm.getStatus(), sm.getData1(), sm.getData2()));
+	}
+
+	/**
+	 * Records a message with the given System.nanoTime() timestamp, if recording. Lock-free, and doesn't allocate.
+	 * @param packedMessage see CompiledTimeline.pack()
+	 */
+	public void record(int packedMessage, long nanoTime) {
+
+		if (recording) append(nanoTime, packedMessage);
+	}
+
+	/**
+	 * Playback thread: wakes the merge thread up.
+	 */
+	@Override
+	public void loopWrapped(long wrapNanos, long startTick, long endTick) {
+
+		wrapStartTick = startTick;
+		wrapEndTick = endTick;
+		this.wrapNanos = wrapNanos;
+		Thread t = thread;
+		if (t != null) LockSupport.unpark(t);
+	}
+
+	@Override
+	public String toString() {
+		return "OverdubRecorder[" + track + (recording ? ", recording" : "") + "]";
+	}
+
+	// -------------- private methods --------------
+
+	/*
+	 * receive thread: device timestamps don't jitter with thread scheduling, but their clock differs from nanoTime ;
+	 * the smallest offset seen so far is the one of the most promptly delivered message
+	 */
+	private long deviceTime(long timeStamp, long now) {
+
+		long offset = now - timeStamp * 1000;
+		long t = timeStamp * 1000 + deviceOffsetNanos;
+		if (deviceOffsetNanos == NONE || offset < deviceOffsetNanos || now - t > MAX_DEVICE_LAG_NANOS) { // first message, or device clock reset
+			deviceOffsetNanos = offset;
+			return now;
+		}
+		return t;
+	}
+
+	/*
+	 * receive threads: reserves a slot in the tail chunk, then publishes the message last, so that the merge thread
+	 * only reads complete slots (a packed message is never 0, its status byte isn't)
+	 */
+	private void append(long nanoTime, int packedMessage) {
+
+		while (true) {
+			Chunk c = tail.get();
+			int i = c.reserved.getAndIncrement();
+			if (i < CHUNK_SIZE) {
+				c.times[i] = nanoTime;
+				c.messages.lazySet(i, packedMessage);
+				return;
+			}
+			Chunk next = c.next.get();
+			if (next == null) { // the merge thread fell behind, this is the only allocation on this path
+				Chunk n = new Chunk();
+				next = c.next.compareAndSet(null, n) ? n : c.next.get();
+			}
+			tail.compareAndSet(c, next);
+		}
+	}
+
+	/*
+	 * merge thread: reads every published message, stopping at the first slot not published yet
+	 */
+	private void drain() {
+
+		while (true) {
+			if (headIndex == CHUNK_SIZE) {
+				Chunk next = head.next.get();
+				if (next == null) break;
+				head = next;
+				headIndex = 0;
+				continue;
+			}
+			int m = head.messages.get(headIndex);
+			if (m == 0) break;
+			long t = head.times[headIndex++];
+			consume(t, m);
+		}
+		Chunk c = tail.get();
+		if (c.next.get() == null) c.next.compareAndSet(null, new Chunk()); // so that receive threads never allocate
+	}
+
+	/*
+	 * merge thread
+	 */
+	private void mergeLoop() {
+
+		long mergedWrap = wrapNanos;
+		try {
+			while (recording) {
+				LockSupport.parkNanos(IDLE_NANOS);
+				long w = wrapNanos;
+				if (w != mergedWrap) {
+					mergedWrap = w;
+					drain();
+					merge();
+				}
+				else drain(); // keeps chunks ahead, and pairs notes early
+			}
+			drain();
+			long now = System.nanoTime();
+			for (int n = 0; n < pendingNanos.length; n++) if (pendingNanos[n] != NONE) closeNote(n, now);
+			merge();
+		}
+		catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/*
+	 * merge thread: pairs note on/off, other messages go to the batch as is
+	 */
+	private void consume(long nanoTime, int m) {
+
+		int cmd = CompiledTimeline.getCommand(m);
+		if (cmd == ShortMessage.CONTROL_CHANGE) {
+			addToBatch(nanoTime, m, 0);
+			return;
+		}
+		int n = CompiledTimeline.getChannel(m) << 7 | CompiledTimeline.getData1(m);
+		if (pendingNanos[n] != NONE) closeNote(n, nanoTime); // also for a note on, in case its note off got lost
+		if (!CompiledTimeline.isNoteOff(m)) {
+			pendingNanos[n] = nanoTime;
+			pendingMessages[n] = m;
+		}
+	}
+
+	/*
+	 * merge thread: the length of a note is stored in nanoseconds until merge() knows the tempo map
+	 */
+	private void closeNote(int n, long nanoTime) {
+
+		addToBatch(pendingNanos[n], pendingMessages[n], nanoTime - pendingNanos[n]);
+		pendingNanos[n] = NONE;
+	}
+
+	private void addToBatch(long nanoTime, int m, long lengthNanos) {
+
+		if (batchSize == batchTicks.length) {
+			int c = batchSize * 2;
+			batchTicks = Arrays.copyOf(batchTicks, c);
+			batchMessages = Arrays.copyOf(batchMessages, c);
+			batchLengths = Arrays.copyOf(batchLengths, c);
+		}
+		batchTicks[batchSize] = nanoTime; // converted by merge()
+		batchMessages[batchSize] = m;
+		batchLengths[batchSize] = (int)Math.min(Integer.MAX_VALUE, lengthNanos / 1000); // micros until converted
+		batchSize++;
+	}
+
+	/*
+	 * merge thread: converts the batch to ticks inside the loop, adds it to the track, then updates the engine
+	 */
+	private void merge() {
+
+		if (batchSize == 0) return;
+		TempoMap map = engine.getTempoMap();
+		if (map == null) {
+			batchSize = 0;
+			return;
+		}
+		long wrap = wrapNanos, startNanos = 0, loopNanos = 0;
+		if (wrap != NONE) {
+			startNanos = map.tickToNanos(wrapStartTick);
+			loopNanos = map.tickToNanos(wrapEndTick) - startNanos;
+		}
+		for (int i = 0; i < batchSize; i++) {
+			long t = batchTicks[i];
+			long tick = (wrap == NONE || loopNanos <= 0) ? engine.getTickAt(t) : map.nanosToTick(startNanos + Math.floorMod(t - wrap, loopNanos));
+			batchTicks[i] = tick;
+			if (batchLengths[i] > 0)
+				batchLengths[i] = (int)Math.max(1, map.nanosToTick(map.tickToNanos(tick) + batchLengths[i] * 1000L) - tick);
+		}
+
+		CompiledTimeline timeline;
+		synchronized (sequence) {
+			sequence.overdub(track, batchTicks, batchMessages, batchLengths, batchSize);
+			timeline = sequence.compile();
+		}
+		mergedCount += batchSize;
+		batchSize = 0;
+		engine.setTimeline(timeline, true); // only adds notes, sounding ones still get their note offs
+	}
+
+	// -------------- inner classes --------------
+
+	/*
+	 * a fixed-size block of timestamped messages, linked to the next one
+	 */
+	private static final class Chunk {
+
+		final long[] times = new long[CHUNK_SIZE];
+		final AtomicIntegerArray messages = new AtomicIntegerArray(CHUNK_SIZE); // 0 until published
+		final AtomicInteger reserved = new AtomicInteger();
+		final AtomicReference<Chunk> next = new AtomicReference<Chunk>();
+	}
+
+	// -------------- test --------------
+
+	/**
+	 * Measures the cost of record() on the receive thread, then overdubs four notes into a one bar loop
+	 * and checks they get merged at the right ticks and played on the next round.
+	 */
+	public static void main(String[] args) throws Exception {
+
+		SequenceThemis seq = new SequenceThemis(javax.sound.midi.Sequence.PPQ, EventDuration.TICKS_PER_QUARTER, 1);
+		TrackThemis track = seq.getTracksThemis()[0];
+		int[] played = new int[1];
+		AbstractSerialTransmitter countingTransmitter = new AbstractSerialTransmitter() {
+			public void transmitMidiMessage(ShortMessage sm) {
+				if (sm.getCommand() == ShortMessage.NOTE_ON) played[0]++;
+			}
+			public void close() {}
+		};
+		PlaybackEngine engine = new PlaybackEngine(countingTransmitter, 0);
+		engine.setTempo(250000); // 240 BPM, one bar per second
+		engine.setTimeline(seq.compile());
+		long bar = 4 * EventDuration.TICKS_PER_QUARTER;
+		engine.setLoopPoints(0, bar);
+		engine.setLooping(true);
+
+		// cost on the receive thread, while recording:
+		OverdubRecorder recorder = new OverdubRecorder(seq, track, engine);
+		recorder.start();
+		ShortMessage sm = new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 120, 0); // merged at stop(), then undone
+		int n = 100000;
+		long[] cost = new long[n];
+		for (int i = 0; i < n; i++) {
+			long t0 = System.nanoTime();
+			recorder.record(sm, -1);
+			cost[i] = System.nanoTime() - t0;
+			if (i % 1000 == 999) Thread.sleep(1); // lets the merge thread drain
+		}
+		recorder.stop();
+		Arrays.sort(cost);
+		System.out.println("record() cost: p50=" + cost[n / 2] + "ns p99=" + cost[n * 99 / 100] + "ns max=" + cost[n - 1] + "ns (" + recorder.getMergedCount() + " merged)");
+		synchronized (seq) {
+			seq.undo();
+		}
+		engine.setTimeline(seq.compile());
+
+		// overdub:
+		recorder = new OverdubRecorder(seq, track, engine);
+		engine.start();
+		recorder.start();
+		long[] expected = new long[4];
+		for (int i = 0; i < 4; i++) {
+			Thread.sleep(200);
+			long now = System.nanoTime();
+			expected[i] = engine.getTickAt(now);
+			recorder.record(CompiledTimeline.pack(ShortMessage.NOTE_ON, 60 + i, 100), now);
+			recorder.record(CompiledTimeline.pack(ShortMessage.NOTE_OFF, 60 + i, 0), now + 50000000);
+		}
+		while (engine.getCurrentTick() > bar / 2) Thread.sleep(10); // next round
+		Thread.sleep(700); // all of it is in the middle of the bar
+		int before = played[0];
+		Thread.sleep(1000); // one more round
+		int playedOnRound = played[0] - before;
+		recorder.stop();
+		engine.stop();
+
+		EventStore store = track.getEventStore();
+		boolean ok = store.size() == 4 && playedOnRound == 4;
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < store.size(); i++) {
+			sb.append(" ").append(store.getTick(i)).append("/").append(expected[i] % bar).append(" len=").append(store.getLength(i));
+			ok &= Math.abs(store.getTick(i) - expected[i] % bar) <= 1;
+		}
+		System.out.println("Overdub (merged tick/expected tick):" + sb + ", played " + playedOnRound + " per round");
+		System.out.println(ok ? "OK" : "FAILED");
+	}
+}
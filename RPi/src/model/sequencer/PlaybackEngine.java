@@ -0,0 +1,604 @@
+package model.sequencer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+
+import application.ModuleFactory;
+import model.ModuleParameter;
+import model.serial.AbstractSerialTransmitter;
+
+/**
+ * Plays a Timeline in real time, straight to a serial transmitter, as a replacement for MidiSystem.getSequencer()
+ * whose timing jitter is several milliseconds on a Raspberry, and which routes messages through a Transmitter and MidiInHandler.send().
+ *
+ * A dedicated thread parks until shortly before each event is due, then spins for the final approach ;
+ * note on/off go directly to the transmitter (one reused ShortMessage, no allocation), while CC's update
+ * the associated ModuleParameter's, so that views follow and the transmitter gets them through its usual path.
+ *
+ * Event times come from the TempoMap of the timeline ; setTempo() makes live tempo changes that keep the current position.
+ *
+ * Sounding notes are tracked in ActiveNotes, so that note offs get sent when looping, seeking, swapping timelines or stopping,
+ * and note offs of notes that aren't sounding are dropped ; setTimeline(timeline, true) keeps notes sounding across a swap
+ * instead, for timelines that only add events (see OverdubRecorder). The notes that straddle the loop start or a seek position are
+ * computed once by the calling thread (see setLoopPoints() and seek()), then re-triggered by the playback thread
+ * without scanning events nor allocating.
+ *
+ * The lateness of every event (actual send time minus due time) is recorded, see getJitterSummary().
+ *
+ * @author reynal
+ *
+ */
+public class PlaybackEngine {
+
+	private static final Logger LOGGER = Logger.getLogger("confLogger");
+
+	private static final long SPIN_NANOS = 200000; // final approach by busy waiting, parkNanos is not accurate enough below that
+	private static final int JITTER_WINDOW = 4096; // number of recent events jitter percentiles are computed on
+
+	private final int midiChannel; // only events on this channel get played
+	private volatile AbstractSerialTransmitter transmitter;
+	private volatile Timeline timeline;
+	private volatile boolean keepSounding; // whether the last swap keeps sounding notes, written before timeline
+	private volatile TempoMap tempoMap; // the timeline's one, plus live tempo changes
+	private volatile long startTempo = -1; // tempo set while stopped, -1 to use the timeline's one
+	private volatile long origin; // time of tick 0, playback thread writes only
+	private volatile boolean looping;
+	private volatile long loopEndTick = -1; // -1 for the end of the timeline
+	private volatile long loopStartTick;
+	private volatile Position loopStart; // null for tick 0 or if there's no timeline yet
+	private volatile Position startPosition; // where the next start() begins, null for tick 0
+	private volatile Position pendingSeek; // set by seek() while playing, consumed by the playback thread
+	private volatile LoopListener loopListener;
+	private final ActiveNotes activeNotes = new ActiveNotes(); // playback thread only
+	private volatile boolean running;
+	private Thread thread;
+	private final ShortMessage message = new ShortMessage(); // reused for every note, playback thread only
+
+	// jitter:
+	private final long[] jitterNanos = new long[JITTER_WINDOW]; // ring buffer, guarded by itself
+	private long jitterCount;
+
+	// -------------- constructors --------------
+
+	/**
+	 * @param transmitter where notes get sent to ; may be null and set later
+	 * @param midiChannel channel of the events to play, 0 to 15
+	 */
+	public PlaybackEngine(AbstractSerialTransmitter transmitter, int midiChannel) {
+
+		this.transmitter = transmitter;
+		this.midiChannel = midiChannel;
+	}
+
+	// -------------- public methods --------------
+
+	public void setTransmitter(AbstractSerialTransmitter transmitter) {
+		this.transmitter = transmitter;
+	}
+
+	/**
+	 * Sets the timeline to play ; if playing, sounding notes get a note off, and playback goes on from the same tick in the new timeline.
+	 */
+	public void setTimeline(Timeline timeline) {
+		setTimeline(timeline, false);
+	}
+
+	/**
+	 * Same as above.
+	 * @param keepSounding if true, sounding notes aren't stopped by the swap, which is only right if the new timeline
+	 * still has their note offs, e.g. when it only adds events to the current one ; otherwise they stop at the next loop end
+	 */
+	public synchronized void setTimeline(Timeline timeline, boolean keepSounding) {
+
+		TempoMap map = timeline.getTempoMap();
+		if (startTempo > 0) map = map.withTempo(0, startTempo);
+		if (loopStartTick > 0) loopStart = computePosition(timeline, loopStartTick);
+		this.tempoMap = map;
+		this.keepSounding = keepSounding;
+		this.timeline = timeline;
+		if (thread != null) LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Compiles then sets the given sequence.
+	 */
+	public void setSequence(Sequence sequence) {
+		setTimeline(CompiledTimeline.compile(sequence));
+	}
+
+	public Timeline getTimeline() {
+		return timeline;
+	}
+
+	/**
+	 * Changes the tempo from now on, up to the next tempo event of the timeline ; while stopped, from the timeline start.
+	 * Only the affected segment of the tempo map gets recomputed, see TempoMap.withTempo().
+	 * @param microsPerQuarter e.g. 500000 for 120 BPM
+	 */
+	public synchronized void setTempo(long microsPerQuarter) {
+
+		if (running) {
+			TempoMap map = tempoMap;
+			tempoMap = map.withTempo(map.nanosToTick(System.nanoTime() - origin), microsPerQuarter);
+			LockSupport.unpark(thread);
+			return;
+		}
+		startTempo = microsPerQuarter;
+		Timeline t = timeline;
+		if (t != null) tempoMap = t.getTempoMap().withTempo(0, microsPerQuarter);
+	}
+
+	/**
+	 * @return the current tempo map, including live tempo changes, or null if there's no timeline yet
+	 */
+	public TempoMap getTempoMap() {
+		return tempoMap;
+	}
+
+	/**
+	 * @param looping if true, playback starts over at the loop start when it reaches the loop end, see setLoopPoints()
+	 */
+	public void setLooping(boolean looping) {
+		this.looping = looping;
+	}
+
+	/**
+	 * Sets the loop points, the whole timeline by default ; takes effect at the next loop end.
+	 * Notes sounding across the loop start are computed now, on the calling thread, hence this must be called again after a timeline edit.
+	 * @param startTick first tick of the loop
+	 * @param endTick tick where playback jumps back to startTick, or -1 for the end of the timeline
+	 */
+	public synchronized void setLoopPoints(long startTick, long endTick) {
+
+		if (startTick < 0 || (endTick >= 0 && endTick <= startTick)) throw new IllegalArgumentException("Invalid loop [" + startTick + "," + endTick + ")");
+		Timeline t = timeline;
+		loopStart = (startTick == 0 || t == null) ? null : computePosition(t, startTick);
+		loopStartTick = startTick;
+		loopEndTick = endTick;
+	}
+
+	/**
+	 * Moves playback to the given tick, or sets where the next start() begins if stopped ;
+	 * sounding notes get a note off, and notes sounding across the given tick are re-triggered.
+	 */
+	public synchronized void seek(long tick) {
+
+		Timeline t = timeline;
+		if (t == null) throw new IllegalStateException("No timeline to play");
+		Position p = computePosition(t, tick);
+		if (running) {
+			pendingSeek = p;
+			LockSupport.unpark(thread);
+		}
+		else startPosition = p;
+	}
+
+	/**
+	 * @return the tick being played, or where the next start() begins if stopped
+	 */
+	public long getCurrentTick() {
+
+		if (!running) {
+			Position p = startPosition;
+			return p == null ? 0 : p.tick;
+		}
+		return tempoMap.nanosToTick(System.nanoTime() - origin);
+	}
+
+	/**
+	 * @param nanoTime a System.nanoTime() value
+	 * @return the tick played at the given time in the current round of playback (or the last one if stopped),
+	 * 0 if that time is before tick 0 of this round
+	 */
+	public long getTickAt(long nanoTime) {
+
+		TempoMap map = tempoMap;
+		if (map == null) return 0;
+		return map.nanosToTick(nanoTime - origin);
+	}
+
+	/**
+	 * @param listener notified on the playback thread every time playback jumps back to the loop start ; null for none
+	 */
+	public void setLoopListener(LoopListener listener) {
+		this.loopListener = listener;
+	}
+
+	/**
+	 * Starts playing the current timeline from its beginning, or from the position set by seek(), on a dedicated thread.
+	 */
+	public synchronized void start() {
+
+		if (running) return;
+		if (timeline == null) throw new IllegalStateException("No timeline to play");
+		Position start = startPosition;
+		origin = System.nanoTime() - (start == null ? 0 : tempoMap.tickToNanos(start.tick)); // so that getCurrentTick() is right until the thread sets it
+		running = true;
+		thread = new Thread(this::playbackLoop, "Playback engine");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Stops playing and waits for the playback thread to exit.
+	 */
+	public synchronized void stop() {
+
+		if (!running) return;
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		thread = null;
+		LOGGER.info(getJitterSummary());
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @param percentile from 0 to 100
+	 * @return the given percentile of event lateness in nanoseconds over the last events, or 0 if nothing was played yet
+	 */
+	public long getJitterPercentile(double percentile) {
+
+		long[] sorted;
+		synchronized (jitterNanos) {
+			int n = (int)Math.min(jitterCount, JITTER_WINDOW);
+			if (n == 0) return 0;
+			sorted = Arrays.copyOf(jitterNanos, n);
+		}
+		Arrays.sort(sorted);
+		return sorted[(int)Math.min(sorted.length - 1, Math.round(percentile / 100.0 * (sorted.length - 1)))];
+	}
+
+	/**
+	 * @return a one-line summary of event lateness
+	 */
+	public String getJitterSummary() {
+
+		long n;
+		synchronized (jitterNanos) {
+			n = jitterCount;
+		}
+		return String.format("Playback jitter over %d events: p50=%dus p99=%dus max=%dus",
+				Math.min(n, JITTER_WINDOW), getJitterPercentile(50) / 1000, getJitterPercentile(99) / 1000, getJitterPercentile(100) / 1000);
+	}
+
+	// -------------- private methods --------------
+
+	/*
+	 * playback thread
+	 */
+	private void playbackLoop() {
+
+		TempoMap map = tempoMap;
+		Timeline t = timeline;
+		Timeline.Cursor cursor = t.openCursor();
+		Position start = startPosition;
+		startPosition = null;
+		if (start != null && start.timeline != t) start = null;
+		long origin = System.nanoTime() - (start == null ? 0 : map.tickToNanos(start.tick)); // time of tick 0
+		this.origin = origin;
+		if (start != null) {
+			cursor.seek(start.tick);
+			retrigger(start);
+		}
+
+		try {
+			playEvents(map, t, cursor, origin);
+		}
+		finally {
+			allNotesOff();
+		}
+	}
+
+	/*
+	 * playback thread
+	 */
+	private void playEvents(TempoMap map, Timeline t, Timeline.Cursor cursor, long origin) {
+
+		while (running) {
+
+			if (tempoMap != map) { // live tempo change or new timeline: the current position keeps its time
+				TempoMap newMap = tempoMap;
+				long tick = map.nanosToTick(System.nanoTime() - origin);
+				origin += map.tickToNanos(tick) - newMap.tickToNanos(tick);
+				this.origin = origin;
+				map = newMap;
+			}
+
+			if (timeline != t) { // swapped while playing: go on from the same tick
+				long tick = cursor.hasNext() ? cursor.getTick() : t.getLengthTicks();
+				t = timeline;
+				cursor = t.openCursor();
+				cursor.seek(tick);
+				if (!keepSounding) allNotesOff(); // their note offs may not be in the new timeline
+			}
+
+			Position seek = pendingSeek;
+			if (seek != null) {
+				pendingSeek = null;
+				if (seek.timeline == t) {
+					allNotesOff();
+					cursor.seek(seek.tick);
+					long at = looping && loopEndTick >= 0 ? Math.min(seek.tick, loopEndTick) : seek.tick; // past the loop end: wrap right now, not when the loop end would have been
+					origin = System.nanoTime() - map.tickToNanos(at);
+					this.origin = origin;
+					retrigger(seek);
+				}
+				continue;
+			}
+
+			boolean loops = looping;
+			boolean loopEnd = loops && loopEndTick >= 0; // events at the loop end belong to the next round, those at the timeline end don't
+			long endTick = loopEnd ? loopEndTick : t.getLengthTicks();
+			if (!cursor.hasNext() || cursor.getTick() > endTick || (loopEnd && cursor.getTick() == endTick)) { // end of loop or timeline
+				if (!loops) {
+					running = false;
+					break;
+				}
+				long end = origin + map.tickToNanos(endTick);
+				if (!waitUntil(end, map)) continue;
+				allNotesOff();
+				Position ls = loopStart;
+				if (ls != null && ls.timeline != t) ls = null; // timeline being swapped, no re-trigger this time
+				long startTick = ls == null ? loopStartTick : ls.tick;
+				origin = end - map.tickToNanos(startTick);
+				this.origin = origin;
+				cursor.seek(startTick);
+				if (ls != null) retrigger(ls);
+				LoopListener listener = loopListener;
+				if (listener != null) listener.loopWrapped(end, startTick, endTick);
+				continue;
+			}
+
+			long tick = cursor.getTick();
+			long due = origin + map.tickToNanos(tick);
+			if (!waitUntil(due, map)) continue;
+			recordJitter(System.nanoTime() - due);
+
+			// every event at the same tick:
+			while (cursor.hasNext() && cursor.getTick() == tick)
+				play(cursor.next());
+		}
+	}
+
+	/*
+	 * parks then spins until the given time ; returns false if playback was stopped or the tempo map changed in the meantime
+	 */
+	private boolean waitUntil(long due, TempoMap map) {
+
+		while (running && tempoMap == map) {
+			long remaining = due - System.nanoTime();
+			if (remaining <= 0) return true;
+			if (remaining > SPIN_NANOS) LockSupport.parkNanos(remaining - SPIN_NANOS);
+			// else spin
+		}
+		return false;
+	}
+
+	/*
+	 * playback thread
+	 */
+	private void play(int packedMessage) {
+
+		if (CompiledTimeline.getChannel(packedMessage) != midiChannel) return;
+		int cmd = CompiledTimeline.getCommand(packedMessage);
+		int data1 = CompiledTimeline.getData1(packedMessage), data2 = CompiledTimeline.getData2(packedMessage);
+
+		if (cmd == ShortMessage.CONTROL_CHANGE) {
+			ModuleParameter<?> parameter = ModuleFactory.getDefault().getModuleParameter(data1);
+			if (parameter != null) parameter.setValueFromMIDICode(data2);
+			return;
+		}
+		if (cmd != ShortMessage.NOTE_ON && cmd != ShortMessage.NOTE_OFF) return;
+
+		if (CompiledTimeline.isNoteOff(packedMessage)) {
+			if (activeNotes.noteOff(midiChannel, data1)) sendNote(ShortMessage.NOTE_OFF, midiChannel, data1, 0);
+		}
+		else {
+			activeNotes.noteOn(midiChannel, data1);
+			sendNote(ShortMessage.NOTE_ON, midiChannel, data1, data2);
+		}
+	}
+
+	/*
+	 * playback thread
+	 */
+	private void sendNote(int command, int channel, int key, int velocity) {
+
+		AbstractSerialTransmitter tx = transmitter;
+		if (tx == null) return;
+		try {
+			message.setMessage(command, channel, key, velocity);
+			tx.transmitMidiMessage(message);
+		} catch (InvalidMidiDataException | IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/*
+	 * playback thread: sends a note off for every sounding note
+	 */
+	private void allNotesOff() {
+
+		for (int n = activeNotes.next(0); n >= 0; n = activeNotes.next(n + 1))
+			sendNote(ShortMessage.NOTE_OFF, n >> 7, n & 0x7F, 0);
+		activeNotes.clear();
+	}
+
+	/*
+	 * playback thread: sends a note on for every note sounding across the given position
+	 */
+	private void retrigger(Position p) {
+
+		for (int n = p.sounding.next(0); n >= 0; n = p.sounding.next(n + 1)) {
+			activeNotes.noteOn(n >> 7, n & 0x7F);
+			sendNote(ShortMessage.NOTE_ON, n >> 7, n & 0x7F, p.velocities[n]);
+		}
+	}
+
+	/*
+	 * calling thread: plays the timeline silently up to the given tick to find which notes sound across it
+	 */
+	private Position computePosition(Timeline t, long tick) {
+
+		Position p = new Position(t, tick);
+		Timeline.Cursor c = t.openCursor();
+		while (c.hasNext() && c.getTick() <= tick) {
+			boolean before = c.getTick() < tick;
+			int m = c.next();
+			int channel = CompiledTimeline.getChannel(m), key = CompiledTimeline.getData1(m);
+			if (channel != midiChannel) continue;
+			if (CompiledTimeline.isNoteOff(m)) p.sounding.noteOff(channel, key); // including those at tick, which end right there
+			else if (before && CompiledTimeline.getCommand(m) == ShortMessage.NOTE_ON) {
+				p.sounding.noteOn(channel, key);
+				p.velocities[channel << 7 | key] = (byte)CompiledTimeline.getData2(m);
+			}
+		}
+		return p;
+	}
+
+	private void recordJitter(long lateNanos) {
+
+		synchronized (jitterNanos) {
+			jitterNanos[(int)(jitterCount++ % JITTER_WINDOW)] = lateNanos;
+		}
+	}
+
+	// -------------- inner classes --------------
+
+	/**
+	 * Gets notified of loop boundaries, e.g. to merge recorded events while the loop starts over.
+	 */
+	public interface LoopListener {
+
+		/**
+		 * Called by the playback thread right after it jumped back to the loop start, hence must return quickly and should not allocate.
+		 * @param wrapNanos the System.nanoTime() at which the loop end was due, which is also the time of startTick in the new round
+		 * @param startTick the loop start
+		 * @param endTick the loop end just reached
+		 */
+		void loopWrapped(long wrapNanos, long startTick, long endTick);
+	}
+
+	/*
+	 * a tick in a timeline, with the notes sounding across it
+	 */
+	private static final class Position {
+
+		final Timeline timeline;
+		final long tick;
+		final ActiveNotes sounding = new ActiveNotes();
+		final byte[] velocities = new byte[16 * 128];
+
+		Position(Timeline timeline, long tick) {
+			this.timeline = timeline;
+			this.tick = tick;
+		}
+	}
+
+	// -------------- test --------------
+
+	public static void main(String[] args) throws Exception {
+
+		testLoop();
+		testJitter();
+	}
+
+	/*
+	 * loops in the middle of notes, and checks that every note on gets its note off, and vice versa
+	 */
+	private static void testLoop() throws Exception {
+
+		Sequence seq = new Sequence(Sequence.PPQ, EventDuration.TICKS_PER_QUARTER);
+		javax.sound.midi.Track track = seq.createTrack();
+		int[][] notes = {{60, 0, 800}, {64, 100, 300}, {67, 350, 500}, {72, 200, 250}}; // key, on, off
+		for (int[] n : notes) {
+			track.add(new javax.sound.midi.MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, n[0], 100), n[1]));
+			track.add(new javax.sound.midi.MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, n[0], 0), n[2]));
+		}
+
+		ActiveNotes sounding = new ActiveNotes();
+		StringBuilder log = new StringBuilder();
+		int[] errors = new int[1];
+		AbstractSerialTransmitter checkingTransmitter = new AbstractSerialTransmitter() {
+			public void transmitMidiMessage(ShortMessage sm) {
+				if (sm.getCommand() == ShortMessage.NOTE_ON) {
+					if (sounding.isActive(0, sm.getData1())) errors[0]++;
+					sounding.noteOn(0, sm.getData1());
+					log.append(" +").append(sm.getData1());
+				}
+				else {
+					if (!sounding.noteOff(0, sm.getData1())) errors[0]++;
+					log.append(" -").append(sm.getData1());
+				}
+			}
+			public void close() {}
+		};
+		PlaybackEngine engine = new PlaybackEngine(checkingTransmitter, 0);
+		engine.setTempo(250000); // 240 BPM, 250ms per quarter
+		engine.setSequence(seq);
+		engine.setLoopPoints(200, 400);
+		engine.setLooping(true);
+		engine.start();
+		Thread.sleep(1100);
+		engine.seek(450);
+		Thread.sleep(100);
+		engine.stop();
+		System.out.println("Loop test:" + log);
+		System.out.println(engine.getJitterSummary() + " (cold start, first events include class loading)");
+		System.out.println((errors[0] == 0 && sounding.isEmpty() ? "OK" : "FAILED") + ": " + errors[0] + " unbalanced messages, left sounding: " + sounding);
+	}
+
+	/*
+	 * plays a dense sequence (sixteenth notes at 240 BPM) to a transmitter that does nothing, and prints the resulting jitter
+	 * against a target of 200us at p99, once a first faster pass has warmed up the playback path.
+	 *
+	 * The target depends on the machine more than on the engine: parkNanos wake-ups that overshoot the SPIN_NANOS window
+	 * end up late. On a single shared core with no isolation, p99 ranges from ~15us to a few ms and max reaches ~3-12ms,
+	 * which takes core isolation (isolcpus) or a wider spin window to bring down.
+	 */
+	private static void testJitter() throws Exception {
+
+		Sequence seq = new Sequence(Sequence.PPQ, EventDuration.TICKS_PER_QUARTER);
+		javax.sound.midi.Track track = seq.createTrack();
+		long step = EventDuration.SIXTEENTH.getTicks();
+		for (int i = 0; i < 400; i++) {
+			track.add(new javax.sound.midi.MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 60 + i % 12, 100), i * step));
+			track.add(new javax.sound.midi.MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, 60 + i % 12, 0), i * step + step / 2));
+		}
+
+		AbstractSerialTransmitter nullTransmitter = new AbstractSerialTransmitter() {
+			public void transmitMidiMessage(ShortMessage sm) {}
+			public void close() {}
+		};
+		PlaybackEngine warmUp = new PlaybackEngine(nullTransmitter, 0);
+		warmUp.setTempo(25000); // 10 times faster
+		warmUp.setSequence(seq);
+		warmUp.start();
+		while (warmUp.isRunning()) Thread.sleep(100);
+
+		PlaybackEngine engine = new PlaybackEngine(nullTransmitter, 0);
+		engine.setTempo(250000); // 240 BPM
+		engine.setSequence(seq);
+		engine.start();
+		while (engine.isRunning()) Thread.sleep(100);
+		System.out.println(engine.getJitterSummary() + " (" + engine.getTimeline() + " in " + TimeUnit.NANOSECONDS.toMillis(engine.getTempoMap().tickToNanos(engine.getTimeline().getLengthTicks())) + "ms, after warm-up)");
+		long p99 = engine.getJitterPercentile(99) / 1000;
+		System.out.println(p99 < 200 ? "OK: p99 under the 200us target" : "Target missed: p99 " + p99 + "us over 200us, see testJitter() for conditions");
+	}
+}
@@ -1,53 +1,142 @@
 package model.sequencer;
 
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
 import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+import model.ModuleParameter;
 /**
  * SequenceThemis
  * 
+ * Editing operations apply to every TrackThemis, except addEvent() which adds to the first one ;
+ * they can be undone as a whole with undo().
+ *
+ * Tempo events are compiled into a TempoMap once, when first needed ; setTempo() then updates it incrementally.
+ *
+ * Module parameters get automated by AutomationLane's, played along with the sequence by an AutomationPlayer.
  */
 
 public class SequenceThemis extends Sequence {
  
+	private final List<TrackThemis> tracksThemis = new ArrayList<TrackThemis>();
+	private final ArrayDeque<List<TrackThemis>> history = new ArrayDeque<List<TrackThemis>>(); // tracks edited by each operation
+	private TempoMap tempoMap; // null until first needed
+	private volatile AutomationLane[] automationLanes = new AutomationLane[0]; // copy on write, read by AutomationPlayer's
 
 	public SequenceThemis(float divisionType, int resolution) throws InvalidMidiDataException {
 		super(divisionType, resolution);
-		// TODO Auto-generated constructor stub
 	}
 	
 	public SequenceThemis(float divisionType, int resolution, int numTracks) throws InvalidMidiDataException {
 		super(divisionType, resolution, numTracks);
-		// TODO Auto-generated constructor stub
+		for (Track t : tracks) tracksThemis.add(new TrackThemis(t, resolution));
 	}
 
 	
 	public TrackThemis createTrackThemis() {
 		
-		return new TrackThemis(createTrack());		
+		TrackThemis t = new TrackThemis(createTrack(), getResolution());
+		tracksThemis.add(t);
+		return t;
 		
 	}  
 
 	
 	public boolean deleteTrackThemis(TrackThemis trackThemis) {
 		
-		//return deleteTrack(trackThemis(t));		
-		return false;
+		if (!tracksThemis.remove(trackThemis)) return false;
+		for (List<TrackThemis> edited : history) edited.remove(trackThemis);
+		return deleteTrack(trackThemis.getTrack());
 	} 
 
 	
 	public TrackThemis[] getTracksThemis() {
 		
-		//return new TrackThemis(getTracks());
-		return null;
+		return tracksThemis.toArray(new TrackThemis[tracksThemis.size()]);
 		
 	}   
 	
 	public float getDivisionTypeThemis() {
 		
-		//return getDivisionType(trackThemis(t));
-		return 0.0f;
+		return getDivisionType();
 		
+	}
+
+	/**
+	 * @return a timeline built straight from the event stores of every TrackThemis, ready for a PlaybackEngine
+	 */
+	public CompiledTimeline compile() {
+
+		EventStore[] stores = new EventStore[tracksThemis.size()];
+		for (int i = 0; i < stores.length; i++) stores[i] = tracksThemis.get(i).getEventStore();
+		return CompiledTimeline.compile(getTempoMap(), -1, stores);
+	}
+
+	/**
+	 * @return a new, empty automation lane for the given parameter
+	 */
+	public synchronized AutomationLane createAutomationLane(ModuleParameter<?> parameter) {
+
+		AutomationLane lane = new AutomationLane(parameter);
+		AutomationLane[] lanes = Arrays.copyOf(automationLanes, automationLanes.length + 1);
+		lanes[lanes.length - 1] = lane;
+		automationLanes = lanes;
+		return lane;
+	}
+
+	public synchronized boolean deleteAutomationLane(AutomationLane lane) {
+
+		List<AutomationLane> lanes = new ArrayList<AutomationLane>(Arrays.asList(automationLanes));
+		if (!lanes.remove(lane)) return false;
+		automationLanes = lanes.toArray(new AutomationLane[lanes.size()]);
+		return true;
+	}
+
+	public AutomationLane[] getAutomationLanes() {
+		return automationLanes.clone();
+	}
+
+	/*
+	 * the current lanes, not to be modified ; a new array after every change
+	 */
+	AutomationLane[] automationLanes() {
+		return automationLanes;
+	}
+
+	/**
+	 * @return the tempo map of this sequence, built from its tempo events the first time
+	 */
+	public TempoMap getTempoMap() {
+
+		if (tempoMap == null) tempoMap = TempoMap.fromSequence(this);
+		return tempoMap;
+	}
+
+	/**
+	 * Sets the tempo from the given tick up to the next tempo change, by adding or replacing a tempo event in the first track.
+	 * The tempo map only gets its affected segment recomputed.
+	 * @param microsPerQuarter e.g. 500000 for 120 BPM
+	 */
+	public void setTempo(long tick, long microsPerQuarter) {
+
+		tempoMap = getTempoMap().withTempo(tick, microsPerQuarter);
+		if (tracks.isEmpty()) createTrackThemis();
+		Track t = tracks.get(0);
+		for (int i = 0; i < t.size(); i++) {
+			MidiEvent e = t.get(i);
+			if (e.getTick() == tick && TempoMap.isTempo(e.getMessage())) {
+				t.remove(e);
+				break;
+			}
+		}
+		t.add(new MidiEvent(TempoMap.createTempoMessage(microsPerQuarter), tick));
 	} 
 	
 	
@@ -72,17 +161,19 @@ public class SequenceThemis extends Sequence {
 	 * add a midi event
 	 */
 	public void addEvent(int startTick, EventDuration length, EventType type, int data1, int data2) {
-		//if (type == NOTE) {
-			
-		//}
+		if (tracksThemis.isEmpty()) createTrackThemis();
+		TrackThemis t = tracksThemis.get(0);
+		t.addEvent(startTick, length, type == EventType.NOTE ? TrackThemis.EventType.NOTE : TrackThemis.EventType.CC, data1, data2);
+		edited(t);
 }
 	
 	/**
 	 * deleteEvent
-	 * delete a midi event
+	 * delete every midi event at the given tick
 	 */
 	public void deleteEvent(int selectTick) {
-		//TODO
+		for (TrackThemis t : tracksThemis) t.deleteEvent(selectTick);
+		edited();
 	}
 	
 	/**
@@ -90,23 +181,26 @@ public class SequenceThemis extends Sequence {
 	 * delete many midi events
 	 */
 	public void deleteEvent(int selectTick, EventDuration selection) {
-		//TODO
+		for (TrackThemis t : tracksThemis) t.deleteEvent(selectTick, selection);
+		edited();
 	}
 	
 	/**
 	 * moveEvent
-	 * move a midi event
+	 * move every midi event at the given tick
 	 */
-	public void moveEvent(int selectTick) {
-		//TODO
+	public void moveEvent(int selectTick, int deltaTicks) {
+		for (TrackThemis t : tracksThemis) t.moveEvent(selectTick, deltaTicks);
+		edited();
 	}
 	
 	/**
 	 * moveEvent
 	 * move many midi events
 	 */
-	public void moveEvent(int selectTick, EventDuration selection) {
-		//TODO
+	public void moveEvent(int selectTick, EventDuration selection, int deltaTicks) {
+		for (TrackThemis t : tracksThemis) t.moveEvent(selectTick, selection, deltaTicks);
+		edited();
 	}
 	
 	/**
@@ -114,7 +208,8 @@ public class SequenceThemis extends Sequence {
 	 * quantize whole line
 	 */
 	public void quantize(EventDuration step) {
-		//TODO
+		for (TrackThemis t : tracksThemis) t.quantize(step);
+		edited();
 	}
 	
 	/**
@@ -122,7 +217,8 @@ public class SequenceThemis extends Sequence {
 	 * quantize selected part
 	 */
 	public void quantize(EventDuration step, int selectedTick, EventDuration selection) {
-		//TODO
+		for (TrackThemis t : tracksThemis) t.quantize(step, selectedTick, selection);
+		edited();
 	}
 
 	/**
@@ -130,7 +226,8 @@ public class SequenceThemis extends Sequence {
 	 * randomize whole line (r�utiliser move)
 	 */
 	public void randomize(EventDuration range) {
-		// TODO
+		for (TrackThemis t : tracksThemis) t.randomize(range);
+		edited();
 	}
 
 	/**
@@ -138,7 +235,58 @@ public class SequenceThemis extends Sequence {
 	 * randomize selected part
 	 */
 	public void randomize(EventDuration range, int selectedTick, EventDuration selection) {
-		// TODO
+		for (TrackThemis t : tracksThemis) t.randomize(range, selectedTick, selection);
+		edited();
+	}
+
+	/**
+	 * groove
+	 * quantize whole line with the given settings, see GrooveQuantizer.preview() to audition them first
+	 */
+	public void groove(GrooveQuantizer quantizer) {
+		for (TrackThemis t : tracksThemis) t.groove(quantizer);
+		edited();
+	}
+
+	/**
+	 * groove
+	 * quantize selected part with the given settings
+	 */
+	public void groove(GrooveQuantizer quantizer, int selectedTick, EventDuration selection) {
+		for (TrackThemis t : tracksThemis) t.groove(quantizer, selectedTick, selection);
+		edited();
+	}
+
+	/**
+	 * Adds recorded events to the given track, as one editing operation, see OverdubRecorder.
+	 * @param lengths length in ticks of each note, 0 for other events
+	 */
+	public void overdub(TrackThemis track, long[] ticks, int[] packedMessages, int[] lengths, int count) {
+		if (count <= 0) return;
+		track.overdub(ticks, packedMessages, lengths, count);
+		edited(track);
+	}
+
+	/**
+	 * undo
+	 * undo the last editing operation made through this sequence
+	 * @return false if there's nothing left to undo
+	 */
+	public boolean undo() {
+		List<TrackThemis> edited = history.pollLast();
+		if (edited == null) return false;
+		for (TrackThemis t : edited) t.undo();
+		return true;
+	}
+
+	// -------------- private methods --------------
+
+	private void edited(TrackThemis... edited) {
+		List<TrackThemis> l = new ArrayList<TrackThemis>();
+		if (edited.length == 0) l.addAll(tracksThemis);
+		else for (TrackThemis t : edited) l.add(t);
+		history.addLast(l);
+		while (history.size() > TrackThemis.MAX_UNDO) history.pollFirst();
 	}
 
 }
@@ -2,11 +2,14 @@ package model.sequencer;
 
 import java.util.*;
 import javax.sound.midi.*;
+
+import model.serial.AbstractSerialTransmitter;
 import static model.sequencer.NoteDuration.*;
 
 public class SequencerThemis {
 	
 	private ArrayList<Sequence> sequences;
+	private PlaybackEngine engine;
 	private Sequence activeSequence; // y o ncessairemin lo une sequince qu'est actsive meme tsi spovidzin lo
 	
 		
@@ -41,6 +44,27 @@ public class SequencerThemis {
 		}		
 	}
 	
+	/**
+	 * Plays the active sequence in a loop, straight to the given transmitter, on MIDI channel 0.
+	 * The sequence is compiled when this method is called, hence later changes are not heard until the next call.
+	 */
+	public void play(AbstractSerialTransmitter transmitter) {
+		
+		stop();
+		engine = new PlaybackEngine(transmitter, 0);
+		engine.setSequence(activeSequence);
+		engine.setLooping(true);
+		engine.start();
+	}
+	
+	/**
+	 * Stops playing, if playing.
+	 */
+	public void stop() {
+		
+		if (engine != null) engine.stop();
+	}
+	
 	/**
 	 * 
 	 * @author alex_
@@ -97,7 +121,9 @@ public class SequencerThemis {
 		
 		SequencerThemis st = new SequencerThemis();
 		st.addNote(0, 0, WHOLE, 40, 100);		
-		st.testPlay();
+		st.play(new model.serial.DebugTransmitter());
+		Thread.sleep(5000);
+		st.stop();
 	} 
 
 }
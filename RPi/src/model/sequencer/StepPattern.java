@@ -0,0 +1,175 @@
+package model.sequencer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A step sequencer pattern of 16 steps by 4 rows, laid out as the PerformancePad grid.
+ *
+ * Each cell is packed into 16 bits, and the 4 rows of a step into a single long, so that the playback thread reads
+ * a whole step atomically, while cells get edited from any thread by compare-and-set, without locking:
+ *
+ * bit 15: on
+ * bits 14-8: velocity (1-127)
+ * bits 7-0: gate length in 1/16 of a step (1-255, i.e. up to almost 16 steps)
+ *
+ * Velocity and gate are kept while a cell is off, so that toggling it back on restores them.
+ *
+ * @author reynal
+ *
+ */
+public final class StepPattern {
+
+	public static final int STEPS = 16;
+	public static final int ROWS = 4;
+	public static final int GATE_PER_STEP = 16; // gate units in a step
+	public static final int MAX_GATE = 255;
+	public static final int DEFAULT_VELOCITY = 100;
+	public static final int DEFAULT_GATE = GATE_PER_STEP / 2;
+
+	private static final int CELL_BITS = 16;
+	private static final long CELL_MASK = 0xFFFF;
+	private static final int EMPTY_CELL = packCell(false, DEFAULT_VELOCITY, DEFAULT_GATE);
+
+	private final AtomicLongArray steps = new AtomicLongArray(STEPS);
+
+	// -------------- constructors --------------
+
+	public StepPattern() {
+		clear();
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * @return the packed cells of every row at the given step, see getCell(long, int)
+	 */
+	public long getStep(int step) {
+		return steps.get(step);
+	}
+
+	public int getCell(int step, int row) {
+		return getCell(steps.get(step), row);
+	}
+
+	/**
+	 * Replaces a cell.
+	 * @param cell see packCell()
+	 */
+	public void setCell(int step, int row, int cell) {
+
+		checkRow(row);
+		int shift = row * CELL_BITS;
+		long old, updated;
+		do {
+			old = steps.get(step);
+			updated = (old & ~(CELL_MASK << shift)) | ((cell & CELL_MASK) << shift);
+		} while (!steps.compareAndSet(step, old, updated));
+	}
+
+	/**
+	 * Switches a cell on or off ; when switching it on, sets its velocity too.
+	 * @return true if the cell is now on
+	 */
+	public boolean toggle(int step, int row, int velocity) {
+
+		checkRow(row);
+		int shift = row * CELL_BITS;
+		long old, updated;
+		int cell;
+		do {
+			old = steps.get(step);
+			cell = getCell(old, row);
+			cell = isOn(cell) ? packCell(false, getVelocity(cell), getGate(cell)) : packCell(true, velocity, getGate(cell));
+			updated = (old & ~(CELL_MASK << shift)) | ((long)cell << shift);
+		} while (!steps.compareAndSet(step, old, updated));
+		return isOn(cell);
+	}
+
+	/**
+	 * Changes the gate of a cell, keeping it on or off.
+	 * @param gate in 1/16 of a step, see GATE_PER_STEP
+	 */
+	public void setGate(int step, int row, int gate) {
+
+		checkRow(row);
+		int shift = row * CELL_BITS;
+		long old, updated;
+		do {
+			old = steps.get(step);
+			int cell = getCell(old, row);
+			cell = packCell(isOn(cell), getVelocity(cell), gate);
+			updated = (old & ~(CELL_MASK << shift)) | ((long)cell << shift);
+		} while (!steps.compareAndSet(step, old, updated));
+	}
+
+	/**
+	 * Copies the given pattern step by step ; each step gets copied atomically, not the pattern as a whole.
+	 */
+	public void copyFrom(StepPattern other) {
+
+		for (int s = 0; s < STEPS; s++) steps.set(s, other.steps.get(s));
+	}
+
+	/**
+	 * Switches every cell off, with default velocity and gate.
+	 */
+	public void clear() {
+
+		long step = 0;
+		for (int r = 0; r < ROWS; r++) step |= (long)EMPTY_CELL << (r * CELL_BITS);
+		for (int s = 0; s < STEPS; s++) steps.set(s, step);
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuilder sb = new StringBuilder("StepPattern");
+		for (int r = 0; r < ROWS; r++) {
+			sb.append("\n\t");
+			for (int s = 0; s < STEPS; s++) sb.append(isOn(getCell(s, r)) ? 'x' : '.');
+		}
+		return sb.toString();
+	}
+
+	// -------------- static methods --------------
+
+	/**
+	 * @param velocity from 1 to 127
+	 * @param gate in 1/16 of a step, from 1 to 255
+	 * @return the given cell packed into 16 bits
+	 */
+	public static int packCell(boolean on, int velocity, int gate) {
+
+		velocity = Math.max(1, Math.min(127, velocity));
+		gate = Math.max(1, Math.min(MAX_GATE, gate));
+		return (on ? 0x8000 : 0) | velocity << 8 | gate;
+	}
+
+	/**
+	 * @param packedStep see getStep()
+	 */
+	public static int getCell(long packedStep, int row) {
+		return (int)((packedStep >>> (row * CELL_BITS)) & CELL_MASK);
+	}
+
+	public static boolean isOn(int cell) {
+		return (cell & 0x8000) != 0;
+	}
+
+	public static int getVelocity(int cell) {
+		return (cell >> 8) & 0x7F;
+	}
+
+	/**
+	 * @return the gate in 1/16 of a step
+	 */
+	public static int getGate(int cell) {
+		return cell & 0xFF;
+	}
+
+	// -------------- private methods --------------
+
+	private static void checkRow(int row) {
+		if (row < 0 || row >= ROWS) throw new IndexOutOfBoundsException("Row: " + row);
+	}
+}
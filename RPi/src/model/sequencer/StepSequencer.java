@@ -0,0 +1,399 @@
+package model.sequencer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.ShortMessage;
+
+import controller.event.PadEvent;
+import controller.event.PadEventListener;
+import model.serial.AbstractSerialTransmitter;
+
+/**
+ * A 16 step, 4 row sequencer, edited from the PerformancePad (one pad per step and row, see PerformancePad.addStepSequencer())
+ * and playing sixteenth notes straight to a serial transmitter.
+ *
+ * A bank of StepPattern's can be chained, one bar each ; setChain() and queuePattern() take effect at the next bar boundary,
+ * so that switching patterns never breaks the groove. Edits go to the edited pattern, see setEditedPattern().
+ *
+ * The playback thread parks until shortly before each step is due, then spins, as PlaybackEngine does ; step times are
+ * accumulated from the first one, not from the time the previous step was actually played, hence lateness doesn't drift.
+ * Patterns are read one atomic step at a time and settings through volatile fields, so editing while playing needs no lock.
+ *
+ * @author reynal
+ *
+ */
+public class StepSequencer implements PadEventListener {
+
+	private static final Logger LOGGER = Logger.getLogger("confLogger");
+
+	public static final int PATTERN_COUNT = 16;
+	public static final int[] DEFAULT_ROW_KEYS = {36, 38, 42, 46}; // GM drums: kick, snare, closed hi-hat, open hi-hat
+	private static final long SPIN_NANOS = 200000; // see PlaybackEngine
+	private static final long NONE = Long.MIN_VALUE;
+
+	private final StepPattern[] patterns = new StepPattern[PATTERN_COUNT];
+	private final int midiChannel;
+	private volatile AbstractSerialTransmitter transmitter;
+	private volatile int[] rowKeys = DEFAULT_ROW_KEYS.clone(); // copy on write
+	private volatile long stepNanos = 125000000; // a sixteenth at 120 BPM
+	private volatile int[] chain = {0}; // copy on write, a new array is picked up at the next bar
+	private volatile int editedPattern;
+	private volatile int currentPattern;
+	private volatile int currentStep = -1; // -1 if stopped
+	private volatile boolean running;
+	private Thread thread;
+
+	// playback thread only:
+	private final long[] offNanos = new long[StepPattern.ROWS]; // when each row's sounding note ends, NONE if not sounding
+	private final int[] offKeys = new int[StepPattern.ROWS];
+	private final ShortMessage message = new ShortMessage();
+
+	// -------------- constructors --------------
+
+	/**
+	 * @param transmitter where notes get sent to ; may be null and set later
+	 * @param midiChannel 0 to 15
+	 */
+	public StepSequencer(AbstractSerialTransmitter transmitter, int midiChannel) {
+
+		this.transmitter = transmitter;
+		this.midiChannel = midiChannel;
+		for (int i = 0; i < PATTERN_COUNT; i++) patterns[i] = new StepPattern();
+	}
+
+	// -------------- public methods --------------
+
+	public void setTransmitter(AbstractSerialTransmitter transmitter) {
+		this.transmitter = transmitter;
+	}
+
+	public StepPattern getPattern(int index) {
+		return patterns[index];
+	}
+
+	/**
+	 * @param index the pattern pads edit, whether it's playing or not
+	 */
+	public void setEditedPattern(int index) {
+
+		checkPattern(index);
+		editedPattern = index;
+	}
+
+	public int getEditedPattern() {
+		return editedPattern;
+	}
+
+	/**
+	 * Plays the given patterns one bar each, over and over, starting at the next bar boundary (or at start()).
+	 */
+	public void setChain(int... patternIndexes) {
+
+		if (patternIndexes.length == 0) throw new IllegalArgumentException("Empty chain");
+		for (int i : patternIndexes) checkPattern(i);
+		chain = patternIndexes.clone();
+	}
+
+	/**
+	 * @return a copy of the current chain
+	 */
+	public int[] getChain() {
+		return chain.clone();
+	}
+
+	/**
+	 * Switches to the given pattern at the next bar boundary ; same as setChain(index).
+	 */
+	public void queuePattern(int index) {
+		setChain(index);
+	}
+
+	/**
+	 * @param key the MIDI note played by the given row
+	 */
+	public void setRowKey(int row, int key) {
+
+		int[] keys = rowKeys.clone();
+		keys[row] = key & 0x7F;
+		rowKeys = keys;
+	}
+
+	public int getRowKey(int row) {
+		return rowKeys[row];
+	}
+
+	/**
+	 * Takes effect at the next step.
+	 * @param microsPerQuarter e.g. 500000 for 120 BPM
+	 */
+	public void setTempo(long microsPerQuarter) {
+
+		if (microsPerQuarter <= 0) throw new IllegalArgumentException("Invalid tempo: " + microsPerQuarter);
+		stepNanos = microsPerQuarter * 1000 / 4;
+	}
+
+	/**
+	 * @return the duration of a step (a sixteenth) in nanoseconds
+	 */
+	public long getStepNanos() {
+		return stepNanos;
+	}
+
+	/**
+	 * @return the step being played, from 0 to 15, or -1 if stopped
+	 */
+	public int getCurrentStep() {
+		return currentStep;
+	}
+
+	/**
+	 * @return the pattern being played, or the first one of the chain if stopped
+	 */
+	public int getCurrentPattern() {
+		return running ? currentPattern : chain[0];
+	}
+
+	/**
+	 * Starts playing the chain from its first pattern, on a dedicated thread.
+	 */
+	public synchronized void start() {
+
+		if (running) return;
+		running = true;
+		thread = new Thread(this::playbackLoop, "Step sequencer");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Stops playing, sending note offs of sounding notes, and waits for the playback thread to exit.
+	 */
+	public synchronized void stop() {
+
+		if (!running) return;
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		thread = null;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Pad pressed: switches the cell of the edited pattern at the pad's column (step) and row on or off, with the pad velocity.
+	 */
+	@Override
+	public void padEventOccured(int packedEvent) {
+
+		if (!PadEvent.isPress(packedEvent)) return;
+		toggle(PadEvent.getColumn(packedEvent), PadEvent.getRow(packedEvent), PadEvent.getVelocity(packedEvent));
+	}
+
+	/**
+	 * Switches a cell of the edited pattern on or off.
+	 * @return true if it's now on
+	 */
+	public boolean toggle(int step, int row, int velocity) {
+		return patterns[editedPattern].toggle(step, row, velocity);
+	}
+
+	/**
+	 * Switches a cell of the edited pattern on, with the next gate length among a quarter, half, full step and two steps.
+	 */
+	public void cycleGate(int step, int row) {
+
+		StepPattern p = patterns[editedPattern];
+		int cell = p.getCell(step, row);
+		int gate = StepPattern.getGate(cell);
+		int next = gate < StepPattern.GATE_PER_STEP / 4 ? StepPattern.GATE_PER_STEP / 4
+				: gate < StepPattern.GATE_PER_STEP / 2 ? StepPattern.GATE_PER_STEP / 2
+				: gate < StepPattern.GATE_PER_STEP ? StepPattern.GATE_PER_STEP
+				: gate < 2 * StepPattern.GATE_PER_STEP ? 2 * StepPattern.GATE_PER_STEP
+				: StepPattern.GATE_PER_STEP / 4;
+		p.setCell(step, row, StepPattern.packCell(true, StepPattern.getVelocity(cell), next));
+	}
+
+	@Override
+	public String toString() {
+		return "StepSequencer[chain=" + Arrays.toString(chain) + ", edited=" + editedPattern + (running ? ", playing step " + currentStep : "") + "]";
+	}
+
+	// -------------- private methods --------------
+
+	/*
+	 * playback thread
+	 */
+	private void playbackLoop() {
+
+		Arrays.fill(offNanos, NONE);
+		int[] playedChain = chain;
+		int chainPos = 0;
+		long due = System.nanoTime();
+		try {
+			while (running) {
+				// bar boundary: pick the next pattern, or the first one of a new chain
+				int[] c = chain;
+				if (c != playedChain) {
+					playedChain = c;
+					chainPos = 0;
+				}
+				currentPattern = playedChain[chainPos];
+				chainPos = (chainPos + 1) % playedChain.length;
+
+				StepPattern pattern = patterns[currentPattern];
+				for (int step = 0; step < StepPattern.STEPS && running; step++) {
+					long len = stepNanos;
+					if (!waitUntil(due)) break;
+					currentStep = step;
+					playStep(pattern.getStep(step), due, len);
+					due += len;
+				}
+			}
+		}
+		finally {
+			for (int r = 0; r < offNanos.length; r++) releaseRow(r);
+			currentStep = -1;
+		}
+	}
+
+	/*
+	 * playback thread: parks then spins until the given time, sending note offs that fall due in the meantime ;
+	 * returns false if stopped
+	 */
+	private boolean waitUntil(long due) {
+
+		while (running) {
+			long now = System.nanoTime();
+			long nextOff = Long.MAX_VALUE;
+			for (int r = 0; r < offNanos.length; r++) {
+				if (offNanos[r] == NONE) continue;
+				if (offNanos[r] - now <= 0) releaseRow(r);
+				else nextOff = Math.min(nextOff, offNanos[r]);
+			}
+			if (due - now <= 0) return true;
+			long remaining = Math.min(due - now, nextOff - now);
+			if (remaining > SPIN_NANOS) LockSupport.parkNanos(remaining - SPIN_NANOS);
+			// else spin
+		}
+		return false;
+	}
+
+	/*
+	 * playback thread
+	 */
+	private void playStep(long packedStep, long due, long len) {
+
+		int[] keys = rowKeys;
+		for (int r = 0; r < StepPattern.ROWS; r++) {
+			int cell = StepPattern.getCell(packedStep, r);
+			if (!StepPattern.isOn(cell)) continue;
+			releaseRow(r); // a tied note gets re-triggered
+			offKeys[r] = keys[r];
+			offNanos[r] = due + len * StepPattern.getGate(cell) / StepPattern.GATE_PER_STEP;
+			sendNote(ShortMessage.NOTE_ON, keys[r], StepPattern.getVelocity(cell));
+		}
+	}
+
+	/*
+	 * playback thread
+	 */
+	private void releaseRow(int row) {
+
+		if (offNanos[row] == NONE) return;
+		offNanos[row] = NONE;
+		sendNote(ShortMessage.NOTE_OFF, offKeys[row], 0);
+	}
+
+	/*
+	 * playback thread
+	 */
+	private void sendNote(int command, int key, int velocity) {
+
+		AbstractSerialTransmitter tx = transmitter;
+		if (tx == null) return;
+		try {
+			message.setMessage(command, midiChannel, key, velocity);
+			tx.transmitMidiMessage(message);
+		} catch (InvalidMidiDataException | IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void checkPattern(int index) {
+		if (index < 0 || index >= PATTERN_COUNT) throw new IndexOutOfBoundsException("Pattern: " + index);
+	}
+
+	// -------------- test --------------
+
+	/**
+	 * Plays pattern 0 (kick on every step) then queues pattern 1 (snare on every step) in the middle of a bar
+	 * while another thread keeps editing pattern 2 ; checks that the switch happens at a bar boundary,
+	 * that note on/off are balanced, and prints how far notes are from their ideal drift-free times.
+	 */
+	public static void main(String[] args) throws Exception {
+
+		int n = 200;
+		long[] times = new long[n];
+		int[] keys = new int[n];
+		int[] count = new int[1];
+		int[] balance = new int[1];
+		AbstractSerialTransmitter recordingTransmitter = new AbstractSerialTransmitter() {
+			public void transmitMidiMessage(ShortMessage sm) {
+				if (sm.getCommand() == ShortMessage.NOTE_OFF) {
+					balance[0]--;
+					return;
+				}
+				balance[0]++;
+				if (count[0] < n) {
+					times[count[0]] = System.nanoTime();
+					keys[count[0]++] = sm.getData1();
+				}
+			}
+			public void close() {}
+		};
+
+		StepSequencer seq = new StepSequencer(recordingTransmitter, 0);
+		seq.setTempo(250000); // 240 BPM, 62.5ms per step
+		for (int s = 0; s < StepPattern.STEPS; s++) {
+			seq.getPattern(0).toggle(s, 0, 100);
+			seq.getPattern(1).toggle(s, 1, 100);
+		}
+		seq.setEditedPattern(2);
+		Thread editor = new Thread(() -> {
+			java.util.Random random = new java.util.Random(0);
+			while (!Thread.currentThread().isInterrupted()) seq.toggle(random.nextInt(16), random.nextInt(4), 64);
+		});
+		editor.setDaemon(true);
+		editor.start();
+
+		seq.start();
+		Thread.sleep(1500); // 1.5 bars
+		seq.queuePattern(1);
+		while (count[0] < n) Thread.sleep(50);
+		seq.stop();
+		editor.interrupt();
+
+		int switchIndex = -1;
+		for (int i = 0; i < n; i++) if (keys[i] == DEFAULT_ROW_KEYS[1]) { switchIndex = i; break; }
+		long step = seq.getStepNanos();
+		long[] late = new long[n];
+		for (int i = 0; i < n; i++) late[i] = times[i] - (times[0] + i * step);
+		long drift = late[n - 1];
+		Arrays.sort(late);
+		System.out.println("Switched to pattern 1 at step " + switchIndex + ", note on/off balance " + balance[0]);
+		System.out.println("Lateness over " + n + " steps: p50=" + late[n / 2] / 1000 + "us max=" + late[n - 1] / 1000 + "us, last step: " + drift / 1000 + "us");
+		System.out.println(switchIndex > 0 && switchIndex % StepPattern.STEPS == 0 && balance[0] == 0 ? "OK" : "FAILED");
+		LOGGER.info(seq.toString());
+	}
+}
@@ -0,0 +1,328 @@
+package model.sequencer;
+
+import java.util.Arrays;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+/**
+ * Piecewise-linear tick to nanosecond conversion, built from tempo meta events (0x51), with O(log n) lookups both ways.
+ *
+ * Each segment starts at a tempo change and stores, as an exact integer, the sum of (length x tempo) of every previous segment,
+ * hence any tick converts with a single multiplication and division, and there is no floating-point error
+ * accumulated from one segment to the next, however long the sequence.
+ *
+ * Instances are immutable, hence can be swapped under a playing engine ; withTempo() makes live tempo changes.
+ * SMPTE based maps ignore tempo altogether.
+ *
+ * @author reynal
+ *
+ */
+public final class TempoMap {
+
+	public static final long DEFAULT_MICROS_PER_QUARTER = 500000; // 120 BPM, as per the SMF spec when there's no tempo event
+	public static final int META_TEMPO = 0x51;
+
+	private final float divisionType;
+	private final int resolution;
+	private final long[] ticks; // start tick of each segment, ticks[0] == 0
+	private final long[] tempos; // microseconds per quarter in each segment
+	private final long[] products; // sum of (length x tempo) of previous segments, in tick.us per quarter, i.e., start time x resolution
+
+	// -------------- constructors --------------
+
+	private TempoMap(float divisionType, int resolution, long[] ticks, long[] tempos, long[] products) {
+
+		this.divisionType = divisionType;
+		this.resolution = resolution;
+		this.ticks = ticks;
+		this.tempos = tempos;
+		this.products = products;
+	}
+
+	/**
+	 * @return a map with a single tempo
+	 */
+	public static TempoMap constant(float divisionType, int resolution, long microsPerQuarter) {
+
+		return build(divisionType, resolution, new long[] {0}, new long[] {microsPerQuarter}, 1);
+	}
+
+	/**
+	 * Builds a map from the tempo meta events found in every track of the given sequence.
+	 */
+	public static TempoMap fromSequence(Sequence sequence) {
+
+		long[] changeTicks = new long[8], changeTempos = new long[8];
+		int n = 0;
+		for (Track t : sequence.getTracks()) {
+			for (int i = 0; i < t.size(); i++) {
+				MidiEvent e = t.get(i);
+				if (!isTempo(e.getMessage())) continue;
+				if (n == changeTicks.length) {
+					changeTicks = Arrays.copyOf(changeTicks, 2 * n);
+					changeTempos = Arrays.copyOf(changeTempos, 2 * n);
+				}
+				changeTicks[n] = e.getTick();
+				changeTempos[n] = decodeTempo(((MetaMessage)e.getMessage()).getData(), 0);
+				n++;
+			}
+		}
+		return fromChanges(sequence.getDivisionType(), sequence.getResolution(), changeTicks, changeTempos, n);
+	}
+
+	/**
+	 * Builds a map from a list of tempo changes, in any order ; a later change at the same tick replaces an earlier one.
+	 */
+	public static TempoMap fromChanges(float divisionType, int resolution, long[] changeTicks, long[] changeTempos, int count) {
+
+		// stable sort by tick:
+		long[][] pairs = new long[count][];
+		for (int i = 0; i < count; i++) pairs[i] = new long[] {changeTicks[i], changeTempos[i]};
+		Arrays.sort(pairs, (a, b) -> Long.compare(a[0], b[0]));
+
+		long[] t = new long[count + 1], tempo = new long[count + 1];
+		t[0] = 0;
+		tempo[0] = DEFAULT_MICROS_PER_QUARTER;
+		int n = 1;
+		for (long[] p : pairs) {
+			if (p[1] <= 0) continue;
+			if (p[0] == t[n - 1]) tempo[n - 1] = p[1];
+			else {
+				t[n] = p[0];
+				tempo[n] = p[1];
+				n++;
+			}
+		}
+		return build(divisionType, resolution, t, tempo, n);
+	}
+
+	private static TempoMap build(float divisionType, int resolution, long[] t, long[] tempo, int n) {
+
+		long[] products = new long[n];
+		for (int i = 1; i < n; i++) products[i] = products[i - 1] + (t[i] - t[i - 1]) * tempo[i - 1];
+		return new TempoMap(divisionType, resolution, Arrays.copyOf(t, n), Arrays.copyOf(tempo, n), products);
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * @return the time of the given tick from the start of the sequence
+	 */
+	public long tickToNanos(long tick) {
+
+		if (divisionType != Sequence.PPQ) return smpteTickToNanos(tick);
+		int i = segmentOfTick(tick);
+		return productToNanos(products[i] + (tick - ticks[i]) * tempos[i]);
+	}
+
+	/**
+	 * @return the last tick at or before the given time from the start of the sequence
+	 */
+	public long nanosToTick(long nanos) {
+
+		if (nanos <= 0) return 0;
+		if (divisionType != Sequence.PPQ) return (long)(nanos * (double)divisionType * resolution / 1e9);
+		int lo = 0, hi = ticks.length; // first segment starting after nanos
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (productToNanos(products[mid]) <= nanos) lo = mid + 1;
+			else hi = mid;
+		}
+		int i = lo - 1;
+		long t = ticks[i] + (nanos - productToNanos(products[i])) * resolution / (tempos[i] * 1000);
+		while (t > ticks[i] && tickToNanos(t) > nanos) t--; // integer rounding
+		return t;
+	}
+
+	/**
+	 * @return the tempo at the given tick, in microseconds per quarter
+	 */
+	public long getMicrosPerQuarter(long tick) {
+
+		return tempos[segmentOfTick(tick)];
+	}
+
+	/**
+	 * @return the number of constant tempo segments
+	 */
+	public int getSegmentCount() {
+		return ticks.length;
+	}
+
+	/**
+	 * @return the start tick of the given segment
+	 */
+	public long getSegmentTick(int segment) {
+		return ticks[segment];
+	}
+
+	/**
+	 * @return the tempo of the given segment, in microseconds per quarter
+	 */
+	public long getSegmentMicrosPerQuarter(int segment) {
+		return tempos[segment];
+	}
+
+	public float getDivisionType() {
+		return divisionType;
+	}
+
+	public int getResolution() {
+		return resolution;
+	}
+
+	/**
+	 * Makes a live tempo change: the tempo is the given one from the given tick up to the next tempo change.
+	 * Only the affected segment is recomputed, later segments are shifted by a constant ; times before the given tick are left unchanged.
+	 * @return a new map, this one being immutable
+	 */
+	public TempoMap withTempo(long tick, long microsPerQuarter) {
+
+		if (microsPerQuarter <= 0) throw new IllegalArgumentException("Tempo must be positive: " + microsPerQuarter);
+		if (tick < 0) throw new IllegalArgumentException("Negative tick: " + tick);
+		int i = segmentOfTick(tick);
+		int k; // index of the affected segment in the new map
+		long[] t, tempo, products;
+		if (ticks[i] == tick) {
+			if (tempos[i] == microsPerQuarter) return this;
+			t = ticks.clone();
+			tempo = tempos.clone();
+			products = this.products.clone();
+			k = i;
+		}
+		else { // split segment i
+			int n = ticks.length + 1;
+			k = i + 1;
+			t = new long[n];
+			tempo = new long[n];
+			products = new long[n];
+			System.arraycopy(ticks, 0, t, 0, k);
+			System.arraycopy(tempos, 0, tempo, 0, k);
+			System.arraycopy(this.products, 0, products, 0, k);
+			System.arraycopy(ticks, k, t, k + 1, n - k - 1);
+			System.arraycopy(tempos, k, tempo, k + 1, n - k - 1);
+			System.arraycopy(this.products, k, products, k + 1, n - k - 1);
+			t[k] = tick;
+			products[k] = this.products[i] + (tick - ticks[i]) * tempos[i];
+		}
+		tempo[k] = microsPerQuarter;
+		if (k + 1 < t.length) {
+			long delta = products[k] + (t[k + 1] - t[k]) * microsPerQuarter - products[k + 1];
+			for (int j = k + 1; j < t.length; j++) products[j] += delta;
+		}
+		return new TempoMap(divisionType, resolution, t, tempo, products);
+	}
+
+	@Override
+	public String toString() {
+		return "TempoMap[" + ticks.length + " segments, " + 60000000.0 / tempos[0] + " BPM at tick 0]";
+	}
+
+	// -------------- tempo meta events --------------
+
+	/**
+	 * @return true if the given message is a tempo meta event
+	 */
+	public static boolean isTempo(javax.sound.midi.MidiMessage message) {
+
+		return message instanceof MetaMessage && ((MetaMessage)message).getType() == META_TEMPO && ((MetaMessage)message).getData().length >= 3;
+	}
+
+	/**
+	 * @return the tempo in microseconds per quarter held in the three bytes at the given offset
+	 */
+	public static long decodeTempo(byte[] data, int offset) {
+
+		return ((data[offset] & 0xFF) << 16) | ((data[offset + 1] & 0xFF) << 8) | (data[offset + 2] & 0xFF);
+	}
+
+	/**
+	 * @return a tempo meta message for the given tempo in microseconds per quarter
+	 */
+	public static MetaMessage createTempoMessage(long microsPerQuarter) {
+
+		byte[] data = {(byte)(microsPerQuarter >> 16), (byte)(microsPerQuarter >> 8), (byte)microsPerQuarter};
+		try {
+			return new MetaMessage(META_TEMPO, data, 3);
+		} catch (javax.sound.midi.InvalidMidiDataException e) {
+			throw new IllegalStateException(e); // can't happen with a valid type and length
+		}
+	}
+
+	// -------------- private methods --------------
+
+	private int segmentOfTick(long tick) {
+
+		int lo = 0, hi = ticks.length; // first segment starting after tick
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (ticks[mid] <= tick) lo = mid + 1;
+			else hi = mid;
+		}
+		return Math.max(0, lo - 1);
+	}
+
+	/*
+	 * exact integer division of product x 1000 / resolution, without overflowing for hours long sequences
+	 */
+	private long productToNanos(long product) {
+
+		return product / resolution * 1000 + (product % resolution) * 1000 / resolution;
+	}
+
+	private long smpteTickToNanos(long tick) {
+
+		float fps = divisionType;
+		if (fps == Math.round(fps)) return tick * 1000000000L / ((long)fps * resolution);
+		return (long)(tick * 1e9 / ((double)fps * resolution));
+	}
+
+	// -------------- test --------------
+
+	/*
+	 * checks the map against a tick by tick accumulation with BigDecimal, then times lookups and live changes
+	 */
+	public static void main(String[] args) {
+
+		int res = 960, n = 2000;
+		long[] t = new long[n], tempo = new long[n];
+		java.util.Random random = new java.util.Random(1);
+		for (int i = 0; i < n; i++) {
+			t[i] = i * 4L * res + random.nextInt(res);
+			tempo[i] = 300000 + random.nextInt(700000);
+		}
+		TempoMap map = fromChanges(Sequence.PPQ, res, t, tempo, n);
+
+		// reference, exact:
+		java.math.BigDecimal time = java.math.BigDecimal.ZERO;
+		long last = 0, mpq = DEFAULT_MICROS_PER_QUARTER;
+		long maxError = 0;
+		for (int i = 0; i <= n; i++) {
+			long next = i < n ? t[i] : t[n - 1] + 100000;
+			time = time.add(java.math.BigDecimal.valueOf((next - last) * mpq * 1000).divide(java.math.BigDecimal.valueOf(res), 6, java.math.RoundingMode.FLOOR));
+			maxError = Math.max(maxError, Math.abs(time.longValue() - map.tickToNanos(next)));
+			if (map.nanosToTick(map.tickToNanos(next)) != next) throw new AssertionError("nanosToTick(tickToNanos(" + next + "))");
+			last = next;
+			if (i < n) mpq = tempo[i];
+		}
+		System.out.println(map + ": max error vs exact accumulation " + maxError + "ns over " + map.tickToNanos(last) / 1000000000 + "s");
+
+		long t0 = System.nanoTime(), sum = 0;
+		for (int i = 0; i < 1000000; i++) sum += map.tickToNanos(random.nextInt((int)last));
+		long t1 = System.nanoTime();
+		TempoMap live = map;
+		for (int i = 0; i < 1000; i++) live = live.withTempo(random.nextInt((int)last), 400000 + i);
+		long t2 = System.nanoTime();
+		System.out.println("tickToNanos: " + (t1 - t0) / 1000000 + "ns per lookup (" + (sum & 1) + "), withTempo: " + (t2 - t1) / 1000 / 1000 + "us per change on " + live.getSegmentCount() + " segments");
+
+		// a live change leaves earlier times unchanged and the rest consistent:
+		TempoMap changed = map.withTempo(t[n / 2] + 10, 250000);
+		if (changed.tickToNanos(t[n / 2] + 10) != map.tickToNanos(t[n / 2] + 10)) throw new AssertionError("Time changed before the tempo change");
+		if (!Arrays.equals(changed.products, fromChanges(Sequence.PPQ, res, Arrays.copyOf(changed.ticks, changed.ticks.length), changed.tempos, changed.ticks.length).products))
+			throw new AssertionError("Live change differs from a full rebuild");
+		System.out.println("Live changes match full rebuilds");
+	}
+}
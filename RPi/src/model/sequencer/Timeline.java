@@ -0,0 +1,53 @@
+package model.sequencer;
+
+/**
+ * A time-ordered source of MIDI short messages for a PlaybackEngine, read through cursors,
+ * so that implementations may decode events lazily as playback advances (see MappedMidiFile)
+ * or hold them in memory (see CompiledTimeline).
+ *
+ * Messages are packed as in CompiledTimeline.pack(). Implementations are immutable, hence can be swapped under a playing engine.
+ *
+ * @author reynal
+ *
+ */
+public interface Timeline {
+
+	/**
+	 * @return the length of the timeline in ticks, which may extend past its last event
+	 */
+	long getLengthTicks();
+
+	/**
+	 * @return the tick to time conversion of this timeline, built from its tempo events
+	 */
+	TempoMap getTempoMap();
+
+	/**
+	 * @return a new cursor positioned on the first event ; cursors are not thread-safe, each one must be used by a single thread
+	 */
+	Cursor openCursor();
+
+	/**
+	 * Iterates over events in tick order ; implementations must not allocate while iterating or seeking,
+	 * since cursors are used by real-time threads.
+	 */
+	interface Cursor {
+
+		/**
+		 * Moves to the first event at or after the given tick.
+		 */
+		void seek(long tick);
+
+		boolean hasNext();
+
+		/**
+		 * @return the tick of the next event ; undefined if !hasNext()
+		 */
+		long getTick();
+
+		/**
+		 * @return the packed message of the next event, and moves past it
+		 */
+		int next();
+	}
+}
@@ -1,122 +1,222 @@
 package model.sequencer;
 
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
+import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiEvent;
+import javax.sound.midi.ShortMessage;
 import javax.sound.midi.Track;
+
+import static model.sequencer.CompiledTimeline.*;
 /**
  * TrackThemis
- * 
+ *
+ * Short messages are held in an EventStore, where editing operations work on primitive arrays ;
+ * other events (meta, sysex) stay in the underlying Track, which only gets rewritten when asked for (see getTrack()).
+ * Every editing operation can be undone.
  */
 
 // cas � traiter: fin de boucle note on, d�but de boucle note off
+// -> handled at playback time by PlaybackEngine, which tracks sounding notes in ActiveNotes
 public class TrackThemis{
-	
+
 
 	// adaptor design pattern
-	
-ArrayList<TrackThemis> history;
-	
-	private Track track;
 
+	static final int MAX_UNDO = 32;
+	private final ArrayDeque<EventStore.Edit> history = new ArrayDeque<EventStore.Edit>(); // the events each edit removed, not whole copies
+
+	private final Track track;
+	private final EventStore store = new EventStore();
+	private boolean trackDirty; // store changed since the track was last rewritten
+	private final Random random = new Random();
+	private int midiChannel; // channel of events created by addEvent()
+	private final int resolution; // ticks per quarter, for EventDuration's
+
+	/**
+	 * Creates an adaptor for the given track, whose short messages get copied to the event store,
+	 * note on/off pairs becoming a single note with a length.
+	 */
 	public TrackThemis(Track t) {
+		this(t, EventDuration.TICKS_PER_QUARTER);
+	}
+
+	/**
+	 * @param resolution ticks per quarter of the sequence the track belongs to
+	 */
+	public TrackThemis(Track t, int resolution) {
 		this.track = t;
+		this.resolution = resolution;
+		importTrack();
 	}
-	
+
 	public boolean add(MidiEvent event){
-		return track.add(event);		
+		if (event.getMessage() instanceof ShortMessage) {
+			ShortMessage sm = (ShortMessage)event.getMessage();
+			store.add(event.getTick(), pack(sm.getStatus(), sm.getData1(), sm.getData2()), 0);
+			trackDirty = true;
+			history.clear(); // not an editing operation, and earlier ones can't be undone across it
+			return true;
+		}
+		return track.add(event);
 	}
-	
-	
+
+
 	public MidiEvent	get(int index){
-		return track.get(index);				
+		return getTrack().get(index);
 	}
-	
+
 	public boolean	remove(MidiEvent event){
+		if (event.getMessage() instanceof ShortMessage) {
+			ShortMessage sm = (ShortMessage)event.getMessage();
+			int p = pack(sm.getStatus(), sm.getData1(), sm.getData2());
+			for (int i = store.lowerBound(event.getTick()), end = store.upperBound(event.getTick()); i < end; i++) {
+				if (store.getMessage(i) == p) {
+					store.remove(i, i + 1);
+					trackDirty = true;
+					history.clear(); // see add()
+					return true;
+				}
+			}
+			return false;
+		}
 		return track.remove(event);
 	}
-	
-	
+
+
 	public int	size(){
-		return track.size();
+		return getTrack().size();
 	}
-	
+
 	public long	ticks(){
-		return track.ticks();
+		return getTrack().ticks();
 	}
-	
+
+	/**
+	 * @return the underlying track, after rewriting its short messages from the event store if it was edited ;
+	 * this costs O(n) MidiEvent allocations, hence is meant for export rather than playback (see getEventStore())
+	 */
+	public Track getTrack() {
+
+		if (trackDirty) {
+			List<MidiEvent> old = new ArrayList<MidiEvent>();
+			for (int i = 0; i < track.size(); i++)
+				if (track.get(i).getMessage() instanceof ShortMessage) old.add(track.get(i));
+			for (MidiEvent e : old) track.remove(e);
+
+			for (int i = 0; i < store.size(); i++) {
+				int p = store.getMessage(i);
+				try {
+					track.add(new MidiEvent(new ShortMessage(getStatus(p), getData1(p), getData2(p)), store.getTick(i)));
+					if (store.getLength(i) > 0)
+						track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, getChannel(p), getData1(p), 0), store.getTick(i) + store.getLength(i)));
+				} catch (InvalidMidiDataException e) {
+					e.printStackTrace();
+				}
+			}
+			trackDirty = false;
+		}
+		return track;
+	}
+
+	/**
+	 * @return the event store this track edits, e.g., for CompiledTimeline.compile()
+	 */
+	public EventStore getEventStore() {
+		return store;
+	}
+
+	public void setMidiChannel(int midiChannel) {
+		this.midiChannel = midiChannel;
+	}
+
 	// my own stuff
-	
+
 	public enum EventType {  // �ventuellement � sortir si on ne peut pas m�langer CC et NOTE sur une track
         NOTE,
         CC;
 	}
-	
+
 	/**
 	 * type
 	 * D�fini le message midi
 	 */
 	void type() {
-		
+
 }
-	
+
 	/**
 	 * addEvent
 	 * add a midi event
 	 */
 	public void addEvent(int startTick, EventDuration length, EventType type, int data1, int data2) {
-		//if (type == NOTE) {
-			
-		//}
+		beginEdit();
+		if (type == EventType.NOTE)
+			store.add(startTick, pack(ShortMessage.NOTE_ON | midiChannel, data1, data2), (int)length.getTicks(resolution));
+		else
+			store.add(startTick, pack(ShortMessage.CONTROL_CHANGE | midiChannel, data1, data2), 0);
+		endEdit();
 }
-	
+
 	/**
 	 * deleteEvent
-	 * delete a midi event
+	 * delete every midi event at the given tick
 	 */
 	public void deleteEvent(int selectTick) {
-		//TODO
+		deleteTicks(selectTick, 1);
 	}
-	
+
 	/**
 	 * deleteEvent
 	 * delete many midi events
 	 */
 	public void deleteEvent(int selectTick, EventDuration selection) {
-		//TODO
+		deleteTicks(selectTick, selection.getTicks(resolution));
 	}
-	
+
 	/**
 	 * moveEvent
-	 * move a midi event
+	 * move every midi event at the given tick
 	 */
-	public void moveEvent(int selectTick) {
-		//TODO
+	public void moveEvent(int selectTick, int deltaTicks) {
+		beginEdit();
+		store.move(selectTick, selectTick + 1, deltaTicks);
+		endEdit();
 	}
-	
+
 	/**
 	 * moveEvent
 	 * move many midi events
 	 */
-	public void moveEvent(int selectTick, EventDuration selection) {
-		//TODO
+	public void moveEvent(int selectTick, EventDuration selection, int deltaTicks) {
+		beginEdit();
+		store.move(selectTick, selectTick + selection.getTicks(resolution), deltaTicks);
+		endEdit();
 	}
-	
+
 	/**
 	 * quantize
 	 * quantize whole line
 	 */
 	public void quantize(EventDuration step) {
-		//TODO
+		beginEdit();
+		store.quantize(0, Long.MAX_VALUE, step.getTicks(resolution));
+		endEdit();
 	}
-	
+
 	/**
 	 * quantize
 	 * quantize selected part
 	 */
 	public void quantize(EventDuration step, int selectedTick, EventDuration selection) {
-		//TODO
+		beginEdit();
+		store.quantize(selectedTick, selectedTick + selection.getTicks(resolution), step.getTicks(resolution));
+		endEdit();
 	}
 
 	/**
@@ -124,7 +224,9 @@ ArrayList<TrackThemis> history;
 	 * randomize whole line (r�utiliser move)
 	 */
 	public void randomize(EventDuration range) {
-		// TODO
+		beginEdit();
+		store.randomize(0, Long.MAX_VALUE, range.getTicks(resolution), random);
+		endEdit();
 	}
 
 	/**
@@ -132,7 +234,161 @@ ArrayList<TrackThemis> history;
 	 * randomize selected part
 	 */
 	public void randomize(EventDuration range, int selectedTick, EventDuration selection) {
-		// TODO
+		beginEdit();
+		store.randomize(selectedTick, selectedTick + selection.getTicks(resolution), range.getTicks(resolution), random);
+		endEdit();
+	}
+
+	/**
+	 * groove
+	 * quantize whole line with the given settings (strength, swing, groove template, humanize)
+	 */
+	public void groove(GrooveQuantizer quantizer) {
+		beginEdit();
+		quantizer.apply(store, 0, Long.MAX_VALUE);
+		endEdit();
+	}
+
+	/**
+	 * groove
+	 * quantize selected part with the given settings
+	 */
+	public void groove(GrooveQuantizer quantizer, int selectedTick, EventDuration selection) {
+		beginEdit();
+		quantizer.apply(store, selectedTick, selectedTick + selection.getTicks(resolution));
+		endEdit();
+	}
+
+	/**
+	 * overdub
+	 * add recorded events in one go, as a single editing operation
+	 * @param lengths length in ticks of each note, 0 for other events
+	 */
+	public void overdub(long[] ticks, int[] packedMessages, int[] lengths, int count) {
+		if (count <= 0) return;
+		beginEdit();
+		store.addAll(ticks, packedMessages, lengths, count);
+		endEdit();
+	}
+
+	/**
+	 * undo
+	 * undo the last editing operation
+	 * @return false if there's nothing left to undo
+	 */
+	public boolean undo() {
+		EventStore.Edit e = history.pollLast();
+		if (e == null) return false;
+		store.undo(e);
+		trackDirty = true;
+		return true;
+	}
+
+	// -------------- private methods --------------
+
+	private void deleteTicks(long selectTick, long lengthTicks) {
+		beginEdit();
+		store.removeTicks(selectTick, selectTick + lengthTicks);
+		endEdit();
+	}
+
+	private void beginEdit() {
+		store.beginEdit();
+	}
+
+	private void endEdit() {
+		if (history.size() == MAX_UNDO) history.pollFirst();
+		history.addLast(store.endEdit());
+		trackDirty = true;
+	}
+
+	/*
+	 * copies short messages from the track to the store ; since the track is sorted, every add() is an append
+	 */
+	private void importTrack() {
+
+		int[] pendingNoteOn = new int[16 * 128]; // index in store of the last note on for each channel and key, -1 if none
+		Arrays.fill(pendingNoteOn, -1);
+
+		for (int i = 0; i < track.size(); i++) {
+			MidiEvent e = track.get(i);
+			if (!(e.getMessage() instanceof ShortMessage)) continue;
+			ShortMessage sm = (ShortMessage)e.getMessage();
+			int p = pack(sm.getStatus(), sm.getData1(), sm.getData2());
+			long tick = e.getTick();
+			int cmd = getCommand(p);
+			if (cmd != ShortMessage.NOTE_ON && cmd != ShortMessage.NOTE_OFF) {
+				store.add(tick, p, 0);
+				continue;
+			}
+			int key = getChannel(p) * 128 + getData1(p);
+			int on = pendingNoteOn[key];
+			if (on >= 0) { // this closes the pending note
+				pendingNoteOn[key] = -1;
+				long length = tick - store.getTick(on);
+				if (length > 0 && length <= Integer.MAX_VALUE) {
+					store.setLength(on, (int)length);
+					if (isNoteOff(p)) continue; // implicit from now on
+				}
+			}
+			int index = store.add(tick, p, 0);
+			if (!isNoteOff(p)) pendingNoteOn[key] = index;
+		}
+		// unpaired note on's are kept as raw messages
+	}
+
+	// -------------- test --------------
+
+	/*
+	 * compares range edits on a large track with a linear scan of the underlying Track
+	 */
+	public static void main(String[] args) throws Exception {
+
+		javax.sound.midi.Sequence seq = new javax.sound.midi.Sequence(javax.sound.midi.Sequence.PPQ, EventDuration.TICKS_PER_QUARTER);
+		Track t = seq.createTrack();
+		long step = EventDuration.SIXTEENTH.getTicks();
+		int n = 100000;
+		for (int i = 0; i < n; i++) {
+			t.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 40 + i % 24, 100), i * step + i % 7));
+			t.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, 40 + i % 24, 0), i * step + step / 2 + 3));
+		}
+
+		long t0 = System.nanoTime();
+		TrackThemis tt = new TrackThemis(t);
+		System.out.println("Imported " + t.size() + " MidiEvent's into " + tt.getEventStore() + " in " + (System.nanoTime() - t0) / 1000 + "us");
+
+		// one bar in the middle of the track:
+		int bar = n / 32;
+		int selectTick = (int)(bar * EventDuration.WHOLE.getTicks());
+
+		t0 = System.nanoTime();
+		int count = 0;
+		for (int i = 0; i < t.size(); i++) {
+			long tick = t.get(i).getTick();
+			if (tick >= selectTick && tick < selectTick + EventDuration.WHOLE.getTicks()) count++;
+		}
+		System.out.println("Linear scan of the Track for one bar (" + count + " events): " + (System.nanoTime() - t0) / 1000 + "us");
+
+		for (int k = 0; k < 3; k++) {
+			t0 = System.nanoTime();
+			tt.quantize(EventDuration.SIXTEENTH, selectTick, EventDuration.WHOLE);
+			long t1 = System.nanoTime();
+			tt.moveEvent(selectTick, EventDuration.WHOLE, (int)EventDuration.EIGHTH.getTicks());
+			long t2 = System.nanoTime();
+			tt.randomize(EventDuration.SIXTEENTH, selectTick, EventDuration.WHOLE);
+			long t3 = System.nanoTime();
+			tt.undo(); tt.undo(); tt.undo();
+			long t4 = System.nanoTime();
+			System.out.println("quantize=" + (t1 - t0) / 1000 + "us move=" + (t2 - t1) / 1000 + "us randomize=" + (t3 - t2) / 1000 + "us 3 x undo=" + (t4 - t3) / 1000 + "us (including undo records)");
+		}
+
+		// sanity check: the store stays sorted and round-trips through the Track
+		tt.randomize(EventDuration.QUARTER);
+		EventStore s = tt.getEventStore();
+		for (int i = 1; i < s.size(); i++) if (s.getTick(i - 1) > s.getTick(i)) throw new AssertionError("Unsorted at " + i);
+		int size = s.size();
+		TrackThemis copy = new TrackThemis(tt.getTrack());
+		System.out.println("Round trip: " + size + " -> " + copy.getEventStore().size() + " events");
 	}
 
 }
@@ -1,6 +1,7 @@
 package model.serial;
 
 import java.io.IOException;
+import java.util.*;
 import java.util.logging.Logger;
 
 import javax.sound.midi.ShortMessage;
@@ -9,20 +10,41 @@ import application.ModuleFactory;
 import model.BooleanParameter;
 import model.EnumParameter;
 import model.MIDIParameter;
+import model.ModuleParameter;
 import model.event.ModuleParameterChangeEvent;
 import model.event.ModuleParameterChangeListener;
+import misc.LatencyProbe;
 
 /**
+ * Listens to module parameter changes and transmits them to the STM32 as MIDI CC's.
+ * 
+ * In asynchronous mode, parameter changes are only queued on the thread that changed the parameter (e.g. an encoder 
+ * interrupt handler, which can then get on with updating the front pane LEDs), and a sender thread writes them to the wire.
+ * Changes to a CC that is still waiting in the queue replace the queued value, so that a fast turning knob cannot
+ * build up a backlog.
+ * 
+ * Subclasses that can receive data from the STM32 call reconcile() when the firmware reports the value it actually applied 
+ * (e.g. clamped or rejected), so that the parameter, and hence its views, follow the firmware. Reports carry the value they answer,
+ * hence a late report on a CC that has been written again since gets ignored rather than reverting the parameter.
  * 
  * @author sydxrey
  *
  */
-public abstract class AbstractSerialTransmitter implements ModuleParameterChangeListener {
+public abstract class AbstractSerialTransmitter implements ModuleParameterChangeListener, AutoCloseable {
 
 	private static final Logger LOGGER = Logger.getLogger("confLogger");
 	
+	public static final int PARAMETER_CHANNEL = 0; // MIDI channel parameter CC's are sent on
+	
+	private volatile boolean asynchronous;
+	private final LinkedHashMap<Integer, PendingMessage> pendingMessages = new LinkedHashMap<Integer, PendingMessage>(); // by CC number, in queuing order
+	private Thread senderThread;
+	private volatile Thread reconcilingThread; // thread currently applying a value reported by the firmware
+	private final int[] lastTransmitted = new int[128]; // by CC number, last value handed to the wire or -1 ; guarded by pendingMessages
+	
 	public AbstractSerialTransmitter() {
 		super();
+		Arrays.fill(lastTransmitted, -1);
 	}
 
 	/**
@@ -33,8 +55,123 @@ public abstract class AbstractSerialTransmitter implements ModuleParameterChange
 	public abstract void transmitMidiMessage(ShortMessage sm) throws IOException ;
 	
 	
+	@Override
 	public abstract void close();
 	
+	/**
+	 * Switches asynchronous mode on or off ; when switching it off, pending messages get sent first.
+	 */
+	public synchronized void setAsynchronous(boolean asynchronous) {
+		
+		if (asynchronous == this.asynchronous) return;
+		this.asynchronous = asynchronous;
+		if (asynchronous) {
+			senderThread = new Thread(this::senderLoop, "Serial sender");
+			senderThread.setDaemon(true);
+			senderThread.start();
+			LOGGER.info("Asynchronous serial transmission");
+		}
+		else {
+			synchronized (pendingMessages) {
+				pendingMessages.notifyAll();
+			}
+			try {
+				senderThread.join(1000);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			senderThread = null;
+		}
+	}
+	
+	/**
+	 * @return true if parameter changes are transmitted by a sender thread
+	 */
+	public boolean isAsynchronous() {
+		return asynchronous;
+	}
+	
+	/**
+	 * To be called when the firmware reports the value it actually applied for the given CC, which may differ from what was sent
+	 * (clamped or rejected value). If the report answers the latest value written for this CC, and no newer value is waiting 
+	 * to be sent, the associated parameter gets this value (without echoing it back to the firmware), hence its LEDs and views get corrected.
+	 * @param channel MIDI channel of the report, reports on other channels than PARAMETER_CHANNEL are ignored
+	 * @param midiCC MIDI CC number
+	 * @param requestedValue value the firmware was sent, which this report answers
+	 * @param value value applied by the firmware
+	 */
+	protected void reconcile(int channel, int midiCC, int requestedValue, int value) {
+		
+		if (channel != PARAMETER_CHANNEL || midiCC < 0 || midiCC >= lastTransmitted.length) return;
+		ModuleParameter<?> parameter = ModuleFactory.getDefault().getModuleParameter(midiCC);
+		if (parameter == null) return;
+		synchronized (pendingMessages) {
+			if (pendingMessages.containsKey(midiCC)) return; // the firmware will get (and report on) a newer value anyway
+			if (lastTransmitted[midiCC] != requestedValue) return; // stale, the report on the latest write is still to come
+		}
+		if (parameter.getValueAsMIDICode() == value) return; // accepted as is
+		LOGGER.info("Firmware applied " + value + " instead of " + parameter.getValueAsMIDICode() + " to MIDI CC" + midiCC);
+		reconcilingThread = Thread.currentThread();
+		try {
+			parameter.setValueFromMIDICode(value);
+		} finally {
+			reconcilingThread = null;
+		}
+	}
+	
+	/*
+	 * transmits the given message (or queues it in asynchronous mode), then records the latency of the physical stimulus (if any) that led to it
+	 */
+	private void transmit(ShortMessage sm) throws IOException {
+		
+		LatencyProbe.Stimulus stimulus = LatencyProbe.current();
+		if (asynchronous) {
+			synchronized (pendingMessages) {
+				PendingMessage m = pendingMessages.get(sm.getData1());
+				if (m == null) pendingMessages.put(sm.getData1(), m = new PendingMessage());
+				m.message = sm; // latest value wins
+				if (stimulus != null) m.stimuli.add(stimulus);
+				pendingMessages.notifyAll();
+			}
+			return;
+		}
+		synchronized (pendingMessages) {
+			lastTransmitted[sm.getData1()] = sm.getData2();
+		}
+		transmitMidiMessage(sm);
+		if (stimulus != null) stimulus.reached(LatencyProbe.Stage.WIRE);
+	}
+	
+	/*
+	 * sender thread ; returns once asynchronous mode is off and every pending message was sent
+	 */
+	private void senderLoop() {
+		
+		while (true) {
+			PendingMessage m;
+			synchronized (pendingMessages) {
+				while (pendingMessages.isEmpty()) {
+					if (!asynchronous) return;
+					try {
+						pendingMessages.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				Iterator<PendingMessage> it = pendingMessages.values().iterator();
+				m = it.next();
+				it.remove();
+				lastTransmitted[m.message.getData1()] = m.message.getData2(); // along with the removal, so that reports always find it either queued or sent
+			}
+			try {
+				transmitMidiMessage(m.message);
+				for (LatencyProbe.Stimulus s : m.stimuli) s.reached(LatencyProbe.Stage.WIRE);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
 
 	
 
@@ -42,6 +179,7 @@ public abstract class AbstractSerialTransmitter implements ModuleParameterChange
 	@Override
 	public void valueChanged(ModuleParameterChangeEvent e) {
 		
+		if (Thread.currentThread() == reconcilingThread) return; // the firmware already has this value
 		try {
 			Object source = e.getSource();
 			//System.out.println("SynthParameterEditEvent's source is a " + o);
@@ -55,8 +193,8 @@ public abstract class AbstractSerialTransmitter implements ModuleParameterChange
 					LOGGER.warning("ModuleParameter" + source + " has no associated MIDI CC => can't send anything to the serial bus");
 					return;
 				}
-				ShortMessage sm = new ShortMessage(ShortMessage.CONTROL_CHANGE, midiCcId, value);
-				transmitMidiMessage(sm);
+				ShortMessage sm = new ShortMessage(ShortMessage.CONTROL_CHANGE, PARAMETER_CHANNEL, midiCcId, value);
+				transmit(sm);
 				LOGGER.info("sending BooleanParameter: msg=" + ShortMessage.CONTROL_CHANGE+" " + midiCcId + " " + value);
 			}
 			
@@ -69,8 +207,8 @@ public abstract class AbstractSerialTransmitter implements ModuleParameterChange
 					LOGGER.warning("ModuleParameter" + source + " has no associated MIDI CC => can't send anything to the serial bus");
 					return;
 				}
-				ShortMessage sm = new ShortMessage(ShortMessage.CONTROL_CHANGE, midiCcId, value);
-				transmitMidiMessage(sm);
+				ShortMessage sm = new ShortMessage(ShortMessage.CONTROL_CHANGE, PARAMETER_CHANNEL, midiCcId, value);
+				transmit(sm);
 				LOGGER.info("sending MIDIParameter: msg=" + ShortMessage.CONTROL_CHANGE+" " + midiCcId + " " + value);
 			}
 			
@@ -83,8 +221,8 @@ public abstract class AbstractSerialTransmitter implements ModuleParameterChange
 					LOGGER.warning("ModuleParameter" + source + " has no associated MIDI CC => can't send anything to the serial bus");
 					return;
 				}
-				ShortMessage sm = new ShortMessage(ShortMessage.CONTROL_CHANGE, midiCCId, value);
-				transmitMidiMessage(sm);
+				ShortMessage sm = new ShortMessage(ShortMessage.CONTROL_CHANGE, PARAMETER_CHANNEL, midiCCId, value);
+				transmit(sm);
 				LOGGER.info("send EnumParameter : msg=" + ShortMessage.CONTROL_CHANGE + " " + midiCCId + " " + value);
 			}
 			else {
@@ -96,4 +234,13 @@ public abstract class AbstractSerialTransmitter implements ModuleParameterChange
 			LOGGER.warning("really nothing send \n");
 		}
 	}
+	
+	/*
+	 * a CC waiting to be sent, with the stimuli it carries
+	 */
+	private static class PendingMessage {
+		
+		ShortMessage message;
+		final List<LatencyProbe.Stimulus> stimuli = new ArrayList<LatencyProbe.Stimulus>(1);
+	}
 }
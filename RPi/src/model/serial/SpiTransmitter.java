@@ -32,9 +32,9 @@ public class SpiTransmitter extends AbstractSerialTransmitter {
 	}
 		
 	/**
-	 * transmit the given MIDI message over the SPI bus
+	 * transmit the given MIDI message over the SPI bus ; synchronized since the MIDI in handler and the sender thread may both transmit
 	 */
-	public void transmitMidiMessage(ShortMessage sm) throws IOException {
+	public synchronized void transmitMidiMessage(ShortMessage sm) throws IOException {
 		
 		spiDevice.write(sm.getMessage());
 		
@@ -67,4 +67,4 @@ public class SpiTransmitter extends AbstractSerialTransmitter {
 	}
 
 	
-}
+}
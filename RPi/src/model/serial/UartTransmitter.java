@@ -26,6 +26,8 @@ public class UartTransmitter extends AbstractSerialTransmitter {
 	private static final Logger LOGGER = Logger.getLogger("confLogger");
 	SerialPort currentPort;
 	public static final int DEFAULT_BAUD_RATE = 115200;
+	public static final int REPORT_PREFIX = 0x00; // starts a CC report, never part of console text (C strings end there)
+	private static final int REPORT_LENGTH = 4; // CC status byte, CC number, requested value, applied value
 	//public static final int[] BAUD_RATES = { 1200, 2400, 4800, 9600, 19200, 38400, 57600, 115200 };
 	
 	/**
@@ -60,7 +62,7 @@ public class UartTransmitter extends AbstractSerialTransmitter {
 	}
 	
 	@Override
-	public void transmitMidiMessage(ShortMessage sm) throws IOException {
+	public synchronized void transmitMidiMessage(ShortMessage sm) throws IOException { // MIDI in handler and sender thread may both transmit
 		
 		if (currentPort != null && currentPort.isOpen()) {
 			int n = currentPort.writeBytes(sm.getMessage(), sm.getMessage().length);
@@ -76,8 +78,19 @@ public class UartTransmitter extends AbstractSerialTransmitter {
 		LOGGER.info("Closing serial port " + currentPort);
 	}
 
+	/**
+	 * Prints data received from the STM32 in the console, except for CC reports, which the firmware sends to report 
+	 * the value it actually applied to a parameter, and which get reconciled with the local parameter value.
+	 * 
+	 * A CC report is framed as REPORT_PREFIX, a CC status byte 0xBn, the CC number, the value that was requested, then the value applied,
+	 * hence console text (including bytes 0xBn of latin-1 or UTF-8 characters) is never taken for a report.
+	 * A malformed report is printed as text.
+	 */
 	class UARTDataListener implements SerialPortDataListener {
 		
+		private final int[] report = new int[REPORT_LENGTH]; // bytes received since REPORT_PREFIX
+		private int reportLength = -1; // -1 outside a report
+		
 		@Override
 		public int getListeningEvents() {
 			return SerialPort.LISTENING_EVENT_DATA_AVAILABLE;
@@ -92,7 +105,26 @@ public class UartTransmitter extends AbstractSerialTransmitter {
 			int numRead = comPort.readBytes(newData, newData.length);
 			//printStatus("Read " + numRead + " bytes");
 			//for (int i = 0; i < numRead; i++) System.out.println("Received : 0x" + String.format("%02X (%d)", newData[i],newData[i]));
-			System.out.print(new String(newData));
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i < numRead; i++) {
+				int b = newData[i] & 0xFF;
+				if (reportLength < 0) {
+					if (b == REPORT_PREFIX) reportLength = 0;
+					else text.append((char)b);
+					continue;
+				}
+				report[reportLength++] = b;
+				boolean valid = reportLength == 1 ? (b & 0xF0) == ShortMessage.CONTROL_CHANGE : b < 0x80;
+				if (!valid) { // not a CC report after all
+					for (int j = 0; j < reportLength; j++) text.append((char)report[j]);
+					reportLength = -1;
+				}
+				else if (reportLength == REPORT_LENGTH) {
+					reconcile(report[0] & 0x0F, report[1], report[2], report[3]);
+					reportLength = -1;
+				}
+			}
+			if (text.length() > 0) System.out.print(text);
 		}
 	}
 	
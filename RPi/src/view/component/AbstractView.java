@@ -1,8 +1,9 @@
 package view.component;
 
-import javax.swing.JComponent;
+import java.io.IOException;
 
 import device.*;
+import misc.LatencyProbe;
 
 /**
  * Base abstract class for View's based on the IS31FL3731 device. 
@@ -19,6 +20,7 @@ public abstract class AbstractView implements View {
 	public final int LOW = 0;
 
 	protected IS31FL3731 is31fl3731;
+	private volatile DisplayListener displayListener;
 
 	public AbstractView(IS31FL3731 is31fl3731) { //if we want to impose the state
 		
@@ -26,6 +28,37 @@ public abstract class AbstractView implements View {
 		this.is31fl3731 = is31fl3731;
 	}	
 	
-	public abstract JComponent getUIForSimulator();
+	@Override
+	public void setDisplayListener(DisplayListener l) {
+		this.displayListener = l;
+	}
+	
+	/**
+	 * Subclasses should call this each time getDisplayString() changes.
+	 */
+	protected void fireDisplayChanged() {
+		
+		DisplayListener l = displayListener;
+		if (l != null) l.displayChanged(this);
+	}
+	
+	/**
+	 * Subclasses should call this once all LEDs of a given update have been set. 
+	 * If the device is refreshed by a LEDRefreshScheduler, this does nothing since modified LED registers will be sent 
+	 * with the next frame ; otherwise they're sent right away in as few I2C transactions as possible.
+	 * Either way, the physical stimulus (if any) that led to this update gets its latency recorded by the flush.
+	 */
+	protected void update() {
+		
+		if (is31fl3731 == null) return;
+		LatencyProbe.Stimulus stimulus = LatencyProbe.current();
+		if (stimulus != null) is31fl3731.addPendingStimulus(stimulus);
+		if (is31fl3731.isDeferredFlush()) return;
+		try {
+			is31fl3731.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 	
 }
@@ -1,12 +1,12 @@
 package view.component;
 
-import java.awt.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.logging.*;
-import javax.swing.*;
 import com.pi4j.io.i2c.I2CFactory.*;
 import device.*;
+import misc.LatencyProbe;
 import model.*;
 import model.event.*;
 
@@ -18,6 +18,10 @@ import model.event.*;
  * - integer data extending the number of leds, by virtue of PWM capability, @see model.MIDIParameter
  * - boolean data (which is a soft of enum with only two constants), @see model.BooleanParameter
  * 
+ * If a LEDRefreshScheduler is set, switchLed() only records the LED to light, and the refresh thread sweeps a dot
+ * (one LED per frame, with a dimmer trail) from the LED it currently shows to that one ; a change arriving during a sweep
+ * redirects the dot from where it is, hence turning a knob fast never restarts the animation.
+ * 
  * @author reynal
  * @author lucien
  */
@@ -26,7 +30,15 @@ public class BarGraph extends AbstractView implements ModuleParameterChangeListe
 	// --------------------- fields ---------------------
 
 	private IS31FL3731.LEDCoordinate[] ledArray; // array containing every LED that makes up this BarGraph
-	private JLabel lblForUISimulator;
+	private String displayState = "=?"; // for getDisplayString()
+	private volatile LEDRefreshScheduler sweepScheduler; // if null, no sweep when the lit LED changes
+	private final LEDRefreshScheduler.FrameListener sweepListener = this::drawSweepFrame;
+	private volatile int targetLed = -1; // LED lit by switchLed(), -1 if none
+	private final ConcurrentLinkedQueue<LatencyProbe.Stimulus> sweepStimuli = new ConcurrentLinkedQueue<LatencyProbe.Stimulus>(); // reach the LEDs with the next sweep frame
+	// refresh thread only:
+	private int sweepLed = -1; // LED the dot is on, -1 before the first switchLed()
+	private int trailLed = -1; // LED the dot just left, -1 if none
+	private static final int TRAIL_PWM = IS31FL3731.GAMMA_CORRECTION_16[8];
 	private final static Logger LOGGER = Logger.getLogger("confLogger");
 
 
@@ -87,10 +99,22 @@ public class BarGraph extends AbstractView implements ModuleParameterChangeListe
 				is31fl3731.switchLED(ledCoordinate, true); // switch on all LEDs for this bargraph
 				is31fl3731.setLEDpwm(ledCoordinate, 0); // but keep 'em at 0%
 			}
+			update();
 		}
 		
 	}
 	
+	/**
+	 * @param scheduler the scheduler that refreshes the device of this BarGraph, whose thread draws sweeps between LEDs in switchLed() ; 
+	 * null for no sweep
+	 */
+	public synchronized void setSweepScheduler(LEDRefreshScheduler scheduler) {
+		
+		if (sweepScheduler != null) sweepScheduler.removeFrameListener(sweepListener);
+		sweepScheduler = scheduler;
+		if (scheduler != null && is31fl3731 != null) scheduler.addFrameListener(sweepListener);
+	}
+	
 	/**
 	 * @return the number of LEDs in the group
 	 */
@@ -110,9 +134,17 @@ public class BarGraph extends AbstractView implements ModuleParameterChangeListe
 		
 		// hardware:
 		if (is31fl3731 != null) {
-			try {
+			if (sweepScheduler != null) { // the refresh thread takes it from here
+				LatencyProbe.Stimulus stimulus = LatencyProbe.current();
+				if (stimulus != null) sweepStimuli.add(stimulus);
+				targetLed = led;
+			}
+			else try {
+				// only the two LEDs that actually change get sent to the device:
 				for (IS31FL3731.LEDCoordinate ledCoordinate : ledArray) is31fl3731.setLEDpwm(ledCoordinate, 0);
-				is31fl3731.setLEDpwm(ledArray[led], IS31FL3731.MAX_PWM); // TODO : animate!
+				is31fl3731.setLEDpwm(ledArray[led], IS31FL3731.MAX_PWM); 
+				update();
+				targetLed = led;
 			} catch (IOException e) {
 				LOGGER.severe("Hardware error");
 				e.printStackTrace();
@@ -120,16 +152,14 @@ public class BarGraph extends AbstractView implements ModuleParameterChangeListe
 		}
 
 		// simulator:
-		if (lblForUISimulator != null) {
-			String s="";
-			for (int i=0; i<getLEDCount(); i++) {
-				if (i==led) s+="O";
-				else s+="o";
-				
-			}
-			//lblForUISimulator.setText(getSimulatorDisplayString() + " led" + ledArray[led] + " is ON");
-			lblForUISimulator.setText(getSimulatorDisplayString() + " "+s);
+		String s="";
+		for (int i=0; i<getLEDCount(); i++) {
+			if (i==led) s+="O";
+			else s+="o";
+			
 		}
+		displayState = " "+s;
+		fireDisplayChanged();
 	}
 	
 	/**
@@ -155,10 +185,11 @@ public class BarGraph extends AbstractView implements ModuleParameterChangeListe
 				else
 					is31fl3731.setLEDpwm(ledArray[led], IS31FL3731.MIN_PWM);
 			}
+			update();
 		}
 		
-		if (lblForUISimulator != null)
-			lblForUISimulator.setText(getSimulatorDisplayString() + " at " + Integer.toString(midiValue));
+		displayState = " at " + Integer.toString(midiValue);
+		fireDisplayChanged();
 	}	
 	
 	/**
@@ -170,6 +201,30 @@ public class BarGraph extends AbstractView implements ModuleParameterChangeListe
 		else switchLed(0);
 	}
 
+	/*
+	 * refresh thread: moves the dot one LED towards the LED to light, if it's not there yet
+	 */
+	private void drawSweepFrame() {
+		
+		int target = targetLed;
+		if (target >= 0 && (target != sweepLed || trailLed >= 0)) {
+			if (sweepLed < 0) sweepLed = target; // first value, nothing to sweep from
+			else if (sweepLed != target) {
+				trailLed = sweepLed;
+				sweepLed += Integer.signum(target - sweepLed);
+			}
+			else trailLed = -1; // arrived, the trail goes off
+			try {
+				for (int i = 0; i < ledArray.length; i++) 
+					is31fl3731.setLEDpwm(ledArray[i], i == sweepLed ? IS31FL3731.MAX_PWM : (i == trailLed ? TRAIL_PWM : IS31FL3731.MIN_PWM));
+			} catch (IOException e) {
+				LOGGER.severe("Hardware error");
+				e.printStackTrace();
+			}
+		}
+		for (LatencyProbe.Stimulus s; (s = sweepStimuli.poll()) != null; ) is31fl3731.addPendingStimulus(s);
+	}
+
 	/**
 	 * Listener method for parameter changes
 	 */
@@ -196,31 +251,21 @@ public class BarGraph extends AbstractView implements ModuleParameterChangeListe
 
 	// --------------------- UI ----------------------
 
-	public JComponent getUIForSimulator() {
-
-		if (lblForUISimulator == null) {
-			lblForUISimulator = new JLabel(getSimulatorDisplayString() + "=?");
-			lblForUISimulator.setForeground(Color.red);
-		}
-		return lblForUISimulator;
-
-	}
-
 	/**
 	 * for UI simulator debugging purpose
 	 */
-	private String getSimulatorDisplayString() {
+	@Override
+	public String getDisplayString() {
 		
-		return "BarGraph[" + ledArray[0] + "..." + ledArray[ledArray.length-1] +"]";
+		return "BarGraph[" + ledArray[0] + "..." + ledArray[ledArray.length-1] +"]" + displayState;
 		//return "BarGraph[" + Arrays.deepToString(ledArray) +"]";
 	}		
 	// --------------------- test ----------------------
 
 	public static void main (String args[]) throws Exception {
 
-		//test1();
-		test2();		
-		//testHeadless();
+		// UI simulator tests are in application.swing.ViewLabel
+		testHeadless();
 	}			
 	
 	// basic headless test
@@ -242,67 +287,4 @@ public class BarGraph extends AbstractView implements ModuleParameterChangeListe
 		}
 		}
 	}
-	
-	// basic test with no hardware
-	private static void test1() throws IOException {
-
-		BarGraph group = new BarGraph(null, IS31FL3731.Matrix.A, 0, 0, 4);
-		//BarGraph group = new BarGraph(null, IS31FL3731.Matrix.A, 0);
-		JFrame f = new JFrame("BarGraph test");
-		f.setSize(600,400);
-		f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		f.setLayout(new FlowLayout());
-		f.add(group.getUIForSimulator());
-		JSlider s;
-		
-		//f.add(s=new JSlider(0, group.getLEDCount()-1));
-		//s.addChangeListener(e -> group.switchLed(s.getValue()));
-		
-		f.add(s=new JSlider(0, 127));
-		s.addChangeListener(e -> {
-			try {
-				group.setValue(s.getValue());
-			} catch (IOException e1) {
-				e1.printStackTrace();
-			}
-		});
-		//f.pack();
-		f.setVisible(true);
-
-	}	
-
-	// real hardware test with Vco3340 model
-	private static void test2() throws IOException, UnsupportedBusNumberException {
-		
-		IS31FL3731 is31fl3731 = new IS31FL3731(); // if hardware connected
-		//IS31FL3731 is31fl3731 = null; // if no hardware
-
-		Vco3340AModule vco3340 = new Vco3340AModule();		
-		
-		BarGraph bar1 = new BarGraph(is31fl3731, IS31FL3731.Matrix.A, 0); // row=0
-		vco3340.getDutyParameter().addChangeListener(bar1);
-		
-		BarGraph bar2 = new BarGraph(is31fl3731, IS31FL3731.Matrix.B, 6, 0, 4); // row=6 lower
-		vco3340.getOctaveParameter().addChangeListener(bar2);
-
-		JFrame f = new JFrame("BarGraph test");
-		f.setSize(1000,400);
-		f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		f.setLayout(new GridLayout(2,3));
-		
-		f.add(new JLabel("Duty cycle:"));
-		JSlider s;
-		f.add(s=new JSlider(0, 127));
-		f.add(bar1.getUIForSimulator());
-		s.addChangeListener(e -> vco3340.getDutyParameter().setValueFromMIDICode(((JSlider)e.getSource()).getValue()));
-		
-		f.add(new JLabel("Octave:"));
-		f.add(s=new JSlider(0, 3));
-		f.add(bar2.getUIForSimulator());
-		s.addChangeListener(e -> vco3340.setOctave(Octave.values()[((JSlider)e.getSource()).getValue()]));
-
-		//f.pack();
-		f.setVisible(true);
-
-	}	
 }
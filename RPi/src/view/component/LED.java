@@ -1,12 +1,9 @@
 package view.component;
 
-import java.awt.*;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.swing.*;
-
 import com.pi4j.io.i2c.I2CFactory.UnsupportedBusNumberException;
 
 import device.IS31FL3731;
@@ -28,7 +25,7 @@ public class LED extends AbstractView implements ModuleParameterChangeListener
 	// --------------------- fields ---------------------
 
 	public final int LED_COUNT = 8;
-	private JLabel lblForUISimulator;
+	private String displayState = "OFF"; // for getDisplayString()
 	private IS31FL3731.LEDCoordinate ledCoordinate;
 	private final static Logger LOGGER = Logger.getLogger(LED.class.getName());
 
@@ -49,6 +46,7 @@ public class LED extends AbstractView implements ModuleParameterChangeListener
 		if (is31fl3731 != null) {
 			is31fl3731.switchLED(ledCoordinate, true);
 			is31fl3731.setLEDpwm(ledCoordinate, 0);
+			update();
 			LOGGER.info("LED init ok");
 		}
 	}
@@ -62,13 +60,14 @@ public class LED extends AbstractView implements ModuleParameterChangeListener
 		if (is31fl3731 != null) {
 			try {
 				is31fl3731.setLEDpwm(ledCoordinate, v ? IS31FL3731.MAX_PWM : IS31FL3731.MIN_PWM);
+				update();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 
-		if (lblForUISimulator != null) 
-			lblForUISimulator.setText(getDisplayString() + (v ? "ON":"OFF"));
+		displayState = (v ? "ON":"OFF");
+		fireDisplayChanged();
 	}
 
 	/**
@@ -82,13 +81,14 @@ public class LED extends AbstractView implements ModuleParameterChangeListener
 		if (is31fl3731 != null) {
 			try {
 				is31fl3731.setLEDpwm(ledCoordinate, 2 * midiValue);
+				update();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 
-		if (lblForUISimulator != null) 
-			lblForUISimulator.setText(getDisplayString() + Integer.toString(midiValue));
+		displayState = Integer.toString(midiValue);
+		fireDisplayChanged();
 
 	}
 
@@ -108,21 +108,13 @@ public class LED extends AbstractView implements ModuleParameterChangeListener
 
 	// --------------------- UI ----------------------
 
-	public JComponent getUIForSimulator() {
-
-		if (lblForUISimulator == null) {
-			lblForUISimulator = new JLabel(getDisplayString() + "OFF");
-		}
-		return lblForUISimulator;
-
-	}
-
 	/**
 	 * for UI simulator debugging purpose
 	 */
-	private String getDisplayString() {
+	@Override
+	public String getDisplayString() {
 
-		return "LED[" + ledCoordinate.AorB + ":" + ledCoordinate.getRow() + "," + ledCoordinate.getColumn() + "] is ";
+		return "LED[" + ledCoordinate.AorB + ":" + ledCoordinate.getRow() + "," + ledCoordinate.getColumn() + "] is " + displayState;
 	}
 
 	// --------------------- test ----------------------
@@ -132,8 +124,7 @@ public class LED extends AbstractView implements ModuleParameterChangeListener
 
 	public static void main(String args[]) throws Exception {
 
-		//test1();
-		//test2();
+		// UI simulator tests are in application.swing.ViewLabel
 		testHeadless();
 	}
 
@@ -161,58 +152,6 @@ public class LED extends AbstractView implements ModuleParameterChangeListener
 	}
 	
 	
-	// basic test for UI simulator
-	private static void test1() throws IOException {
-
-		LED led = new LED(null, new IS31FL3731.LEDCoordinate(0, 0, IS31FL3731.Matrix.A));
-		JFrame f = new JFrame("LED test");
-		f.setSize(600,200);
-		f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		f.setLayout(new FlowLayout());
-		f.add(led.getUIForSimulator());
-		JToggleButton b;
-		JSlider s;
-		f.add(b=new JToggleButton("ON/OFF"));
-		f.add(s=new JSlider(0, 127));
-		b.addActionListener(e -> led.setValue(b.isSelected()));
-		s.addChangeListener(e -> led.setValue(s.getValue()));
-		f.setVisible(true);
-
-	}
-
-	// test with Vco3340 model
-	private static void test2() throws IOException {
-
-		Vco3340AModule vco3340 = new Vco3340AModule();		
-		LED led1 = new LED(null, new IS31FL3731.LEDCoordinate(0, 0, IS31FL3731.Matrix.A));
-		LED led2 = new LED(null, new IS31FL3731.LEDCoordinate(0, 0, IS31FL3731.Matrix.A));
-		vco3340.getDetuneParameter().addChangeListener(led1);
-		vco3340.getSyncFrom13700Parameter().addChangeListener(led2);
-		JFrame f = new JFrame("LED test");
-		f.setSize(600,400);
-		f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		f.setLayout(new GridLayout(2,3));
-		
-		f.add(new JLabel("Duty cycle:"));
-		JSlider s;
-		f.add(s=new JSlider(-64, 63));
-		f.add(led1.getUIForSimulator());
-		s.addChangeListener(e -> vco3340.setDetune(s.getValue()));
-		
-		JToggleButton b;
-		f.add(new JLabel("Sync:"));
-		f.add(b=new JToggleButton("ON/OFF"));
-		f.add(led2.getUIForSimulator());
-		b.addActionListener(e -> vco3340.setSyncFrom13700(b.isSelected()));
-
-		
-		
-		
-		f.pack();
-		f.setVisible(true);
-
-	}
-
 	private static void testLucien() {
 
 		/* LED led1 = new LED(1, 1, 0); // information of B 8-LED bargraph of the
@@ -0,0 +1,152 @@
+package view.component;
+
+import device.IS31FL3731;
+import device.IS31FL3731.LEDCoordinate;
+import device.IS31FL3731.Matrix;
+
+/**
+ * An LED animation made of up to 6 frames, each giving the PWM value of a set of LEDs, that a LEDAnimator compiles into
+ * the spare frames of an IS31FL3731 device and plays in Auto Frame Play mode.
+ * LEDs that are not part of the animation keep the state they had when the animation started.
+ *
+ * Since Auto Frame Play takes over the whole device, these are full-panel effects ; effects local to a view
+ * are drawn by the LEDRefreshScheduler instead (see BarGraph).
+ *
+ * Static factory methods build the usual front pane effects.
+ *
+ * @author reynal
+ *
+ */
+public class LEDAnimation {
+
+	/** frames 0 and 1 are used for double buffering */
+	public static final int MAX_FRAME_COUNT = 6;
+
+	private final LEDCoordinate[] leds;
+	private final int[][] frames; // [frame][led] -> pwm
+	private final int frameDelayMs;
+	private final int loopCount; // 0 for endless
+	private boolean breathing;
+	private int fadeInMs, fadeOutMs, extinguishMs;
+
+	// -------------- constructors --------------
+
+	/**
+	 * @param leds the LEDs that take part in this animation
+	 * @param frames PWM values for each frame, then each LED (same order as leds)
+	 * @param frameDelayMs delay between frames, rounded by the device to a multiple of 11ms
+	 * @param loopCount number of loops, from 1 to 7, or 0 for endless looping (until LEDAnimator.stop() is called)
+	 */
+	public LEDAnimation(LEDCoordinate[] leds, int[][] frames, int frameDelayMs, int loopCount) {
+
+		if (frames.length == 0 || frames.length > MAX_FRAME_COUNT) throw new IllegalArgumentException("An animation has 1 to " + MAX_FRAME_COUNT + " frames: " + frames.length);
+		if (loopCount < 0 || loopCount > 7) throw new IllegalArgumentException("Loop count ranges from 0 to 7: " + loopCount);
+		this.leds = leds;
+		this.frames = frames;
+		this.frameDelayMs = frameDelayMs;
+		this.loopCount = loopCount;
+	}
+
+	// -------------- factories --------------
+
+	/**
+	 * A slowly breathing indicator, e.g. to show which parameter is currently selected. Loops until stopped.
+	 * @param leds the LEDs to pulse
+	 */
+	public static LEDAnimation pulse(LEDCoordinate[] leds) {
+
+		int[][] frames = new int[2][leds.length];
+		for (int i = 0; i < leds.length; i++) frames[0][i] = IS31FL3731.MAX_PWM; // frame 1 stays dark
+		LEDAnimation a = new LEDAnimation(leds, frames, 500, 0);
+		a.setBreathing(200, 200, 0);
+		return a;
+	}
+
+	/**
+	 * A left to right wipe across both matrices, then a fade out, played once at startup.
+	 */
+	public static LEDAnimation bootSplash() {
+
+		// the 16 columns of matrices A and B side by side:
+		LEDCoordinate[] leds = new LEDCoordinate[9 * 16];
+		int[] columns = new int[leds.length];
+		int i = 0;
+		for (int row = 0; row < 9; row++) {
+			for (int col = 0; col < 16; col++) {
+				leds[i] = new LEDCoordinate(row, col % 8, col < 8 ? Matrix.A : Matrix.B);
+				columns[i++] = col;
+			}
+		}
+		int[][] frames = new int[MAX_FRAME_COUNT][leds.length];
+		for (int led = 0; led < leds.length; led++) {
+			for (int f = 0; f < 4; f++) // wipe
+				if (columns[led] < (f + 1) * 4) frames[f][led] = IS31FL3731.MAX_PWM;
+			frames[4][led] = IS31FL3731.GAMMA_CORRECTION_16[10]; // then fade out
+			frames[5][led] = IS31FL3731.MIN_PWM;
+		}
+		return new LEDAnimation(leds, frames, 88, 1);
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * Enables the breathing feature of the device (smooth fade between frames) while this animation is playing.
+	 */
+	public void setBreathing(int fadeInMs, int fadeOutMs, int extinguishMs) {
+
+		this.breathing = true;
+		this.fadeInMs = fadeInMs;
+		this.fadeOutMs = fadeOutMs;
+		this.extinguishMs = extinguishMs;
+	}
+
+	public LEDCoordinate[] getLEDs() {
+		return leds;
+	}
+
+	public int getFrameCount() {
+		return frames.length;
+	}
+
+	public int getPWM(int frame, int led) {
+		return frames[frame][led];
+	}
+
+	public int getFrameDelayMs() {
+		return frameDelayMs;
+	}
+
+	/**
+	 * @return number of loops, 0 meaning endless
+	 */
+	public int getLoopCount() {
+		return loopCount;
+	}
+
+	public boolean isBreathing() {
+		return breathing;
+	}
+
+	public int getFadeInMs() {
+		return fadeInMs;
+	}
+
+	public int getFadeOutMs() {
+		return fadeOutMs;
+	}
+
+	public int getExtinguishMs() {
+		return extinguishMs;
+	}
+
+	/**
+	 * @return the time it takes the device to play this animation, or -1 if it loops endlessly
+	 */
+	public long getDurationMs() {
+
+		if (loopCount == 0) return -1;
+		int fdt = Math.max(1, Math.min(63, (int)Math.round(frameDelayMs / 11.0))); // see IS31FL3731.setAutoPlayFrameDelayTime()
+		long frameMs = fdt * 11 + (breathing ? fadeInMs + fadeOutMs + extinguishMs : 0);
+		return loopCount * frames.length * frameMs;
+	}
+}
@@ -0,0 +1,140 @@
+package view.component;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import controller.component.HashedTimerWheel;
+import device.IS31FL3731;
+import device.IS31FL3731.DisplayMode;
+import device.IS31FL3731.LEDCoordinate;
+
+/**
+ * Plays LEDAnimation's on an IS31FL3731 device, using its Auto Frame Play mode, so that once an animation has started
+ * it costs neither CPU time nor I2C traffic on the Raspberry side.
+ *
+ * Animation frames are compiled into frames 2 to 7 of the device (frames 0 and 1 being used for double buffering):
+ * each frame starts as a copy of the displayed frame, with the animated LEDs overridden. Since the device shadow only sends
+ * registers that differ from what the device already holds, replaying an animation costs little more than the LEDs that moved.
+ *
+ * While an animation is playing, LED updates keep being drawn (and flushed) into the picture frames, and show up
+ * once the device gets back to Picture Mode, which the shared timer wheel takes care of for animations that do not loop endlessly.
+ *
+ * Display modes apply to the whole device, and play() writes to the bus on the calling thread: this is meant for
+ * occasional full-panel effects such as the boot splash, not for effects triggered by parameter changes (see BarGraph).
+ *
+ * @author reynal
+ *
+ */
+public class LEDAnimator {
+
+	private static final Logger LOGGER = Logger.getLogger("confLogger");
+
+	public static final int FIRST_ANIMATION_FRAME = 2;
+
+	private final IS31FL3731 device;
+	private HashedTimerWheel.Timeout stopTimeout; // pending return to Picture Mode
+	private LEDAnimation current;
+
+	// -------------- constructors --------------
+
+	/**
+	 * @param device the device that plays animations
+	 */
+	public LEDAnimator(IS31FL3731 device) {
+		this.device = device;
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * Compiles the given animation into the spare frames of the device, and starts playing it.
+	 * A previously playing animation gets interrupted.
+	 */
+	public synchronized void play(LEDAnimation animation) throws IOException {
+
+		if (stopTimeout != null) stopTimeout.cancel();
+		stopTimeout = null;
+
+		// compile:
+		LEDCoordinate[] leds = animation.getLEDs();
+		int displayed = device.getDisplayedFrame();
+		for (int f = 0; f < animation.getFrameCount(); f++) {
+			int frame = FIRST_ANIMATION_FRAME + f;
+			device.copyFrame(displayed, frame);
+			for (int i = 0; i < leds.length; i++) {
+				device.switchLED(frame, leds[i], true);
+				device.setLEDpwm(frame, leds[i], animation.getPWM(f, i));
+			}
+		}
+		device.flush();
+
+		// then let the device play it:
+		if (animation.isBreathing()) device.setBreathControl(true, animation.getFadeOutMs(), animation.getFadeInMs(), animation.getExtinguishMs());
+		device.setAutoPlayLoopingParameters(animation.getLoopCount(), animation.getFrameCount());
+		device.setAutoPlayFrameDelayTime(animation.getFrameDelayMs());
+		device.setDisplayMode(DisplayMode.AUTO_FRAME_PLAY_MODE, FIRST_ANIMATION_FRAME);
+		current = animation;
+
+		long duration = animation.getDurationMs();
+		if (duration >= 0) {
+			stopTimeout = HashedTimerWheel.getDefault().schedule(() -> {
+				try {
+					stop(animation);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}, duration);
+		}
+	}
+
+	/**
+	 * Gets back to Picture Mode, whether the current animation was over or not.
+	 */
+	public synchronized void stop() throws IOException {
+
+		if (stopTimeout != null) stopTimeout.cancel();
+		stopTimeout = null;
+		if (current == null) return;
+		if (current.isBreathing()) device.setBreathControl(false, 0, 0, 0);
+		device.setDisplayMode(DisplayMode.PICTURE_MODE, 0); // Picture Display register still points to the front frame
+		current = null;
+	}
+
+	/**
+	 * @return true if an animation is currently being played
+	 */
+	public synchronized boolean isPlaying() {
+		return current != null;
+	}
+
+	// -------------- private methods --------------
+
+	/*
+	 * called by the timer wheel when the given animation should be over
+	 */
+	private synchronized void stop(LEDAnimation animation) throws IOException {
+
+		if (current != animation) return; // another animation has started in the meantime
+		stop();
+	}
+
+	// -------------- test methods --------------
+
+	public static void main(String[] args) throws Exception {
+
+		IS31FL3731 device = new IS31FL3731();
+		device.setDoubleBuffered(true);
+		LEDAnimator animator = new LEDAnimator(device);
+
+		LOGGER.info("Boot splash");
+		animator.play(LEDAnimation.bootSplash());
+		Thread.sleep(1000);
+
+		LEDCoordinate[] bar = new LEDCoordinate[8];
+		for (int col = 0; col < 8; col++) bar[col] = new LEDCoordinate(0, col, IS31FL3731.Matrix.B);
+		LOGGER.info("Pulse");
+		animator.play(LEDAnimation.pulse(new LEDCoordinate[] {bar[0]}));
+		Thread.sleep(5000);
+		animator.stop();
+	}
+}
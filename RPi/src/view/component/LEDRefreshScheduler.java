@@ -0,0 +1,213 @@
+package view.component;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import device.IS31FL3731;
+
+/**
+ * Refreshes the front pane LEDs at a fixed frame rate, independently of the rate at which parameters change.
+ *
+ * Once a IS31FL3731 device is attached to this scheduler, views only update the device shadow registers (i.e. the logical LED model)
+ * from within their valueChanged() method, which costs no I2C transaction ; a single refresh thread then flushes the dirty
+ * registers of every attached device once per frame. Frames where nothing changed are skipped, so that the LED related
+ * I2C traffic is bounded by the frame rate, however fast an encoder gets turned.
+ *
+ * Effects local to a view (e.g. the sweep of a BarGraph) are drawn by FrameListener's, which the refresh thread calls
+ * at the start of every frame, right before flushing ; hence they run neither on input threads nor on the playback thread,
+ * and get sent along with every other LED change of the frame.
+ *
+ * @author reynal
+ *
+ */
+public class LEDRefreshScheduler {
+
+	private static final Logger LOGGER = Logger.getLogger("confLogger");
+
+	public static final int DEFAULT_FRAME_RATE_HZ = 60;
+
+	private static LEDRefreshScheduler defaultScheduler;
+
+	private final CopyOnWriteArrayList<IS31FL3731> devices = new CopyOnWriteArrayList<IS31FL3731>();
+	private final CopyOnWriteArrayList<FrameListener> frameListeners = new CopyOnWriteArrayList<FrameListener>();
+	private volatile long periodNanos;
+	private Thread refreshThread;
+	private volatile boolean running;
+
+	// statistics:
+	private volatile long refreshedFrameCount, skippedFrameCount;
+
+	// -------------- constructors --------------
+
+	/**
+	 * @param frameRateHz number of refresh per second
+	 */
+	public LEDRefreshScheduler(int frameRateHz) {
+		setFrameRate(frameRateHz);
+	}
+
+	/**
+	 * @return a scheduler shared by every view of the front pane ; lazily created with the default frame rate
+	 */
+	public static synchronized LEDRefreshScheduler getDefault() {
+		if (defaultScheduler == null) defaultScheduler = new LEDRefreshScheduler(DEFAULT_FRAME_RATE_HZ);
+		return defaultScheduler;
+	}
+
+	// -------------- public methods --------------
+
+	/**
+	 * Sets the refresh rate ; takes effect from the next frame on.
+	 */
+	public void setFrameRate(int frameRateHz) {
+
+		if (frameRateHz <= 0) throw new IllegalArgumentException("Frame rate must be positive: " + frameRateHz);
+		periodNanos = TimeUnit.SECONDS.toNanos(1) / frameRateHz;
+	}
+
+	/**
+	 * @return the refresh rate in Hz
+	 */
+	public int getFrameRate() {
+		return (int)(TimeUnit.SECONDS.toNanos(1) / periodNanos);
+	}
+
+	/**
+	 * Makes the given device refreshed by this scheduler, and starts the refresh thread if necessary.
+	 * From now on, views no longer flush the device by themselves.
+	 */
+	public synchronized void attach(IS31FL3731 device) {
+
+		if (device == null || devices.contains(device)) return;
+		device.setDeferredFlush(true);
+		devices.add(device);
+		start();
+	}
+
+	/**
+	 * Flushes the given device one last time and stops refreshing it ; views flush it synchronously again.
+	 */
+	public synchronized void detach(IS31FL3731 device) {
+
+		if (!devices.remove(device)) return;
+		device.setDeferredFlush(false);
+		try {
+			device.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @param l called by the refresh thread at the start of every frame, until removed
+	 */
+	public void addFrameListener(FrameListener l) {
+		frameListeners.addIfAbsent(l);
+	}
+
+	public void removeFrameListener(FrameListener l) {
+		frameListeners.remove(l);
+	}
+
+	/**
+	 * Stops the refresh thread after a last refresh of every attached device.
+	 */
+	public synchronized void stop() {
+
+		running = false;
+		if (refreshThread != null) {
+			LockSupport.unpark(refreshThread);
+			try {
+				refreshThread.join(100);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			refreshThread = null;
+		}
+		refresh();
+	}
+
+	/**
+	 * @return the number of frames that led to a flush
+	 */
+	public long getRefreshedFrameCount() {
+		return refreshedFrameCount;
+	}
+
+	/**
+	 * @return the number of frames skipped because no LED had changed
+	 */
+	public long getSkippedFrameCount() {
+		return skippedFrameCount;
+	}
+
+	// -------------- private methods --------------
+
+	private void start() {
+
+		if (running) return;
+		running = true;
+		refreshThread = new Thread(this::refreshLoop, "LEDRefreshScheduler");
+		refreshThread.setDaemon(true);
+		refreshThread.start();
+		LOGGER.info("Starting LED refresh at " + getFrameRate() + "Hz");
+	}
+
+	private void refreshLoop() {
+
+		long deadline = System.nanoTime();
+		while (running) {
+
+			refresh();
+
+			deadline += periodNanos;
+			long now = System.nanoTime();
+			if (now - deadline > periodNanos) deadline = now; // we're late (e.g. bus contention): don't try to catch up
+			while ((now = System.nanoTime()) < deadline && running)
+				LockSupport.parkNanos(this, deadline - now);
+		}
+	}
+
+	/*
+	 * lets frame listeners draw, then flushes dirty devices
+	 */
+	private void refresh() {
+
+		for (FrameListener l : frameListeners) {
+			try {
+				l.drawFrame();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+		boolean flushed = false;
+		for (IS31FL3731 device : devices) {
+			if (!device.isDirty()) continue;
+			try {
+				device.flush();
+				flushed = true;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (flushed) refreshedFrameCount++;
+		else skippedFrameCount++;
+	}
+
+	// -------------- inner classes --------------
+
+	/**
+	 * Draws part of the LEDs frame by frame, e.g. an animation local to a view.
+	 */
+	public interface FrameListener {
+
+		/**
+		 * Called by the refresh thread at the start of every frame ; should only update device shadow registers,
+		 * which get flushed right after, and return quickly when there's nothing to draw.
+		 */
+		void drawFrame();
+	}
+}
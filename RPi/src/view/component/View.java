@@ -1,14 +1,31 @@
 package view.component;
 
-import javax.swing.JComponent;
-
 /**
  * Anything that can display information on the THeMiS frontpane, e.g., LCD, LEDs, etc
+ * 
+ * Views don't depend on Swing, so that the front pane can run headless ; a simulator UI 
+ * may display getDisplayString() and follow its changes through a DisplayListener (see application.swing.ViewLabel).
+ * 
  * @author sydxrey
  *
  */
 public interface View {
 	
-	public JComponent getUIForSimulator();
+	/**
+	 * @return a short human readable description of what this view currently displays
+	 */
+	public String getDisplayString();
+	
+	/**
+	 * Sets the listener notified after each change of getDisplayString(), or null to remove it.
+	 */
+	public void setDisplayListener(DisplayListener l);
 
+	/**
+	 * Notified, from any thread, after the display string of a view changed.
+	 */
+	public interface DisplayListener {
+		
+		void displayChanged(View source);
+	}
 }
@@ -32,6 +32,8 @@ public class ViewFactory {
 	private static final Logger LOGGER = Logger.getLogger("confLogger");
 	
 	private IS31FL3731 device;
+	private LEDAnimator animator; // plays full-panel effects, e.g. the boot splash
+	private LEDRefreshScheduler refreshScheduler; // the one that refreshes the device, if any ; draws BarGraph sweeps
 	private HashSet<IS31FL3731.LEDCoordinate> allocatedLedsA = new HashSet<IS31FL3731.LEDCoordinate>(); // IS31FL3731 first matrix (=72 leds)
 	private HashSet<IS31FL3731.LEDCoordinate> allocatedLedsB = new HashSet<IS31FL3731.LEDCoordinate>(); // second matrix (72 leds)
 		
@@ -41,6 +43,22 @@ public class ViewFactory {
 	public ViewFactory(IS31FL3731 device) {		
 		this.device = device;		
 		if (device == null) LOGGER.warning("Creating a ViewFactory with no IS31FL3731 attached");
+		else animator = new LEDAnimator(device);
+	}
+	
+	/**
+	 * @return the animator that plays LED animations on the device of this factory, or null if there's no device
+	 */
+	public LEDAnimator getAnimator() {
+		return animator;
+	}
+	
+	/**
+	 * @param scheduler the scheduler the device of this factory is attached to, whose thread animates BarGraph's created from now on ;
+	 * null for no animation
+	 */
+	public void setRefreshScheduler(LEDRefreshScheduler scheduler) {
+		this.refreshScheduler = scheduler;
 	}
 	
 	
@@ -87,6 +105,7 @@ public class ViewFactory {
 
 		// parameter -> bar graph
 		BarGraph barGraph = new BarGraph(device, AorB, row);
+		barGraph.setSweepScheduler(refreshScheduler);
 		if (synthParameter != null) synthParameter.addChangeListener(barGraph);
 		return barGraph;
 	}
@@ -120,6 +139,7 @@ public class ViewFactory {
 		}
 		
 		BarGraph ledGroup = new BarGraph(device, AorB, row, colStart, ledCount);
+		ledGroup.setSweepScheduler(refreshScheduler);
 		if (synthParameter != null) synthParameter.addChangeListener(ledGroup);
 		return ledGroup;
 	}
@@ -0,0 +1,63 @@
+package view.touchscreen;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A base class for TouchScreenView's that need to ask for repainting, e.g. when a ModuleParameter they display changes,
+ * and that load their images from src/resources/img.
+ * 
+ * @author reynal
+ *
+ */
+public abstract class AbstractTouchScreenView implements TouchScreenView {
+
+	private static final Logger LOGGER = Logger.getLogger("confLogger");
+	private static final String IMAGE_DIR = "resources/img/";
+	
+	private volatile RepaintListener repaintListener;
+	
+	@Override
+	public void setRepaintListener(RepaintListener l) {
+		this.repaintListener = l;
+	}
+	
+	/**
+	 * Asks the hosting TouchScreen, if any, to repaint the whole view ; may be called from any thread.
+	 */
+	protected void repaint() {
+		repaint(null);
+	}
+
+	/**
+	 * Asks the hosting TouchScreen, if any, to repaint the given region ; may be called from any thread.
+	 * @param region in the view coordinate system, i.e., inside the [-0.5,0.5]x[-0.5,0.5] square ; null for the whole view
+	 */
+	protected void repaint(Rectangle2D region) {
+		RepaintListener l = repaintListener;
+		if (l != null) l.repaintRequested(region);
+	}
+	
+	/**
+	 * Synchronously loads the given image from the classpath, or from the src/ directory as a fallback.
+	 * @param name file name in resources/img, e.g. "3340.png"
+	 * @return null if the image could not be read
+	 */
+	protected static BufferedImage loadImage(String name) {
+		
+		try {
+			URL url = AbstractTouchScreenView.class.getResource("/" + IMAGE_DIR + name);
+			if (url != null) return ImageIO.read(url);
+			return ImageIO.read(new File("src/" + IMAGE_DIR + name));
+		} catch (IOException e) {
+			LOGGER.warning("Can't load image " + name + ": " + e);
+			return null;
+		}
+	}
+}
@@ -2,30 +2,22 @@ package view.touchscreen;
 
 import java.awt.Graphics2D;
 import java.awt.Image;
-import java.awt.Toolkit;
-import java.awt.geom.AffineTransform;
 import java.awt.image.ImageObserver;
 
-import javax.swing.JTextArea;
-
 /**
  * a default implementation of TouchScreenView that displays an animated THeMiS logo. 
  * 
  * @author reynal
  *
  */
-public class DefaultView implements TouchScreenView {
+public class DefaultView extends AbstractTouchScreenView {
 
 	private Image image;
-	private JTextArea textArea1; // ,textArea2,textArea3,textArea4;
 	//private JPanel layout;
 	//private double animTheta;
 	
 	public DefaultView() {
-		image = Toolkit.getDefaultToolkit().getImage("src/resources/img/LoaderLogo.png");
-		textArea1 = new JTextArea();
-		textArea1.setDragEnabled(true);
-		textArea1.setText("texte 1");
+		image = loadImage("LoaderLogo.png");
 	}
 
 	@Override
@@ -38,10 +30,7 @@ public class DefaultView implements TouchScreenView {
 		g2.clip(new Ellipse2D.Double(0.3*Math.sin(0.24*animTheta)-.25,0.3*Math.cos(0.4*animTheta)-.25,.5,.5));
 		*/
 		
-		// display logo:
-		AffineTransform at = AffineTransform.getTranslateInstance(-0.5, 0.5); // image rendering is always referenced to upper left corner => need translation
-		at.scale(1.0/image.getWidth(io), -1.0/image.getHeight(io)); // let's scale down the image so that it is a 1 by 1 square !
-		g2.drawImage(image, at, io);
+		// logo is the background image, drawn by the hosting TouchScreen
 		
 		/*
 		// display animated shapes:		
@@ -55,6 +44,11 @@ public class DefaultView implements TouchScreenView {
 	}
 
 
+	@Override
+	public Image getBackgroundImage() {
+		return image;
+	}
+
 	@Override
 	public boolean isAnimated() {
 		return false;
@@ -0,0 +1,77 @@
+package view.touchscreen;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.util.List;
+
+import misc.LatencyMonitor;
+import misc.LatencyProbe;
+import misc.LatencyProbe.Stage;
+
+/**
+ * Displays the rolling latency percentiles of every front panel control that has recorded at least one sample, 
+ * i.e. the time from the physical edge to the LED flush and to the serial write, one line per control,
+ * with a bar showing p50 (solid) and p99 (outline) on a fixed scale.
+ * 
+ * @author reynal
+ *
+ */
+public class LatencyView implements TouchScreenView {
+
+	private static final double FULL_SCALE_MS = 50; // bar length
+	private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+	private static final Color[] STAGE_COLORS = {Color.orange, Color.cyan}; // LED, WIRE
+	
+	private final LatencyMonitor monitor;
+	
+	/**
+	 * @param monitor the monitor whose probes get displayed, usually LatencyMonitor.getDefault()
+	 */
+	public LatencyView(LatencyMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	@Override
+	public void render(Graphics2D g2, double scaleX, double scaleY, ImageObserver io) {
+
+		// back to pixel units, y axis pointing down, origin at the upper left corner:
+		AffineTransform saved = g2.getTransform();
+		g2.scale(1.0 / scaleX, 1.0 / scaleY);
+		double width = Math.abs(scaleX), height = Math.abs(scaleY);
+		g2.translate(-width / 2, -height / 2);
+		g2.setStroke(new BasicStroke(1));
+		g2.setFont(FONT);
+		int lineHeight = g2.getFontMetrics().getHeight();
+		
+		int y = lineHeight;
+		g2.setPaint(Color.lightGray);
+		g2.drawString("edge to LED / wire latency (p50 solid, p99 outline, full scale " + (int)FULL_SCALE_MS + "ms)", 5, y);
+		
+		List<LatencyProbe> probes = monitor.getProbes();
+		double barX = width / 2, barWidth = width / 2 - 10;
+		for (LatencyProbe p : probes) {
+			if (p.getCount(Stage.LED) == 0 && p.getCount(Stage.WIRE) == 0) continue;
+			y += lineHeight;
+			g2.setPaint(Color.white);
+			g2.drawString(p.getName(), 5, y);
+			for (Stage stage : Stage.values()) {
+				y += lineHeight;
+				g2.setPaint(STAGE_COLORS[stage.ordinal()]);
+				g2.drawString("  " + p.getSummary(stage), 5, y);
+				if (p.getCount(stage) == 0) continue;
+				double p50 = Math.min(1, p.getPercentile(stage, 50) / 1e6 / FULL_SCALE_MS);
+				double p99 = Math.min(1, p.getPercentile(stage, 99) / 1e6 / FULL_SCALE_MS);
+				g2.fill(new Rectangle2D.Double(barX, y - lineHeight + 3, p50 * barWidth, lineHeight - 4));
+				g2.draw(new Rectangle2D.Double(barX, y - lineHeight + 3, p99 * barWidth, lineHeight - 4));
+			}
+			if (y > height) break; // no room left
+		}
+		g2.setTransform(saved);
+	}
+
+	@Override
+	public boolean isAnimated() {
+		return true; // percentiles keep changing
+	}
+}
@@ -1,12 +1,16 @@
 package view.touchscreen;
 
 import java.awt.*;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.*;
 
 /**
  * An interface for rendering graphics in the touch screen pane. Any class that implements
  * this interface can be plugged into TouchScreen using the setView() method.
  * 
+ * The hosting TouchScreen only repaints when needed: the static background image (if any) is scaled once and cached, 
+ * and render() gets called when the view asks for it through its RepaintListener, or periodically while isAnimated() returns true.
+ * 
  * @author SR
  *
  */
@@ -21,6 +25,9 @@ public interface TouchScreenView {
 	 * Scaling factors are also provided as argument in case reverse-scaling is necessary, for
 	 * example when displaying text (in which case it might be useful to scale down the font metric).
 	 * 
+	 * The background image has already been drawn when this method is called, and the graphic context may be clipped
+	 * to the region that actually needs repainting.
+	 * 
 	 * @param g2 the graphic context
 	 * @param scaleX the x-scaling factor that has been applied to the coordinate system before this method was called
 	 * @param scaleY the y-scaling factor that has been applied to the coordinate system before this method was called
@@ -29,9 +36,34 @@ public interface TouchScreenView {
 	void render(Graphics2D g2, double scaleX, double scaleY, ImageObserver io);
 	
 	/**
-	 * @return true if this view is animated ; might be used by the hosting TouchScreen to trigger a timer and call the render() method
-	 * on a regular basis.
+	 * @return true as long as this view keeps changing by itself, e.g. during an animation ; 
+	 * the hosting TouchScreen then calls render() on a regular basis, and stops doing so as soon as this method returns false.
 	 */
 	boolean isAnimated();
 
+	/**
+	 * @return an image that fills the whole view below whatever render() draws, or null if none ; 
+	 * the hosting TouchScreen scales it once to the screen size and caches it, hence it should never change.
+	 */
+	default Image getBackgroundImage() {
+		return null;
+	}
+	
+	/**
+	 * Called by the hosting TouchScreen when this view gets displayed, and with a null argument when it gets hidden.
+	 * Views that change over time (e.g. following a ModuleParameter) should notify the given listener.
+	 */
+	default void setRepaintListener(RepaintListener l) {
+	}
+
+	/**
+	 * Lets a view tell its host that (part of) it needs repainting ; may be called from any thread.
+	 */
+	interface RepaintListener {
+		
+		/**
+		 * @param region the region to repaint, in the view coordinate system (see render()), or null for the whole view
+		 */
+		void repaintRequested(Rectangle2D region);
+	}
 }
@@ -1,6 +1,7 @@
 package view.touchscreen;
 
 import application.ModuleFactory;
+import misc.LatencyMonitor;
 
 /**
  * A factory that can build model views for the Raspberry touch screen.
@@ -14,6 +15,7 @@ public class TouchScreenViewFactory {
 	private Vco13700View vco13700View;
 	private VcaView vcaView;
 	private VcfView vcfView;
+	private LatencyView latencyView;
 	
 	public TouchScreenViewFactory(ModuleFactory f) {
 
@@ -21,6 +23,7 @@ public class TouchScreenViewFactory {
 		vco3340View = new Vco3340View(f.getVco3340A());
 		vcfView = new VcfView(f.getVcf());
 		vcaView = new VcaView(f.getVca());	
+		latencyView = new LatencyView(LatencyMonitor.getDefault());
 	}
 
 	public Vco3340View getVco3340View() {
@@ -39,5 +42,9 @@ public class TouchScreenViewFactory {
 		return vcfView;
 	}
 
+	public LatencyView getLatencyView() {
+		return latencyView;
+	}
+
 	
 }
@@ -5,18 +5,12 @@ import java.awt.geom.*;
 import java.awt.image.*;
 import model.VcaModule;
 
-public class VcaView implements TouchScreenView{
+public class VcaView extends AbstractTouchScreenView {
 	
 	private Image imageEnveloppe;
 	
 	public VcaView(VcaModule model){
-		imageEnveloppe = Toolkit.getDefaultToolkit().getImage("src/resources/img/Enveloppe Mode.png");
-		model.getVelocitySensitivityParameter().addChangeListener(e -> updateVelocitySensitivityParameterView());
-		
-	}
-	
-	private void updateVelocitySensitivityParameterView() {
-		
+		imageEnveloppe = loadImage("Enveloppe Mode.png");
 	}
 
 	@Override
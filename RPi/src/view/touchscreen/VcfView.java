@@ -14,42 +14,27 @@ import model.VcfModule;
  * @author bastien
  *
  */
-public class VcfView implements TouchScreenView{
+public class VcfView extends AbstractTouchScreenView {
 
 	private Image imageVCF;
 	private VcfModule model;
 	
 	public VcfView(VcfModule model){
 		this.model = model;
-		imageVCF = Toolkit.getDefaultToolkit().getImage("src/resources/img/Filter Mode 1.png");
-		// or Image image = new ImageIcon(this.getClass().getResource("/images/img.png")).
-		
-		model.getCutoffParameter().addChangeListener(e -> updateCutoffParameterView());
-		model.getResonanceParameter().addChangeListener(e -> updateResonanceParameterView());
-		model.getKbdTrackingParameter().addChangeListener(e -> updateKbdTrackingParameterView());
-		model.getEgDepthParameter().addChangeListener(e -> updateEgDepthParameterView());
-	}
-
-	private void updateEgDepthParameterView() {
-	}
-
-	private void updateKbdTrackingParameterView() {
-	}
-
-	private void updateResonanceParameterView() {
-	}
-
-	private void updateCutoffParameterView() {
+		imageVCF = loadImage("Filter Mode 1.png");
 	}
 
 	@Override
 	public void render(Graphics2D g2, double scaleX, double scaleY, ImageObserver io) {
-		AffineTransform at = AffineTransform.getTranslateInstance(-0.5, 0.5); // image rendering is always referenced to upper left corner => need translation
-		at.scale(1.0/imageVCF.getWidth(io), -1.0/imageVCF.getHeight(io)); // let's scale down the image so that it is a 1 by 1 square !
-		g2.drawImage(imageVCF, at, io);
+		// background only, drawn by the hosting TouchScreen
 		
 	}
 	
+	@Override
+	public Image getBackgroundImage() {
+		return imageVCF;
+	}
+
 	@Override
 	public boolean isAnimated() {
 		return false;